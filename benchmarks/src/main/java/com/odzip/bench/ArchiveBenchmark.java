@@ -0,0 +1,121 @@
+package com.odzip.bench;
+
+import com.odzip.CompressionLevel;
+import com.odzip.OdzArchiveReader;
+import com.odzip.OdzArchiveWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Packing and extracting a tree of many small files with the blocks compressed, and
+ * the entries extracted, on the common pool against the same work on the calling thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ArchiveBenchmark {
+    private static final Executor CALLER = Runnable::run;
+    
+    @Param({"json"})
+    public String kind;
+    
+    @Param({"32"})
+    public int sizeMiB;
+    
+    @Param({"2000"})
+    public int files;
+    
+    private Path tree;
+    private Path archive;
+    private Path output;
+    
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        tree = Files.createTempDirectory("odz-archive");
+        archive = Files.createTempFile("odz-archive", ".odza");
+        output = Files.createTempDirectory("odz-archive-out");
+        byte[] data = Corpus.generate(kind, sizeMiB << 20);
+        int fileSize = data.length / files;
+        for (int i = 0; i < files; i++) {
+            Path dir = tree.resolve("module" + i % 20);
+            Files.createDirectories(dir);
+            Files.write(dir.resolve("artifact" + i), Arrays.copyOfRange(data, i * fileSize, (i + 1) * fileSize));
+        }
+        pack(ForkJoinPool.commonPool(), archive);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        delete(tree);
+        delete(output);
+        Files.delete(archive);
+    }
+    
+    private static void delete(Path root) throws IOException {
+        try (Stream<Path> walk = Files.walk(root)) {
+            for (Path path : (Iterable<Path>)walk.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+    
+    private long pack(Executor executor, Path target) throws IOException {
+        try (OdzArchiveWriter writer = new OdzArchiveWriter(new BufferedOutputStream(Files.newOutputStream(target), 1 << 16),
+                                                            CompressionLevel.DEFAULT, 1 << 21, executor)) {
+            writer.add(tree, "tree");
+        }
+        return Files.size(target);
+    }
+    
+    private long extract(Executor executor) throws IOException {
+        try (OdzArchiveReader reader = new OdzArchiveReader(archive)) {
+            reader.extractAll(output, executor);
+            return reader.entries().size();
+        }
+    }
+    
+    @Benchmark
+    public long packParallel() throws IOException {
+        return pack(ForkJoinPool.commonPool(), output.resolve("packed.odza"));
+    }
+    
+    @Benchmark
+    public long packSerial() throws IOException {
+        return pack(CALLER, output.resolve("packed.odza"));
+    }
+    
+    @Benchmark
+    public long extractParallel() throws IOException {
+        return extract(ForkJoinPool.commonPool());
+    }
+    
+    @Benchmark
+    public long extractSerial() throws IOException {
+        return extract(CALLER);
+    }
+}
@@ -0,0 +1,83 @@
+package com.odzip.bench;
+
+import com.odzip.OdzAsync;
+import com.odzip.OdzFiles;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * File-to-file throughput of OdzAsync, which overlaps reading, compressing on the common
+ * pool and writing, against OdzFiles, which does each in turn on the calling thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class AsyncFileBenchmark {
+    
+    @Param({"logs"})
+    public String kind;
+    
+    @Param({"64"})
+    public int sizeMiB;
+    
+    private Path input;
+    private Path compressed;
+    private Path output;
+    
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        input = Files.createTempFile("odz-async", ".raw");
+        compressed = Files.createTempFile("odz-async", ".odz");
+        output = Files.createTempFile("odz-async", ".out");
+        Files.write(input, Corpus.generate(kind, sizeMiB << 20));
+        OdzFiles.compress(input, compressed);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.delete(input);
+        Files.delete(compressed);
+        Files.delete(output);
+    }
+    
+    @Benchmark
+    public long compressAsync() {
+        return OdzAsync.compress(input, output).join();
+    }
+    
+    @Benchmark
+    public long compressFiles() throws IOException {
+        OdzFiles.compress(input, output);
+        return Files.size(output);
+    }
+    
+    @Benchmark
+    public long decompressAsync() {
+        return OdzAsync.decompress(compressed, output).join();
+    }
+    
+    @Benchmark
+    public long decompressFiles() throws IOException {
+        OdzFiles.decompress(compressed, output);
+        return Files.size(output);
+    }
+}
@@ -0,0 +1,146 @@
+package com.odzip.bench;
+
+import com.odzip.Compressor;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs the benchmarks with the GC profiler and writes a summary that can be tracked over time.
+ * 
+ * Usage: {@code java -cp benchmarks.jar com.odzip.bench.BenchmarkRunner [jmh options]}
+ * 
+ * Besides JMH's own JSON (jmh-result.json), writes odz-bench-results.json with one entry
+ * per benchmark and parameter set: throughput in MB/s, allocation in bytes per operation
+ * and per second, and the compression ratio of the input. The summary path can be changed
+ * with -Dodz.bench.output=path.
+ */
+public final class BenchmarkRunner {
+    
+    private BenchmarkRunner() {
+        // Utility class
+    }
+    
+    public static void main(String[] args) throws Exception {
+        Path output = Paths.get(System.getProperty("odz.bench.output", "odz-bench-results.json"));
+        Path raw = output.toAbsolutePath().resolveSibling("jmh-result.json");
+        
+        ChainedOptionsBuilder options = new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .resultFormat(ResultFormatType.JSON)
+            .result(raw.toString());
+        if (args.length == 0) {
+            options.include(CodecBenchmark.class.getSimpleName());
+        }
+        
+        Collection<RunResult> results = new Runner(options.build()).run();
+        writeSummary(results, output);
+        System.out.println("Summary written to " + output.toAbsolutePath());
+    }
+    
+    private static void writeSummary(Collection<RunResult> results, Path output) throws IOException {
+        Map<String, Double> ratios = new HashMap<>();
+        try (Writer w = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            w.write("[\n");
+            boolean first = true;
+            for (RunResult result : results) {
+                BenchmarkParams params = result.getParams();
+                long bytesPerOp = bytesPerOp(params);
+                double score = result.getPrimaryResult().getScore();
+                
+                w.write(first ? "  {" : ",\n  {");
+                first = false;
+                field(w, "benchmark", params.getBenchmark(), true);
+                w.write(", \"params\": {");
+                boolean firstParam = true;
+                for (String key : params.getParamsKeys()) {
+                    field(w, key, params.getParam(key), firstParam);
+                    firstParam = false;
+                }
+                w.write("}");
+                number(w, "opsPerSecond", score);
+                if (bytesPerOp > 0) {
+                    number(w, "mbPerSecond", score * bytesPerOp / 1e6);
+                }
+                Result allocNorm = secondary(result, "gc.alloc.rate.norm");
+                if (allocNorm != null) {
+                    number(w, "allocBytesPerOp", allocNorm.getScore());
+                }
+                Result allocRate = secondary(result, "gc.alloc.rate");
+                if (allocRate != null) {
+                    number(w, "allocMbPerSecond", allocRate.getScore());
+                }
+                String kind = params.getParam("kind");
+                if (kind != null && bytesPerOp > 0) {
+                    String level = params.getParam("level") != null ? params.getParam("level") : "6";
+                    String key = kind + "/" + bytesPerOp + "/" + level;
+                    if (params.getBenchmark().contains("DictionaryBenchmark")) {
+                        key += params.getBenchmark().endsWith("WithDictionary") ? "/dictionary" : "/messages";
+                    }
+                    Double ratio = ratios.get(key);
+                    if (ratio == null && params.getBenchmark().contains("DictionaryBenchmark")) {
+                        // Ratio over many small messages, with a dictionary for the dictionary variants
+                        ratio = DictionaryBenchmark.ratio(kind, (int)bytesPerOp, params.getBenchmark().endsWith("WithDictionary"));
+                    } else if (ratio == null) {
+                        byte[] data = Corpus.generate(kind, (int)bytesPerOp);
+                        byte[] compressed = Compressor.compressSimple(data, ParserBenchmark.level(level));
+                        ratio = (double)data.length / compressed.length;
+                        ratios.put(key, ratio);
+                    }
+                    number(w, "ratio", ratio);
+                }
+                w.write("}");
+            }
+            w.write("\n]\n");
+        }
+    }
+    
+    /**
+     * Input bytes processed by one operation, from the size or sizeMiB parameter
+     */
+    private static long bytesPerOp(BenchmarkParams params) {
+        if (params.getParam("size") != null) {
+            return Long.parseLong(params.getParam("size"));
+        }
+        if (params.getParam("sizeMiB") != null) {
+            return Long.parseLong(params.getParam("sizeMiB")) << 20;
+        }
+        return 0;
+    }
+    
+    private static Result secondary(RunResult result, String label) {
+        Map<String, Result> secondary = result.getSecondaryResults();
+        Result r = secondary.get(label);
+        // Older JMH versions prefix profiler results with a middle dot
+        return r != null ? r : secondary.get("·" + label);
+    }
+    
+    private static void field(Writer w, String name, String value, boolean first) throws IOException {
+        if (!first) {
+            w.write(", ");
+        }
+        w.write("\"" + name + "\": \"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"");
+    }
+    
+    private static void number(Writer w, String name, double value) throws IOException {
+        w.write(String.format(Locale.ROOT, ", \"%s\": %.4f", name, value));
+    }
+}
@@ -0,0 +1,87 @@
+package com.odzip.bench;
+
+import com.odzip.CompressionLevel;
+import com.odzip.Decompressor;
+import com.odzip.OdzInputStream;
+import com.odzip.OdzOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming compression and decompression with and without CRC32C checksums, to measure
+ * what checking costs on compressible and incompressible input.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class ChecksumBenchmark {
+    
+    @Param({"logs", "random"})
+    public String kind;
+    
+    @Param({"1048576", "16777216"})
+    public int size;
+    
+    @Param({"false", "true"})
+    public boolean checksum;
+    
+    private byte[] data;
+    private byte[] compressed;
+    private final byte[] chunk = new byte[65536];
+    
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        data = Corpus.generate(kind, size);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OdzOutputStream odzOut = new OdzOutputStream(out, CompressionLevel.DEFAULT, -1, checksum)) {
+            odzOut.write(data);
+        }
+        compressed = out.toByteArray();
+    }
+    
+    @Benchmark
+    public OutputStream compress() throws IOException {
+        OutputStream sink = OutputStream.nullOutputStream();
+        try (OdzOutputStream odzOut = new OdzOutputStream(sink, CompressionLevel.DEFAULT, -1, checksum)) {
+            odzOut.write(data);
+        }
+        return sink;
+    }
+    
+    @Benchmark
+    public long decompress() throws IOException {
+        long total = 0;
+        try (InputStream in = new OdzInputStream(new ByteArrayInputStream(compressed))) {
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                total += n;
+            }
+        }
+        return total;
+    }
+    
+    @Benchmark
+    public byte[] decompressSimple() {
+        return Decompressor.decompressSimple(compressed);
+    }
+}
@@ -0,0 +1,110 @@
+package com.odzip.bench;
+
+import com.odzip.CompressionLevel;
+import com.odzip.Compressor;
+import com.odzip.Decompressor;
+import com.odzip.OdzInputStream;
+import com.odzip.OdzOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded throughput of the byte[] and stream APIs over the generated corpus.
+ * 
+ * Run with -p level=1,6,9 to compare compression levels.
+ * Scores are operations per second over one input of the given size;
+ * {@link BenchmarkRunner} converts them to MB/s and adds compression ratios.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    
+    @Param({"text", "json", "logs", "binary", "random", "zeros"})
+    public String kind;
+    
+    @Param({"4096", "65536", "1048576", "16777216"})
+    public int size;
+    
+    @Param({"6"})
+    public int level;
+    
+    private CompressionLevel compressionLevel;
+    private byte[] data;
+    private byte[] compressed;
+    private final byte[] readBuffer = new byte[8192];
+    
+    @Setup(Level.Trial)
+    public void setup() {
+        data = Corpus.generate(kind, size);
+        compressionLevel = CompressionLevel.of(level);
+        compressed = Compressor.compressSimple(data, compressionLevel);
+    }
+    
+    @Benchmark
+    public byte[] compressSimple() {
+        return Compressor.compressSimple(data, compressionLevel);
+    }
+    
+    @Benchmark
+    public byte[] decompressSimple() {
+        return Decompressor.decompressSimple(compressed);
+    }
+    
+    @Benchmark
+    public long outputStream() throws IOException {
+        CountingOutputStream sink = new CountingOutputStream();
+        try (OdzOutputStream out = new OdzOutputStream(sink, compressionLevel)) {
+            out.write(data);
+        }
+        return sink.count;
+    }
+    
+    @Benchmark
+    public long inputStream() throws IOException {
+        long total = 0;
+        try (InputStream in = new OdzInputStream(new ByteArrayInputStream(compressed))) {
+            int bytesRead;
+            while ((bytesRead = in.read(readBuffer)) != -1) {
+                total += bytesRead;
+            }
+        }
+        return total;
+    }
+    
+    /**
+     * Discards output so the benchmark measures the encoder rather than buffer growth
+     */
+    static final class CountingOutputStream extends OutputStream {
+        long count;
+        
+        @Override
+        public void write(int b) {
+            count++;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.odzip.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Deterministic benchmark inputs. The same kind and size always produce the same bytes.
+ */
+public final class Corpus {
+    public static final String[] KINDS = {"text", "json", "logs", "binary", "random", "zeros", "mixed"};
+    
+    private static final String[] WORDS = {
+        "the", "of", "and", "to", "in", "is", "that", "for", "it", "as", "was", "with", "be", "by",
+        "on", "not", "he", "this", "are", "or", "his", "from", "at", "which", "but", "have", "an",
+        "compression", "window", "archive", "stream", "block", "history", "distance", "literal",
+        "performance", "memory", "throughput", "decoder", "encoder", "sequence", "dictionary"
+    };
+    private static final String[] LEVELS = {"INFO", "INFO", "INFO", "DEBUG", "WARN", "ERROR"};
+    private static final String[] PATHS = {"/api/v1/items", "/api/v1/users", "/health", "/api/v2/orders", "/login"};
+    
+    private Corpus() {
+        // Utility class
+    }
+    
+    public static byte[] generate(String kind, int size) {
+        Random random = new Random(kind.hashCode() * 31L + size);
+        switch (kind) {
+            case "text":
+                return text(random, size);
+            case "json":
+                return json(random, size);
+            case "logs":
+                return logs(random, size);
+            case "binary":
+                return binary(random, size);
+            case "random": {
+                byte[] data = new byte[size];
+                random.nextBytes(data);
+                return data;
+            }
+            case "zeros":
+                return new byte[size];
+            case "mixed":
+                return mixed(random, size);
+            default:
+                throw new IllegalArgumentException("unknown corpus kind: " + kind);
+        }
+    }
+    
+    /**
+     * 64 KiB runs of random bytes alternating with logs, like an archive holding
+     * already-compressed files next to text
+     */
+    private static byte[] mixed(Random random, int size) {
+        byte[] data = logs(random, size);
+        byte[] run = new byte[1 << 16];
+        for (int i = 0; i < size; i += 2 * run.length) {
+            random.nextBytes(run);
+            System.arraycopy(run, 0, data, i, Math.min(run.length, size - i));
+        }
+        return data;
+    }
+    
+    private static String word(Random random) {
+        // Skewed towards the front of the list, roughly like natural language
+        int i = (int)(WORDS.length * Math.pow(random.nextDouble(), 2.5));
+        return WORDS[i];
+    }
+    
+    private static byte[] text(Random random, int size) {
+        StringBuilder sb = new StringBuilder(size + 64);
+        while (sb.length() < size) {
+            int sentence = 5 + random.nextInt(15);
+            for (int i = 0; i < sentence; i++) {
+                String w = word(random);
+                if (i == 0) {
+                    sb.append(Character.toUpperCase(w.charAt(0))).append(w, 1, w.length());
+                } else {
+                    sb.append(' ').append(w);
+                }
+            }
+            sb.append(random.nextInt(8) == 0 ? ".\n\n" : ". ");
+        }
+        return truncate(sb, size);
+    }
+    
+    private static byte[] json(Random random, int size) {
+        StringBuilder sb = new StringBuilder(size + 256);
+        for (int id = 0; sb.length() < size; id++) {
+            sb.append("{\"id\":").append(id)
+              .append(",\"user\":\"").append(word(random)).append('_').append(random.nextInt(500))
+              .append("\",\"active\":").append(random.nextBoolean())
+              .append(",\"score\":").append(random.nextInt(100000) / 100.0)
+              .append(",\"tags\":[\"").append(word(random)).append("\",\"").append(word(random))
+              .append("\"]}\n");
+        }
+        return truncate(sb, size);
+    }
+    
+    private static byte[] logs(Random random, int size) {
+        StringBuilder sb = new StringBuilder(size + 256);
+        long millis = 1735689600000L;
+        while (sb.length() < size) {
+            millis += random.nextInt(50);
+            sb.append(millis).append(' ')
+              .append(LEVELS[random.nextInt(LEVELS.length)]).append(" [worker-").append(random.nextInt(16))
+              .append("] GET ").append(PATHS[random.nextInt(PATHS.length)])
+              .append(" status=").append(random.nextInt(10) == 0 ? 500 : 200)
+              .append(" latency=").append(random.nextInt(2000)).append("ms")
+              .append(" request_id=").append(Long.toHexString(random.nextLong())).append('\n');
+        }
+        return truncate(sb, size);
+    }
+    
+    private static byte[] binary(Random random, int size) {
+        // Fixed-size records of little-endian fields, like a table dump
+        byte[] data = new byte[size];
+        int counter = 0;
+        for (int i = 0; i + 16 <= size; i += 16) {
+            counter += 1 + random.nextInt(4);
+            writeInt(data, i, counter);
+            writeInt(data, i + 4, random.nextInt(64));
+            writeInt(data, i + 8, 0x3F800000 + (random.nextInt(256) << 12));
+            writeInt(data, i + 12, random.nextInt(8) == 0 ? random.nextInt() : 0);
+        }
+        return data;
+    }
+    
+    private static void writeInt(byte[] b, int off, int v) {
+        b[off] = (byte)v;
+        b[off + 1] = (byte)(v >> 8);
+        b[off + 2] = (byte)(v >> 16);
+        b[off + 3] = (byte)(v >> 24);
+    }
+    
+    private static byte[] truncate(StringBuilder sb, int size) {
+        byte[] data = new byte[size];
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, data, 0, size);
+        return data;
+    }
+}
@@ -0,0 +1,140 @@
+package com.odzip.bench;
+
+import com.odzip.CompressionLevel;
+import com.odzip.Compressor;
+import com.odzip.OdzCompressorContext;
+import com.odzip.OdzDecompressorContext;
+import com.odzip.OdzDictionary;
+import com.odzip.OdzDictionaryTrainer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small messages compressed with and without a preset dictionary trained on other
+ * messages of the same kind, through reused contexts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DictionaryBenchmark {
+    static final int MESSAGES = 64;
+    private static final int TRAINING_SAMPLES = 500;
+    
+    @Param({"json", "logs"})
+    public String kind;
+    
+    @Param({"256", "1024", "4096"})
+    public int size;
+    
+    private byte[][] messages;
+    private byte[][] plain;
+    private byte[][] withDictionary;
+    private byte[] compressBuffer;
+    private byte[] decompressBuffer;
+    private OdzCompressorContext plainCompressor;
+    private OdzCompressorContext dictionaryCompressor;
+    private OdzDecompressorContext plainDecompressor;
+    private OdzDecompressorContext dictionaryDecompressor;
+    private int next;
+    
+    @Setup(Level.Trial)
+    public void setup() {
+        OdzDictionary dictionary = OdzDictionaryTrainer.train(trainingSamples(kind, size));
+        messages = messages(kind, size);
+        plainCompressor = new OdzCompressorContext(CompressionLevel.DEFAULT);
+        dictionaryCompressor = new OdzCompressorContext(CompressionLevel.DEFAULT, dictionary);
+        plainDecompressor = new OdzDecompressorContext();
+        dictionaryDecompressor = new OdzDecompressorContext(dictionary);
+        plain = new byte[MESSAGES][];
+        withDictionary = new byte[MESSAGES][];
+        for (int i = 0; i < MESSAGES; i++) {
+            plain[i] = plainCompressor.compress(messages[i]);
+            withDictionary[i] = dictionaryCompressor.compress(messages[i]);
+        }
+        compressBuffer = new byte[Compressor.maxCompressedLength(size)];
+        decompressBuffer = new byte[size];
+    }
+    
+    /**
+     * Training samples and benchmark messages come from different parts of the same corpus
+     */
+    static List<byte[]> trainingSamples(String kind, int size) {
+        byte[] corpus = Corpus.generate(kind, (TRAINING_SAMPLES + MESSAGES) * size);
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < TRAINING_SAMPLES; i++) {
+            samples.add(Arrays.copyOfRange(corpus, i * size, (i + 1) * size));
+        }
+        return samples;
+    }
+    
+    static byte[][] messages(String kind, int size) {
+        byte[] corpus = Corpus.generate(kind, (TRAINING_SAMPLES + MESSAGES) * size);
+        byte[][] messages = new byte[MESSAGES][];
+        for (int i = 0; i < MESSAGES; i++) {
+            int start = (TRAINING_SAMPLES + i) * size;
+            messages[i] = Arrays.copyOfRange(corpus, start, start + size);
+        }
+        return messages;
+    }
+    
+    /**
+     * Total message size over total compressed size, with or without a trained dictionary
+     */
+    static double ratio(String kind, int size, boolean useDictionary) {
+        OdzCompressorContext compressor = useDictionary
+            ? new OdzCompressorContext(CompressionLevel.DEFAULT, OdzDictionaryTrainer.train(trainingSamples(kind, size)))
+            : new OdzCompressorContext(CompressionLevel.DEFAULT);
+        long compressed = 0;
+        for (byte[] message : messages(kind, size)) {
+            compressed += compressor.compress(message).length;
+        }
+        return (double)MESSAGES * size / compressed;
+    }
+    
+    private int nextMessage() {
+        next = (next + 1) & (MESSAGES - 1);
+        return next;
+    }
+    
+    @Benchmark
+    public int compressPlain() {
+        byte[] message = messages[nextMessage()];
+        return plainCompressor.compress(message, 0, message.length, compressBuffer, 0);
+    }
+    
+    @Benchmark
+    public int compressWithDictionary() {
+        byte[] message = messages[nextMessage()];
+        return dictionaryCompressor.compress(message, 0, message.length, compressBuffer, 0);
+    }
+    
+    @Benchmark
+    public int decompressPlain() {
+        byte[] compressed = plain[nextMessage()];
+        return plainDecompressor.decompress(compressed, 0, compressed.length, decompressBuffer, 0);
+    }
+    
+    @Benchmark
+    public int decompressWithDictionary() {
+        byte[] compressed = withDictionary[nextMessage()];
+        return dictionaryDecompressor.decompress(compressed, 0, compressed.length, decompressBuffer, 0);
+    }
+}
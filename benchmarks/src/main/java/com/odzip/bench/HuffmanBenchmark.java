@@ -0,0 +1,62 @@
+package com.odzip.bench;
+
+import com.odzip.CompressionLevel;
+import com.odzip.Compressor;
+import com.odzip.Decompressor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LZ blocks against Huffman-coded blocks at the same match finding level, both ways.
+ * BenchmarkRunner reports the ratio of each next to its speed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class HuffmanBenchmark {
+    
+    @Param({"text", "json", "logs", "binary"})
+    public String kind;
+    
+    @Param({"1048576"})
+    public int size;
+    
+    @Param({"6", "6-huffman", "9", "9-huffman"})
+    public String level;
+    
+    private CompressionLevel compressionLevel;
+    private byte[] data;
+    private byte[] compressed;
+    
+    @Setup(Level.Trial)
+    public void setup() {
+        data = Corpus.generate(kind, size);
+        compressionLevel = ParserBenchmark.level(level);
+        compressed = Compressor.compressSimple(data, compressionLevel);
+    }
+    
+    @Benchmark
+    public byte[] compress() {
+        return Compressor.compressSimple(data, compressionLevel);
+    }
+    
+    @Benchmark
+    public byte[] decompress() {
+        return Decompressor.decompressSimple(compressed);
+    }
+}
@@ -0,0 +1,68 @@
+package com.odzip.bench;
+
+import com.odzip.CompressionLevel;
+import com.odzip.Compressor;
+import com.odzip.Decompressor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compression of random input, and of random runs between logs, against copying the input,
+ * the floor that skipping and stored blocks aim for.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class IncompressibleBenchmark {
+    
+    @Param({"random", "mixed"})
+    public String kind;
+    
+    @Param({"1048576"})
+    public int size;
+    
+    @Param({"1", "6", "9"})
+    public String level;
+    
+    private CompressionLevel compressionLevel;
+    private byte[] data;
+    private byte[] compressed;
+    
+    @Setup(Level.Trial)
+    public void setup() {
+        data = Corpus.generate(kind, size);
+        compressionLevel = ParserBenchmark.level(level);
+        compressed = Compressor.compressSimple(data, compressionLevel);
+    }
+    
+    @Benchmark
+    public byte[] compress() {
+        return Compressor.compressSimple(data, compressionLevel);
+    }
+    
+    @Benchmark
+    public byte[] decompress() {
+        return Decompressor.decompressSimple(compressed);
+    }
+    
+    @Benchmark
+    public byte[] copy() {
+        return Arrays.copyOf(data, data.length);
+    }
+}
@@ -0,0 +1,59 @@
+package com.odzip.bench;
+
+import com.odzip.CompressionLevel;
+import com.odzip.Compressor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compression throughput on repetitive inputs, where walking the hash chains and
+ * extending candidate matches dominate. Levels with longer chains lean on the
+ * match finder harder.
+ * 
+ * The numbered levels run with their 4-byte hash keys and with 3-byte keys ("-hash3"),
+ * level 6 also with 5-byte keys, and optimal with its 3-byte keys and with 4-byte keys.
+ * The runner's summary has the ratio of each.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatchFinderBenchmark {
+    
+    @Param({"logs", "json", "text"})
+    public String kind;
+    
+    @Param({"1048576"})
+    public int size;
+    
+    @Param({"1-hash3", "1", "6-hash3", "6", "6-hash5", "8-hash3", "8", "optimal", "optimal-hash4"})
+    public String level;
+    
+    private CompressionLevel compressionLevel;
+    private byte[] data;
+    
+    @Setup(Level.Trial)
+    public void setup() {
+        data = Corpus.generate(kind, size);
+        compressionLevel = ParserBenchmark.level(level);
+    }
+    
+    @Benchmark
+    public byte[] compress() {
+        return Compressor.compressSimple(data, compressionLevel);
+    }
+}
@@ -0,0 +1,62 @@
+package com.odzip.bench;
+
+import com.odzip.Compressor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Block-parallel compression throughput against the number of worker threads
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelCompressBenchmark {
+    
+    @Param({"1", "2", "4", "8", "16", "32"})
+    public int threads;
+    
+    @Param({"1048576", "4194304"})
+    public int blockSize;
+    
+    @Param({"false", "true"})
+    public boolean chainBlocks;
+    
+    @Param({"64"})
+    public int sizeMiB;
+    
+    private byte[] data;
+    private ForkJoinPool pool;
+    
+    @Setup(Level.Trial)
+    public void setup() {
+        data = Corpus.generate("logs", sizeMiB << 20);
+        pool = new ForkJoinPool(threads);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+    
+    @Benchmark
+    public byte[] compressParallel() {
+        return Compressor.compressParallel(data, blockSize, chainBlocks, pool);
+    }
+}
@@ -0,0 +1,76 @@
+package com.odzip.bench;
+
+import com.odzip.Compressor;
+import com.odzip.Decompressor;
+import com.odzip.OdzParallelInputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Block-parallel decompression throughput against the number of worker threads.
+ * 
+ * The corpus size defaults to 256 MiB; run with -p sizeMiB=1024 for the 1 GB restore case.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ParallelDecompressBenchmark {
+    
+    @Param({"1", "2", "4", "8", "16", "32"})
+    public int threads;
+    
+    @Param({"256"})
+    public int sizeMiB;
+    
+    private byte[] compressed;
+    private ForkJoinPool pool;
+    private final byte[] readBuffer = new byte[1 << 16];
+    
+    @Setup(Level.Trial)
+    public void setup() {
+        pool = new ForkJoinPool(threads);
+        compressed = Compressor.compressParallel(Corpus.generate("logs", sizeMiB << 20), 1 << 21, false, ForkJoinPool.commonPool());
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+    
+    @Benchmark
+    public byte[] decompressParallel() {
+        return Decompressor.decompressParallel(compressed, pool);
+    }
+    
+    @Benchmark
+    public long parallelInputStream() throws IOException {
+        long total = 0;
+        try (InputStream in = new OdzParallelInputStream(new ByteArrayInputStream(compressed), pool, 2 * threads)) {
+            int bytesRead;
+            while ((bytesRead = in.read(readBuffer)) != -1) {
+                total += bytesRead;
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,73 @@
+package com.odzip.bench;
+
+import com.odzip.CompressionLevel;
+import com.odzip.Compressor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compression with the greedy/lazy parser at levels 6 and 9 against optimal parsing.
+ * BenchmarkRunner reports the ratio of each next to its speed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+    
+    @Param({"text", "json", "logs", "binary"})
+    public String kind;
+    
+    @Param({"1048576"})
+    public int size;
+    
+    @Param({"6", "9", "optimal"})
+    public String level;
+    
+    private CompressionLevel compressionLevel;
+    private byte[] data;
+    
+    @Setup(Level.Trial)
+    public void setup() {
+        data = Corpus.generate(kind, size);
+        compressionLevel = level(level);
+    }
+    
+    /**
+     * A numbered level or "optimal", hashing N bytes per position with a "-hashN" suffix
+     * and Huffman-coded with a "-huffman" suffix
+     */
+    static CompressionLevel level(String name) {
+        if (name.endsWith("-huffman")) {
+            return level(name.substring(0, name.length() - "-huffman".length())).withHuffman();
+        }
+        int window = name.lastIndexOf("-window");
+        if (window >= 0) {
+            return level(name.substring(0, window)).withWindowLog(Integer.parseInt(name.substring(window + "-window".length())));
+        }
+        int hash = name.lastIndexOf("-hash");
+        if (hash >= 0) {
+            return level(name.substring(0, hash)).withHashLength(Integer.parseInt(name.substring(hash + "-hash".length())));
+        }
+        return name.equals("optimal") ? CompressionLevel.OPTIMAL : CompressionLevel.of(Integer.parseInt(name));
+    }
+    
+    @Benchmark
+    public byte[] compress() {
+        return Compressor.compressSimple(data, compressionLevel);
+    }
+}
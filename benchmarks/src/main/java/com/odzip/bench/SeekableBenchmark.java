@@ -0,0 +1,92 @@
+package com.odzip.bench;
+
+import com.odzip.CompressionLevel;
+import com.odzip.OdzInputStream;
+import com.odzip.OdzSeekableOutputStream;
+import com.odzip.OdzSeekableReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 4 KiB reads at random offsets of a 16 MiB log: through OdzSeekableReader, which decodes
+ * the blocks touched (or finds them cached), against decoding the stream up to the offset.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class SeekableBenchmark {
+    private static final int SIZE = 16 << 20;
+    private static final int READ_SIZE = 4096;
+    
+    @Param({"16384", "65536"})
+    public int blockSize;
+    
+    private Path file;
+    private byte[] compressed;
+    private OdzSeekableReader reader;
+    private ByteBuffer dst;
+    private byte[] skipBuffer;
+    private Random random;
+    
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OdzSeekableOutputStream odzOut = new OdzSeekableOutputStream(out, CompressionLevel.DEFAULT, blockSize)) {
+            odzOut.write(Corpus.generate("logs", SIZE));
+        }
+        compressed = out.toByteArray();
+        file = Files.createTempFile("odz-seekable", ".odz");
+        Files.write(file, compressed);
+        reader = new OdzSeekableReader(file);
+        dst = ByteBuffer.allocate(READ_SIZE);
+        skipBuffer = new byte[1 << 16];
+        random = new Random(1);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.close();
+        Files.delete(file);
+    }
+    
+    @Benchmark
+    public int seekableRead() throws IOException {
+        dst.clear();
+        return reader.read(random.nextInt(SIZE - READ_SIZE), dst);
+    }
+    
+    @Benchmark
+    public int streamRead() throws IOException {
+        long position = random.nextInt(SIZE - READ_SIZE);
+        try (InputStream in = new OdzInputStream(new ByteArrayInputStream(compressed))) {
+            while (position > 0) {
+                position -= in.read(skipBuffer, 0, (int)Math.min(skipBuffer.length, position));
+            }
+            return in.read(dst.array(), 0, READ_SIZE);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.odzip.bench;
+
+import com.odzip.CompressionLevel;
+import com.odzip.Compressor;
+import com.odzip.Decompressor;
+import com.odzip.OdzCompressorContext;
+import com.odzip.OdzDecompressorContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput on RPC-sized payloads, comparing the one-shot static API, which builds its
+ * tables on every call, against reused contexts writing into preallocated buffers, and
+ * the ByteBuffer overloads between direct buffers as an NIO or Netty pipeline would use them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SmallPayloadBenchmark {
+    
+    @Param({"json", "logs"})
+    public String kind;
+    
+    @Param({"1024", "4096", "16384"})
+    public int size;
+    
+    private byte[] data;
+    private byte[] compressed;
+    private byte[] compressBuffer;
+    private byte[] decompressBuffer;
+    private OdzCompressorContext compressor;
+    private OdzDecompressorContext decompressor;
+    private ByteBuffer directData;
+    private ByteBuffer directCompressed;
+    private ByteBuffer directOutput;
+    
+    @Setup(Level.Trial)
+    public void setup() {
+        data = Corpus.generate(kind, size);
+        compressed = Compressor.compressSimple(data);
+        compressBuffer = new byte[Compressor.maxCompressedLength(size)];
+        decompressBuffer = new byte[size];
+        compressor = new OdzCompressorContext(CompressionLevel.DEFAULT);
+        decompressor = new OdzDecompressorContext();
+        directData = ByteBuffer.allocateDirect(size).put(data);
+        directCompressed = ByteBuffer.allocateDirect(compressBuffer.length).put(compressed);
+        directOutput = ByteBuffer.allocateDirect(compressBuffer.length);
+    }
+    
+    @Benchmark
+    public byte[] compressSimple() {
+        return Compressor.compressSimple(data);
+    }
+    
+    @Benchmark
+    public int compressContext() {
+        return compressor.compress(data, 0, data.length, compressBuffer, 0);
+    }
+    
+    @Benchmark
+    public byte[] decompressSimple() {
+        return Decompressor.decompressSimple(compressed);
+    }
+    
+    @Benchmark
+    public int decompressContext() {
+        return decompressor.decompress(compressed, 0, compressed.length, decompressBuffer, 0);
+    }
+    
+    @Benchmark
+    public int compressDirect() {
+        directData.flip();
+        directOutput.clear();
+        return compressor.compress(directData, directOutput).bytesProduced();
+    }
+    
+    @Benchmark
+    public int decompressDirect() {
+        directCompressed.flip();
+        directOutput.clear();
+        return decompressor.decompress(directCompressed, directOutput).bytesProduced();
+    }
+}
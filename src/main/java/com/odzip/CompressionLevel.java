@@ -0,0 +1,243 @@
+package com.odzip;
+
+/**
+ * Speed/ratio trade-off for the encoder: match finder and parser parameters.
+ * 
+ * Levels 1-3 probe one or a few hash candidates and skip ahead faster and faster
+ * through data that keeps missing. Levels 4-6 walk short chains with a lazy check
+ * on minimum-length matches. Levels 7-9 walk deep chains with full lazy evaluation
+ * (two-step at level 9). These levels start skipping only after long runs of misses,
+ * which leave text untouched and pass over incompressible data quickly. {@link #OPTIMAL}
+ * goes further with optimal parsing over a binary-tree match finder. Every level produces
+ * the same format and decodes with the same decoder.
+ * 
+ * The numbered levels hash 4 bytes per position, and the lazy ones find 3-byte matches
+ * through a small side table. {@link #OPTIMAL} hashes 3 bytes, which keeps a little more
+ * ratio at some cost in speed. {@link #withHashLength(int)} changes the key length.
+ * 
+ * Any level can also Huffman-code its tokens ({@link #withHuffman()}), which trades some
+ * speed for ratio and writes the framed format.
+ * 
+ * {@link #withWindowLog(int)} switches a level to LZ2 tokens, which let matches reach
+ * back up to 16 MiB and run up to ODZ_MAX_MATCH_LZ2 bytes.
+ */
+public final class CompressionLevel {
+    public static final int MIN_LEVEL = 1;
+    public static final int MAX_LEVEL = 9;
+    
+    /** Never look ahead before taking a match */
+    public static final int LAZY_NONE = 0;
+    /** Look one position ahead when the match has the minimum length */
+    public static final int LAZY_MIN_MATCH = 1;
+    /** Look one position ahead whenever the match is shorter than the nice length */
+    public static final int LAZY_FULL = 2;
+    /** Like LAZY_FULL, then also look two positions ahead */
+    public static final int LAZY_TWO_STEP = 3;
+    /**
+     * Find the longest match at every position with a binary tree instead of hash chains,
+     * then pick the cheapest sequence of tokens; maxChainSteps bounds the tree depth searched
+     */
+    public static final int PARSE_OPTIMAL = 4;
+    
+    private static final CompressionLevel[] LEVELS = {
+        new CompressionLevel(1, 14, 4, 1, 16, LAZY_NONE, 4),
+        new CompressionLevel(2, 15, 4, 2, 32, LAZY_NONE, 5),
+        new CompressionLevel(3, 15, 4, 4, 64, LAZY_NONE, 6),
+        new CompressionLevel(4, 15, 4, 8, 128, LAZY_MIN_MATCH, 7),
+        new CompressionLevel(5, 15, 4, 16, OdzConstants.ODZ_MAX_MATCH, LAZY_MIN_MATCH, 7),
+        new CompressionLevel(6, OdzConstants.HASH_BITS, 4, OdzConstants.MAX_CHAIN_STEPS,
+                             OdzConstants.ODZ_MAX_MATCH, LAZY_MIN_MATCH, 7),
+        new CompressionLevel(7, 16, 4, 128, OdzConstants.ODZ_MAX_MATCH, LAZY_FULL, 7),
+        new CompressionLevel(8, 16, 4, 512, OdzConstants.ODZ_MAX_MATCH, LAZY_FULL, 7),
+        new CompressionLevel(9, 16, 4, 4096, OdzConstants.ODZ_MAX_MATCH, LAZY_TWO_STEP, 7),
+    };
+    
+    public static final CompressionLevel FASTEST = LEVELS[0];
+    public static final CompressionLevel DEFAULT = LEVELS[5];
+    public static final CompressionLevel BEST = LEVELS[8];
+    /**
+     * Maximum ratio for data written once and read many times, several times slower than
+     * BEST to compress; reported as level 0 since it is not one of the numbered presets
+     */
+    public static final CompressionLevel OPTIMAL =
+        new CompressionLevel(0, 16, 3, 128, OdzConstants.ODZ_MAX_MATCH, PARSE_OPTIMAL, 0);
+    
+    final int level;
+    final int hashBits;
+    final int hashLength;
+    final int maxChainSteps;
+    final int niceLength;
+    final int lazyMode;
+    final int skipShift;
+    final boolean huffman;
+    // Log2 of the window for LZ2 tokens, or 0 for LZ tokens and ODZ_WINDOW
+    final int windowLog;
+    private final CompressionLevel huffmanLevel;
+    
+    /**
+     * Custom match finder parameters (reported as level 0), hashing 4 bytes per position.
+     */
+    public CompressionLevel(int hashBits, int maxChainSteps, int niceLength, int lazyMode, int skipShift) {
+        this(hashBits, LzMatcher.DEFAULT_HASH_LENGTH, maxChainSteps, niceLength, lazyMode, skipShift);
+    }
+    
+    /**
+     * Custom match finder parameters (reported as level 0).
+     * 
+     * @param hashBits Log2 of the hash table size (8-24)
+     * @param hashLength Bytes hashed per position (3-6). Longer keys give shorter chains on
+     *                   repetitive data; with a lazy mode, shorter matches are still found
+     *                   through a small table of 3-byte keys.
+     * @param maxChainSteps Maximum hash chain candidates examined per position
+     * @param niceLength Stop searching once a match this long is found
+     * @param lazyMode One of the LAZY_* constants, or PARSE_OPTIMAL
+     * @param skipShift If non-zero, after each 2^skipShift consecutive misses one more
+     *                  position is emitted as a literal without searching; 0 disables it
+     */
+    public CompressionLevel(int hashBits, int hashLength, int maxChainSteps, int niceLength, int lazyMode,
+                            int skipShift) {
+        this(0, hashBits, hashLength, maxChainSteps, niceLength, lazyMode, skipShift, false, 0);
+        if (hashBits < 8 || hashBits > 24) {
+            throw new IllegalArgumentException("hashBits must be between 8 and 24");
+        }
+        if (hashLength < OdzConstants.ODZ_MIN_MATCH || hashLength > 6) {
+            throw new IllegalArgumentException("hashLength must be between " + OdzConstants.ODZ_MIN_MATCH + " and 6");
+        }
+        if (maxChainSteps < 1) {
+            throw new IllegalArgumentException("maxChainSteps must be positive");
+        }
+        if (niceLength < OdzConstants.ODZ_MIN_MATCH || niceLength > OdzConstants.ODZ_MAX_MATCH) {
+            throw new IllegalArgumentException("niceLength must be between "
+                + OdzConstants.ODZ_MIN_MATCH + " and " + OdzConstants.ODZ_MAX_MATCH);
+        }
+        if (lazyMode < LAZY_NONE || lazyMode > PARSE_OPTIMAL) {
+            throw new IllegalArgumentException("unknown lazy mode " + lazyMode);
+        }
+        if (skipShift < 0 || skipShift > 30) {
+            throw new IllegalArgumentException("skipShift must be between 0 and 30");
+        }
+    }
+    
+    private CompressionLevel(int level, int hashBits, int hashLength, int maxChainSteps, int niceLength,
+                             int lazyMode, int skipShift) {
+        this(level, hashBits, hashLength, maxChainSteps, niceLength, lazyMode, skipShift, false, 0);
+    }
+    
+    private CompressionLevel(int level, int hashBits, int hashLength, int maxChainSteps, int niceLength,
+                             int lazyMode, int skipShift, boolean huffman, int windowLog) {
+        this.level = level;
+        this.hashBits = hashBits;
+        this.hashLength = hashLength;
+        this.maxChainSteps = maxChainSteps;
+        this.niceLength = niceLength;
+        this.lazyMode = lazyMode;
+        this.skipShift = skipShift;
+        this.huffman = huffman;
+        this.windowLog = windowLog;
+        // The Huffman coder only knows LZ tokens
+        this.huffmanLevel = huffman ? this
+            : windowLog != 0 ? null
+            : new CompressionLevel(level, hashBits, hashLength, maxChainSteps, niceLength, lazyMode, skipShift, true, 0);
+    }
+    
+    /**
+     * Preset for level 1 (fastest) to 9 (best ratio); 6 is the default
+     */
+    public static CompressionLevel of(int level) {
+        if (level < MIN_LEVEL || level > MAX_LEVEL) {
+            throw new IllegalArgumentException("level must be between " + MIN_LEVEL + " and " + MAX_LEVEL);
+        }
+        return LEVELS[level - 1];
+    }
+    
+    public int level() {
+        return level;
+    }
+    
+    /**
+     * The same level with Huffman-coded tokens. Blocks are stored as Huffman blocks of the
+     * framed format whenever that makes them smaller, so {@link Compressor#compressSimple(byte[], CompressionLevel)}
+     * writes the framed format too.
+     * 
+     * @throws IllegalArgumentException if this level has a window set by {@link #withWindowLog(int)}
+     */
+    public CompressionLevel withHuffman() {
+        if (huffmanLevel == null) {
+            throw new IllegalArgumentException("Huffman coding is not supported with LZ2 tokens");
+        }
+        return huffmanLevel;
+    }
+    
+    public boolean huffman() {
+        return huffman;
+    }
+    
+    /**
+     * The same parameters with hashLength (3-6) bytes hashed per position.
+     * Reported as level 0 unless hashLength is unchanged.
+     */
+    public CompressionLevel withHashLength(int hashLength) {
+        if (hashLength < OdzConstants.ODZ_MIN_MATCH || hashLength > 6) {
+            throw new IllegalArgumentException("hashLength must be between " + OdzConstants.ODZ_MIN_MATCH + " and 6");
+        }
+        if (hashLength == this.hashLength) {
+            return this;
+        }
+        return new CompressionLevel(0, hashBits, hashLength, maxChainSteps, niceLength, lazyMode, skipShift, huffman,
+                                    windowLog);
+    }
+    
+    /**
+     * The same parameters writing LZ2 tokens (ODZ_BLOCK_LZ2), whose matches reach back
+     * 2^windowLog - 1 bytes (windowLog 16-24, 64 KiB to 16 MiB) and run up to ODZ_MAX_MATCH_LZ2
+     * bytes. Output is always the framed format. The match finder keeps 4 bytes per window
+     * position (8 for {@link #OPTIMAL}) and stream readers buffer the whole window.
+     * LZ2 trades decode speed for ratio: its tokens take more branches than LZ tokens,
+     * and LZ2 blocks decode 10-70% slower, the most on data made of many short matches.
+     * Reported as level 0 unless windowLog is unchanged.
+     * 
+     * @throws IllegalArgumentException if this is a Huffman level
+     */
+    public CompressionLevel withWindowLog(int windowLog) {
+        if (windowLog < OdzConstants.ODZ_MIN_WINDOW_LOG || windowLog > OdzConstants.ODZ_MAX_WINDOW_LOG) {
+            throw new IllegalArgumentException("windowLog must be between " + OdzConstants.ODZ_MIN_WINDOW_LOG
+                + " and " + OdzConstants.ODZ_MAX_WINDOW_LOG);
+        }
+        if (huffman) {
+            throw new IllegalArgumentException("Huffman coding is not supported with LZ2 tokens");
+        }
+        if (windowLog == this.windowLog) {
+            return this;
+        }
+        return new CompressionLevel(0, hashBits, hashLength, maxChainSteps, niceLength, lazyMode, skipShift, false,
+                                    windowLog);
+    }
+    
+    /**
+     * Log2 of the window for LZ2 tokens, or 0 if this level writes LZ tokens
+     */
+    public int windowLog() {
+        return windowLog;
+    }
+    
+    /**
+     * Farthest distance a match may reach back
+     */
+    int window() {
+        return windowLog != 0 ? (1 << windowLog) - 1 : OdzConstants.ODZ_WINDOW;
+    }
+    
+    int maxMatch() {
+        return windowLog != 0 ? OdzConstants.ODZ_MAX_MATCH_LZ2 : OdzConstants.ODZ_MAX_MATCH;
+    }
+    
+    @Override
+    public String toString() {
+        String coding = huffman ? ", huffman" : windowLog != 0 ? ", windowLog=" + windowLog : "";
+        if (level != 0) {
+            return "CompressionLevel(" + level + coding + ")";
+        }
+        return "CompressionLevel(hashBits=" + hashBits + ", hashLength=" + hashLength + ", maxChainSteps=" + maxChainSteps
+            + ", niceLength=" + niceLength + ", lazyMode=" + lazyMode + ", skipShift=" + skipShift + coding + ")";
+    }
+}
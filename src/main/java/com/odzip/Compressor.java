@@ -3,104 +3,596 @@ package com.odzip;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32C;
 
 /**
  * Compressor for ODZ format
  */
 public final class Compressor {
+    // A framed header, one stored block header and the end marker
+    private static final int STORED_STREAM_OVERHEAD =
+        OdzConstants.ODZ_FRAMED_HEADER_SIZE + OdzConstants.ODZ_BLOCK_HEADER_SIZE + 1;
     
     private Compressor() {
         // Utility class
     }
     
+    /**
+     * Upper bound on the compressed size of n input bytes written as a single block:
+     * every byte emitted as a literal, one flags byte per group of 8 tokens, and up to
+     * 28 bytes of headers (a framed header with all optional fields, a block header
+     * and the end marker; the version 1 header is 8 bytes).
+     * 
+     * @throws IllegalArgumentException if n is negative, or so large that the bound, with
+     *                                  room for another block header and checksum, exceeds
+     *                                  the largest array
+     */
+    public static int maxCompressedLength(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("negative length");
+        }
+        long bound = n + (long)n / 8 + 1 + 28;
+        if (bound > Decompressor.MAX_ARRAY_SIZE - OdzConstants.ODZ_BLOCK_HEADER_SIZE - OdzConstants.ODZ_CHECKSUM_SIZE) {
+            throw new IllegalArgumentException("input too large: " + n + " bytes");
+        }
+        return (int)bound;
+    }
+    
     public static byte[] compressSimple(byte[] in) {
+        return compressSimple(in, CompressionLevel.DEFAULT);
+    }
+    
+    public static byte[] compressSimple(byte[] in, CompressionLevel level) {
         int n = in.length;
-        List<Byte> outList = new ArrayList<>(n + n / 7 + 32);
-        
+        byte[] out = new byte[maxCompressedLength(n)];
+        LzMatcher matcher = new LzMatcher(n, level);
+        int op = encode(matcher, level, in, 0, n, out, 0);
+        return Arrays.copyOf(out, op);
+    }
+    
+    /**
+     * Write in[start, end) to out at op as {@link #compressSimple(byte[], CompressionLevel)} does:
+     * the version 1 format, or for a Huffman or LZ2 level a framed stream of one block. Input the
+     * version 1 format would expand by more than a framed header is written as a stored block.
+     * 
+     * @return the output position after the compressed data
+     */
+    static int encode(LzMatcher matcher, CompressionLevel level, byte[] in, int start, int end, byte[] out, int op) {
+        if (!MetricsRegistry.enabled) {
+            return encodeUnmetered(matcher, level, in, start, end, out, op);
+        }
+        long startTime = System.nanoTime();
+        matcher.resetStats();
+        int encodedEnd = encodeUnmetered(matcher, level, in, start, end, out, op);
+        MetricsRegistry.compressed(level, matcher, end - start, encodedEnd - op, System.nanoTime() - startTime);
+        return encodedEnd;
+    }
+    
+    private static int encodeUnmetered(LzMatcher matcher, CompressionLevel level, byte[] in, int start, int end,
+                                       byte[] out, int op) {
+        if (!level.huffman && level.windowLog == 0) {
+            int simpleEnd = encodeSimple(matcher, level, in, start, end, out, op);
+            if (simpleEnd - op <= end - start + STORED_STREAM_OVERHEAD) {
+                return simpleEnd;
+            }
+            op = writeFramedHeader(out, op, 0, 0, 0, 0);
+            op = storeBlock(in, start, end, out, op);
+            out[op++] = OdzConstants.ODZ_BLOCK_END;
+            return op;
+        }
+        op = writeFramedHeader(out, op, 0, 0, 0, level.windowLog);
+        if (end > start) {
+            op = writeBlock(matcher, level, in, start, end, out, op, null);
+        }
+        out[op++] = OdzConstants.ODZ_BLOCK_END;
+        return op;
+    }
+    
+    /**
+     * Write in[start, end) to out at op in the version 1 format: the header, then the token groups.
+     * 
+     * @return the output position after the last group
+     */
+    static int encodeSimple(LzMatcher matcher, CompressionLevel level, byte[] in, int start, int end, byte[] out, int op) {
         // Write magic header
-        outList.add((byte)'O');
-        outList.add((byte)'D');
-        outList.add((byte)'Z');
-        outList.add(OdzConstants.ODZ_VERSION);
+        out[op] = 'O';
+        out[op + 1] = 'D';
+        out[op + 2] = 'Z';
+        out[op + 3] = OdzConstants.ODZ_VERSION;
         
         // Write raw size (4 bytes, little-endian)
-        byte[] sizeBytes = new byte[4];
-        OdzUtil.writeU32LE(sizeBytes, 0, n);
-        for (byte b : sizeBytes) {
-            outList.add(b);
+        OdzUtil.writeU32LE(out, op + 4, end - start);
+        
+        return encodeTokens(matcher, level, in, start, end, out, op + 8, null);
+    }
+    
+    /**
+     * Compress into the framed format by splitting the input into independent blocks
+     * and compressing them concurrently on the common ForkJoinPool.
+     */
+    public static byte[] compressParallel(byte[] in) {
+        return compressParallel(in, CompressionLevel.DEFAULT, OdzConstants.PARALLEL_BLOCK_SIZE,
+                                false, ForkJoinPool.commonPool());
+    }
+    
+    public static byte[] compressParallel(byte[] in, int blockSize, boolean chainBlocks, Executor executor) {
+        return compressParallel(in, CompressionLevel.DEFAULT, blockSize, chainBlocks, executor);
+    }
+    
+    /**
+     * Compress into the framed format, compressing blocks of blockSize bytes concurrently.
+     * 
+     * @param in Input data
+     * @param level Compression level used for every block
+     * @param blockSize Uncompressed size of each block
+     * @param chainBlocks If true, each block may match against the last window of bytes
+     *                    (ODZ_WINDOW unless the level sets a larger one) before it. This recovers most of the ratio lost at block
+     *                    boundaries, but blocks can then only be decoded in order.
+     * @param executor Executor that runs the block tasks
+     */
+    public static byte[] compressParallel(byte[] in, CompressionLevel level, int blockSize,
+                                          boolean chainBlocks, Executor executor) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+        List<CompletableFuture<byte[]>> blocks = new ArrayList<>();
+        for (int start = 0; start < in.length; start += blockSize) {
+            int blockStart = start;
+            int blockEnd = (int)Math.min((long)start + blockSize, in.length);
+            int dictStart = chainBlocks ? Math.max(0, blockStart - level.window()) : blockStart;
+            blocks.add(CompletableFuture.supplyAsync(
+                () -> compressBlock(Arrays.copyOfRange(in, dictStart, blockEnd), blockStart - dictStart, level),
+                executor));
+        }
+        
+        byte[] header = new byte[OdzConstants.ODZ_FRAMED_HEADER_SIZE + 1];
+        int headerSize = writeFramedHeader(header, 0, chainBlocks ? 0 : OdzConstants.ODZ_FLAG_INDEPENDENT_BLOCKS, 0, 0,
+                                           level.windowLog);
+        int total = headerSize + 1;
+        byte[][] encoded = new byte[blocks.size()][];
+        for (int b = 0; b < encoded.length; b++) {
+            encoded[b] = join(blocks.get(b));
+            total += encoded[b].length;
+        }
+        
+        byte[] out = new byte[total];
+        System.arraycopy(header, 0, out, 0, headerSize);
+        int op = headerSize;
+        for (byte[] block : encoded) {
+            System.arraycopy(block, 0, out, op, block.length);
+            op += block.length;
+        }
+        out[op] = OdzConstants.ODZ_BLOCK_END;
+        return out;
+    }
+    
+    /**
+     * Streaming variant of {@link #compressParallel(byte[], CompressionLevel, int, boolean, Executor)}.
+     * 
+     * Blocks are read from in, compressed concurrently and written to out in order.
+     * At most twice the number of available processors are in flight at once, which
+     * bounds memory to a small multiple of blockSize.
+     */
+    public static void compressParallel(InputStream in, OutputStream out, int blockSize,
+                                        boolean chainBlocks, Executor executor) throws IOException {
+        compressParallel(in, out, CompressionLevel.DEFAULT, blockSize, chainBlocks, executor);
+    }
+    
+    public static void compressParallel(InputStream in, OutputStream out, CompressionLevel level, int blockSize,
+                                        boolean chainBlocks, Executor executor) throws IOException {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive");
         }
+        int maxInFlight = 2 * Runtime.getRuntime().availableProcessors();
+        ArrayDeque<CompletableFuture<byte[]>> inFlight = new ArrayDeque<>();
         
-        // Initialize matcher
-        LzMatcher matcher = new LzMatcher(n, OdzConstants.HASH_BITS, OdzConstants.MAX_CHAIN_STEPS);
+        byte[] header = new byte[OdzConstants.ODZ_FRAMED_HEADER_SIZE + 1];
+        out.write(header, 0, writeFramedHeader(header, 0, chainBlocks ? 0 : OdzConstants.ODZ_FLAG_INDEPENDENT_BLOCKS,
+                                               0, 0, level.windowLog));
         
-        int i = 0;
-        while (i < n) {
-            int flagPos = outList.size();
-            outList.add((byte)0); // placeholder for flags
-            byte flags = 0;
+        byte[] tail = new byte[0];
+        while (true) {
+            // Each block buffer starts with the previous block's tail when chaining
+            byte[] buf = new byte[tail.length + blockSize];
+            System.arraycopy(tail, 0, buf, 0, tail.length);
+            int len = readFully(in, buf, tail.length, blockSize);
+            if (len == 0) {
+                break;
+            }
+            byte[] block = len == blockSize ? buf : Arrays.copyOf(buf, tail.length + len);
+            int dictLen = tail.length;
+            inFlight.add(CompletableFuture.supplyAsync(() -> compressBlock(block, dictLen, level), executor));
+            if (chainBlocks) {
+                tail = Arrays.copyOfRange(block, Math.max(0, block.length - level.window()), block.length);
+            }
             
-            for (int k = 0; k < 8 && i < n; k++) {
-                int[] bestLen = new int[1];
-                int[] bestDist = new int[1];
+            while (inFlight.size() >= maxInFlight) {
+                out.write(join(inFlight.poll()));
+            }
+            if (len < blockSize) {
+                break;
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            out.write(join(inFlight.poll()));
+        }
+        out.write(OdzConstants.ODZ_BLOCK_END);
+        out.flush();
+    }
+    
+    /**
+     * Compress buf[dictLen, buf.length) as one framed LZ block, with buf[0, dictLen)
+     * as history that matches may refer to.
+     */
+    static byte[] compressBlock(byte[] buf, int dictLen, CompressionLevel level) {
+        return compressBlock(buf, dictLen, level, false);
+    }
+    
+    /**
+     * As above, followed by the CRC32C of the block's raw bytes if checksum is set.
+     */
+    static byte[] compressBlock(byte[] buf, int dictLen, CompressionLevel level, boolean checksum) {
+        if (dictLen == 0) {
+            // Without history the calling thread's cached tables serve, as for many small blocks
+            return OdzCompressorContext.forCurrentThread(level).compressBlock(buf, checksum);
+        }
+        LzMatcher matcher = new LzMatcher(buf.length, level);
+        matcher.insertRange(buf, 0, dictLen);
+        byte[] out = new byte[OdzConstants.ODZ_BLOCK_HEADER_SIZE + maxCompressedLength(buf.length - dictLen)
+                              + OdzConstants.ODZ_CHECKSUM_SIZE];
+        CRC32C crc = checksum ? new CRC32C() : null;
+        int op = encodeBlock(matcher, level, buf, dictLen, buf.length, out, 0, crc);
+        if (checksum) {
+            writeChecksum(crc, out, op);
+            op += OdzConstants.ODZ_CHECKSUM_SIZE;
+        }
+        return Arrays.copyOf(out, op);
+    }
+    
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error)e.getCause();
+            }
+            throw e;
+        }
+    }
+    
+    static int writeFramedHeader(byte[] out, int flags) {
+        return writeFramedHeader(out, flags, -1);
+    }
+    
+    /**
+     * Write a framed header into out, followed by contentSize when
+     * ODZ_FLAG_CONTENT_SIZE is set in flags.
+     * 
+     * @return the header length
+     */
+    static int writeFramedHeader(byte[] out, int flags, long contentSize) {
+        return writeFramedHeader(out, 0, flags, contentSize, 0, 0);
+    }
+    
+    /**
+     * Write a framed header into out at op, followed by the fields its flags call for:
+     * contentSize for ODZ_FLAG_CONTENT_SIZE, then dictionaryId for ODZ_FLAG_DICTIONARY.
+     * A non-zero windowLog, the level's, sets ODZ_FLAG_WINDOW and is written last.
+     * 
+     * @return the output position after the header
+     */
+    static int writeFramedHeader(byte[] out, int op, int flags, long contentSize, int dictionaryId, int windowLog) {
+        if (windowLog != 0) {
+            flags |= OdzConstants.ODZ_FLAG_WINDOW;
+        }
+        out[op] = 'O';
+        out[op + 1] = 'D';
+        out[op + 2] = 'Z';
+        out[op + 3] = OdzConstants.ODZ_VERSION_FRAMED;
+        out[op + 4] = (byte)flags;
+        int fp = op + OdzConstants.ODZ_FRAMED_HEADER_SIZE;
+        if ((flags & OdzConstants.ODZ_FLAG_CONTENT_SIZE) != 0) {
+            OdzUtil.writeU64LE(out, fp, contentSize);
+            fp += 8;
+        }
+        if ((flags & OdzConstants.ODZ_FLAG_DICTIONARY) != 0) {
+            OdzUtil.writeU32LE(out, fp, dictionaryId);
+            fp += 4;
+        }
+        if (windowLog != 0) {
+            out[fp++] = (byte)windowLog;
+        }
+        return fp;
+    }
+    
+    /**
+     * Write the CRC32C that encoding a block computed into out at op, after the block.
+     * 
+     * @return the checksum
+     */
+    static int writeChecksum(CRC32C crc, byte[] out, int op) {
+        int checksum = (int)crc.getValue();
+        OdzUtil.writeU32LE(out, op, checksum);
+        return checksum;
+    }
+    
+    /**
+     * Write a framed block for in[start, end) into out at op: the block header followed by
+     * the token groups, or for a Huffman level by their Huffman coding if that is smaller,
+     * or by the input itself if neither is smaller than that.
+     * 
+     * @return the output position after the block
+     */
+    static int encodeBlock(LzMatcher matcher, CompressionLevel level, byte[] in, int start, int end,
+                           byte[] out, int op) {
+        return encodeBlock(matcher, level, in, start, end, out, op, null);
+    }
+    
+    /**
+     * As above, updating checksum with in[start, end) as the parser moves through it if
+     * checksum is not null.
+     */
+    static int encodeBlock(LzMatcher matcher, CompressionLevel level, byte[] in, int start, int end,
+                           byte[] out, int op, CRC32C checksum) {
+        if (!MetricsRegistry.enabled) {
+            return writeBlock(matcher, level, in, start, end, out, op, checksum);
+        }
+        long startTime = System.nanoTime();
+        matcher.resetStats();
+        int blockEnd = writeBlock(matcher, level, in, start, end, out, op, checksum);
+        MetricsRegistry.compressed(level, matcher, end - start, blockEnd - op, System.nanoTime() - startTime);
+        return blockEnd;
+    }
+    
+    private static int writeBlock(LzMatcher matcher, CompressionLevel level, byte[] in, int start, int end,
+                                  byte[] out, int op, CRC32C checksum) {
+        int tokenStart = op + OdzConstants.ODZ_BLOCK_HEADER_SIZE;
+        int tokenEnd = encodeTokens(matcher, level, in, start, end, out, tokenStart, checksum);
+        int type = level.windowLog != 0 ? OdzConstants.ODZ_BLOCK_LZ2 : OdzConstants.ODZ_BLOCK_LZ;
+        if (level.huffman) {
+            HuffmanEncoder huffman = matcher.huffmanEncoder();
+            int codedSize = huffman.encode(out, tokenStart, tokenEnd);
+            if (codedSize >= 0) {
+                System.arraycopy(huffman.output(), 0, out, tokenStart, codedSize);
+                tokenEnd = tokenStart + codedSize;
+                type = OdzConstants.ODZ_BLOCK_HUFFMAN;
+            }
+        }
+        if (tokenEnd - tokenStart >= end - start) {
+            return storeBlock(in, start, end, out, op);
+        }
+        out[op] = (byte)type;
+        OdzUtil.writeU32LE(out, op + 1, end - start);
+        OdzUtil.writeU32LE(out, op + 5, tokenEnd - tokenStart);
+        return tokenEnd;
+    }
+    
+    /**
+     * Write in[start, end) into out at op as a stored block.
+     * 
+     * @return the output position after the block
+     */
+    static int storeBlock(byte[] in, int start, int end, byte[] out, int op) {
+        out[op] = OdzConstants.ODZ_BLOCK_STORED;
+        OdzUtil.writeU32LE(out, op + 1, end - start);
+        OdzUtil.writeU32LE(out, op + 5, end - start);
+        System.arraycopy(in, start, out, op + OdzConstants.ODZ_BLOCK_HEADER_SIZE, end - start);
+        return op + OdzConstants.ODZ_BLOCK_HEADER_SIZE + end - start;
+    }
+    
+    /**
+     * Encode in[start, end) as flag groups into out starting at op, with LZ2 tokens
+     * for a level that sets a window.
+     * 
+     * The caller must size out for the worst case (see {@link #maxCompressedLength(int)}).
+     * Matches may reach back into positions before start that are already in the matcher.
+     * If checksum is not null it follows the parser through the input, CHECKSUM_CHUNK
+     * bytes or so behind it.
+     * 
+     * @return the output position after the last group
+     */
+    static int encodeTokens(LzMatcher matcher, CompressionLevel level, byte[] in, int start, int end,
+                            byte[] out, int op, CRC32C checksum) {
+        if (level.lazyMode == CompressionLevel.PARSE_OPTIMAL) {
+            return OptimalParser.encode(matcher, level, in, start, end, out, op, checksum);
+        }
+        final int window = level.window();
+        final int minMatch = OdzConstants.ODZ_MIN_MATCH;
+        final int maxMatch = level.maxMatch();
+        final boolean lz2 = level.windowLog != 0;
+        final int lazyMode = level.lazyMode;
+        final int skipShift = level.skipShift;
+        
+        // Result of a lazy look-ahead, reused when the parser advances to that position
+        int carriedLen = -1;
+        int carriedDist = 0;
+        // Consecutive positions without a match, and literals left to emit without searching
+        int misses = 0;
+        int skipLiterals = 0;
+        // Work counters for OdzMetrics
+        int matches = 0;
+        long matchBytes = 0;
+        int lazyChecks = 0;
+        int lazyHits = 0;
+        
+        int checked = start;
+        int chunk = checksum != null ? OdzUtil.CHECKSUM_CHUNK : Integer.MAX_VALUE;
+        int i = start;
+        while (i < end) {
+            if (i - checked >= chunk) {
+                checksum.update(in, checked, i - checked);
+                checked = i;
+            }
+            if (skipLiterals >= 8 && end - i >= 8) {
+                // A whole group of skipped literals
+                out[op++] = 0;
+                System.arraycopy(in, i, out, op, 8);
+                op += 8;
+                i += 8;
+                skipLiterals -= 8;
+                continue;
+            }
+            int flagPos = op++; // placeholder for flags
+            int flags = 0;
+            
+            for (int k = 0; k < 8 && i < end; k++) {
+                if (skipLiterals > 0) {
+                    skipLiterals--;
+                    out[op++] = in[i++];
+                    continue;
+                }
                 
                 // Find best match
-                matcher.findBest(in, i, n, OdzConstants.ODZ_WINDOW, 
-                               OdzConstants.ODZ_MIN_MATCH, OdzConstants.ODZ_MAX_MATCH,
-                               bestLen, bestDist);
+                int bestLen;
+                int bestDist;
+                if (carriedLen >= 0) {
+                    bestLen = carriedLen;
+                    bestDist = carriedDist;
+                    carriedLen = -1;
+                } else {
+                    bestLen = matcher.findBest(in, i, end, window, minMatch, maxMatch);
+                    bestDist = matcher.matchDistance();
+                    if (lz2 && matchSize2(bestLen, bestDist) > bestLen) {
+                        bestLen = 0;
+                    }
+                }
                 
-                // Lazy matching (optional, cheap)
-                if (bestLen[0] == OdzConstants.ODZ_MIN_MATCH && i + 1 < n) {
+                // Lazy matching: emit a literal if the next position has a longer match
+                boolean lazy = lazyMode == CompressionLevel.LAZY_MIN_MATCH
+                    ? bestLen == minMatch
+                    : lazyMode != CompressionLevel.LAZY_NONE && bestLen >= minMatch && bestLen < level.niceLength;
+                if (lazy && i + 1 < end) {
+                    lazyChecks++;
                     // Insert i before peeking next
                     matcher.insert(in, i);
-                    int[] nextLen = new int[1];
-                    int[] nextDist = new int[1];
-                    matcher.findBestNext(in, i, n, OdzConstants.ODZ_WINDOW,
-                                       OdzConstants.ODZ_MIN_MATCH, OdzConstants.ODZ_MAX_MATCH,
-                                       nextLen, nextDist);
-                    if (nextLen[0] > bestLen[0]) {
+                    int nextLen = matcher.findBestNext(in, i, end, window, minMatch, maxMatch);
+                    int nextDist = matcher.matchDistance();
+                    if (lz2 && matchSize2(nextLen, nextDist) > nextLen) {
+                        nextLen = 0;
+                    }
+                    boolean deferred = nextLen > bestLen;
+                    
+                    if (!deferred && lazyMode == CompressionLevel.LAZY_TWO_STEP && i + 2 < end) {
+                        // Two literals pay off if the match two positions ahead is longer still
+                        matcher.insert(in, i + 1);
+                        int secondLen = matcher.findBestNext(in, i + 1, end, window, minMatch, maxMatch);
+                        deferred = secondLen > bestLen + 1;
+                    }
+                    
+                    if (deferred) {
+                        lazyHits++;
                         // Prefer longer future match
-                        outList.add(in[i++]);
+                        carriedLen = nextLen;
+                        carriedDist = nextDist;
+                        out[op++] = in[i++];
                         continue; // token k done (literal), skip to next k
                     }
                 }
                 
-                if (bestLen[0] >= OdzConstants.ODZ_MIN_MATCH) {
+                if (bestLen >= minMatch) {
                     flags |= (1 << k);
-                    outList.add((byte)(bestLen[0] - OdzConstants.ODZ_MIN_MATCH));
-                    outList.add((byte)(bestDist[0] & 0xFF));
-                    outList.add((byte)(bestDist[0] >> 8));
+                    if (lz2) {
+                        op = writeMatch2(out, op, bestLen, bestDist);
+                    } else {
+                        out[op++] = (byte)(bestLen - minMatch);
+                        out[op++] = (byte)(bestDist & 0xFF);
+                        out[op++] = (byte)(bestDist >> 8);
+                    }
                     
                     // Insert positions covered by the match
-                    int end = i + bestLen[0];
-                    matcher.insert(in, i);
-                    if (i + 1 < end) {
-                        matcher.insert(in, i + 1);
-                    }
-                    if (i + 2 < end) {
-                        matcher.insert(in, i + 2);
-                    }
+                    matcher.insertRange(in, i, i + bestLen);
                     
-                    i += bestLen[0];
+                    i += bestLen;
+                    matches++;
+                    matchBytes += bestLen;
+                    // A minimum length match saves nothing, so once skipping is well under way it keeps going
+                    if (bestLen > minMatch || misses >> skipShift < 4) {
+                        misses = 0;
+                    }
                 } else {
                     // No match → literal
                     matcher.insert(in, i);
-                    outList.add(in[i++]);
+                    out[op++] = in[i++];
+                    if (skipShift != 0) {
+                        skipLiterals = ++misses >> skipShift;
+                    }
                 }
             }
             
             // Update flags byte
-            outList.set(flagPos, flags);
+            out[flagPos] = (byte)flags;
         }
-        
-        // Convert List<Byte> to byte[]
-        byte[] result = new byte[outList.size()];
-        for (int j = 0; j < outList.size(); j++) {
-            result[j] = outList.get(j);
+        if (checksum != null) {
+            checksum.update(in, checked, end - checked);
         }
-        
-        return result;
+        matcher.matches += matches;
+        matcher.matchBytes += matchBytes;
+        matcher.lazyChecks += lazyChecks;
+        matcher.lazyHits += lazyHits;
+        return op;
+    }
+    
+    /**
+     * Size of the LZ2 token for a match, or 0 for no match. A match is only worth
+     * emitting if this is at most len, which also keeps output within maxCompressedLength.
+     */
+    static int matchSize2(int len, int dist) {
+        if (len == 0) {
+            return 0;
+        }
+        if (len <= OdzConstants.ODZ_SHORT_MATCH_LEN && dist <= OdzConstants.ODZ_SHORT_MATCH_DIST) {
+            return 2;
+        }
+        int size = dist < 1 << 16 ? 3 : 4;
+        if (len - OdzConstants.ODZ_MIN_MATCH >= 63) {
+            // ODZ_MAX_MATCH_LZ2 takes at most two varint bytes
+            size += len - OdzConstants.ODZ_MIN_MATCH - 63 < 1 << 7 ? 1 : 2;
+        }
+        return size;
+    }
+    
+    /**
+     * Write an LZ2 match token into out at op.
+     * 
+     * @return the output position after the token
+     */
+    static int writeMatch2(byte[] out, int op, int len, int dist) {
+        if (len <= OdzConstants.ODZ_SHORT_MATCH_LEN && dist <= OdzConstants.ODZ_SHORT_MATCH_DIST) {
+            out[op] = (byte)((len - OdzConstants.ODZ_MIN_MATCH) << 4 | (dist - 1) >> 8);
+            out[op + 1] = (byte)(dist - 1);
+            return op + 2;
+        }
+        int l = len - OdzConstants.ODZ_MIN_MATCH;
+        boolean wide = dist >= 1 << 16;
+        int head = wide ? 0xC0 : 0x80;
+        if (l < 63) {
+            out[op++] = (byte)(head | l);
+        } else {
+            out[op++] = (byte)(head | 63);
+            for (l -= 63; l >= 0x80; l >>>= 7) {
+                out[op++] = (byte)(l | 0x80);
+            }
+            out[op++] = (byte)l;
+        }
+        out[op] = (byte)dist;
+        out[op + 1] = (byte)(dist >> 8);
+        if (wide) {
+            out[op + 2] = (byte)(dist >> 16);
+            return op + 3;
+        }
+        return op + 2;
     }
     
     /**
@@ -111,12 +603,49 @@ public final class Compressor {
      * @throws IOException if an I/O error occurs
      */
     public static void compress(InputStream in, OutputStream out) throws IOException {
+        compress(in, out, CompressionLevel.DEFAULT);
+    }
+    
+    /**
+     * Compress data from an InputStream and write to an OutputStream
+     * 
+     * @param in Input stream to read from
+     * @param out Output stream to write compressed data to
+     * @param level Compression level
+     * @throws IOException if an I/O error occurs
+     */
+    public static void compress(InputStream in, OutputStream out, CompressionLevel level) throws IOException {
         byte[] input = readAll(in);
-        byte[] compressed = compressSimple(input);
+        byte[] compressed = compressSimple(input, level);
         out.write(compressed);
         out.flush();
     }
     
+    /**
+     * Compress the remaining bytes of src into dst, which needs {@link #maxCompressedLength(int)}
+     * bytes remaining, advancing the position of both. Heap and direct buffers are accepted;
+     * see {@link OdzCompressorContext#compress(ByteBuffer, ByteBuffer)}.
+     */
+    public static OdzResult compress(ByteBuffer src, ByteBuffer dst) {
+        return compress(src, dst, CompressionLevel.DEFAULT);
+    }
+    
+    public static OdzResult compress(ByteBuffer src, ByteBuffer dst, CompressionLevel level) {
+        return OdzCompressorContext.forCurrentThread(level).compress(src, dst);
+    }
+    
+    private static int readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+        int total = 0;
+        while (total < len) {
+            int bytesRead = in.read(b, off + total, len - total);
+            if (bytesRead == -1) {
+                break;
+            }
+            total += bytesRead;
+        }
+        return total;
+    }
+    
     private static byte[] readAll(InputStream in) throws IOException {
         java.io.ByteArrayOutputStream buffer = new java.io.ByteArrayOutputStream();
         byte[] temp = new byte[8192];
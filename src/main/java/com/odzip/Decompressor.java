@@ -3,70 +3,698 @@ package com.odzip;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32C;
 
 /**
  * Decompressor for ODZ format
+ * 
+ * Corrupt or unsupported input throws an {@link OdzFormatException}. Sizes from headers are
+ * checked before any output is allocated: against what the input could possibly decode to,
+ * and against the caller's maxSize where one is given.
  */
 public final class Decompressor {
+    // Largest output of one group: 8 matches of maximum length
+    static final int MAX_GROUP_OUTPUT = 8 * OdzConstants.ODZ_MAX_MATCH;
+    // Largest input of one group: a flags byte and 8 match tokens
+    static final int MAX_GROUP_INPUT = 1 + 8 * 3;
+    // The same for LZ2 tokens, the longest of which has a 2-byte length and a 3-byte distance
+    static final int MAX_GROUP_OUTPUT_LZ2 = 8 * OdzConstants.ODZ_MAX_MATCH_LZ2;
+    static final int MAX_GROUP_INPUT_LZ2 = 1 + 8 * 6;
+    // Output room decodeTokens2's fast path needs for a group of matches without a length
+    // varint. It checks longer matches one by one.
+    private static final int FAST_GROUP_OUTPUT_LZ2 = 8 * (62 + OdzConstants.ODZ_MIN_MATCH);
+    // Largest output array the decoders allocate, and the default maxSize
+    static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    // Most raw bytes one byte of payload can decode to: four matches of ODZ_MAX_MATCH bytes,
+    // each a 1-bit Huffman length code and a 1-bit code for distance 1. An LZ2 token of
+    // ODZ_MAX_MATCH_LZ2 bytes takes at least 5 bytes, which stays below this.
+    static final int MAX_EXPANSION = 4 * OdzConstants.ODZ_MAX_MATCH;
     
     private Decompressor() {
         // Utility class
     }
     
     public static byte[] decompressSimple(byte[] in) {
-        if (in.length < 8) {
-            OdzUtil.die("truncated");
+        return decompressSimple(in, MAX_ARRAY_SIZE);
+    }
+    
+    /**
+     * Decompress in, which may come from an untrusted source: data declaring more than
+     * maxSize bytes is rejected with an {@link OdzSizeLimitException} before the output
+     * is allocated.
+     */
+    public static byte[] decompressSimple(byte[] in, int maxSize) {
+        if (!MetricsRegistry.enabled) {
+            return decode(in, maxSize);
+        }
+        long startTime = System.nanoTime();
+        byte[] out = decode(in, maxSize);
+        MetricsRegistry.decompressed(in.length, out.length, System.nanoTime() - startTime);
+        return out;
+    }
+    
+    private static byte[] decode(byte[] in, int maxSize) {
+        if (in.length < OdzConstants.ODZ_FRAMED_HEADER_SIZE) {
+            throw new OdzTruncatedException("truncated");
         }
         
         // Check magic header
-        if (in[0] != 'O' || in[1] != 'D' || in[2] != 'Z' || in[3] != OdzConstants.ODZ_VERSION) {
-            OdzUtil.die("bad magic");
+        if (in[0] != 'O' || in[1] != 'D' || in[2] != 'Z') {
+            throw new OdzFormatException("bad magic");
+        }
+        if (in[3] == OdzConstants.ODZ_VERSION_FRAMED) {
+            return decompressFramed(in, maxSize);
+        }
+        if (in[3] != OdzConstants.ODZ_VERSION) {
+            throw new OdzFormatException("bad magic");
+        }
+        if (in.length < 8) {
+            throw new OdzTruncatedException("truncated");
         }
         
         int rawLen = OdzUtil.readU32LE(in, 4);
+        checkRawLength(rawLen, in.length - 8, maxSize);
         byte[] out = new byte[rawLen];
+        decodeTokens(in, 8, in.length, out, 0, 0, rawLen);
+        return out;
+    }
+    
+    /**
+     * Decode a framed stream. The block headers are walked first to size the output exactly.
+     */
+    private static byte[] decompressFramed(byte[] in, int maxSize) {
+        BlockTable table = BlockTable.scan(in);
+        if (table.hasDictionary) {
+            throw new OdzUnsupportedException("dictionary required");
+        }
+        checkLimit(table.totalSize, maxSize);
+        byte[] out = new byte[table.totalSize];
+        for (int b = 0; b < table.count; b++) {
+            decodeBlock(in, table, b, out, 0, 0);
+        }
+        return out;
+    }
+    
+    /**
+     * Decompress a framed stream, decoding its blocks concurrently on the common ForkJoinPool
+     * when the stream was written with independent blocks.
+     */
+    public static byte[] decompressParallel(byte[] in) {
+        return decompressParallel(in, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Decompress a framed stream, decoding its blocks concurrently on executor when the
+     * stream was written with independent blocks. Each block decodes straight into its
+     * own slice of the output array.
+     * 
+     * Version 1 data and framed streams whose blocks depend on each other are decoded sequentially.
+     */
+    public static byte[] decompressParallel(byte[] in, Executor executor) {
+        return decompressParallel(in, MAX_ARRAY_SIZE, executor);
+    }
+    
+    /**
+     * As above, rejecting data that declares more than maxSize bytes before the output is allocated.
+     */
+    public static byte[] decompressParallel(byte[] in, int maxSize, Executor executor) {
+        if (in.length < OdzConstants.ODZ_FRAMED_HEADER_SIZE
+                || in[3] != OdzConstants.ODZ_VERSION_FRAMED
+                || (in[4] & OdzConstants.ODZ_FLAG_INDEPENDENT_BLOCKS) == 0) {
+            return decompressSimple(in, maxSize);
+        }
+        if (in[0] != 'O' || in[1] != 'D' || in[2] != 'Z') {
+            throw new OdzFormatException("bad magic");
+        }
+        
+        BlockTable table = BlockTable.scan(in);
+        if (table.hasDictionary) {
+            throw new OdzUnsupportedException("dictionary required");
+        }
+        checkLimit(table.totalSize, maxSize);
+        boolean metered = MetricsRegistry.enabled;
+        long startTime = metered ? System.nanoTime() : 0;
+        byte[] out = new byte[table.totalSize];
+        CompletableFuture<?>[] tasks = new CompletableFuture<?>[table.count];
+        for (int b = 0; b < table.count; b++) {
+            int block = b;
+            tasks[b] = CompletableFuture.runAsync(
+                () -> decodeBlock(in, table, block, out, 0, table.rawOffset[block]), executor);
+        }
+        try {
+            CompletableFuture.allOf(tasks).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw e;
+        }
+        if (metered) {
+            MetricsRegistry.decompressed(in.length, out.length, System.nanoTime() - startTime);
+        }
+        return out;
+    }
+    
+    /**
+     * Decode block b of a scanned framed stream into its slice of out, which starts at outOff.
+     * Matches may reach back to outStart.
+     */
+    static void decodeBlock(byte[] in, BlockTable table, int b, byte[] out, int outOff, int outStart) {
+        decodeBlock(in, table, b, out, outOff, outStart, null);
+    }
+    
+    /**
+     * As above, decoding a Huffman block with huffman, or a new decoder if it is null.
+     */
+    static void decodeBlock(byte[] in, BlockTable table, int b, byte[] out, int outOff, int outStart,
+                            HuffmanDecoder huffman) {
+        CRC32C checksum = table.hasChecksum ? new CRC32C() : null;
+        decodeBlock(table.type[b], in, table.compOffset[b], table.compSize[b], out, outStart, outOff + table.rawOffset[b],
+                    table.rawSize[b], huffman, checksum);
+        if (checksum != null) {
+            checkBlock(checksum, table.checksum[b]);
+        }
+    }
+    
+    /**
+     * Check the CRC32C computed while decoding a block against the one recorded after it.
+     */
+    static void checkBlock(CRC32C checksum, int expected) {
+        if ((int)checksum.getValue() != expected) {
+            throw new OdzChecksumException("checksum mismatch");
+        }
+    }
+    
+    /**
+     * Decode a block of the given type from in[ip, ip + compSize) into out[op, op + rawSize).
+     */
+    static void decodeBlock(int type, byte[] in, int ip, int compSize, byte[] out, int outStart, int op, int rawSize,
+                            HuffmanDecoder huffman) {
+        decodeBlock(type, in, ip, compSize, out, outStart, op, rawSize, huffman, null);
+    }
+    
+    /**
+     * As above, updating checksum with the block's output as it is produced if checksum is not null.
+     */
+    static void decodeBlock(int type, byte[] in, int ip, int compSize, byte[] out, int outStart, int op, int rawSize,
+                            HuffmanDecoder huffman, CRC32C checksum) {
+        int ipEnd = ip + compSize;
+        if (type == OdzConstants.ODZ_BLOCK_STORED) {
+            copyStored(in, ip, out, op, rawSize, checksum);
+        } else if (type == OdzConstants.ODZ_BLOCK_HUFFMAN) {
+            (huffman != null ? huffman : new HuffmanDecoder()).decodeBlock(in, ip, ipEnd, out, outStart, op, op + rawSize,
+                                                                            checksum);
+        } else if (type == OdzConstants.ODZ_BLOCK_LZ2) {
+            if (decodeTokens2(in, ip, ipEnd, out, outStart, op, op + rawSize, checksum) != ipEnd) {
+                throw new OdzFormatException("corrupt block");
+            }
+        } else if (decodeTokens(in, ip, ipEnd, out, outStart, op, op + rawSize, checksum) != ipEnd) {
+            throw new OdzFormatException("corrupt block");
+        }
+    }
+    
+    /**
+     * Copy a stored block's len bytes from in[ip] to out[op], updating checksum with each
+     * piece right after copying it if checksum is not null.
+     */
+    static void copyStored(byte[] in, int ip, byte[] out, int op, int len, CRC32C checksum) {
+        if (checksum == null) {
+            System.arraycopy(in, ip, out, op, len);
+            return;
+        }
+        for (int n = 0; n < len; n += OdzUtil.CHECKSUM_CHUNK) {
+            int piece = Math.min(OdzUtil.CHECKSUM_CHUNK, len - n);
+            System.arraycopy(in, ip + n, out, op + n, piece);
+            checksum.update(out, op + n, piece);
+        }
+    }
+    
+    /**
+     * Check the raw size in a version 1 header before the output is allocated: compLen
+     * bytes of groups must be able to decode to it, and it must be at most maxSize.
+     */
+    static void checkRawLength(int rawLen, int compLen, int maxSize) {
+        if (rawLen < 0 || rawLen > (long)compLen * MAX_EXPANSION) {
+            throw new OdzFormatException("bad size");
+        }
+        checkLimit(rawLen, maxSize);
+    }
+    
+    static void checkLimit(long size, long maxSize) {
+        if (size > maxSize) {
+            throw new OdzSizeLimitException(size, maxSize);
+        }
+    }
+    
+    /**
+     * Whether a framed block header is valid: a known type, sizes that are not negative,
+     * a Huffman block with some output and a stored block holding exactly its raw bytes.
+     * The payload must also be one a compressor could have written for the raw size, no
+     * larger than maxCompressedLength, and able to decode to it, which bounds what a
+     * header can make a decoder allocate.
+     */
+    static boolean validBlockHeader(int type, int rawSize, int compSize) {
+        if (rawSize < 0 || compSize < 0 || rawSize > MAX_ARRAY_SIZE || compSize > MAX_ARRAY_SIZE
+                || rawSize > (long)compSize * MAX_EXPANSION
+                || compSize > rawSize + rawSize / 8 + 28L) {
+            return false;
+        }
+        switch (type) {
+            case OdzConstants.ODZ_BLOCK_LZ:
+            case OdzConstants.ODZ_BLOCK_LZ2:
+                return true;
+            case OdzConstants.ODZ_BLOCK_HUFFMAN:
+                return rawSize > 0;
+            case OdzConstants.ODZ_BLOCK_STORED:
+                return compSize == rawSize;
+            default:
+                return false;
+        }
+    }
+    
+    /**
+     * Length of a framed header with the given flags byte: the fixed part plus any
+     * fields the flags call for.
+     */
+    static int framedHeaderSize(int flags) {
+        if ((flags & ~OdzConstants.ODZ_FLAGS_SUPPORTED & 0xFF) != 0) {
+            throw new OdzUnsupportedException("unsupported flags");
+        }
+        int size = OdzConstants.ODZ_FRAMED_HEADER_SIZE;
+        if ((flags & OdzConstants.ODZ_FLAG_CONTENT_SIZE) != 0) {
+            size += 8;
+        }
+        if ((flags & OdzConstants.ODZ_FLAG_DICTIONARY) != 0) {
+            size += 4;
+        }
+        if ((flags & OdzConstants.ODZ_FLAG_WINDOW) != 0) {
+            size += 1;
+        }
+        return size;
+    }
+    
+    /**
+     * Check the window log from a framed header with ODZ_FLAG_WINDOW.
+     * 
+     * @return the window log
+     */
+    static int checkWindowLog(byte windowLog) {
+        if (windowLog < OdzConstants.ODZ_MIN_WINDOW_LOG || windowLog > OdzConstants.ODZ_MAX_WINDOW_LOG) {
+            throw new OdzFormatException("bad window size");
+        }
+        return windowLog;
+    }
+    
+    /**
+     * Offsets and sizes of the blocks of a framed stream, from one pass over the block headers
+     */
+    static final class BlockTable {
+        int count;
+        int totalSize;
+        long contentSize = -1;
+        boolean hasDictionary;
+        int dictionaryId;
+        // Log2 of the window from ODZ_FLAG_WINDOW, or 0 without LZ2 blocks
+        int windowLog;
+        boolean hasChecksum;
+        int[] compOffset = new int[16];
+        int[] compSize = new int[16];
+        int[] rawOffset = new int[16];
+        int[] rawSize = new int[16];
+        int[] type = new int[16];
+        int[] checksum = new int[16];
+        
+        static BlockTable scan(byte[] in) {
+            return new BlockTable().scan(in, 0, in.length);
+        }
         
-        int ip = 8;
-        int op = 0;
+        /**
+         * Scan the framed stream in in[start, end), replacing this table's contents.
+         */
+        BlockTable scan(byte[] in, int start, int end) {
+            count = 0;
+            contentSize = -1;
+            hasDictionary = false;
+            windowLog = 0;
+            long total = 0;
+            int flags = in[start + 4];
+            hasChecksum = (flags & OdzConstants.ODZ_FLAG_CHECKSUM) != 0;
+            int trailerSize = hasChecksum ? OdzConstants.ODZ_CHECKSUM_SIZE : 0;
+            int streamChecksum = 0;
+            int ip = start + framedHeaderSize(flags);
+            if (ip > end) {
+                throw new OdzTruncatedException("truncated");
+            }
+            int fp = start + OdzConstants.ODZ_FRAMED_HEADER_SIZE;
+            if ((flags & OdzConstants.ODZ_FLAG_CONTENT_SIZE) != 0) {
+                contentSize = OdzUtil.readU64LE(in, fp);
+                if (contentSize < 0) {
+                    throw new OdzFormatException("bad size");
+                }
+                checkLimit(contentSize, MAX_ARRAY_SIZE);
+                fp += 8;
+            }
+            if ((flags & OdzConstants.ODZ_FLAG_DICTIONARY) != 0) {
+                hasDictionary = true;
+                dictionaryId = OdzUtil.readU32LE(in, fp);
+                fp += 4;
+            }
+            if ((flags & OdzConstants.ODZ_FLAG_WINDOW) != 0) {
+                windowLog = checkWindowLog(in[fp]);
+            }
+            while (true) {
+                if (ip >= end) {
+                    throw new OdzTruncatedException("truncated");
+                }
+                if (in[ip] == OdzConstants.ODZ_BLOCK_END) {
+                    // The stream checksum must agree with the block checksums, which the
+                    // blocks are checked against as they are decoded
+                    if (end - ip - 1 < trailerSize) {
+                        throw new OdzTruncatedException("truncated");
+                    }
+                    if (hasChecksum && OdzUtil.readU32LE(in, ip + 1) != streamChecksum) {
+                        throw new OdzChecksumException("checksum mismatch");
+                    }
+                    break;
+                }
+                int type = in[ip];
+                if (ip + OdzConstants.ODZ_BLOCK_HEADER_SIZE > end) {
+                    throw new OdzTruncatedException("truncated");
+                }
+                int rawSize = OdzUtil.readU32LE(in, ip + 1);
+                int compSize = OdzUtil.readU32LE(in, ip + 5);
+                ip += OdzConstants.ODZ_BLOCK_HEADER_SIZE;
+                if (!validBlockHeader(type, rawSize, compSize) || compSize > end - ip - trailerSize
+                        || (type == OdzConstants.ODZ_BLOCK_LZ2 && windowLog == 0)) {
+                    throw new OdzFormatException("corrupt block header");
+                }
+                checkLimit(total + rawSize, MAX_ARRAY_SIZE);
+                int blockChecksum = 0;
+                if (hasChecksum) {
+                    blockChecksum = OdzUtil.readU32LE(in, ip + compSize);
+                    streamChecksum = OdzUtil.crc32cCombine(streamChecksum, blockChecksum, rawSize);
+                }
+                add(type, ip, compSize, (int)total, rawSize, blockChecksum);
+                total += rawSize;
+                ip += compSize + trailerSize;
+            }
+            if (contentSize >= 0 && total != contentSize) {
+                throw new OdzFormatException("size mismatch");
+            }
+            totalSize = (int)total;
+            return this;
+        }
         
-        while (ip < in.length && op < rawLen) {
+        private void add(int type, int compOffset, int compSize, int rawOffset, int rawSize, int checksum) {
+            if (count == this.compOffset.length) {
+                int capacity = count * 2;
+                this.type = Arrays.copyOf(this.type, capacity);
+                this.compOffset = Arrays.copyOf(this.compOffset, capacity);
+                this.compSize = Arrays.copyOf(this.compSize, capacity);
+                this.rawOffset = Arrays.copyOf(this.rawOffset, capacity);
+                this.rawSize = Arrays.copyOf(this.rawSize, capacity);
+                this.checksum = Arrays.copyOf(this.checksum, capacity);
+            }
+            this.type[count] = type;
+            this.compOffset[count] = compOffset;
+            this.compSize[count] = compSize;
+            this.rawOffset[count] = rawOffset;
+            this.rawSize[count] = rawSize;
+            this.checksum[count] = checksum;
+            count++;
+        }
+    }
+    
+    /**
+     * Decode flag groups from in[ip, ipEnd) into out[op, opEnd).
+     * Matches may reach back to outStart.
+     * 
+     * @return the input position after the last token
+     */
+    static int decodeTokens(byte[] in, int ip, int ipEnd, byte[] out, int outStart, int op, int opEnd) {
+        return decodeTokens(in, ip, ipEnd, out, outStart, op, opEnd, null);
+    }
+    
+    /**
+     * As above, updating checksum with each CHECKSUM_CHUNK or so of output, group by group,
+     * if checksum is not null.
+     */
+    static int decodeTokens(byte[] in, int ip, int ipEnd, byte[] out, int outStart, int op, int opEnd,
+                            CRC32C checksum) {
+        int checked = op;
+        int chunk = checksum != null ? OdzUtil.CHECKSUM_CHUNK : Integer.MAX_VALUE;
+        while (ip < ipEnd && op < opEnd) {
+            if (op - checked >= chunk) {
+                checksum.update(out, checked, op - checked);
+                checked = op;
+            }
+            if (ipEnd - ip >= MAX_GROUP_INPUT && opEnd - op >= MAX_GROUP_OUTPUT) {
+                // Room for a whole group either way, so only distances need checking
+                int flags = in[ip++] & 0xFF;
+                if (flags == 0) {
+                    System.arraycopy(in, ip, out, op, 8);
+                    ip += 8;
+                    op += 8;
+                    continue;
+                }
+                for (int k = 0; k < 8; k++, flags >>>= 1) {
+                    if ((flags & 1) != 0) {
+                        int len = (in[ip] & 0xFF) + OdzConstants.ODZ_MIN_MATCH;
+                        int dist = (in[ip + 1] & 0xFF) | ((in[ip + 2] & 0xFF) << 8);
+                        ip += 3;
+                        if (dist <= 0 || dist > op - outStart) {
+                            throw new OdzFormatException("bad distance");
+                        }
+                        copyMatch(out, op, dist, len);
+                        op += len;
+                    } else {
+                        out[op++] = in[ip++];
+                    }
+                }
+                continue;
+            }
+            
             byte flags = in[ip++];
             
-            for (int k = 0; k < 8 && op < rawLen; k++) {
+            for (int k = 0; k < 8 && op < opEnd; k++) {
                 if ((flags & (1 << k)) != 0) {
                     // Match token (3 bytes)
-                    if (ip + 3 > in.length) {
-                        OdzUtil.die("corrupt match token");
+                    if (ip + 3 > ipEnd) {
+                        throw new OdzFormatException("corrupt match token");
                     }
                     int len = (in[ip++] & 0xFF) + OdzConstants.ODZ_MIN_MATCH;
                     int dist = (in[ip++] & 0xFF) | ((in[ip++] & 0xFF) << 8);
                     
-                    if (dist <= 0 || dist > op) {
-                        OdzUtil.die("bad distance");
+                    if (dist <= 0 || dist > op - outStart) {
+                        throw new OdzFormatException("bad distance");
+                    }
+                    if (len > opEnd - op) {
+                        throw new OdzFormatException("overrun");
                     }
                     
-                    int from = op - dist;
-                    for (int t = 0; t < len; t++) {
-                        if (op >= rawLen) {
-                            OdzUtil.die("overrun");
+                    copyMatch(out, op, dist, len);
+                    op += len;
+                } else {
+                    // Literal token (1 byte)
+                    if (ip >= ipEnd) {
+                        throw new OdzFormatException("corrupt literal");
+                    }
+                    out[op++] = in[ip++];
+                }
+            }
+        }
+        
+        if (op != opEnd) {
+            throw new OdzFormatException("size mismatch");
+        }
+        if (checksum != null) {
+            checksum.update(out, checked, op - checked);
+        }
+        
+        return ip;
+    }
+    
+    /**
+     * Decode LZ2 flag groups from in[ip, ipEnd) into out[op, opEnd), as {@link #decodeTokens}
+     * does LZ groups. Matches may reach back to outStart.
+     * 
+     * @return the input position after the last token
+     */
+    static int decodeTokens2(byte[] in, int ip, int ipEnd, byte[] out, int outStart, int op, int opEnd) {
+        return decodeTokens2(in, ip, ipEnd, out, outStart, op, opEnd, null);
+    }
+    
+    /**
+     * As above, updating checksum with the output as {@link #decodeTokens} does.
+     */
+    static int decodeTokens2(byte[] in, int ip, int ipEnd, byte[] out, int outStart, int op, int opEnd,
+                             CRC32C checksum) {
+        int checked = op;
+        int chunk = checksum != null ? OdzUtil.CHECKSUM_CHUNK : Integer.MAX_VALUE;
+        while (ip < ipEnd && op < opEnd) {
+            if (op - checked >= chunk) {
+                checksum.update(out, checked, op - checked);
+                checked = op;
+            }
+            if (ipEnd - ip >= MAX_GROUP_INPUT_LZ2 && opEnd - op >= FAST_GROUP_OUTPUT_LZ2) {
+                // Room for a whole group of short tokens either way, so only distances need checking
+                int groupIp = ip;
+                int groupOp = op;
+                int flags = in[ip++] & 0xFF;
+                if (flags == 0) {
+                    System.arraycopy(in, ip, out, op, 8);
+                    ip += 8;
+                    op += 8;
+                    continue;
+                }
+                int k = 0;
+                for (; k < 8; k++, flags >>>= 1) {
+                    if ((flags & 1) == 0) {
+                        out[op++] = in[ip++];
+                        continue;
+                    }
+                    int b0 = in[ip] & 0xFF;
+                    int len;
+                    int dist;
+                    if (b0 < 0xBF) {
+                        // A short match or one with a 16-bit distance and no length varint. Which
+                        // one is unpredictable, so select between them with a mask, not a branch.
+                        int b1 = in[ip + 1] & 0xFF;
+                        int isShort = (b0 - 0x80) >> 31;
+                        len = ((b0 >>> 4) & isShort | (b0 & 0x3F) & ~isShort) + OdzConstants.ODZ_MIN_MATCH;
+                        dist = (((b0 & 0x0F) << 8 | b1) + 1) & isShort | (b1 | (in[ip + 2] & 0xFF) << 8) & ~isShort;
+                        ip += 3 + isShort;
+                    } else {
+                        long match = readMatch2(in, ip, ipEnd);
+                        len = (int)match & 0xFFFF;
+                        if (len > opEnd - op - FAST_GROUP_OUTPUT_LZ2) {
+                            break;
                         }
-                        out[op++] = out[from + t];
+                        dist = (int)(match >>> 16);
+                        ip += (int)(match >>> 48);
+                    }
+                    if (dist <= 0 || dist > op - outStart) {
+                        throw new OdzFormatException("bad distance");
+                    }
+                    copyMatch(out, op, dist, len);
+                    op += len;
+                }
+                if (k == 8) {
+                    continue;
+                }
+                // A long match too close to opEnd: decode the group again with every token checked
+                ip = groupIp;
+                op = groupOp;
+            }
+            
+            byte flags = in[ip++];
+            
+            for (int k = 0; k < 8 && op < opEnd; k++) {
+                if ((flags & (1 << k)) != 0) {
+                    long match = readMatch2(in, ip, ipEnd);
+                    int len = (int)match & 0xFFFF;
+                    int dist = (int)(match >>> 16);
+                    ip += (int)(match >>> 48);
+                    if (dist <= 0 || dist > op - outStart) {
+                        throw new OdzFormatException("bad distance");
+                    }
+                    if (len > opEnd - op) {
+                        throw new OdzFormatException("overrun");
                     }
+                    copyMatch(out, op, dist, len);
+                    op += len;
                 } else {
-                    // Literal token (1 byte)
-                    if (ip >= in.length) {
-                        OdzUtil.die("corrupt literal");
+                    if (ip >= ipEnd) {
+                        throw new OdzFormatException("corrupt literal");
                     }
                     out[op++] = in[ip++];
                 }
             }
         }
         
-        if (op != rawLen) {
-            OdzUtil.die("size mismatch");
+        if (op != opEnd) {
+            throw new OdzFormatException("size mismatch");
+        }
+        if (checksum != null) {
+            checksum.update(out, checked, op - checked);
         }
         
-        return out;
+        return ip;
+    }
+    
+    /**
+     * Read the LZ2 match token starting at in[ip], which must end by ipEnd.
+     * 
+     * @return the length in the low 16 bits, the distance in the next 32 and the token size above them
+     */
+    static long readMatch2(byte[] in, int ip, int ipEnd) {
+        if (ip >= ipEnd) {
+            throw new OdzFormatException("corrupt match token");
+        }
+        int b0 = in[ip];
+        if (b0 >= 0) {
+            if (ipEnd - ip < 2) {
+                throw new OdzFormatException("corrupt match token");
+            }
+            int dist = ((b0 & 0x0F) << 8 | (in[ip + 1] & 0xFF)) + 1;
+            return (b0 >>> 4) + OdzConstants.ODZ_MIN_MATCH | (long)dist << 16 | 2L << 48;
+        }
+        int p = ip + 1;
+        int len = (b0 & 0x3F) + OdzConstants.ODZ_MIN_MATCH;
+        if (len == 63 + OdzConstants.ODZ_MIN_MATCH) {
+            // At most two varint bytes
+            int extra = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (p >= ipEnd || shift == 14) {
+                    throw new OdzFormatException("corrupt match token");
+                }
+                int b = in[p++];
+                extra |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            len += extra;
+            if (len > OdzConstants.ODZ_MAX_MATCH_LZ2) {
+                throw new OdzFormatException("corrupt match token");
+            }
+        }
+        int distSize = (b0 & 0x40) != 0 ? 3 : 2;
+        if (ipEnd - p < distSize) {
+            throw new OdzFormatException("corrupt match token");
+        }
+        int dist = (in[p] & 0xFF) | (in[p + 1] & 0xFF) << 8;
+        if (distSize == 3) {
+            dist |= (in[p + 2] & 0xFF) << 16;
+        }
+        p += distSize;
+        return len | (long)dist << 16 | (long)(p - ip) << 48;
+    }
+    
+    /**
+     * Copy a match of len bytes from dist bytes back. The caller has checked both bounds.
+     */
+    static void copyMatch(byte[] out, int op, int dist, int len) {
+        int from = op - dist;
+        if (dist >= len) {
+            System.arraycopy(out, from, out, op, len);
+        } else if (dist == 1) {
+            Arrays.fill(out, op, op + len, out[from]);
+        } else {
+            // Overlapping: everything from 'from' up to op repeats, so each copy can double
+            int end = op + len;
+            while (op < end) {
+                int chunk = Math.min(op - from, end - op);
+                System.arraycopy(out, from, out, op, chunk);
+                op += chunk;
+            }
+        }
     }
     
     /**
@@ -83,6 +711,22 @@ public final class Decompressor {
         out.flush();
     }
     
+    /**
+     * Decompress the remaining bytes of src, one compressed input, into dst, advancing the
+     * position of both. Heap and direct buffers are accepted; see
+     * {@link OdzDecompressorContext#decompress(ByteBuffer, ByteBuffer)}.
+     */
+    public static OdzResult decompress(ByteBuffer src, ByteBuffer dst) {
+        return OdzDecompressorContext.forCurrentThread().decompress(src, dst);
+    }
+    
+    /**
+     * Decompressed size of the remaining bytes of src, for sizing the destination
+     */
+    public static int decompressedLength(ByteBuffer src) {
+        return OdzDecompressorContext.forCurrentThread().decompressedLength(src);
+    }
+    
     private static byte[] readAll(InputStream in) throws IOException {
         java.io.ByteArrayOutputStream buffer = new java.io.ByteArrayOutputStream();
         byte[] temp = new byte[8192];
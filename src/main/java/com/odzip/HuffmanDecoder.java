@@ -0,0 +1,264 @@
+package com.odzip;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32C;
+
+/**
+ * Table-driven decoder for Huffman blocks (ODZ_BLOCK_HUFFMAN).
+ * 
+ * The payload is a single bit stream, read from the lowest bit of each byte up. It starts with
+ * the code lengths of two canonical Huffman codes, then holds the same tokens as an LZ block:
+ * a literal/length symbol, and for a match a distance symbol giving the bit length of the
+ * distance followed by the distance bits below its top bit. The stream is padded to a whole
+ * byte, and decoding must end exactly there.
+ * 
+ * Codes are at most MAX_CODE_LENGTH bits, so one lookup into a table indexed by the next
+ * MAX_CODE_LENGTH bits decodes any symbol. The decoder can stop between tokens and resume
+ * when the input or output buffer runs out, keeping the bits it has read ahead in between.
+ */
+final class HuffmanDecoder {
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    
+    // 256 literals, then match lengths minus ODZ_MIN_MATCH
+    static final int LITERAL_LENGTH_SYMBOLS = 512;
+    // Distances 1-65535 have a top bit at 0-15
+    static final int DISTANCE_SYMBOLS = 16;
+    static final int MAX_CODE_LENGTH = 12;
+    
+    // Each code length is a 4-bit field: 0-12 is the length of one symbol, and these two
+    // stand for runs of unused symbols
+    static final int ZERO_RUN_SHORT = 13; // 4 more bits: 3-18 unused symbols
+    static final int ZERO_RUN_LONG = 14;  // 7 more bits: 19-146 unused symbols
+    // Most bytes the code lengths can take: every field 4 bits
+    static final int MAX_TABLE_BYTES = (LITERAL_LENGTH_SYMBOLS + DISTANCE_SYMBOLS) * 4 / 8;
+    // Most bits of one token: two codes and 15 distance bits
+    private static final int MAX_TOKEN_BITS = 2 * MAX_CODE_LENGTH + 15;
+    private static final int TABLE_MASK = (1 << MAX_CODE_LENGTH) - 1;
+    
+    // Entries are symbol << 4 | code length; 0 marks bit patterns no code starts with
+    private final int[] literalLengthTable = new int[1 << MAX_CODE_LENGTH];
+    private final int[] distanceTable = new int[1 << MAX_CODE_LENGTH];
+    private final byte[] lengths = new byte[LITERAL_LENGTH_SYMBOLS + DISTANCE_SYMBOLS];
+    
+    // The low bitCount bits of bits are read ahead from the input but not yet decoded
+    private long bits;
+    private int bitCount;
+    // Output position reached by the last call to decode
+    int position;
+    
+    /**
+     * Decode a whole block payload in[ip, ipEnd) into out[op, opEnd). Matches may reach back to outStart.
+     */
+    void decodeBlock(byte[] in, int ip, int ipEnd, byte[] out, int outStart, int op, int opEnd) {
+        decodeBlock(in, ip, ipEnd, out, outStart, op, opEnd, null);
+    }
+    
+    /**
+     * As above, decoding CHECKSUM_CHUNK bytes or so at a time and updating checksum with
+     * each piece if checksum is not null.
+     */
+    void decodeBlock(byte[] in, int ip, int ipEnd, byte[] out, int outStart, int op, int opEnd, CRC32C checksum) {
+        ip = readTables(in, ip, ipEnd);
+        if (checksum == null) {
+            ip = decode(in, ip, ipEnd, true, out, outStart, op, opEnd, opEnd);
+        } else {
+            position = op;
+            do {
+                int start = position;
+                ip = decode(in, ip, ipEnd, true, out, outStart, start,
+                            start + Math.min(OdzUtil.CHECKSUM_CHUNK, opEnd - start), opEnd);
+                checksum.update(out, start, position - start);
+            } while (position < opEnd);
+        }
+        if (position != opEnd) {
+            throw new OdzFormatException("size mismatch");
+        }
+        checkEnd(ip, ipEnd);
+    }
+    
+    /**
+     * Start a block: read both code length tables and build the lookup tables.
+     * in[ip, ipEnd) must hold MAX_TABLE_BYTES of the payload, or all of it if shorter.
+     * 
+     * @return the input position after the bytes read ahead
+     */
+    int readTables(byte[] in, int ip, int ipEnd) {
+        bits = 0;
+        bitCount = 0;
+        int total = lengths.length;
+        for (int s = 0; s < total; ) {
+            ip = refill(in, ip, ipEnd);
+            int field = take(4);
+            if (field <= MAX_CODE_LENGTH) {
+                lengths[s++] = (byte)field;
+                continue;
+            }
+            int run;
+            if (field == ZERO_RUN_SHORT) {
+                run = 3 + take(4);
+            } else if (field == ZERO_RUN_LONG) {
+                run = 19 + take(7);
+            } else {
+                throw new OdzFormatException("corrupt code lengths");
+            }
+            if (run > total - s) {
+                throw new OdzFormatException("corrupt code lengths");
+            }
+            while (run-- > 0) {
+                lengths[s++] = 0;
+            }
+        }
+        buildTable(lengths, 0, LITERAL_LENGTH_SYMBOLS, literalLengthTable);
+        buildTable(lengths, LITERAL_LENGTH_SYMBOLS, DISTANCE_SYMBOLS, distanceTable);
+        return ip;
+    }
+    
+    private int take(int n) {
+        if (bitCount < n) {
+            throw new OdzTruncatedException("truncated block");
+        }
+        int v = (int)bits & ((1 << n) - 1);
+        bits >>>= n;
+        bitCount -= n;
+        return v;
+    }
+    
+    /**
+     * Fill the lookup table for a canonical code: codes are assigned in order of length,
+     * then symbol, and stored bit-reversed since the stream is read from the low bit up.
+     */
+    private static void buildTable(byte[] lengths, int first, int count, int[] table) {
+        int[] lengthCount = new int[MAX_CODE_LENGTH + 1];
+        for (int s = 0; s < count; s++) {
+            lengthCount[lengths[first + s]]++;
+        }
+        lengthCount[0] = 0;
+        int[] nextCode = new int[MAX_CODE_LENGTH + 1];
+        int code = 0;
+        for (int len = 1; len <= MAX_CODE_LENGTH; len++) {
+            code = (code + lengthCount[len - 1]) << 1;
+            nextCode[len] = code;
+            if (code + lengthCount[len] > 1 << len) {
+                throw new OdzFormatException("corrupt code lengths");
+            }
+        }
+        java.util.Arrays.fill(table, 0);
+        for (int s = 0; s < count; s++) {
+            int len = lengths[first + s];
+            if (len == 0) {
+                continue;
+            }
+            int reversed = Integer.reverse(nextCode[len]++) >>> (32 - len);
+            int entry = (s << 4) | len;
+            for (int j = reversed; j < table.length; j += 1 << len) {
+                table[j] = entry;
+            }
+        }
+    }
+    
+    /**
+     * Read ahead until at least 56 bits are buffered or the input ends.
+     */
+    private int refill(byte[] in, int ip, int ipEnd) {
+        if (ipEnd - ip >= 8) {
+            int n = (63 - bitCount) >>> 3;
+            bits |= (long)LONG_LE.get(in, ip) << bitCount;
+            bitCount += n << 3;
+            bits &= -1L >>> (64 - bitCount);
+            return ip + n;
+        }
+        while (bitCount <= 56 && ip < ipEnd) {
+            bits |= (long)(in[ip++] & 0xFF) << bitCount;
+            bitCount += 8;
+        }
+        return ip;
+    }
+    
+    /**
+     * Decode tokens from in[ip, ipEnd) into out from op. Matches may reach back to outStart
+     * and must not run past opEnd, the end of the block's output.
+     * 
+     * Stops before a token that would start at or after opLimit, or, unless lastInput says
+     * in[ip, ipEnd) is the rest of the block, when too little input is left to be sure of
+     * decoding the next token. The output position reached is left in {@link #position}.
+     * 
+     * @return the input position after the bytes read ahead
+     */
+    int decode(byte[] in, int ip, int ipEnd, boolean lastInput, byte[] out, int outStart,
+               int op, int opLimit, int opEnd) {
+        final int[] literalLengths = literalLengthTable;
+        final int[] distances = distanceTable;
+        long bits = this.bits;
+        int bitCount = this.bitCount;
+        int limit = Math.min(opLimit, opEnd);
+        
+        while (op < limit) {
+            if (bitCount < MAX_TOKEN_BITS) {
+                if (ipEnd - ip >= 8) {
+                    int n = (63 - bitCount) >>> 3;
+                    bits |= (long)LONG_LE.get(in, ip) << bitCount;
+                    bitCount += n << 3;
+                    bits &= -1L >>> (64 - bitCount);
+                    ip += n;
+                } else if (!lastInput) {
+                    break;
+                } else {
+                    while (bitCount <= 56 && ip < ipEnd) {
+                        bits |= (long)(in[ip++] & 0xFF) << bitCount;
+                        bitCount += 8;
+                    }
+                }
+            }
+            
+            int entry = literalLengths[(int)bits & TABLE_MASK];
+            int n = entry & 15;
+            if (n == 0 || n > bitCount) {
+                throw new OdzFormatException("corrupt block");
+            }
+            bits >>>= n;
+            bitCount -= n;
+            int symbol = entry >>> 4;
+            if (symbol < 256) {
+                out[op++] = (byte)symbol;
+                continue;
+            }
+            
+            int len = symbol - 256 + OdzConstants.ODZ_MIN_MATCH;
+            entry = distances[(int)bits & TABLE_MASK];
+            n = entry & 15;
+            int top = entry >>> 4;
+            if (n == 0 || n + top > bitCount) {
+                throw new OdzFormatException("corrupt block");
+            }
+            bits >>>= n;
+            int dist = (1 << top) | ((int)bits & ((1 << top) - 1));
+            bits >>>= top;
+            bitCount -= n + top;
+            if (dist > op - outStart) {
+                throw new OdzFormatException("bad distance");
+            }
+            if (len > opEnd - op) {
+                throw new OdzFormatException("overrun");
+            }
+            Decompressor.copyMatch(out, op, dist, len);
+            op += len;
+        }
+        
+        this.bits = bits;
+        this.bitCount = bitCount;
+        this.position = op;
+        return ip;
+    }
+    
+    /**
+     * Check that a finished block used its whole payload: all input read, and fewer than
+     * 8 bits of padding left.
+     */
+    void checkEnd(int ip, int ipEnd) {
+        if (ip != ipEnd || bitCount >= 8) {
+            throw new OdzFormatException("corrupt block");
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.odzip;
+
+import java.util.Arrays;
+
+/**
+ * Rewrites the flag groups of an LZ block as a Huffman block (see {@link HuffmanDecoder}),
+ * with codes built from the symbol counts of that block.
+ */
+final class HuffmanEncoder {
+    private static final int SYMBOLS = HuffmanDecoder.LITERAL_LENGTH_SYMBOLS + HuffmanDecoder.DISTANCE_SYMBOLS;
+    
+    private final int[] counts = new int[SYMBOLS];
+    private final byte[] lengths = new byte[SYMBOLS];
+    private final int[] codes = new int[SYMBOLS];
+    private long[] sorted = new long[SYMBOLS];
+    private byte[] buffer = new byte[0];
+    
+    // Bit writer: the low bitCount bits of bits are not yet written out
+    private long bits;
+    private int bitCount;
+    
+    /**
+     * Encode the flag groups in tokens[tp, tpEnd) as a Huffman block payload, left at the
+     * start of {@link #output()}.
+     * 
+     * @return the payload size, or -1 if it would not be smaller than the groups
+     */
+    int encode(byte[] tokens, int tp, int tpEnd) {
+        Arrays.fill(counts, 0);
+        long extraBits = 0;
+        for (int ip = tp; ip < tpEnd; ) {
+            int flags = tokens[ip++];
+            for (int k = 0; k < 8 && ip < tpEnd; k++) {
+                if ((flags & (1 << k)) != 0) {
+                    counts[256 + (tokens[ip] & 0xFF)]++;
+                    int top = distanceTop(tokens, ip);
+                    counts[HuffmanDecoder.LITERAL_LENGTH_SYMBOLS + top]++;
+                    extraBits += top;
+                    ip += 3;
+                } else {
+                    counts[tokens[ip++] & 0xFF]++;
+                }
+            }
+        }
+        buildLengths(0, HuffmanDecoder.LITERAL_LENGTH_SYMBOLS);
+        buildLengths(HuffmanDecoder.LITERAL_LENGTH_SYMBOLS, HuffmanDecoder.DISTANCE_SYMBOLS);
+        
+        int limit = tpEnd - tp;
+        if (buffer.length < Math.max(limit, HuffmanDecoder.MAX_TABLE_BYTES)) {
+            buffer = new byte[Math.max(limit, HuffmanDecoder.MAX_TABLE_BYTES)];
+        }
+        byte[] out = buffer;
+        bits = 0;
+        bitCount = 0;
+        int op = writeLengths(out, 0);
+        long payloadBits = 8L * op + bitCount + extraBits;
+        for (int s = 0; s < SYMBOLS; s++) {
+            payloadBits += (long)counts[s] * lengths[s];
+        }
+        if ((payloadBits + 7) / 8 >= limit) {
+            return -1;
+        }
+        
+        assignCodes(0, HuffmanDecoder.LITERAL_LENGTH_SYMBOLS);
+        assignCodes(HuffmanDecoder.LITERAL_LENGTH_SYMBOLS, HuffmanDecoder.DISTANCE_SYMBOLS);
+        for (int ip = tp; ip < tpEnd; ) {
+            int flags = tokens[ip++];
+            for (int k = 0; k < 8 && ip < tpEnd; k++) {
+                if ((flags & (1 << k)) != 0) {
+                    int symbol = 256 + (tokens[ip] & 0xFF);
+                    write(codes[symbol], lengths[symbol]);
+                    int dist = (tokens[ip + 1] & 0xFF) | ((tokens[ip + 2] & 0xFF) << 8);
+                    int top = distanceTop(tokens, ip);
+                    symbol = HuffmanDecoder.LITERAL_LENGTH_SYMBOLS + top;
+                    write(codes[symbol], lengths[symbol]);
+                    write(dist & ((1 << top) - 1), top);
+                    ip += 3;
+                } else {
+                    int symbol = tokens[ip++] & 0xFF;
+                    write(codes[symbol], lengths[symbol]);
+                }
+                op = flush(out, op);
+            }
+        }
+        if (bitCount > 0) {
+            out[op++] = (byte)bits;
+        }
+        return op;
+    }
+    
+    /**
+     * The buffer holding the last payload encoded
+     */
+    byte[] output() {
+        return buffer;
+    }
+    
+    /**
+     * Position of the top bit of the distance in the match token at ip
+     */
+    private static int distanceTop(byte[] tokens, int ip) {
+        int dist = (tokens[ip + 1] & 0xFF) | ((tokens[ip + 2] & 0xFF) << 8);
+        if (dist == 0) {
+            throw new IllegalStateException("match token with distance 0");
+        }
+        return 31 - Integer.numberOfLeadingZeros(dist);
+    }
+    
+    private void write(int value, int n) {
+        bits |= (long)value << bitCount;
+        bitCount += n;
+    }
+    
+    private int flush(byte[] out, int op) {
+        while (bitCount >= 8) {
+            out[op++] = (byte)bits;
+            bits >>>= 8;
+            bitCount -= 8;
+        }
+        return op;
+    }
+    
+    /**
+     * Write the code lengths of both alphabets, leaving a partial byte in the bit writer.
+     */
+    private int writeLengths(byte[] out, int op) {
+        for (int s = 0; s < SYMBOLS; ) {
+            int run = 0;
+            while (s + run < SYMBOLS && lengths[s + run] == 0 && run < 146) {
+                run++;
+            }
+            if (run >= 19) {
+                write(HuffmanDecoder.ZERO_RUN_LONG, 4);
+                write(run - 19, 7);
+                s += run;
+            } else if (run >= 3) {
+                write(HuffmanDecoder.ZERO_RUN_SHORT, 4);
+                write(Math.min(run, 18) - 3, 4);
+                s += Math.min(run, 18);
+            } else {
+                write(lengths[s++], 4);
+            }
+            op = flush(out, op);
+        }
+        return op;
+    }
+    
+    /**
+     * Huffman code lengths for counts[first, first + n), limited to MAX_CODE_LENGTH bits.
+     * 
+     * Lengths come from the usual bottom-up merge of the two lightest nodes. Any longer than
+     * the limit are cut to it, and the least frequent symbols are then lengthened until the
+     * lengths form a valid prefix code again.
+     */
+    private void buildLengths(int first, int n) {
+        int used = 0;
+        for (int s = 0; s < n; s++) {
+            lengths[first + s] = 0;
+            if (counts[first + s] > 0) {
+                sorted[used++] = ((long)counts[first + s] << 16) | s;
+            }
+        }
+        if (used == 0) {
+            return;
+        }
+        if (used == 1) {
+            lengths[first + (int)(sorted[0] & 0xFFFF)] = 1;
+            return;
+        }
+        Arrays.sort(sorted, 0, used);
+        
+        // Leaves 0..used-1 by weight, then internal nodes in the order they are made,
+        // which is also by weight, so the two lightest are always at the front of either list
+        long[] weight = new long[2 * used - 1];
+        int[] parent = new int[2 * used - 1];
+        for (int i = 0; i < used; i++) {
+            weight[i] = sorted[i] >>> 16;
+        }
+        int leaf = 0;
+        int node = used;
+        for (int next = used; next < 2 * used - 1; next++) {
+            int a = leaf < used && (node >= next || weight[leaf] <= weight[node]) ? leaf++ : node++;
+            int b = leaf < used && (node >= next || weight[leaf] <= weight[node]) ? leaf++ : node++;
+            weight[next] = weight[a] + weight[b];
+            parent[a] = next;
+            parent[b] = next;
+        }
+        int[] depth = new int[2 * used - 1];
+        for (int i = 2 * used - 3; i >= 0; i--) {
+            depth[i] = depth[parent[i]] + 1;
+        }
+        
+        int max = HuffmanDecoder.MAX_CODE_LENGTH;
+        long kraft = 0;
+        for (int i = 0; i < used; i++) {
+            depth[i] = Math.min(depth[i], max);
+            kraft += 1L << (max - depth[i]);
+        }
+        while (kraft > 1L << max) {
+            for (int i = 0; i < used && kraft > 1L << max; i++) {
+                if (depth[i] < max) {
+                    kraft -= 1L << (max - depth[i] - 1);
+                    depth[i]++;
+                }
+            }
+        }
+        // Give any room left back to the most frequent symbols
+        for (int i = used - 1; i >= 0; i--) {
+            while (depth[i] > 1 && kraft + (1L << (max - depth[i])) <= 1L << max) {
+                kraft += 1L << (max - depth[i]);
+                depth[i]--;
+            }
+        }
+        for (int i = 0; i < used; i++) {
+            lengths[first + (int)(sorted[i] & 0xFFFF)] = (byte)depth[i];
+        }
+    }
+    
+    /**
+     * Canonical codes for the lengths, bit-reversed for the low-bit-first stream
+     */
+    private void assignCodes(int first, int n) {
+        int[] lengthCount = new int[HuffmanDecoder.MAX_CODE_LENGTH + 1];
+        for (int s = 0; s < n; s++) {
+            lengthCount[lengths[first + s]]++;
+        }
+        lengthCount[0] = 0;
+        int[] nextCode = new int[HuffmanDecoder.MAX_CODE_LENGTH + 1];
+        int code = 0;
+        for (int len = 1; len <= HuffmanDecoder.MAX_CODE_LENGTH; len++) {
+            code = (code + lengthCount[len - 1]) << 1;
+            nextCode[len] = code;
+        }
+        for (int s = 0; s < n; s++) {
+            int len = lengths[first + s];
+            if (len > 0) {
+                codes[first + s] = Integer.reverse(nextCode[len]++) >>> (32 - len);
+            }
+        }
+    }
+}
@@ -1,100 +1,583 @@
 package com.odzip;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
 /**
- * LZ77 matcher using hash chains for finding matches
+ * LZ77 matcher using hash chains for finding matches.
+ * 
+ * Memory is fixed whatever the input size: a hash table of 2^hashBits heads and a ring of
+ * chain links, PREV_SIZE or one per position of a larger window, enough to reach back a whole window.
+ * A larger window's ring shrinks to the input the matcher sees at once, when that is smaller.
+ * 
+ * Chains are keyed on the first hashLength (3-6) bytes of each position, taken from a single
+ * little-endian long load. Keys longer than the minimum match keep chains short on repetitive
+ * data; the minimum-length matches they miss are found through an optional table holding the
+ * last position for each 3-byte key.
  */
 public class LzMatcher {
+    // Little-endian long view, so the lowest set bit of an XOR marks the first differing byte
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    
+    // 64-bit multiplicative hash constant (xxHash's PRIME64_2)
+    private static final long PRIME = 0xC2B2AE3D27D4EB4FL;
+    
+    static final int DEFAULT_HASH_LENGTH = 4;
+    // Size of the 3-byte fallback table
+    static final int HASH3_BITS = 12;
+    
+    // Chain links are kept for the last PREV_SIZE positions, which must exceed ODZ_WINDOW
+    static final int PREV_SIZE = 1 << 16;
+    
+    // head and prev hold base + position, and prev is indexed by that value modulo the ring size,
+    // ringMask + 1. Anything below base was stored before the last reset (or is -1) and reads as
+    // an empty slot.
     private int[] head;
-    private int[] prev;
+    private final int[] prev;
+    private final int ringMask;
+    // Farthest distance and longest match for tree mode, from the level's token version
+    private final int treeWindow;
+    private final int treeMaxMatch;
+    private int base;
     private int n;
-    private int hashMask;
+    private int hashLength;
+    // Shift that keeps the low hashLength bytes of a loaded long, and the one that takes hashBits from the product
+    private int keyShift;
+    private int hashShift;
     private int maxChainSteps;
+    private int niceLength;
+    private int lastInserted;
+    private int matchDist;
+    
+    // Last position for each 3-byte key (base + position as in head), or null without a fallback table
+    private int[] head3;
+    
+    // Preset dictionary occupying the first dictLen bytes of the input, hashed once by
+    // setDictionary and never modified, so reset leaves it in place
+    private int[] dictHead;
+    private int[] dictPrev;
+    private int dictLen;
+    
+    // Binary tree mode (PARSE_OPTIMAL), in place of prev: each position has a smaller and a larger
+    // child in tree, at slots 2 * ring index and 2 * ring index + 1, and head holds the root of
+    // each bucket's tree
+    private final int[] tree;
+    // OptimalParser's per-position state for one chunk, allocated with the tree so parsing
+    // a block allocates nothing
+    int[] parsePrice;
+    int[] parseLength;
+    int[] parseDistance;
+    int[] parsePath;
+    
+    // Coder for the blocks of a Huffman level, created on first use
+    private HuffmanEncoder huffmanEncoder;
+    
+    // Work done since the last resetStats, reported through OdzMetrics
+    long chainSteps;
+    long matches;
+    long matchBytes;
+    long lazyChecks;
+    long lazyHits;
     
     public LzMatcher(int nBlock, int hashBits, int maxChainSteps) {
-        int hashSize = 1 << hashBits;
-        this.head = new int[hashSize];
-        this.prev = new int[nBlock];
+        this(nBlock, hashBits, maxChainSteps, OdzConstants.ODZ_MAX_MATCH);
+    }
+    
+    public LzMatcher(int nBlock, CompressionLevel level) {
+        // Without lazy evaluation a greedy minimum-length match would shadow longer ones just ahead
+        this(nBlock, level.hashBits, level.hashLength, level.lazyMode != CompressionLevel.LAZY_NONE,
+             level.maxChainSteps, level.niceLength, level.windowLog, level.lazyMode == CompressionLevel.PARSE_OPTIMAL);
+    }
+    
+    /**
+     * @param niceLength Stop walking the chain once a match of at least this length is found
+     */
+    public LzMatcher(int nBlock, int hashBits, int maxChainSteps, int niceLength) {
+        this(nBlock, hashBits, DEFAULT_HASH_LENGTH, true, maxChainSteps, niceLength);
+    }
+    
+    /**
+     * @param hashLength Number of bytes hashed per position, 3 to 6
+     * @param hash3 Find matches shorter than hashLength through a table of 3-byte keys
+     */
+    LzMatcher(int nBlock, int hashBits, int hashLength, boolean hash3, int maxChainSteps, int niceLength) {
+        this(nBlock, hashBits, hashLength, hash3, maxChainSteps, niceLength, 0, false);
+    }
+    
+    /**
+     * @param nBlock Most input the matcher sees at once, which bounds a larger window's ring
+     * @param windowLog Log2 of the window of LZ2 tokens (see {@link CompressionLevel#withWindowLog(int)}),
+     *                  or 0 for LZ tokens
+     * @param treeMode Find matches through binary trees for OptimalParser instead of chains
+     */
+    private LzMatcher(int nBlock, int hashBits, int hashLength, boolean hash3, int maxChainSteps, int niceLength,
+                      int windowLog, boolean treeMode) {
+        this.head = new int[1 << hashBits];
+        int ring = PREV_SIZE;
+        if (windowLog != 0) {
+            // Positions past the first nBlock are never reached
+            ring = 1 << windowLog;
+            while (ring > PREV_SIZE && ring / 2 >= nBlock) {
+                ring /= 2;
+            }
+        }
+        this.ringMask = ring - 1;
+        if (treeMode) {
+            this.prev = null;
+            this.tree = new int[2 * (ringMask + 1)];
+            this.parsePrice = new int[OptimalParser.CHUNK + 1];
+            this.parseLength = new int[OptimalParser.CHUNK + 1];
+            this.parseDistance = new int[OptimalParser.CHUNK + 1];
+            this.parsePath = new int[OptimalParser.CHUNK + 1];
+        } else {
+            this.prev = new int[ringMask + 1];
+            this.tree = null;
+        }
+        this.treeWindow = windowLog != 0 ? ringMask : OdzConstants.ODZ_WINDOW;
+        this.treeMaxMatch = windowLog != 0 ? OdzConstants.ODZ_MAX_MATCH_LZ2 : OdzConstants.ODZ_MAX_MATCH;
         this.n = nBlock;
-        this.hashMask = hashSize - 1;
+        this.hashLength = hashLength;
+        this.keyShift = 64 - 8 * hashLength;
+        this.hashShift = 64 - hashBits;
+        if (hash3 && hashLength > OdzConstants.ODZ_MIN_MATCH) {
+            this.head3 = new int[1 << HASH3_BITS];
+            Arrays.fill(head3, -1);
+        }
         this.maxChainSteps = maxChainSteps;
-        
-        // Initialize head array with -1
-        for (int i = 0; i < head.length; i++) {
-            head[i] = -1;
+        this.niceLength = niceLength;
+        this.lastInserted = -1;
+        this.base = 0;
+        Arrays.fill(head, -1);
+    }
+    
+    HuffmanEncoder huffmanEncoder() {
+        if (huffmanEncoder == null) {
+            huffmanEncoder = new HuffmanEncoder();
         }
+        return huffmanEncoder;
     }
     
+    /**
+     * Start over on new input of nBlock bytes.
+     * 
+     * Instead of refilling head, base moves past every position stored so far so that
+     * old entries read as empty. head is only refilled when base would overflow.
+     */
     public void reset(int nBlock) {
+        long next = (long)base + Math.max(n, lastInserted + 1);
+        if (next + nBlock >= Integer.MAX_VALUE) {
+            Arrays.fill(head, -1);
+            if (head3 != null) {
+                Arrays.fill(head3, -1);
+            }
+            base = 0;
+        } else {
+            base = (int)next;
+        }
+        this.n = nBlock;
+        this.lastInserted = -1;
+    }
+    
+    /**
+     * Set the end of valid input for {@link #insert(byte[], int)} without clearing the tables.
+     */
+    public void setLimit(int nBlock) {
         this.n = nBlock;
-        // Reset head array with -1
-        for (int i = 0; i < head.length; i++) {
-            head[i] = -1;
+    }
+    
+    /**
+     * Rebase the tables after the caller has moved its buffer down by delta bytes.
+     * Stored values stay put and base moves up instead, so positions that fall below
+     * zero read as empty.
+     */
+    public void slide(int delta) {
+        if ((long)base + delta + n >= Integer.MAX_VALUE) {
+            // Renormalize by a multiple of the ring size so ring slots stay where they are
+            int shift = base & ~ringMask;
+            renormalize(head, shift);
+            if (head3 != null) {
+                renormalize(head3, shift);
+            }
+            renormalize(tree != null ? tree : prev, shift);
+            base -= shift;
+        }
+        base += delta;
+        n -= delta;
+        lastInserted -= delta;
+    }
+    
+    private void renormalize(int[] table, int shift) {
+        for (int k = 0; k < table.length; k++) {
+            table[k] = table[k] >= base ? table[k] - shift : -1;
+        }
+    }
+    
+    /**
+     * Use the first dictLen bytes of buf as a preset dictionary. Every later input must start
+     * with the same bytes, with positions from dictLen on inserted as usual. Searches continue
+     * into the dictionary once a position's own chain is exhausted.
+     */
+    public void setDictionary(byte[] buf, int dictLen) {
+        int[] dh = new int[head.length];
+        int[] dp = new int[dictLen];
+        Arrays.fill(dh, -1);
+        Arrays.fill(dp, -1);
+        for (int p = 0; p + hashLength <= dictLen; p++) {
+            int h = hash(load(buf, p));
+            dp[p] = dh[h];
+            dh[h] = p;
         }
+        this.dictHead = dh;
+        this.dictPrev = dp;
+        this.dictLen = dictLen;
     }
     
-    private static int hash3(byte a, byte b, byte c, int mask) {
-        int k = ((a & 0xFF) << 16) ^ ((b & 0xFF) << 8) ^ (c & 0xFF);
-        return (int)((k * 2654435761L) & mask);
+    /**
+     * The eight bytes at i as a little-endian long. Near the end of the array the missing
+     * high bytes read as zero; callers only hash bytes below the end of input.
+     */
+    private static long load(byte[] in, int i) {
+        if (i + 8 <= in.length) {
+            return (long)LONG_LE.get(in, i);
+        }
+        long v = 0;
+        for (int k = 0; k < in.length - i; k++) {
+            v |= (in[i + k] & 0xFFL) << (8 * k);
+        }
+        return v;
+    }
+    
+    /**
+     * Chain bucket for the low hashLength bytes of v
+     */
+    private int hash(long v) {
+        return (int)((v << keyShift) * PRIME >>> hashShift);
     }
     
+    /**
+     * Fallback table slot for the low three bytes of v
+     */
+    private static int hash3(long v) {
+        return (int)((v << 40) * PRIME >>> (64 - HASH3_BITS));
+    }
+    
+    /**
+     * Add position i to its hash chain. Positions must be inserted in increasing order;
+     * inserting a position again is a no-op.
+     */
     public void insert(byte[] in, int i) {
-        if (i + 2 >= n) {
-            prev[i] = -1;
+        if (i <= lastInserted) {
             return;
         }
-        int h = hash3(in[i], in[i + 1], in[i + 2], hashMask);
-        prev[i] = head[h];
-        head[h] = i;
+        if (tree != null) {
+            insertTree(in, i, n, false);
+            return;
+        }
+        lastInserted = i;
+        if (i + hashLength > n) {
+            prev[(base + i) & ringMask] = -1;
+            if (head3 != null && i + OdzConstants.ODZ_MIN_MATCH <= n) {
+                head3[hash3(load(in, i))] = base + i;
+            }
+            return;
+        }
+        link(i, load(in, i));
     }
     
-    private static int matchLen(byte[] a, int aOff, byte[] b, int bOff, int maxLen) {
+    /**
+     * Add positions from to to - 1 to their hash chains, as if each was passed to
+     * {@link #insert(byte[], int)}. Positions already inserted are skipped.
+     * 
+     * Each long loaded holds the keys of 9 - hashLength consecutive positions, which makes
+     * inserting every position covered by a match cheap.
+     */
+    public void insertRange(byte[] in, int from, int to) {
+        int i = Math.max(from, lastInserted + 1);
+        if (tree == null) {
+            int step = 9 - hashLength;
+            // Positions below last have all their key bytes in the input, and the loads stay in the array
+            int last = Math.min(Math.min(to, n - hashLength + 1), in.length - 7);
+            if (i + step <= last) {
+                while (i + step <= last) {
+                    long v = (long)LONG_LE.get(in, i);
+                    for (int k = 0; k < step; k++) {
+                        link(i++, v);
+                        v >>>= 8;
+                    }
+                }
+                lastInserted = i - 1;
+            }
+        }
+        for (; i < to; i++) {
+            insert(in, i);
+        }
+    }
+    
+    /**
+     * Link position i, whose bytes from i on are the low bytes of v, into its chain
+     */
+    private void link(int i, long v) {
+        int h = hash(v);
+        prev[(base + i) & ringMask] = head[h];
+        head[h] = base + i;
+        if (head3 != null) {
+            head3[hash3(v)] = base + i;
+        }
+    }
+    
+    static int matchLen(byte[] a, int aOff, byte[] b, int bOff, int maxLen) {
         int len = 0;
-        // Simple byte-by-byte comparison
+        // Eight bytes at a time, then byte by byte for the tail
+        while (len <= maxLen - 8) {
+            long diff = (long)LONG_LE.get(a, aOff + len) ^ (long)LONG_LE.get(b, bOff + len);
+            if (diff != 0) {
+                return len + (Long.numberOfTrailingZeros(diff) >>> 3);
+            }
+            len += 8;
+        }
         while (len < maxLen && a[aOff + len] == b[bOff + len]) {
             len++;
         }
         return len;
     }
     
-    public void findBest(byte[] in, int i, int n, int window, int minMatch, int maxMatch,
-                        int[] outLen, int[] outDist) {
+    /**
+     * Find the longest match for position i.
+     * 
+     * @return the match length, or 0 if there is no match of at least minMatch bytes;
+     *         the distance of the match is available from {@link #matchDistance()}
+     */
+    public int findBest(byte[] in, int i, int n, int window, int minMatch, int maxMatch) {
         int bestLen = 0;
         int bestDist = 0;
         
-        if (i + minMatch <= n) {
-            int h = hash3(in[i], in[i + 1], in[i + 2], hashMask);
-            int p = head[h];
+        if (i + hashLength <= n) {
+            int h = hash(load(in, i));
+            int p = head[h] - base;
+            if (p < dictLen) {
+                p = dictHead != null ? dictHead[h] : -1;
+            }
             int steps = 0;
             int maxl = Math.min(n - i, maxMatch);
+            int stopLen = Math.min(maxl, niceLength);
+            // Chains run from nearest to farthest, so the walk ends at the first position out
+            // of the window or old enough for a later insert to have reused its prev slot
+            int lowest = Math.max(Math.max(0, i - window), lastInserted - ringMask);
             
-            while (p >= 0 && steps++ < maxChainSteps) {
+            while (p >= lowest && steps < maxChainSteps) {
+                steps++;
                 int dist = i - p;
-                if (dist > 0 && dist <= window) {
+                // A candidate must be longer than bestLen to win, and on a tie the earlier,
+                // nearer one already holds. bestLen < stopLen <= maxl here, so the byte at
+                // bestLen is in range.
+                if (dist > 0 && in[p + bestLen] == in[i + bestLen]) {
                     int l = matchLen(in, p, in, i, maxl);
-                    if (l >= minMatch && (l > bestLen || (l == bestLen && dist < bestDist))) {
+                    if (l >= minMatch && l > bestLen) {
                         bestLen = l;
                         bestDist = dist;
-                        if (l == maxl) {
-                            break; // best possible at this i
+                        if (l >= stopLen) {
+                            break; // best possible at this i, or good enough
                         }
                     }
                 }
-                p = prev[p];
+                if (p >= dictLen) {
+                    p = prev[(base + p) & ringMask] - base;
+                    if (p < dictLen) {
+                        // End of the input's own chain; carry on into the dictionary
+                        p = dictHead != null ? dictHead[h] : -1;
+                    }
+                } else {
+                    p = dictPrev[p];
+                }
+            }
+            chainSteps += steps;
+        }
+        if (bestLen < hashLength && head3 != null && i + minMatch <= n) {
+            // Matches shorter than the chain key can only come from the fallback table
+            int p = head3[hash3(load(in, i))] - base;
+            if (p >= Math.max(0, i - window) && p < i) {
+                int l = matchLen(in, p, in, i, Math.min(n - i, maxMatch));
+                if (l >= minMatch && l > bestLen) {
+                    bestLen = l;
+                    bestDist = i - p;
+                }
             }
         }
         
-        outLen[0] = bestLen;
-        outDist[0] = bestDist;
+        matchDist = bestDist;
+        return bestLen;
     }
     
-    public void findBestNext(byte[] in, int i, int n, int window, int minMatch, int maxMatch,
-                            int[] outLen, int[] outDist) {
+    /**
+     * Insert position i into its bucket's binary tree and find the longest match for it on the way
+     * (tree mode only). Every position must go through here or {@link #insert(byte[], int)}, in order.
+     * 
+     * @return the match length, or 0 if there is no match of at least ODZ_MIN_MATCH bytes within
+     *         window; the distance is available from {@link #matchDistance()}
+     */
+    public int findBestTree(byte[] in, int i, int n, int window) {
+        if (i <= lastInserted) {
+            matchDist = 0;
+            return 0;
+        }
+        int bestLen = insertTree(in, i, n, true);
+        if (dictHead != null && i + hashLength <= n) {
+            // The dictionary is only hashed into chains; walk them after the tree
+            int bestDist = matchDist;
+            int maxl = Math.min(n - i, treeMaxMatch);
+            int p = dictHead[hash(load(in, i))];
+            for (int steps = 0; p >= Math.max(0, i - window) && bestLen < maxl && steps < maxChainSteps; steps++) {
+                if (in[p + bestLen] == in[i + bestLen]) {
+                    int l = matchLen(in, p, in, i, maxl);
+                    if (l > bestLen && l >= OdzConstants.ODZ_MIN_MATCH) {
+                        bestLen = l;
+                        bestDist = i - p;
+                    }
+                }
+                p = dictPrev[p];
+            }
+            matchDist = bestDist;
+        }
+        return bestLen;
+    }
+    
+    /**
+     * Binary tree insertion as in LZMA's bt finders. The tree under each hash bucket is ordered by
+     * the suffixes starting at its positions, so walking down from the root towards position i
+     * passes its closest neighbours, which share the longest prefixes with it. i becomes the new
+     * root and the nodes passed are split between its two subtrees. len0 and len1 track how many
+     * bytes i shares with everything left in the larger and smaller subtree, so comparisons
+     * start past them.
+     */
+    private int insertTree(byte[] in, int i, int n, boolean find) {
+        lastInserted = i;
+        int slot = ((base + i) & ringMask) << 1;
+        int maxl = Math.min(n - i, treeMaxMatch);
+        long v = maxl >= OdzConstants.ODZ_MIN_MATCH ? load(in, i) : 0;
+        // Nearest earlier position with the same 3-byte key, for matches shorter than the tree's key
+        int p3 = -1;
+        if (head3 != null && maxl >= OdzConstants.ODZ_MIN_MATCH) {
+            int h3 = hash3(v);
+            p3 = head3[h3] - base;
+            head3[h3] = base + i;
+        }
+        if (maxl < hashLength) {
+            tree[slot] = -1;
+            tree[slot + 1] = -1;
+            return find ? fallbackMatch(in, i, p3, maxl, 0, 0) : 0;
+        }
+        int h = hash(v);
+        int p = head[h] - base;
+        head[h] = base + i;
+        int lowest = Math.max(Math.max(Math.max(0, dictLen), i - treeWindow), i - ringMask);
+        
+        int smallerSlot = slot;     // where the next node smaller than i gets linked
+        int largerSlot = slot + 1;  // where the next node larger than i gets linked
+        int len0 = 0;
+        int len1 = 0;
+        int bestLen = 0;
+        int bestDist = 0;
+        int steps = 0;
+        for (; ; steps++) {
+            if (p < lowest || steps >= maxChainSteps) {
+                tree[smallerSlot] = -1;
+                tree[largerSlot] = -1;
+                break;
+            }
+            int pSlot = ((base + p) & ringMask) << 1;
+            int len = Math.min(len0, len1);
+            if (in[p + len] == in[i + len]) {
+                len += matchLen(in, p + len, in, i + len, maxl - len);
+                if (find && len > bestLen) {
+                    bestLen = len;
+                    bestDist = i - p;
+                }
+                if (len == maxl) {
+                    if (maxl == treeMaxMatch) {
+                        // p can stand in for i from here on: i takes over its children
+                        tree[smallerSlot] = tree[pSlot];
+                        tree[largerSlot] = tree[pSlot + 1];
+                    } else {
+                        // Cut short by the end of input, so i's order relative to p's subtrees
+                        // is unknown; drop them to keep the tree consistent
+                        tree[smallerSlot] = -1;
+                        tree[largerSlot] = -1;
+                    }
+                    break;
+                }
+            }
+            if ((in[p + len] & 0xFF) < (in[i + len] & 0xFF)) {
+                tree[smallerSlot] = base + p;
+                smallerSlot = pSlot + 1;
+                p = tree[smallerSlot] - base;
+                len1 = len;
+            } else {
+                tree[largerSlot] = base + p;
+                largerSlot = pSlot;
+                p = tree[largerSlot] - base;
+                len0 = len;
+            }
+        }
+        chainSteps += steps;
+        return find ? fallbackMatch(in, i, p3, maxl, bestLen, bestDist) : 0;
+    }
+    
+    /**
+     * Settle the result of a tree search: try p3 from the fallback table if the tree found
+     * nothing as long as its key, and drop anything shorter than ODZ_MIN_MATCH.
+     */
+    private int fallbackMatch(byte[] in, int i, int p3, int maxl, int bestLen, int bestDist) {
+        if (bestLen < hashLength && p3 >= Math.max(Math.max(0, dictLen), i - treeWindow) && p3 < i) {
+            int l = matchLen(in, p3, in, i, maxl);
+            if (l > bestLen) {
+                bestLen = l;
+                bestDist = i - p3;
+            }
+        }
+        if (bestLen < OdzConstants.ODZ_MIN_MATCH) {
+            bestLen = 0;
+            bestDist = 0;
+        }
+        matchDist = bestDist;
+        return bestLen;
+    }
+    
+    /**
+     * Find the longest match for position i + 1 (used for lazy matching).
+     * 
+     * @return the match length, or 0 if there is no match;
+     *         the distance of the match is available from {@link #matchDistance()}
+     */
+    public int findBestNext(byte[] in, int i, int n, int window, int minMatch, int maxMatch) {
         if (i + 1 >= n) {
-            outLen[0] = 0;
-            outDist[0] = 0;
-            return;
+            matchDist = 0;
+            return 0;
         }
         // Pretend i+1 is the current position
-        findBest(in, i + 1, n, window, minMatch, maxMatch, outLen, outDist);
+        return findBest(in, i + 1, n, window, minMatch, maxMatch);
+    }
+    
+    void resetStats() {
+        chainSteps = 0;
+        matches = 0;
+        matchBytes = 0;
+        lazyChecks = 0;
+        lazyHits = 0;
+    }
+    
+    /**
+     * Number of positions the chain ring or tree holds
+     */
+    int ringSize() {
+        return ringMask + 1;
+    }
+    
+    /**
+     * Distance of the match returned by the last call to findBest/findBestNext
+     */
+    public int matchDistance() {
+        return matchDist;
     }
 }
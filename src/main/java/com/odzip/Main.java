@@ -1,8 +1,8 @@
 package com.odzip;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
 
 /**
  * Main entry point for ODZ compression/decompression tool
@@ -10,33 +10,78 @@ import java.nio.file.Paths;
 public class Main {
     
     public static void main(String[] args) {
-        if (args.length != 3) {
+        CompressionLevel level = CompressionLevel.DEFAULT;
+        boolean huffman = false;
+        boolean checksum = false;
+        int windowLog = 0;
+        while (args.length > 3 && args[1].matches("-[1-9]|--optimal|--huffman|--checksum|--window=\\d{1,2}")) {
+            if (args[1].equals("--huffman")) {
+                huffman = true;
+            } else if (args[1].equals("--checksum")) {
+                checksum = true;
+            } else if (args[1].startsWith("--window=")) {
+                windowLog = Integer.parseInt(args[1].substring("--window=".length()));
+            } else {
+                level = args[1].equals("--optimal") ? CompressionLevel.OPTIMAL : CompressionLevel.of(args[1].charAt(1) - '0');
+            }
+            String command = args[0];
+            args = Arrays.copyOfRange(args, 1, args.length);
+            args[0] = command;
+        }
+        try {
+            if (huffman) {
+                level = level.withHuffman();
+            }
+            if (windowLog != 0) {
+                level = level.withWindowLog(windowLog);
+            }
+        } catch (IllegalArgumentException e) {
+            die(e.getMessage());
+        }
+        char mode = args.length > 0 && !args[0].isEmpty() ? args[0].charAt(0) : '?';
+        if (mode == 'a' ? args.length < 3 : mode == 'l' ? args.length != 2 : args.length != 3) {
             System.err.println("usage:");
-            System.err.println("  java -jar odzip4j.jar c <in> <out>");
+            System.err.println("  java -jar odzip4j.jar c [-1..-9 | --optimal] [--huffman | --window=16..24] [--checksum] <in> <out>");
             System.err.println("  java -jar odzip4j.jar d <in> <out>");
+            System.err.println("  java -jar odzip4j.jar a [-1..-9 | --optimal] [--huffman | --window=16..24] <archive> <file or dir>...");
+            System.err.println("  java -jar odzip4j.jar x <archive> <dir>");
+            System.err.println("  java -jar odzip4j.jar l <archive>");
             System.exit(2);
         }
         
-        char mode = args[0].charAt(0);
-        String inputPath = args[1];
-        String outputPath = args[2];
-        
         try {
-            byte[] input = Files.readAllBytes(Paths.get(inputPath));
-            byte[] output;
-            
             if (mode == 'c') {
-                output = Compressor.compressSimple(input);
+                OdzFiles.compress(Paths.get(args[1]), Paths.get(args[2]), level, checksum);
             } else if (mode == 'd') {
-                output = Decompressor.decompressSimple(input);
+                OdzFiles.decompress(Paths.get(args[1]), Paths.get(args[2]));
+            } else if (mode == 'a') {
+                try (OdzArchiveWriter writer = new OdzArchiveWriter(Paths.get(args[1]), level)) {
+                    for (int i = 2; i < args.length; i++) {
+                        writer.add(Paths.get(args[i]));
+                    }
+                }
+            } else if (mode == 'x') {
+                try (OdzArchiveReader reader = new OdzArchiveReader(Paths.get(args[1]))) {
+                    reader.extractAll(Paths.get(args[2]));
+                }
+            } else if (mode == 'l') {
+                try (OdzArchiveReader reader = new OdzArchiveReader(Paths.get(args[1]))) {
+                    for (OdzArchiveEntry entry : reader.entries()) {
+                        System.out.println(entry);
+                    }
+                }
             } else {
-                OdzUtil.die("mode must be c or d");
-                return; // unreachable
+                die("mode must be c, d, a, x or l");
             }
-            
-            Files.write(Paths.get(outputPath), output);
         } catch (IOException e) {
-            OdzUtil.die("IO error: " + e.getMessage());
+            die("IO error: " + e.getMessage());
+        } catch (OdzFormatException e) {
+            die(e.getMessage());
         }
     }
+    
+    private static void die(String message) {
+        System.err.println("err: " + message);
+        System.exit(1);
+    }
 }
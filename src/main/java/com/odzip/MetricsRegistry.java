@@ -0,0 +1,64 @@
+package com.odzip;
+
+import java.util.Arrays;
+import java.util.ServiceLoader;
+
+/**
+ * The registered {@link OdzMetrics} listeners. Encoders and decoders check {@link #enabled}
+ * before timing or counting anything.
+ */
+final class MetricsRegistry {
+    static volatile boolean enabled;
+    private static volatile OdzMetrics[] listeners = new OdzMetrics[0];
+    
+    static {
+        for (OdzMetrics metrics : ServiceLoader.load(OdzMetrics.class, OdzMetrics.class.getClassLoader())) {
+            register(metrics);
+        }
+    }
+    
+    private MetricsRegistry() {
+        // Utility class
+    }
+    
+    static synchronized void register(OdzMetrics metrics) {
+        if (metrics == null) {
+            throw new NullPointerException("metrics");
+        }
+        OdzMetrics[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+        updated[listeners.length] = metrics;
+        listeners = updated;
+        enabled = true;
+    }
+    
+    static synchronized boolean unregister(OdzMetrics metrics) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == metrics) {
+                OdzMetrics[] updated = new OdzMetrics[listeners.length - 1];
+                System.arraycopy(listeners, 0, updated, 0, i);
+                System.arraycopy(listeners, i + 1, updated, i, updated.length - i);
+                listeners = updated;
+                enabled = updated.length > 0;
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Report a compression, with the work counted by matcher since its stats were reset.
+     */
+    static void compressed(CompressionLevel level, LzMatcher matcher, int rawBytes, int compressedBytes, long nanos) {
+        OdzCompressionStats stats = new OdzCompressionStats(level, rawBytes, compressedBytes, nanos, matcher.matches,
+            matcher.matchBytes, matcher.chainSteps, matcher.lazyChecks, matcher.lazyHits);
+        for (OdzMetrics metrics : listeners) {
+            metrics.compressed(stats);
+        }
+    }
+    
+    static void decompressed(long compressedBytes, long rawBytes, long nanos) {
+        for (OdzMetrics metrics : listeners) {
+            metrics.decompressed(compressedBytes, rawBytes, nanos);
+        }
+    }
+}
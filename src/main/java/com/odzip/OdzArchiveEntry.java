@@ -0,0 +1,82 @@
+package com.odzip;
+
+/**
+ * A file or directory in an ODZ archive, as listed in its central directory.
+ * 
+ * Names are relative paths with '/' between components, and a directory's entries
+ * follow its own.
+ */
+public final class OdzArchiveEntry {
+    private final String name;
+    private final boolean directory;
+    private final int permissions;
+    private final long lastModified;
+    long size;
+    // Where the entry's framed stream starts in the archive, and its length
+    long dataOffset;
+    long dataLength;
+    
+    OdzArchiveEntry(String name, boolean directory, int permissions, long lastModified) {
+        this.name = name;
+        this.directory = directory;
+        this.permissions = permissions;
+        this.lastModified = lastModified;
+    }
+    
+    public String name() {
+        return name;
+    }
+    
+    public boolean isDirectory() {
+        return directory;
+    }
+    
+    /**
+     * POSIX permission bits, such as 0644
+     */
+    public int permissions() {
+        return permissions;
+    }
+    
+    /**
+     * Modification time in milliseconds since the epoch
+     */
+    public long lastModified() {
+        return lastModified;
+    }
+    
+    /**
+     * Uncompressed size, 0 for a directory
+     */
+    public long size() {
+        return size;
+    }
+    
+    /**
+     * Size of the entry's data in the archive, 0 for a directory
+     */
+    public long compressedSize() {
+        return dataLength;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s %04o %d", directory ? name + "/" : name, permissions, size);
+    }
+    
+    /**
+     * Whether name is a usable entry name: not empty, relative, with no empty, "." or ".."
+     * components and no backslashes, which some platforms take as separators.
+     */
+    static boolean validName(String name) {
+        if (name.isEmpty() || name.indexOf('\\') >= 0 || name.indexOf('\0') >= 0) {
+            return false;
+        }
+        for (String component : name.split("/", -1)) {
+            if (component.isEmpty() || component.equals(".") || component.equals("..")) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
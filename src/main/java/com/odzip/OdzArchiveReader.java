@@ -0,0 +1,338 @@
+package com.odzip;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Reads an archive written by {@link OdzArchiveWriter}.
+ * 
+ * The central directory is read from the end of the archive when the reader is opened,
+ * so any one entry is read or extracted from its own data without scanning the rest.
+ * {@link #extractAll(Path, Executor)} extracts entries concurrently. Entries may be
+ * read from several threads at once.
+ */
+public final class OdzArchiveReader implements Closeable {
+    private static final int COPY_SIZE = 1 << 16;
+    // Entries up to this size, compressed and not, are extracted in one piece
+    private static final int SMALL_ENTRY_SIZE = 1 << 20;
+    
+    private final SeekableByteChannel channel;
+    private final boolean ownsChannel;
+    private final List<OdzArchiveEntry> entries;
+    private final Map<String, OdzArchiveEntry> byName;
+    
+    public OdzArchiveReader(Path archive) throws IOException {
+        this(FileChannel.open(archive, StandardOpenOption.READ), true);
+    }
+    
+    public OdzArchiveReader(SeekableByteChannel channel) throws IOException {
+        this(channel, false);
+    }
+    
+    private OdzArchiveReader(SeekableByteChannel channel, boolean ownsChannel) throws IOException {
+        this.channel = channel;
+        this.ownsChannel = ownsChannel;
+        try {
+            long size = channel.size();
+            if (size < OdzConstants.ODZ_ARCHIVE_HEADER_SIZE + OdzConstants.ODZ_ARCHIVE_TRAILER_SIZE) {
+                throw new OdzTruncatedException("truncated");
+            }
+            byte[] header = new byte[OdzConstants.ODZ_ARCHIVE_HEADER_SIZE];
+            readFully(0, header, header.length);
+            if (header[0] != 'O' || header[1] != 'D' || header[2] != 'Z' || header[3] != 'A') {
+                throw new OdzFormatException("bad magic");
+            }
+            if (header[4] != OdzConstants.ODZ_ARCHIVE_VERSION) {
+                throw new OdzUnsupportedException("unsupported archive version " + header[4]);
+            }
+            
+            byte[] trailer = new byte[OdzConstants.ODZ_ARCHIVE_TRAILER_SIZE];
+            readFully(size - trailer.length, trailer, trailer.length);
+            if (trailer[12] != 'O' || trailer[13] != 'D' || trailer[14] != 'Z' || trailer[15] != 'C') {
+                throw new OdzFormatException("missing central directory");
+            }
+            long directoryOffset = OdzUtil.readU64LE(trailer, 0);
+            int count = OdzUtil.readU32LE(trailer, 8);
+            long directorySize = size - trailer.length - directoryOffset;
+            if (directoryOffset < header.length || directorySize < 0 || directorySize > Integer.MAX_VALUE - 8
+                    || count < 0 || (long)count * OdzConstants.ODZ_ARCHIVE_ENTRY_SIZE > directorySize) {
+                throw new OdzFormatException("corrupt central directory");
+            }
+            byte[] directory = new byte[(int)directorySize];
+            readFully(directoryOffset, directory, directory.length);
+            
+            List<OdzArchiveEntry> list = new ArrayList<>(count);
+            Map<String, OdzArchiveEntry> map = new HashMap<>();
+            int p = 0;
+            for (int i = 0; i < count; i++) {
+                if (directory.length - p < OdzConstants.ODZ_ARCHIVE_ENTRY_SIZE) {
+                    throw new OdzFormatException("corrupt central directory");
+                }
+                int kind = directory[p];
+                int permissions = (directory[p + 1] & 0xFF) | (directory[p + 2] & 0xFF) << 8;
+                int nameLength = (directory[p + 35] & 0xFF) | (directory[p + 36] & 0xFF) << 8;
+                if (directory.length - p - OdzConstants.ODZ_ARCHIVE_ENTRY_SIZE < nameLength) {
+                    throw new OdzFormatException("corrupt central directory");
+                }
+                String name = new String(directory, p + OdzConstants.ODZ_ARCHIVE_ENTRY_SIZE, nameLength,
+                                         StandardCharsets.UTF_8);
+                OdzArchiveEntry entry = new OdzArchiveEntry(name, kind == OdzConstants.ODZ_ENTRY_DIRECTORY, permissions,
+                                                            OdzUtil.readU64LE(directory, p + 3));
+                entry.size = OdzUtil.readU64LE(directory, p + 11);
+                entry.dataOffset = OdzUtil.readU64LE(directory, p + 19);
+                entry.dataLength = OdzUtil.readU64LE(directory, p + 27);
+                boolean validData = entry.isDirectory()
+                    ? entry.size == 0 && entry.dataLength == 0
+                    : entry.size >= 0 && entry.dataOffset >= header.length && entry.dataLength > 0
+                      && entry.dataLength <= directoryOffset - entry.dataOffset;
+                if ((kind != OdzConstants.ODZ_ENTRY_FILE && kind != OdzConstants.ODZ_ENTRY_DIRECTORY)
+                        || (permissions & ~0777) != 0 || !validData
+                        || !OdzArchiveEntry.validName(name) || map.put(name, entry) != null) {
+                    throw new OdzFormatException("corrupt central directory entry " + i);
+                }
+                list.add(entry);
+                p += OdzConstants.ODZ_ARCHIVE_ENTRY_SIZE + nameLength;
+            }
+            if (p != directory.length) {
+                throw new OdzFormatException("corrupt central directory");
+            }
+            entries = Collections.unmodifiableList(list);
+            byName = map;
+        } catch (IOException | RuntimeException e) {
+            if (ownsChannel) {
+                channel.close();
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * The entries in the order they were written, each directory before its contents
+     */
+    public List<OdzArchiveEntry> entries() {
+        return entries;
+    }
+    
+    /**
+     * @return the entry called name, or null if there is none
+     */
+    public OdzArchiveEntry entry(String name) {
+        return byName.get(name);
+    }
+    
+    /**
+     * A stream of the decompressed contents of a file entry, reading only that
+     * entry's data from the archive.
+     */
+    public InputStream open(OdzArchiveEntry entry) {
+        checkEntry(entry);
+        return new OdzInputStream(new EntryInputStream(entry.dataOffset, entry.dataLength));
+    }
+    
+    private void checkEntry(OdzArchiveEntry entry) {
+        if (entry.isDirectory()) {
+            throw new IllegalArgumentException(entry.name() + " is a directory");
+        }
+        if (byName.get(entry.name()) != entry) {
+            throw new IllegalArgumentException(entry.name() + " is not an entry of this archive");
+        }
+    }
+    
+    /**
+     * Decompress a file entry to target, then give target the entry's permissions, where
+     * the file system supports them, and modification time.
+     */
+    public void extract(OdzArchiveEntry entry, Path target) throws IOException {
+        checkEntry(entry);
+        if (entry.size() <= SMALL_ENTRY_SIZE && entry.dataLength <= SMALL_ENTRY_SIZE) {
+            // Decoded whole by the thread's cached context rather than through stream buffers
+            byte[] compressed = new byte[(int)entry.dataLength];
+            readFully(entry.dataOffset, compressed, compressed.length);
+            byte[] raw = new byte[(int)entry.size()];
+            if (OdzDecompressorContext.forCurrentThread().decompress(compressed, 0, compressed.length, raw, 0) != raw.length) {
+                throw new OdzFormatException("size mismatch for " + entry.name());
+            }
+            Files.write(target, raw);
+            setAttributes(entry, target);
+            return;
+        }
+        long written = 0;
+        try (InputStream in = open(entry);
+             OutputStream out = Files.newOutputStream(target)) {
+            byte[] chunk = new byte[COPY_SIZE];
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                out.write(chunk, 0, n);
+                written += n;
+            }
+        }
+        if (written != entry.size()) {
+            throw new OdzFormatException("size mismatch for " + entry.name());
+        }
+        setAttributes(entry, target);
+    }
+    
+    public void extractAll(Path directory) throws IOException {
+        extractAll(directory, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Extract every entry under directory, creating it and any missing directories. Files are
+     * decompressed concurrently on executor; directories get their modification times once
+     * all their files are written.
+     */
+    public void extractAll(Path directory, Executor executor) throws IOException {
+        Path root = directory.toAbsolutePath().normalize();
+        Files.createDirectories(root);
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (OdzArchiveEntry entry : entries) {
+            Path target = root.resolve(entry.name()).normalize();
+            if (!target.startsWith(root) || target.equals(root)) {
+                throw new OdzFormatException("entry outside the target directory: " + entry.name());
+            }
+            if (entry.isDirectory()) {
+                Files.createDirectories(target);
+                continue;
+            }
+            Files.createDirectories(target.getParent());
+            tasks.add(CompletableFuture.runAsync(() -> {
+                try {
+                    extract(entry, target);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor));
+        }
+        try {
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException)e.getCause()).getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error)e.getCause();
+            }
+            throw e;
+        }
+        for (OdzArchiveEntry entry : entries) {
+            if (entry.isDirectory()) {
+                setAttributes(entry, root.resolve(entry.name()));
+            }
+        }
+    }
+    
+    private static void setAttributes(OdzArchiveEntry entry, Path target) throws IOException {
+        PosixFileAttributeView view = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+        if (view != null) {
+            view.setPermissions(posixPermissions(entry.permissions()));
+        }
+        Files.setLastModifiedTime(target, FileTime.fromMillis(entry.lastModified()));
+    }
+    
+    /**
+     * The permissions set by bits, the inverse of {@link OdzArchiveWriter#posixBits(Set)}
+     */
+    static Set<PosixFilePermission> posixPermissions(int bits) {
+        Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        for (PosixFilePermission permission : PosixFilePermission.values()) {
+            if ((bits & 0400 >> permission.ordinal()) != 0) {
+                permissions.add(permission);
+            }
+        }
+        return permissions;
+    }
+    
+    private void readFully(long position, byte[] b, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(b, 0, len);
+        while (buf.hasRemaining()) {
+            if (read(position + buf.position(), buf) < 0) {
+                throw new OdzTruncatedException("truncated");
+            }
+        }
+    }
+    
+    /**
+     * Read into dst at position, with a positional read where the channel has one
+     */
+    private int read(long position, ByteBuffer dst) throws IOException {
+        if (channel instanceof FileChannel) {
+            return ((FileChannel)channel).read(dst, position);
+        }
+        synchronized (channel) {
+            channel.position(position);
+            return channel.read(dst);
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (ownsChannel) {
+            channel.close();
+        }
+    }
+    
+    /**
+     * The length bytes of the archive starting at offset
+     */
+    private final class EntryInputStream extends InputStream {
+        private long position;
+        private final long end;
+        
+        EntryInputStream(long offset, long length) {
+            this.position = offset;
+            this.end = offset + length;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if ((off | len | (off + len) | (b.length - (off + len))) < 0) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= end) {
+                return -1;
+            }
+            int n = OdzArchiveReader.this.read(position, ByteBuffer.wrap(b, off, (int)Math.min(len, end - position)));
+            if (n < 0) {
+                throw new OdzTruncatedException("truncated");
+            }
+            position += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package com.odzip;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Writes an ODZ archive of files and directories, read back by {@link OdzArchiveReader}.
+ * 
+ * Each file's data is a framed stream of independent blocks, each checked by a CRC32C
+ * (ODZ_FLAG_CHECKSUM) as is the whole file. The blocks of every file
+ * added are compressed concurrently on an executor and written in order by the thread
+ * that adds them, with at most twice the number of available processors in flight, so
+ * an archive of many small files compresses as fast as one large one. {@link #close()}
+ * appends the central directory, which records each entry's permissions, modification
+ * time, sizes and where its data starts.
+ * 
+ * Only regular files and directories are added; symbolic links and other special files
+ * in a tree are skipped. A writer is used from one thread.
+ */
+public class OdzArchiveWriter implements Closeable {
+    private final OutputStream out;
+    private final CompressionLevel level;
+    private final int blockSize;
+    private final Executor executor;
+    private final int maxInFlight = 2 * Runtime.getRuntime().availableProcessors();
+    // Pieces of output not yet written, in order
+    private final ArrayDeque<Piece> pending = new ArrayDeque<>();
+    private final List<OdzArchiveEntry> entries = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    // Filled from the input, then copied so each block task gets an array of its exact size
+    private final byte[] readBuffer;
+    private int blocksInFlight;
+    // CRC32C of the blocks of the current entry written so far
+    private int streamChecksum;
+    private long position;
+    // An add failed partway, leaving an entry without its END block; the archive cannot be finished
+    private boolean failed;
+    private boolean closed;
+    
+    public OdzArchiveWriter(Path archive) throws IOException {
+        this(new BufferedOutputStream(Files.newOutputStream(archive), 1 << 16), CompressionLevel.DEFAULT,
+             OdzConstants.PARALLEL_BLOCK_SIZE, ForkJoinPool.commonPool());
+    }
+    
+    public OdzArchiveWriter(Path archive, CompressionLevel level) throws IOException {
+        this(new BufferedOutputStream(Files.newOutputStream(archive), 1 << 16), level,
+             OdzConstants.PARALLEL_BLOCK_SIZE, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * @param blockSize Uncompressed size of each block of a file; smaller files are one block
+     * @param executor Executor that compresses the blocks
+     */
+    public OdzArchiveWriter(OutputStream out, CompressionLevel level, int blockSize, Executor executor) throws IOException {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+        this.out = out;
+        this.level = level;
+        this.blockSize = blockSize;
+        this.executor = executor;
+        this.readBuffer = new byte[blockSize];
+        
+        byte[] header = {'O', 'D', 'Z', 'A', OdzConstants.ODZ_ARCHIVE_VERSION};
+        out.write(header);
+        position = header.length;
+    }
+    
+    /**
+     * Add a file, or a directory and everything under it, named after the last
+     * component of path.
+     */
+    public void add(Path path) throws IOException {
+        Path fileName = path.toAbsolutePath().normalize().getFileName();
+        if (fileName == null) {
+            throw new IllegalArgumentException("path has no name: " + path);
+        }
+        add(path, fileName.toString());
+    }
+    
+    /**
+     * Add a file, or a directory and everything under it, as name. The entries of a
+     * directory are named name/relative/path and added in sorted order.
+     */
+    public void add(Path path, String name) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        if (attributes.isRegularFile()) {
+            try (InputStream in = Files.newInputStream(path)) {
+                add(name, in, attributes.lastModifiedTime().toMillis(), permissions(path, attributes));
+            }
+            return;
+        }
+        if (!attributes.isDirectory()) {
+            throw new IllegalArgumentException("not a file or directory: " + path);
+        }
+        addDirectory(name, attributes.lastModifiedTime().toMillis(), permissions(path, attributes));
+        List<Path> children;
+        try (Stream<Path> list = Files.list(path)) {
+            children = list.sorted().collect(Collectors.toList());
+        }
+        for (Path child : children) {
+            BasicFileAttributes childAttributes = Files.readAttributes(child, BasicFileAttributes.class,
+                                                                       LinkOption.NOFOLLOW_LINKS);
+            if (childAttributes.isRegularFile() || childAttributes.isDirectory()) {
+                add(child, name + "/" + child.getFileName());
+            }
+        }
+    }
+    
+    /**
+     * Add a file entry holding everything left in data. The stream is read on the calling
+     * thread and left open. If reading or compressing it fails, the archive cannot be
+     * finished: later adds and {@link #close()} throw.
+     * 
+     * @param lastModified Modification time in milliseconds since the epoch
+     * @param permissions POSIX permission bits, such as 0644
+     */
+    public void add(String name, InputStream data, long lastModified, int permissions) throws IOException {
+        OdzArchiveEntry entry = addEntry(name, false, lastModified, permissions);
+        try {
+            addData(entry, data);
+        } catch (IOException | RuntimeException | Error e) {
+            failed = true;
+            throw e;
+        }
+    }
+    
+    private void addData(OdzArchiveEntry entry, InputStream data) throws IOException {
+        byte[] header = new byte[OdzConstants.ODZ_FRAMED_HEADER_SIZE + 1];
+        int headerSize = Compressor.writeFramedHeader(header, 0,
+            OdzConstants.ODZ_FLAG_INDEPENDENT_BLOCKS | OdzConstants.ODZ_FLAG_CHECKSUM, 0, 0, level.windowLog);
+        pending.add(new Piece(entry, true, CompletableFuture.completedFuture(Arrays.copyOf(header, headerSize)), 0));
+        while (true) {
+            int len = readFully(data, readBuffer);
+            if (len == 0) {
+                break;
+            }
+            entry.size += len;
+            byte[] block = Arrays.copyOf(readBuffer, len);
+            pending.add(new Piece(null, false, CompletableFuture.supplyAsync(
+                () -> Compressor.compressBlock(block, 0, level, true), executor), len));
+            blocksInFlight++;
+            while (blocksInFlight >= maxInFlight) {
+                writePiece();
+            }
+            if (len < blockSize) {
+                break;
+            }
+        }
+        // The stream checksum is filled in once the blocks before it are written
+        byte[] end = new byte[1 + OdzConstants.ODZ_CHECKSUM_SIZE];
+        end[0] = OdzConstants.ODZ_BLOCK_END;
+        pending.add(new Piece(entry, false, CompletableFuture.completedFuture(end), 0));
+        // Write whatever is already done, so pending holds little more than the blocks in flight
+        while (!pending.isEmpty() && pending.peek().data.isDone()) {
+            writePiece();
+        }
+    }
+    
+    /**
+     * Add a directory entry. Its contents are added separately, under names starting
+     * with name + "/".
+     */
+    public void addDirectory(String name, long lastModified, int permissions) throws IOException {
+        addEntry(name, true, lastModified, permissions);
+    }
+    
+    private OdzArchiveEntry addEntry(String name, boolean directory, long lastModified, int permissions) throws IOException {
+        if (closed) {
+            throw new IOException("Archive is closed");
+        }
+        if (failed) {
+            throw new IOException("Archive is incomplete: an earlier add failed");
+        }
+        if (!OdzArchiveEntry.validName(name)) {
+            throw new IllegalArgumentException("invalid entry name: " + name);
+        }
+        if (name.getBytes(StandardCharsets.UTF_8).length > 0xFFFF) {
+            throw new IllegalArgumentException("entry name too long");
+        }
+        if ((permissions & ~0777) != 0) {
+            throw new IllegalArgumentException("invalid permissions: " + Integer.toOctalString(permissions));
+        }
+        if (!names.add(name)) {
+            throw new IllegalArgumentException("duplicate entry: " + name);
+        }
+        OdzArchiveEntry entry = new OdzArchiveEntry(name, directory, permissions, lastModified);
+        entries.add(entry);
+        return entry;
+    }
+    
+    /**
+     * Write the next pending piece, waiting for it to be compressed, and record where an
+     * entry's data starts or ends.
+     */
+    private void writePiece() throws IOException {
+        Piece piece = pending.poll();
+        byte[] data;
+        try {
+            data = piece.data.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error)e.getCause();
+            }
+            throw e;
+        }
+        if (piece.entry == null) {
+            blocksInFlight--;
+            int blockChecksum = OdzUtil.readU32LE(data, data.length - OdzConstants.ODZ_CHECKSUM_SIZE);
+            streamChecksum = OdzUtil.crc32cCombine(streamChecksum, blockChecksum, piece.rawLength);
+        } else if (piece.start) {
+            piece.entry.dataOffset = position;
+            streamChecksum = 0;
+        } else {
+            OdzUtil.writeU32LE(data, 1, streamChecksum);
+        }
+        out.write(data);
+        position += data.length;
+        if (piece.entry != null && !piece.start) {
+            piece.entry.dataLength = position - piece.entry.dataOffset;
+        }
+    }
+    
+    /**
+     * Finish writing the entries' data, then write the central directory and close the
+     * underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        
+        try {
+            if (failed) {
+                throw new IOException("Archive is incomplete: an earlier add failed");
+            }
+            while (!pending.isEmpty()) {
+                writePiece();
+            }
+            long directoryOffset = position;
+            for (OdzArchiveEntry entry : entries) {
+                byte[] name = entry.name().getBytes(StandardCharsets.UTF_8);
+                byte[] record = new byte[OdzConstants.ODZ_ARCHIVE_ENTRY_SIZE + name.length];
+                record[0] = (byte)(entry.isDirectory() ? OdzConstants.ODZ_ENTRY_DIRECTORY : OdzConstants.ODZ_ENTRY_FILE);
+                record[1] = (byte)entry.permissions();
+                record[2] = (byte)(entry.permissions() >> 8);
+                OdzUtil.writeU64LE(record, 3, entry.lastModified());
+                OdzUtil.writeU64LE(record, 11, entry.size);
+                OdzUtil.writeU64LE(record, 19, entry.dataOffset);
+                OdzUtil.writeU64LE(record, 27, entry.dataLength);
+                record[35] = (byte)name.length;
+                record[36] = (byte)(name.length >> 8);
+                System.arraycopy(name, 0, record, OdzConstants.ODZ_ARCHIVE_ENTRY_SIZE, name.length);
+                out.write(record);
+            }
+            
+            byte[] trailer = new byte[OdzConstants.ODZ_ARCHIVE_TRAILER_SIZE];
+            OdzUtil.writeU64LE(trailer, 0, directoryOffset);
+            OdzUtil.writeU32LE(trailer, 8, entries.size());
+            trailer[12] = 'O';
+            trailer[13] = 'D';
+            trailer[14] = 'Z';
+            trailer[15] = 'C';
+            out.write(trailer);
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+    
+    /**
+     * POSIX permission bits of path where the file system has them, and otherwise 0755
+     * for directories and executable files and 0644 for other files.
+     */
+    private static int permissions(Path path, BasicFileAttributes attributes) throws IOException {
+        if (attributes instanceof PosixFileAttributes) {
+            return posixBits(((PosixFileAttributes)attributes).permissions());
+        }
+        try {
+            return posixBits(Files.readAttributes(path, PosixFileAttributes.class).permissions());
+        } catch (UnsupportedOperationException e) {
+            return attributes.isDirectory() || Files.isExecutable(path) ? 0755 : 0644;
+        }
+    }
+    
+    /**
+     * Permission bits of permissions, owner read (0400) first down to others execute (0001)
+     * in the order PosixFilePermission declares them.
+     */
+    static int posixBits(Set<PosixFilePermission> permissions) {
+        int bits = 0;
+        for (PosixFilePermission permission : permissions) {
+            bits |= 0400 >> permission.ordinal();
+        }
+        return bits;
+    }
+    
+    private static int readFully(InputStream in, byte[] b) throws IOException {
+        int total = 0;
+        while (total < b.length) {
+            int n = in.read(b, total, b.length - total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+    
+    /**
+     * Bytes to write once ready: an entry's stream header (start) or END block, or a
+     * compressed block of rawLength bytes (no entry)
+     */
+    private static final class Piece {
+        final OdzArchiveEntry entry;
+        final boolean start;
+        final CompletableFuture<byte[]> data;
+        final int rawLength;
+        
+        Piece(OdzArchiveEntry entry, boolean start, CompletableFuture<byte[]> data, int rawLength) {
+            this.entry = entry;
+            this.start = start;
+            this.data = data;
+            this.rawLength = rawLength;
+        }
+    }
+}
@@ -0,0 +1,450 @@
+package com.odzip;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous compression and decompression between channels.
+ * 
+ * Each call returns at once with a future of the number of bytes written. Reading,
+ * block compression and writing run as overlapping stages: one task reads blocks and
+ * hands them to the executor, another writes finished blocks in order, and a bounded
+ * queue between them holds at most twice the number of available processors. File to
+ * file, the time taken approaches that of the slower of the disk and the compressor
+ * rather than their sum.
+ * 
+ * The reading and writing tasks block on I/O, so they run on virtual threads where the
+ * runtime has them (Java 21+) and on daemon platform threads otherwise. Cancelling the
+ * returned future stops both; the caller still owns and closes the channels it passed in.
+ */
+public final class OdzAsync {
+    // Whether the reading and writing tasks run on virtual threads, for tests
+    static final boolean VIRTUAL_THREADS;
+    private static final ExecutorService IO_EXECUTOR;
+    // How long a blocked stage waits before checking whether the other one gave up
+    private static final long POLL_MILLIS = 50;
+    
+    static {
+        ExecutorService executor;
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            executor = (ExecutorService)factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            executor = null;
+        }
+        VIRTUAL_THREADS = executor != null;
+        IO_EXECUTOR = executor != null ? executor : Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "odz-async-io");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    private OdzAsync() {
+        // Utility class
+    }
+    
+    public static CompletableFuture<Long> compress(Path input, Path output) {
+        return compress(input, output, CompressionLevel.DEFAULT);
+    }
+    
+    /**
+     * Compress input to output in the framed format with independent blocks, recording
+     * the input size in the header. Both files are opened as AsynchronousFileChannels
+     * and closed when the returned future completes.
+     */
+    public static CompletableFuture<Long> compress(Path input, Path output, CompressionLevel level) {
+        AsynchronousFileChannel src = null;
+        try {
+            src = AsynchronousFileChannel.open(input, StandardOpenOption.READ);
+            AsynchronousFileChannel dst = AsynchronousFileChannel.open(output, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            return closeAfter(compress(src, dst, level, OdzConstants.PARALLEL_BLOCK_SIZE, ForkJoinPool.commonPool()),
+                              src, dst);
+        } catch (IOException | RuntimeException e) {
+            return failed(e, src);
+        }
+    }
+    
+    /**
+     * Compress the whole of src into dst from its start, recording the size of src in the header.
+     * 
+     * @param blockSize Uncompressed size of each block
+     * @param executor Executor that runs the block compression tasks
+     */
+    public static CompletableFuture<Long> compress(AsynchronousFileChannel src, AsynchronousFileChannel dst,
+                                                   CompressionLevel level, int blockSize, Executor executor) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+        long size;
+        try {
+            size = src.size();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return new CompressPipeline(new FileReader(src), new FileWriter(dst), level, blockSize, size, executor).start();
+    }
+    
+    /**
+     * Compress everything src yields into dst in the framed format with independent blocks.
+     * 
+     * @param blockSize Uncompressed size of each block
+     * @param executor Executor that runs the block compression tasks
+     */
+    public static CompletableFuture<Long> compress(ReadableByteChannel src, WritableByteChannel dst,
+                                                   CompressionLevel level, int blockSize, Executor executor) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+        return new CompressPipeline(src, dst, level, blockSize, -1, executor).start();
+    }
+    
+    /**
+     * Decompress input, in either format, to output, decoding independent blocks concurrently
+     * on the common ForkJoinPool. Both files are closed when the returned future completes.
+     */
+    public static CompletableFuture<Long> decompress(Path input, Path output) {
+        AsynchronousFileChannel src = null;
+        try {
+            src = AsynchronousFileChannel.open(input, StandardOpenOption.READ);
+            AsynchronousFileChannel dst = AsynchronousFileChannel.open(output, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            return closeAfter(decompress(new FileReader(src), new FileWriter(dst), ForkJoinPool.commonPool()), src, dst);
+        } catch (IOException | RuntimeException e) {
+            return failed(e, src);
+        }
+    }
+    
+    /**
+     * Decompress src, in either format, into dst. Independent blocks are decoded concurrently
+     * on executor, as {@link OdzParallelInputStream} does, while earlier output is written.
+     */
+    public static CompletableFuture<Long> decompress(ReadableByteChannel src, WritableByteChannel dst, Executor executor) {
+        return new DecompressPipeline(src, dst, executor).start();
+    }
+    
+    /**
+     * A future failed with e, after closing channel if it was opened.
+     */
+    private static CompletableFuture<Long> failed(Exception e, Closeable channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException closeError) {
+                e.addSuppressed(closeError);
+            }
+        }
+        return CompletableFuture.failedFuture(e);
+    }
+    
+    /**
+     * Complete with future once the channels are closed, failing if closing them fails.
+     * Cancelling the result cancels future.
+     */
+    private static CompletableFuture<Long> closeAfter(CompletableFuture<Long> future, Closeable... channels) {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        future.whenComplete((written, error) -> {
+            Throwable failure = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            for (Closeable channel : channels) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            } else {
+                result.complete(written);
+            }
+        });
+        result.whenComplete((written, error) -> future.cancel(false));
+        return result;
+    }
+    
+    /**
+     * A producer task that queues chunks of output as futures, and a writer task that
+     * writes them to dst in order as they complete.
+     */
+    private abstract static class Pipeline {
+        // Queued after the last chunk
+        private static final CompletableFuture<byte[]> END_OF_OUTPUT = CompletableFuture.completedFuture(null);
+        
+        private final WritableByteChannel dst;
+        private final BlockingQueue<CompletableFuture<byte[]>> queue;
+        final CompletableFuture<Long> result = new CompletableFuture<>();
+        
+        Pipeline(WritableByteChannel dst) {
+            this.dst = dst;
+            this.queue = new ArrayBlockingQueue<>(2 * Runtime.getRuntime().availableProcessors());
+        }
+        
+        /**
+         * Queue every chunk of output with {@link #enqueue}, returning early once
+         * {@link #stopped()} is true.
+         */
+        abstract void produce() throws IOException;
+        
+        CompletableFuture<Long> start() {
+            IO_EXECUTOR.execute(() -> {
+                try {
+                    produce();
+                    enqueue(END_OF_OUTPUT);
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+            IO_EXECUTOR.execute(this::write);
+            return result;
+        }
+        
+        boolean stopped() {
+            return result.isDone();
+        }
+        
+        /**
+         * Queue a chunk, waiting while the queue is full.
+         */
+        void enqueue(CompletableFuture<byte[]> chunk) throws InterruptedIOException {
+            try {
+                while (!stopped() && !queue.offer(chunk, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    // The writer is behind
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        
+        private void write() {
+            try {
+                long written = 0;
+                while (!stopped()) {
+                    CompletableFuture<byte[]> chunk = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (chunk == END_OF_OUTPUT) {
+                        result.complete(written);
+                    } else if (chunk != null) {
+                        byte[] bytes = join(chunk);
+                        writeFully(dst, ByteBuffer.wrap(bytes));
+                        written += bytes.length;
+                    }
+                }
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        }
+        
+        private static byte[] join(CompletableFuture<byte[]> chunk) {
+            try {
+                return chunk.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException)e.getCause() : e;
+            }
+        }
+    }
+    
+    private static final class CompressPipeline extends Pipeline {
+        private final ReadableByteChannel src;
+        private final CompressionLevel level;
+        private final int blockSize;
+        private final long contentSize;
+        private final Executor executor;
+        
+        /**
+         * @param contentSize Number of bytes src will yield, recorded in the header, or -1 if unknown
+         */
+        CompressPipeline(ReadableByteChannel src, WritableByteChannel dst, CompressionLevel level, int blockSize,
+                         long contentSize, Executor executor) {
+            super(dst);
+            this.src = src;
+            this.level = level;
+            this.blockSize = blockSize;
+            this.contentSize = contentSize;
+            this.executor = executor;
+        }
+        
+        @Override
+        void produce() throws IOException {
+            int flags = OdzConstants.ODZ_FLAG_INDEPENDENT_BLOCKS | (contentSize >= 0 ? OdzConstants.ODZ_FLAG_CONTENT_SIZE : 0);
+            byte[] header = new byte[OdzConstants.ODZ_FRAMED_HEADER_SIZE + 9];
+            int headerSize = Compressor.writeFramedHeader(header, 0, flags, contentSize, 0, level.windowLog);
+            enqueue(CompletableFuture.completedFuture(Arrays.copyOf(header, headerSize)));
+            
+            long total = 0;
+            while (!stopped()) {
+                byte[] buf = new byte[blockSize];
+                int len = readFully(src, ByteBuffer.wrap(buf));
+                if (len > 0) {
+                    byte[] block = len == blockSize ? buf : Arrays.copyOf(buf, len);
+                    enqueue(CompletableFuture.supplyAsync(() -> Compressor.compressBlock(block, 0, level), executor));
+                    total += len;
+                }
+                if (len < blockSize) {
+                    break;
+                }
+            }
+            if (contentSize >= 0 && total != contentSize && !stopped()) {
+                throw new IOException("input changed size while compressing");
+            }
+            enqueue(CompletableFuture.completedFuture(new byte[]{OdzConstants.ODZ_BLOCK_END}));
+        }
+    }
+    
+    private static final class DecompressPipeline extends Pipeline {
+        private static final int CHUNK_SIZE = 1 << 20;
+        
+        private final ReadableByteChannel src;
+        private final Executor executor;
+        
+        DecompressPipeline(ReadableByteChannel src, WritableByteChannel dst, Executor executor) {
+            super(dst);
+            this.src = src;
+            this.executor = executor;
+        }
+        
+        @Override
+        void produce() throws IOException {
+            // Closing the stream stops its block decodes but leaves src, which the caller owns, open
+            FilterInputStream source = new FilterInputStream(Channels.newInputStream(src)) {
+                @Override
+                public void close() {
+                    // Not src's owner
+                }
+            };
+            try (OdzParallelInputStream in = new OdzParallelInputStream(source, executor,
+                                                                        2 * Runtime.getRuntime().availableProcessors())) {
+                while (!stopped()) {
+                    byte[] chunk = new byte[CHUNK_SIZE];
+                    int len = 0;
+                    int n;
+                    while (len < chunk.length && (n = in.read(chunk, len, chunk.length - len)) != -1) {
+                        len += n;
+                    }
+                    if (len > 0) {
+                        enqueue(CompletableFuture.completedFuture(len == chunk.length ? chunk : Arrays.copyOf(chunk, len)));
+                    }
+                    if (len < chunk.length) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+    
+    private static int readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // Keep reading until full or at the end
+        }
+        return buffer.position();
+    }
+    
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+    
+    private static IOException ioException(ExecutionException e) {
+        return e.getCause() instanceof IOException ? (IOException)e.getCause() : new IOException(e.getCause());
+    }
+    
+    /**
+     * Sequential reads from an AsynchronousFileChannel, starting at position 0.
+     */
+    private static final class FileReader implements ReadableByteChannel {
+        private final AsynchronousFileChannel channel;
+        private long position;
+        
+        FileReader(AsynchronousFileChannel channel) {
+            this.channel = channel;
+        }
+        
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            try {
+                int n = channel.read(dst, position).get();
+                if (n > 0) {
+                    position += n;
+                }
+                return n;
+            } catch (ExecutionException e) {
+                throw ioException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+        
+        @Override
+        public void close() {
+            // The channel belongs to the caller
+        }
+    }
+    
+    /**
+     * Sequential writes to an AsynchronousFileChannel, starting at position 0.
+     */
+    private static final class FileWriter implements WritableByteChannel {
+        private final AsynchronousFileChannel channel;
+        private long position;
+        
+        FileWriter(AsynchronousFileChannel channel) {
+            this.channel = channel;
+        }
+        
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            try {
+                int n = channel.write(src, position).get();
+                position += n;
+                return n;
+            } catch (ExecutionException e) {
+                throw ioException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+        
+        @Override
+        public void close() {
+            // The channel belongs to the caller
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.odzip;
+
+/**
+ * Decoded data does not match its CRC32C (ODZ_FLAG_CHECKSUM).
+ */
+public class OdzChecksumException extends OdzFormatException {
+    private static final long serialVersionUID = 1L;
+    
+    public OdzChecksumException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,98 @@
+package com.odzip;
+
+/**
+ * What one compression call or block did, as reported to {@link OdzMetrics}.
+ */
+public final class OdzCompressionStats {
+    private final CompressionLevel level;
+    private final long rawBytes;
+    private final long compressedBytes;
+    private final long nanos;
+    private final long matches;
+    private final long matchBytes;
+    private final long chainSteps;
+    private final long lazyChecks;
+    private final long lazyHits;
+    
+    OdzCompressionStats(CompressionLevel level, long rawBytes, long compressedBytes, long nanos, long matches,
+                        long matchBytes, long chainSteps, long lazyChecks, long lazyHits) {
+        this.level = level;
+        this.rawBytes = rawBytes;
+        this.compressedBytes = compressedBytes;
+        this.nanos = nanos;
+        this.matches = matches;
+        this.matchBytes = matchBytes;
+        this.chainSteps = chainSteps;
+        this.lazyChecks = lazyChecks;
+        this.lazyHits = lazyHits;
+    }
+    
+    public CompressionLevel level() {
+        return level;
+    }
+    
+    public long rawBytes() {
+        return rawBytes;
+    }
+    
+    /**
+     * Bytes written, including headers
+     */
+    public long compressedBytes() {
+        return compressedBytes;
+    }
+    
+    public long nanos() {
+        return nanos;
+    }
+    
+    /**
+     * Input bytes emitted as literals, skipped or stored ones included
+     */
+    public long literals() {
+        return rawBytes - matchBytes;
+    }
+    
+    public long matches() {
+        return matches;
+    }
+    
+    /**
+     * Input bytes covered by matches
+     */
+    public long matchBytes() {
+        return matchBytes;
+    }
+    
+    /**
+     * Candidate positions compared by the match finder, in hash chains or binary trees
+     */
+    public long chainSteps() {
+        return chainSteps;
+    }
+    
+    /**
+     * Matches checked against the next position before being taken
+     */
+    public long lazyChecks() {
+        return lazyChecks;
+    }
+    
+    /**
+     * Lazy checks that found a longer match at the next position and emitted a literal instead
+     */
+    public long lazyHits() {
+        return lazyHits;
+    }
+    
+    public double averageMatchLength() {
+        return matches == 0 ? 0 : (double)matchBytes / matches;
+    }
+    
+    @Override
+    public String toString() {
+        return "OdzCompressionStats(level=" + level.level() + ", raw=" + rawBytes + ", compressed=" + compressedBytes
+            + ", nanos=" + nanos + ", matches=" + matches + ", matchBytes=" + matchBytes + ", chainSteps=" + chainSteps
+            + ", lazyChecks=" + lazyChecks + ", lazyHits=" + lazyHits + ")";
+    }
+}
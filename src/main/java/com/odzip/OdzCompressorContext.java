@@ -0,0 +1,249 @@
+package com.odzip;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Reusable compression state for services that compress many small inputs.
+ * 
+ * The match finder tables and a scratch output buffer are kept between calls,
+ * and starting a new input does not clear the hash table (see {@link LzMatcher#reset(int)}),
+ * so per-call setup is constant. Output is the same as {@link Compressor#compressSimple(byte[], CompressionLevel)}.
+ * 
+ * With a preset dictionary, the dictionary is hashed once when the context is created and
+ * output is a framed stream recording the dictionary ID, decoded by an
+ * {@link OdzDecompressorContext} with the same dictionary.
+ * 
+ * ByteBuffer sources and destinations backed by an array are used in place; direct ones
+ * are copied through scratch arrays kept between calls.
+ * 
+ * A context must only be used by one thread at a time; {@link #forCurrentThread(CompressionLevel)}
+ * hands out one cached context per thread and level.
+ */
+public final class OdzCompressorContext {
+    // Scratch buffers larger than this are not kept after a call
+    static final int MAX_RETAINED_BUFFER = 1 << 20;
+    // Match finders whose ring holds more positions than this, for large inputs at windowed
+    // levels, are not kept after a call either
+    static final int MAX_RETAINED_RING = 1 << 18;
+    
+    private static final ThreadLocal<OdzCompressorContext[]> THREAD_CONTEXTS =
+        ThreadLocal.withInitial(() -> new OdzCompressorContext[2 * (CompressionLevel.MAX_LEVEL + 1)]);
+    
+    private final CompressionLevel level;
+    // Sized for the largest input so far, up to MAX_RETAINED_RING positions at windowed levels
+    private LzMatcher matcher;
+    private final OdzDictionary dictionary;
+    private byte[] buffer;
+    // Copy of a direct source buffer
+    private byte[] input;
+    // Dictionary followed by the current input
+    private byte[] window;
+    
+    public OdzCompressorContext() {
+        this(CompressionLevel.DEFAULT);
+    }
+    
+    public OdzCompressorContext(CompressionLevel level) {
+        this(level, null);
+    }
+    
+    public OdzCompressorContext(CompressionLevel level, OdzDictionary dictionary) {
+        this.level = level;
+        this.matcher = new LzMatcher(dictionary != null ? dictionary.size() : 0, level);
+        this.dictionary = dictionary;
+        this.buffer = new byte[0];
+        this.input = new byte[0];
+        if (dictionary != null) {
+            this.window = new byte[dictionary.size()];
+            dictionary.copyTo(window, 0);
+            matcher.setDictionary(window, window.length);
+        }
+    }
+    
+    /**
+     * The calling thread's context for level, created on first use.
+     * Custom levels share one slot per thread, so alternating between them recreates the context.
+     */
+    public static OdzCompressorContext forCurrentThread(CompressionLevel level) {
+        OdzCompressorContext[] contexts = THREAD_CONTEXTS.get();
+        int slot = level.level() + (level.huffman() ? CompressionLevel.MAX_LEVEL + 1 : 0);
+        OdzCompressorContext context = contexts[slot];
+        if (context == null || context.level != level) {
+            context = new OdzCompressorContext(level);
+            contexts[slot] = context;
+        }
+        return context;
+    }
+    
+    public CompressionLevel level() {
+        return level;
+    }
+    
+    /**
+     * The preset dictionary, or null
+     */
+    public OdzDictionary dictionary() {
+        return dictionary;
+    }
+    
+    public byte[] compress(byte[] in) {
+        int max = Compressor.maxCompressedLength(in.length);
+        byte[] out = buffer;
+        if (out.length < max) {
+            out = new byte[max];
+            if (max <= MAX_RETAINED_BUFFER) {
+                buffer = out;
+            }
+        }
+        return Arrays.copyOf(out, compress(in, 0, in.length, out, 0));
+    }
+    
+    /**
+     * Compress the remaining bytes of src into dst, advancing the position of both.
+     * 
+     * @throws IllegalArgumentException if dst has fewer than {@link Compressor#maxCompressedLength(int)}
+     *         bytes remaining
+     */
+    public OdzResult compress(ByteBuffer src, ByteBuffer dst) {
+        int inLen = src.remaining();
+        int max = Compressor.maxCompressedLength(inLen);
+        if (dst.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+        if (dst.remaining() < max) {
+            throw new IllegalArgumentException("output buffer too small: need " + max + " bytes");
+        }
+        
+        byte[] in;
+        int inOff;
+        if (src.hasArray()) {
+            in = src.array();
+            inOff = src.arrayOffset() + src.position();
+        } else {
+            in = input;
+            if (in.length < inLen) {
+                in = new byte[inLen];
+                if (inLen <= MAX_RETAINED_BUFFER) {
+                    input = in;
+                }
+            }
+            inOff = 0;
+            src.duplicate().get(in, 0, inLen);
+        }
+        
+        int written;
+        if (dst.hasArray()) {
+            written = compress(in, inOff, inLen, dst.array(), dst.arrayOffset() + dst.position());
+            dst.position(dst.position() + written);
+        } else {
+            byte[] out = buffer;
+            if (out.length < max) {
+                out = new byte[max];
+                if (max <= MAX_RETAINED_BUFFER) {
+                    buffer = out;
+                }
+            }
+            written = compress(in, inOff, inLen, out, 0);
+            dst.put(out, 0, written);
+        }
+        src.position(src.position() + inLen);
+        return new OdzResult(inLen, written);
+    }
+    
+    /**
+     * Compress in[inOff, inOff + inLen) into out at outOff without allocating.
+     * 
+     * @return the number of bytes written
+     * @throws IllegalArgumentException if fewer than {@link Compressor#maxCompressedLength(int)}
+     *         bytes are available in out from outOff
+     */
+    public int compress(byte[] in, int inOff, int inLen, byte[] out, int outOff) {
+        if ((inOff | inLen | (inOff + inLen) | (in.length - (inOff + inLen)) | outOff | (out.length - outOff)) < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (out.length - outOff < Compressor.maxCompressedLength(inLen)) {
+            throw new IllegalArgumentException("output buffer too small: need " + Compressor.maxCompressedLength(inLen) + " bytes");
+        }
+        if (dictionary == null) {
+            LzMatcher finder = matcher(inLen);
+            finder.reset(inOff + inLen);
+            return Compressor.encode(finder, level, in, inOff, inOff + inLen, out, outOff) - outOff;
+        }
+        
+        // The dictionary must directly precede the input, so copy the input in after it
+        int dictLen = dictionary.size();
+        byte[] buf = window;
+        if (buf.length < dictLen + inLen) {
+            buf = new byte[dictLen + inLen];
+            dictionary.copyTo(buf, 0);
+            if (inLen <= MAX_RETAINED_BUFFER) {
+                window = buf;
+            }
+        }
+        System.arraycopy(in, inOff, buf, dictLen, inLen);
+        LzMatcher finder = matcher(dictLen + inLen);
+        finder.reset(dictLen + inLen);
+        
+        int op = Compressor.writeFramedHeader(out, outOff, OdzConstants.ODZ_FLAG_DICTIONARY, 0, dictionary.id(),
+                                              level.windowLog);
+        if (inLen > 0) {
+            op = Compressor.encodeBlock(finder, level, buf, dictLen, dictLen + inLen, out, op);
+        }
+        out[op++] = OdzConstants.ODZ_BLOCK_END;
+        return op - outOff;
+    }
+    
+    /**
+     * Compress in as one framed block, as {@link Compressor#encodeBlock} writes it, reusing
+     * this context's match finder tables, followed by its CRC32C if checksum is set.
+     * Only for contexts without a dictionary.
+     */
+    byte[] compressBlock(byte[] in, boolean checksum) {
+        int max = OdzConstants.ODZ_BLOCK_HEADER_SIZE + Compressor.maxCompressedLength(in.length)
+                  + OdzConstants.ODZ_CHECKSUM_SIZE;
+        byte[] out = buffer;
+        if (out.length < max) {
+            out = new byte[max];
+            if (max <= MAX_RETAINED_BUFFER) {
+                buffer = out;
+            }
+        }
+        LzMatcher finder = matcher(in.length);
+        finder.reset(in.length);
+        CRC32C crc = checksum ? new CRC32C() : null;
+        int op = Compressor.encodeBlock(finder, level, in, 0, in.length, out, 0, crc);
+        if (checksum) {
+            Compressor.writeChecksum(crc, out, op);
+            op += OdzConstants.ODZ_CHECKSUM_SIZE;
+        }
+        return Arrays.copyOf(out, op);
+    }
+    
+    /**
+     * A match finder for n bytes of input, counting the dictionary. At windowed levels the ring
+     * grows with the input up to the window; one larger than MAX_RETAINED_RING serves this call only.
+     */
+    private LzMatcher matcher(int n) {
+        if (level.windowLog == 0 || matcher.ringSize() >= Math.min(n, level.window() + 1)) {
+            return matcher;
+        }
+        LzMatcher sized = new LzMatcher(n, level);
+        if (dictionary != null) {
+            sized.setDictionary(window, dictionary.size());
+        }
+        if (sized.ringSize() <= MAX_RETAINED_RING) {
+            matcher = sized;
+        }
+        return sized;
+    }
+    
+    /**
+     * Positions in the ring of the match finder kept between calls, for tests
+     */
+    int retainedRingSize() {
+        return matcher.ringSize();
+    }
+}
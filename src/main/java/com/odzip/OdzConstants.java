@@ -11,6 +11,57 @@ public final class OdzConstants {
     public static final int HASH_BITS = 15;
     public static final int MAX_CHAIN_STEPS = 64;
     
+    // Framed format: "ODZ" + version, a flags byte, then a sequence of blocks.
+    // Each block is [type][raw size u32][compressed size u32][payload]; an END block has no sizes.
+    public static final byte ODZ_VERSION_FRAMED = 2;
+    public static final int ODZ_FRAMED_HEADER_SIZE = 5;
+    public static final int ODZ_BLOCK_HEADER_SIZE = 9;
+    public static final int ODZ_BLOCK_END = 0;
+    public static final int ODZ_BLOCK_LZ = 1;
+    public static final int ODZ_BLOCK_HUFFMAN = 2; // LZ tokens entropy-coded with per-block Huffman codes
+    public static final int ODZ_BLOCK_STORED = 3; // the raw bytes; compressed size equals raw size
+    public static final int ODZ_BLOCK_LZ2 = 4; // LZ2 tokens, only in streams with ODZ_FLAG_WINDOW
+    
+    // Framed header flags
+    public static final int ODZ_FLAG_INDEPENDENT_BLOCKS = 0x01; // no match reaches into an earlier block
+    public static final int ODZ_FLAG_CONTENT_SIZE = 0x02; // u64 total raw size follows the flags byte
+    public static final int ODZ_FLAG_DICTIONARY = 0x04; // u32 dictionary ID follows; matches may reach into it
+    public static final int ODZ_FLAG_BLOCK_INDEX = 0x08; // a block index follows the END block
+    public static final int ODZ_FLAG_CHECKSUM = 0x10; // u32 CRC32C after each block's payload and the END block
+    public static final int ODZ_FLAG_WINDOW = 0x20; // u8 log2 window size follows the other fields
+    public static final int ODZ_FLAGS_SUPPORTED = 0x3F;
+    
+    // LZ2 tokens use the same flag groups. A match whose first byte is below 0x80 is short:
+    // [0 len-3 (3 bits) dist-1 (12 bits)], two bytes. Otherwise bit 6 of the first byte selects
+    // a 16-bit (0) or 24-bit (1) distance, which comes last, and its low 6 bits hold len-3, or 63
+    // for a varint len-66 that follows: 7 bits per byte, low bits first, high bit set on all but the last.
+    public static final int ODZ_MIN_WINDOW_LOG = 16;
+    public static final int ODZ_MAX_WINDOW_LOG = 24;
+    public static final int ODZ_MAX_MATCH_LZ2 = 4096;
+    public static final int ODZ_SHORT_MATCH_LEN = 10;
+    public static final int ODZ_SHORT_MATCH_DIST = 4096;
+    
+    // CRC32C of a block's raw bytes, or after the END block of all raw bytes
+    public static final int ODZ_CHECKSUM_SIZE = 4;
+    
+    // Block index: for each block and then the END block, the u64 raw offset and u64 stream
+    // offset where it starts, followed by a u32 block count and "ODZI"
+    public static final int ODZ_INDEX_ENTRY_SIZE = 16;
+    public static final int ODZ_INDEX_TRAILER_SIZE = 8;
+    
+    public static final int PARALLEL_BLOCK_SIZE = 1 << 21;
+    
+    // Archive: "ODZA" + version, each file's data as a framed stream with independent blocks,
+    // the central directory, then a u64 directory offset, a u32 entry count and "ODZC"
+    public static final byte ODZ_ARCHIVE_VERSION = 1;
+    public static final int ODZ_ARCHIVE_HEADER_SIZE = 5;
+    public static final int ODZ_ARCHIVE_TRAILER_SIZE = 16;
+    // Directory entry: [kind u8][permissions u16][mtime u64][raw size u64][data offset u64]
+    // [data length u64][name length u16] then the UTF-8 name
+    public static final int ODZ_ARCHIVE_ENTRY_SIZE = 37;
+    public static final int ODZ_ENTRY_FILE = 0;
+    public static final int ODZ_ENTRY_DIRECTORY = 1;
+    
     private OdzConstants() {
         // Utility class
     }
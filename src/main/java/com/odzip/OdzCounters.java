@@ -0,0 +1,183 @@
+package com.odzip;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * {@link OdzMetrics} listener that keeps running totals. Each counter is a LongAdder, which
+ * gives contending threads their own cells and sums them when read, so concurrent compressors
+ * never wait on each other.
+ * 
+ * <pre>
+ * OdzCounters counters = new OdzCounters();
+ * OdzMetrics.register(counters);
+ * counters.registerMBean(); // com.odzip:type=OdzCounters
+ * </pre>
+ */
+public class OdzCounters implements OdzMetrics, OdzCountersMBean {
+    public static final String OBJECT_NAME = "com.odzip:type=OdzCounters";
+    
+    private final LongAdder compressions = new LongAdder();
+    private final LongAdder compressRawBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder matches = new LongAdder();
+    private final LongAdder matchBytes = new LongAdder();
+    private final LongAdder chainSteps = new LongAdder();
+    private final LongAdder lazyChecks = new LongAdder();
+    private final LongAdder lazyHits = new LongAdder();
+    private final LongAdder decompressions = new LongAdder();
+    private final LongAdder decompressCompressedBytes = new LongAdder();
+    private final LongAdder decompressRawBytes = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+    
+    @Override
+    public void compressed(OdzCompressionStats stats) {
+        compressions.increment();
+        compressRawBytes.add(stats.rawBytes());
+        compressedBytes.add(stats.compressedBytes());
+        compressNanos.add(stats.nanos());
+        matches.add(stats.matches());
+        matchBytes.add(stats.matchBytes());
+        chainSteps.add(stats.chainSteps());
+        lazyChecks.add(stats.lazyChecks());
+        lazyHits.add(stats.lazyHits());
+    }
+    
+    @Override
+    public void decompressed(long compressedBytes, long rawBytes, long nanos) {
+        decompressions.increment();
+        decompressCompressedBytes.add(compressedBytes);
+        decompressRawBytes.add(rawBytes);
+        decompressNanos.add(nanos);
+    }
+    
+    /**
+     * Register with the platform MBean server under {@link #OBJECT_NAME}.
+     * 
+     * @throws IllegalStateException if another instance is already registered there
+     */
+    public ObjectName registerMBean() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            return name;
+        } catch (JMException e) {
+            throw new IllegalStateException("cannot register " + OBJECT_NAME, e);
+        }
+    }
+    
+    public void unregisterMBean() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("cannot unregister " + OBJECT_NAME, e);
+        }
+    }
+    
+    @Override
+    public long getCompressions() {
+        return compressions.sum();
+    }
+    
+    @Override
+    public long getCompressRawBytes() {
+        return compressRawBytes.sum();
+    }
+    
+    @Override
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+    
+    @Override
+    public long getCompressNanos() {
+        return compressNanos.sum();
+    }
+    
+    @Override
+    public long getMatches() {
+        return matches.sum();
+    }
+    
+    @Override
+    public long getMatchBytes() {
+        return matchBytes.sum();
+    }
+    
+    @Override
+    public long getChainSteps() {
+        return chainSteps.sum();
+    }
+    
+    @Override
+    public long getLazyChecks() {
+        return lazyChecks.sum();
+    }
+    
+    @Override
+    public long getLazyHits() {
+        return lazyHits.sum();
+    }
+    
+    /**
+     * Raw bytes per compressed byte over all compressions
+     */
+    @Override
+    public double getCompressionRatio() {
+        long compressed = compressedBytes.sum();
+        return compressed == 0 ? 0 : (double)compressRawBytes.sum() / compressed;
+    }
+    
+    @Override
+    public double getAverageMatchLength() {
+        long count = matches.sum();
+        return count == 0 ? 0 : (double)matchBytes.sum() / count;
+    }
+    
+    /**
+     * Fraction of lazy checks that deferred to a longer match
+     */
+    @Override
+    public double getLazyHitRate() {
+        long checks = lazyChecks.sum();
+        return checks == 0 ? 0 : (double)lazyHits.sum() / checks;
+    }
+    
+    @Override
+    public long getDecompressions() {
+        return decompressions.sum();
+    }
+    
+    @Override
+    public long getDecompressCompressedBytes() {
+        return decompressCompressedBytes.sum();
+    }
+    
+    @Override
+    public long getDecompressRawBytes() {
+        return decompressRawBytes.sum();
+    }
+    
+    @Override
+    public long getDecompressNanos() {
+        return decompressNanos.sum();
+    }
+    
+    @Override
+    public void reset() {
+        LongAdder[] all = {compressions, compressRawBytes, compressedBytes, compressNanos, matches, matchBytes,
+                           chainSteps, lazyChecks, lazyHits, decompressions, decompressCompressedBytes,
+                           decompressRawBytes, decompressNanos};
+        for (LongAdder adder : all) {
+            adder.reset();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.odzip;
+
+/**
+ * JMX view of {@link OdzCounters}. JMX requires the get prefix.
+ */
+public interface OdzCountersMBean {
+    long getCompressions();
+    
+    long getCompressRawBytes();
+    
+    long getCompressedBytes();
+    
+    long getCompressNanos();
+    
+    long getMatches();
+    
+    long getMatchBytes();
+    
+    long getChainSteps();
+    
+    long getLazyChecks();
+    
+    long getLazyHits();
+    
+    double getCompressionRatio();
+    
+    double getAverageMatchLength();
+    
+    double getLazyHitRate();
+    
+    long getDecompressions();
+    
+    long getDecompressCompressedBytes();
+    
+    long getDecompressRawBytes();
+    
+    long getDecompressNanos();
+    
+    void reset();
+}
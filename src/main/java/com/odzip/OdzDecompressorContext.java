@@ -0,0 +1,265 @@
+package com.odzip;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+/**
+ * Reusable decompression state for services that decompress many small inputs.
+ * 
+ * Decoding itself allocates nothing beyond the output, so the context mainly saves the
+ * block table of framed input and lets callers decode into buffers they reuse through
+ * {@link #decompress(byte[], int, int, byte[], int)}.
+ * 
+ * A context created with a preset dictionary also decodes data compressed against
+ * that dictionary; other contexts reject such data.
+ * 
+ * ByteBuffer sources and destinations backed by an array are used in place; direct ones
+ * are copied through scratch arrays kept between calls.
+ * 
+ * A context must only be used by one thread at a time; {@link #forCurrentThread()}
+ * hands out one cached context per thread.
+ */
+public final class OdzDecompressorContext {
+    private static final ThreadLocal<OdzDecompressorContext> THREAD_CONTEXT =
+        ThreadLocal.withInitial(OdzDecompressorContext::new);
+    
+    private final Decompressor.BlockTable table = new Decompressor.BlockTable();
+    private final HuffmanDecoder huffman = new HuffmanDecoder();
+    private final OdzDictionary dictionary;
+    // Dictionary followed by room for the decoded data
+    private byte[] window;
+    // Copy of a direct source buffer, and output for a direct destination
+    private byte[] input = new byte[0];
+    private byte[] buffer = new byte[0];
+    
+    public OdzDecompressorContext() {
+        this(null);
+    }
+    
+    public OdzDecompressorContext(OdzDictionary dictionary) {
+        this.dictionary = dictionary;
+        if (dictionary != null) {
+            this.window = new byte[dictionary.size()];
+            dictionary.copyTo(window, 0);
+        }
+    }
+    
+    /**
+     * The calling thread's context without a dictionary, created on first use.
+     */
+    public static OdzDecompressorContext forCurrentThread() {
+        return THREAD_CONTEXT.get();
+    }
+    
+    /**
+     * The preset dictionary, or null
+     */
+    public OdzDictionary dictionary() {
+        return dictionary;
+    }
+    
+    public byte[] decompress(byte[] in) {
+        return decompress(in, Decompressor.MAX_ARRAY_SIZE);
+    }
+    
+    /**
+     * Decompress in, rejecting data that declares more than maxSize bytes with an
+     * {@link OdzSizeLimitException} before the output is allocated.
+     */
+    public byte[] decompress(byte[] in, int maxSize) {
+        int rawLen = decompressedLength(in, 0, in.length);
+        Decompressor.checkLimit(rawLen, maxSize);
+        byte[] out = new byte[rawLen];
+        decode(in, 0, in.length, out, 0);
+        return out;
+    }
+    
+    /**
+     * Decompressed size of in[inOff, inOff + inLen), from the header or, for framed
+     * data without a recorded content size, the block headers.
+     */
+    public int decompressedLength(byte[] in, int inOff, int inLen) {
+        checkBounds(in, inOff, inLen);
+        if (readHeader(in, inOff, inLen) == OdzConstants.ODZ_VERSION) {
+            return OdzUtil.readU32LE(in, inOff + 4);
+        }
+        return table.scan(in, inOff, inOff + inLen).totalSize;
+    }
+    
+    /**
+     * Decompress in[inOff, inOff + inLen) into out at outOff without allocating.
+     * 
+     * @return the number of bytes written
+     * @throws IllegalArgumentException if the data does not fit in out from outOff
+     */
+    public int decompress(byte[] in, int inOff, int inLen, byte[] out, int outOff) {
+        checkBounds(in, inOff, inLen);
+        if (outOff < 0 || outOff > out.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        return decode(in, inOff, inLen, out, outOff);
+    }
+    
+    /**
+     * Decompressed size of the remaining bytes of src, without moving its position.
+     */
+    public int decompressedLength(ByteBuffer src) {
+        if (src.hasArray()) {
+            return decompressedLength(src.array(), src.arrayOffset() + src.position(), src.remaining());
+        }
+        return decompressedLength(stage(src), 0, src.remaining());
+    }
+    
+    /**
+     * Decompress the remaining bytes of src, which must hold exactly one compressed input,
+     * into dst, advancing the position of both.
+     * 
+     * @throws IllegalArgumentException if the data does not fit in the remaining bytes of dst
+     */
+    public OdzResult decompress(ByteBuffer src, ByteBuffer dst) {
+        if (dst.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+        int inLen = src.remaining();
+        byte[] in;
+        int inOff;
+        if (src.hasArray()) {
+            in = src.array();
+            inOff = src.arrayOffset() + src.position();
+        } else {
+            in = stage(src);
+            inOff = 0;
+        }
+        int rawLen = decompressedLength(in, inOff, inLen);
+        if (dst.remaining() < rawLen) {
+            throw new IllegalArgumentException("output buffer too small: need " + rawLen + " bytes");
+        }
+        
+        if (dst.hasArray()) {
+            decode(in, inOff, inLen, dst.array(), dst.arrayOffset() + dst.position());
+            dst.position(dst.position() + rawLen);
+        } else {
+            byte[] out = buffer;
+            if (out.length < rawLen) {
+                out = new byte[rawLen];
+                if (rawLen <= OdzCompressorContext.MAX_RETAINED_BUFFER) {
+                    buffer = out;
+                }
+            }
+            decode(in, inOff, inLen, out, 0);
+            dst.put(out, 0, rawLen);
+        }
+        src.position(src.position() + inLen);
+        return new OdzResult(inLen, rawLen);
+    }
+    
+    /**
+     * Copy the remaining bytes of a direct buffer to the start of the input scratch array.
+     */
+    private byte[] stage(ByteBuffer src) {
+        int inLen = src.remaining();
+        byte[] in = input;
+        if (in.length < inLen) {
+            in = new byte[inLen];
+            if (inLen <= OdzCompressorContext.MAX_RETAINED_BUFFER) {
+                input = in;
+            }
+        }
+        src.duplicate().get(in, 0, inLen);
+        return in;
+    }
+    
+    private int decode(byte[] in, int inOff, int inLen, byte[] out, int outOff) {
+        if (!MetricsRegistry.enabled) {
+            return decodeUnmetered(in, inOff, inLen, out, outOff);
+        }
+        long startTime = System.nanoTime();
+        int rawLen = decodeUnmetered(in, inOff, inLen, out, outOff);
+        MetricsRegistry.decompressed(inLen, rawLen, System.nanoTime() - startTime);
+        return rawLen;
+    }
+    
+    private int decodeUnmetered(byte[] in, int inOff, int inLen, byte[] out, int outOff) {
+        if (readHeader(in, inOff, inLen) == OdzConstants.ODZ_VERSION) {
+            int rawLen = OdzUtil.readU32LE(in, inOff + 4);
+            checkRoom(out, outOff, rawLen);
+            Decompressor.decodeTokens(in, inOff + 8, inOff + inLen, out, outOff, outOff, outOff + rawLen);
+            return rawLen;
+        }
+        
+        table.scan(in, inOff, inOff + inLen);
+        checkRoom(out, outOff, table.totalSize);
+        if (table.hasDictionary) {
+            return decodeWithDictionary(in, out, outOff);
+        }
+        for (int b = 0; b < table.count; b++) {
+            Decompressor.decodeBlock(in, table, b, out, outOff, outOff, huffman);
+        }
+        return table.totalSize;
+    }
+    
+    /**
+     * Decode the scanned blocks right after the dictionary, where matches can reach it,
+     * then copy them out.
+     */
+    private int decodeWithDictionary(byte[] in, byte[] out, int outOff) {
+        if (dictionary == null) {
+            throw new OdzUnsupportedException("dictionary required");
+        }
+        if (table.dictionaryId != dictionary.id()) {
+            throw new OdzUnsupportedException("wrong dictionary");
+        }
+        int dictLen = dictionary.size();
+        int rawLen = table.totalSize;
+        Decompressor.checkLimit(rawLen, Decompressor.MAX_ARRAY_SIZE - dictLen);
+        byte[] buf = window;
+        if (buf.length < dictLen + rawLen) {
+            buf = new byte[dictLen + rawLen];
+            dictionary.copyTo(buf, 0);
+            if (rawLen <= OdzCompressorContext.MAX_RETAINED_BUFFER) {
+                window = buf;
+            }
+        }
+        for (int b = 0; b < table.count; b++) {
+            Decompressor.decodeBlock(in, table, b, buf, dictLen, 0, huffman);
+        }
+        System.arraycopy(buf, dictLen, out, outOff, rawLen);
+        return rawLen;
+    }
+    
+    /**
+     * Validate the magic and the fixed part of the header.
+     * 
+     * @return the format version
+     */
+    private static byte readHeader(byte[] in, int inOff, int inLen) {
+        if (inLen < OdzConstants.ODZ_FRAMED_HEADER_SIZE) {
+            throw new OdzTruncatedException("truncated");
+        }
+        if (in[inOff] != 'O' || in[inOff + 1] != 'D' || in[inOff + 2] != 'Z') {
+            throw new OdzFormatException("bad magic");
+        }
+        byte version = in[inOff + 3];
+        if (version == OdzConstants.ODZ_VERSION) {
+            if (inLen < 8) {
+                throw new OdzTruncatedException("truncated");
+            }
+            Decompressor.checkRawLength(OdzUtil.readU32LE(in, inOff + 4), inLen - 8, Decompressor.MAX_ARRAY_SIZE);
+        } else if (version != OdzConstants.ODZ_VERSION_FRAMED) {
+            throw new OdzFormatException("bad magic");
+        }
+        return version;
+    }
+    
+    private static void checkBounds(byte[] in, int inOff, int inLen) {
+        if ((inOff | inLen | (inOff + inLen) | (in.length - (inOff + inLen))) < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+    
+    private static void checkRoom(byte[] out, int outOff, int rawLen) {
+        if (out.length - outOff < rawLen) {
+            throw new IllegalArgumentException("output buffer too small: need " + rawLen + " bytes");
+        }
+    }
+}
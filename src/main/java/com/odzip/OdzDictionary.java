@@ -0,0 +1,59 @@
+package com.odzip;
+
+import java.util.zip.CRC32;
+
+/**
+ * Preset dictionary for compressing small, similar payloads.
+ * 
+ * The content acts as if it preceded every input, so matches can reach into it from the
+ * first byte on. Compressed data records the dictionary ID, and decompressing it needs a
+ * dictionary with the same ID. Build one from sample payloads with {@link OdzDictionaryTrainer}.
+ */
+public final class OdzDictionary {
+    private final byte[] content;
+    private final int id;
+    
+    /**
+     * Create a dictionary whose ID is the CRC-32 of its content.
+     */
+    public OdzDictionary(byte[] content) {
+        this(content, crc32(content));
+    }
+    
+    /**
+     * @param content Dictionary bytes, at most ODZ_WINDOW of them; the most useful content goes last
+     * @param id ID recorded in compressed data
+     */
+    public OdzDictionary(byte[] content, int id) {
+        if (content.length > OdzConstants.ODZ_WINDOW) {
+            throw new IllegalArgumentException("dictionary larger than the " + OdzConstants.ODZ_WINDOW + " byte window");
+        }
+        this.content = content.clone();
+        this.id = id;
+    }
+    
+    public int id() {
+        return id;
+    }
+    
+    public int size() {
+        return content.length;
+    }
+    
+    public byte[] content() {
+        return content.clone();
+    }
+    
+    /**
+     * Copy the content into dst at offset without cloning it first.
+     */
+    void copyTo(byte[] dst, int offset) {
+        System.arraycopy(content, 0, dst, offset, content.length);
+    }
+    
+    private static int crc32(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        return (int)crc.getValue();
+    }
+}
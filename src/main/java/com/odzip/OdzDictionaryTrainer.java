@@ -0,0 +1,140 @@
+package com.odzip;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Builds a preset dictionary from sample payloads.
+ * 
+ * Samples are cut into overlapping segments, scored by how many samples share each of their
+ * KMER-byte substrings. Segments are picked greedily by score; once a substring is in the
+ * dictionary it stops counting, so the dictionary holds what most payloads have in common
+ * without repeating it. The best segments go last, closest to the data.
+ */
+public final class OdzDictionaryTrainer {
+    public static final int DEFAULT_DICTIONARY_SIZE = 16 * 1024;
+    static final int KMER = 8;
+    static final int SEGMENT_SIZE = 32;
+    // Substring counts are kept per hash bucket, which is exact enough for scoring
+    private static final int TABLE_BITS = 20;
+    
+    private OdzDictionaryTrainer() {
+        // Utility class
+    }
+    
+    public static OdzDictionary train(List<byte[]> samples) {
+        return train(samples, DEFAULT_DICTIONARY_SIZE);
+    }
+    
+    /**
+     * @param samples Typical payloads; more samples give a more representative dictionary
+     * @param maxSize Largest dictionary to build, at most ODZ_WINDOW bytes
+     */
+    public static OdzDictionary train(List<byte[]> samples, int maxSize) {
+        if (maxSize <= 0 || maxSize > OdzConstants.ODZ_WINDOW) {
+            throw new IllegalArgumentException("maxSize must be between 1 and " + OdzConstants.ODZ_WINDOW);
+        }
+        if (samples.isEmpty()) {
+            throw new IllegalArgumentException("no samples");
+        }
+        
+        // Number of samples containing each substring
+        int[] counts = new int[1 << TABLE_BITS];
+        int[] lastSample = new int[1 << TABLE_BITS];
+        Arrays.fill(lastSample, -1);
+        for (int s = 0; s < samples.size(); s++) {
+            byte[] sample = samples.get(s);
+            for (int p = 0; p + KMER <= sample.length; p++) {
+                int b = bucket(sample, p);
+                if (lastSample[b] != s) {
+                    lastSample[b] = s;
+                    counts[b]++;
+                }
+            }
+        }
+        
+        // Best segment first. Scores only drop as substrings get covered, so a popped segment
+        // is rescored and put back unless it still beats the next one.
+        PriorityQueue<Segment> queue = new PriorityQueue<>((x, y) -> Long.compare(y.score, x.score));
+        for (int s = 0; s < samples.size(); s++) {
+            byte[] sample = samples.get(s);
+            for (int start = 0; start < sample.length; start += SEGMENT_SIZE / 2) {
+                Segment segment = new Segment(s, start, Math.min(start + SEGMENT_SIZE, sample.length));
+                segment.score = score(sample, segment, counts);
+                if (segment.score > 0) {
+                    queue.add(segment);
+                }
+            }
+        }
+        
+        List<Segment> picked = new ArrayList<>();
+        int total = 0;
+        while (!queue.isEmpty() && total < maxSize) {
+            Segment segment = queue.poll();
+            byte[] sample = samples.get(segment.sample);
+            long score = score(sample, segment, counts);
+            if (score <= 0) {
+                continue;
+            }
+            if (score < segment.score && !queue.isEmpty() && score < queue.peek().score) {
+                segment.score = score;
+                queue.add(segment);
+                continue;
+            }
+            picked.add(segment);
+            total += segment.end - segment.start;
+            for (int p = segment.start; p + KMER <= segment.end; p++) {
+                counts[bucket(sample, p)] = 0;
+            }
+        }
+        
+        byte[] content = new byte[Math.min(total, maxSize)];
+        int op = content.length;
+        for (Segment segment : picked) {
+            int len = Math.min(segment.end - segment.start, op);
+            op -= len;
+            System.arraycopy(samples.get(segment.sample), segment.end - len, content, op, len);
+            if (op == 0) {
+                break;
+            }
+        }
+        return new OdzDictionary(content);
+    }
+    
+    /**
+     * Sum of the sample counts of the segment's substrings that at least two samples share
+     */
+    private static long score(byte[] sample, Segment segment, int[] counts) {
+        long score = 0;
+        for (int p = segment.start; p + KMER <= segment.end; p++) {
+            int count = counts[bucket(sample, p)];
+            if (count >= 2) {
+                score += count;
+            }
+        }
+        return score;
+    }
+    
+    private static int bucket(byte[] data, int p) {
+        long k = 0;
+        for (int j = 0; j < KMER; j++) {
+            k = (k << 8) | (data[p + j] & 0xFF);
+        }
+        return (int)((k * 0x9E3779B97F4A7C15L) >>> (64 - TABLE_BITS));
+    }
+    
+    private static final class Segment {
+        final int sample;
+        final int start;
+        final int end;
+        long score;
+        
+        Segment(int sample, int start, int end) {
+            this.sample = sample;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.odzip;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File-to-file compression and decompression with fixed memory use.
+ * 
+ * The input file is memory-mapped a region at a time and the output goes through a
+ * direct buffer straight to a FileChannel, so neither file is ever held on the heap
+ * and sizes are limited only by the 64-bit size field in the framed header.
+ */
+public final class OdzFiles {
+    // Size of each mapped region of the input file
+    static final long MAP_SIZE = 1L << 30;
+    static final int OUTPUT_BUFFER_SIZE = 1 << 20;
+    private static final int COPY_SIZE = 1 << 16;
+    
+    private OdzFiles() {
+        // Utility class
+    }
+    
+    public static void compress(Path input, Path output) throws IOException {
+        compress(input, output, CompressionLevel.DEFAULT);
+    }
+    
+    /**
+     * Compress input to output in the framed format, recording the input size in the header.
+     */
+    public static void compress(Path input, Path output, CompressionLevel level) throws IOException {
+        compress(input, output, level, false);
+    }
+    
+    /**
+     * Compress input to output in the framed format, recording the input size in the header
+     * and, if checksum is set, a CRC32C of each block and of the whole file.
+     */
+    public static void compress(Path input, Path output, CompressionLevel level, boolean checksum) throws IOException {
+        try (FileChannel src = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel dst = openOutput(output)) {
+            long size = src.size();
+            OdzOutputStream out = new OdzOutputStream(new ChannelOutputStream(dst), level, size, checksum);
+            byte[] chunk = new byte[COPY_SIZE];
+            for (long position = 0; position < size; position += MAP_SIZE) {
+                MappedByteBuffer region = src.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_SIZE, size - position));
+                while (region.hasRemaining()) {
+                    int n = Math.min(chunk.length, region.remaining());
+                    region.get(chunk, 0, n);
+                    out.write(chunk, 0, n);
+                }
+            }
+            out.close();
+        }
+    }
+    
+    /**
+     * Decompress input, in either format, to output.
+     */
+    public static void decompress(Path input, Path output) throws IOException {
+        try (FileChannel src = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel dst = openOutput(output)) {
+            OdzInputStream in = new OdzInputStream(new MappedInputStream(src));
+            ChannelOutputStream out = new ChannelOutputStream(dst);
+            byte[] chunk = new byte[COPY_SIZE];
+            int n;
+            while ((n = in.read(chunk, 0, chunk.length)) != -1) {
+                out.write(chunk, 0, n);
+            }
+            out.close();
+        }
+    }
+    
+    private static FileChannel openOutput(Path output) throws IOException {
+        return FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                StandardOpenOption.WRITE);
+    }
+    
+    /**
+     * Reads a file through memory-mapped regions of at most MAP_SIZE bytes.
+     */
+    private static final class MappedInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long size;
+        private long regionEnd;
+        private MappedByteBuffer region;
+        
+        MappedInputStream(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            this.regionEnd = 0;
+        }
+        
+        private boolean nextRegion() throws IOException {
+            if (region != null && region.hasRemaining()) {
+                return true;
+            }
+            if (regionEnd >= size) {
+                return false;
+            }
+            long length = Math.min(MAP_SIZE, size - regionEnd);
+            region = channel.map(FileChannel.MapMode.READ_ONLY, regionEnd, length);
+            regionEnd += length;
+            return true;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            return nextRegion() ? region.get() & 0xFF : -1;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if ((off | len | (off + len) | (b.length - (off + len))) < 0) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextRegion()) {
+                return -1;
+            }
+            int n = Math.min(len, region.remaining());
+            region.get(b, off, n);
+            return n;
+        }
+    }
+    
+    /**
+     * Writes to a FileChannel through a direct buffer of OUTPUT_BUFFER_SIZE bytes.
+     * Closing drains the buffer but leaves the channel open for its owner.
+     */
+    private static final class ChannelOutputStream extends OutputStream {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        
+        ChannelOutputStream(FileChannel channel) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            buffer.put((byte)b);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if ((off | len | (off + len) | (b.length - (off + len))) < 0) {
+                throw new IndexOutOfBoundsException();
+            }
+            while (len > 0) {
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                int n = Math.min(len, buffer.remaining());
+                buffer.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+        
+        @Override
+        public void flush() throws IOException {
+            drain();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            drain();
+        }
+        
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
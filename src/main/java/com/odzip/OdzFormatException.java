@@ -0,0 +1,17 @@
+package com.odzip;
+
+/**
+ * Thrown when compressed data cannot be decoded: it is corrupt or truncated, fails its
+ * checksum, declares more output than the caller allows, or needs a feature or dictionary
+ * the decoder does not have.
+ * 
+ * It is unchecked so that the byte array methods keep their signatures, and it leaves the
+ * decoder or context that threw it ready for the next input.
+ */
+public class OdzFormatException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    
+    public OdzFormatException(String message) {
+        super(message);
+    }
+}
@@ -2,13 +2,31 @@ package com.odzip;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.zip.CRC32C;
 
 /**
- * InputStream that decompresses ODZ format data from an underlying InputStream
+ * InputStream that decompresses ODZ format data from an underlying InputStream.
+ * 
+ * Memory use is fixed regardless of the archive size: decoded data goes into a buffer
+ * holding the last WINDOW_SIZE bytes of history (all a match can reach), or the window
+ * from the header of a stream with LZ2 tokens, plus a chunk of newly decoded output.
+ * Once the chunk has been read, the history is slid to the front.
+ * 
+ * Corrupt data makes read throw an {@link OdzFormatException}.
  */
 public class OdzInputStream extends InputStream {
+    static final int WINDOW_SIZE = 1 << 16;
+    static final int CHUNK_SIZE = 1 << 16;
+    
+    private static final int MAX_GROUP_OUTPUT = Decompressor.MAX_GROUP_OUTPUT;
+    private static final int MAX_GROUP_INPUT = Decompressor.MAX_GROUP_INPUT;
+    
     private final InputStream in;
+    private final long maxSize;
     private byte[] decompressedBuffer;
+    // History kept for matches, and the most one group can add to the buffer
+    private int window = WINDOW_SIZE;
+    private int groupOutput = MAX_GROUP_OUTPUT;
     private int decompressedPosition;
     private int decompressedSize;
     
@@ -19,19 +37,47 @@ public class OdzInputStream extends InputStream {
     private static final int COMPRESSED_BUFFER_SIZE = 8192;
     
     // Decompression state
-    private int rawLen;
-    private int decompressedOp;
+    private boolean framed;
+    private int blockType = OdzConstants.ODZ_BLOCK_LZ;
+    private int blockRemaining;
+    // Huffman blocks: payload bytes not yet taken from compressedBuffer, and the decoder,
+    // which holds the bits it has read ahead between calls
+    private int blockInput;
+    private HuffmanDecoder huffman;
+    private long totalSize;
+    private long contentSize = -1;
+    // ODZ_FLAG_CHECKSUM: the running CRC32C of the current block, whose checksum is checked
+    // before the next block header, its raw size, and the CRC32C of the blocks before it
+    private CRC32C blockChecksum;
+    private boolean blockOpen;
+    private int blockSize;
+    private int streamChecksum;
     private boolean headerRead;
     private boolean decompressionComplete;
     
+    // For OdzMetrics: bytes read from in, and time spent decoding while metrics were enabled
+    private long compressedRead;
+    private long decodeNanos;
+    
     public OdzInputStream(InputStream in) {
+        this(in, Long.MAX_VALUE);
+    }
+    
+    /**
+     * Create a stream for data that may come from an untrusted source: once the headers
+     * declare more than maxSize decompressed bytes in total, read throws an
+     * {@link OdzSizeLimitException} instead of decoding them.
+     */
+    public OdzInputStream(InputStream in, long maxSize) {
         this.in = in;
+        this.maxSize = maxSize;
+        this.decompressedBuffer = new byte[WINDOW_SIZE + CHUNK_SIZE];
         this.decompressedPosition = 0;
         this.decompressedSize = 0;
         this.compressedBuffer = new byte[COMPRESSED_BUFFER_SIZE];
         this.compressedPosition = 0;
         this.compressedSize = 0;
-        this.decompressedOp = 0;
+        this.blockRemaining = 0;
         this.headerRead = false;
         this.decompressionComplete = false;
     }
@@ -41,31 +87,227 @@ public class OdzInputStream extends InputStream {
             return;
         }
         
-        byte[] header = new byte[8];
-        int totalRead = 0;
-        while (totalRead < 8) {
-            int bytesRead = in.read(header, totalRead, 8 - totalRead);
-            if (bytesRead == -1) {
-                OdzUtil.die("truncated header");
-            }
-            totalRead += bytesRead;
+        if (readCompressedData(4) < 4) {
+            throw new OdzTruncatedException("truncated header");
         }
         
         // Check magic header
-        if (header[0] != 'O' || header[1] != 'D' || header[2] != 'Z' || header[3] != OdzConstants.ODZ_VERSION) {
-            OdzUtil.die("bad magic");
+        byte[] header = compressedBuffer;
+        int hp = compressedPosition;
+        if (header[hp] != 'O' || header[hp + 1] != 'D' || header[hp + 2] != 'Z') {
+            throw new OdzFormatException("bad magic");
         }
         
-        rawLen = OdzUtil.readU32LE(header, 4);
-        decompressedBuffer = new byte[rawLen];
+        if (header[hp + 3] == OdzConstants.ODZ_VERSION_FRAMED) {
+            // Flags byte and any fields it calls for; block sizes come with each block
+            if (readCompressedData(OdzConstants.ODZ_FRAMED_HEADER_SIZE) < OdzConstants.ODZ_FRAMED_HEADER_SIZE) {
+                throw new OdzTruncatedException("truncated header");
+            }
+            int flags = compressedBuffer[compressedPosition + 4];
+            int headerSize = Decompressor.framedHeaderSize(flags);
+            if ((flags & OdzConstants.ODZ_FLAG_DICTIONARY) != 0) {
+                throw new OdzUnsupportedException("dictionary required");
+            }
+            if (readCompressedData(headerSize) < headerSize) {
+                throw new OdzTruncatedException("truncated header");
+            }
+            if ((flags & OdzConstants.ODZ_FLAG_CONTENT_SIZE) != 0) {
+                contentSize = OdzUtil.readU64LE(compressedBuffer, compressedPosition + OdzConstants.ODZ_FRAMED_HEADER_SIZE);
+                if (contentSize < 0) {
+                    throw new OdzFormatException("bad size");
+                }
+                Decompressor.checkLimit(contentSize, maxSize);
+            }
+            if ((flags & OdzConstants.ODZ_FLAG_CHECKSUM) != 0) {
+                blockChecksum = new CRC32C();
+            }
+            if ((flags & OdzConstants.ODZ_FLAG_WINDOW) != 0) {
+                // The window byte comes last. History past the most the stream may decode is
+                // never reached, which keeps a forged window within maxSize.
+                int windowLog = Decompressor.checkWindowLog(compressedBuffer[compressedPosition + headerSize - 1]);
+                long reachable = Math.min(maxSize, contentSize >= 0 ? contentSize : Long.MAX_VALUE);
+                window = (int)Math.max(WINDOW_SIZE, Math.min(1 << windowLog, reachable));
+                groupOutput = Decompressor.MAX_GROUP_OUTPUT_LZ2;
+                decompressedBuffer = new byte[window + CHUNK_SIZE + groupOutput];
+            }
+            compressedPosition += headerSize;
+            framed = true;
+        } else if (header[hp + 3] == OdzConstants.ODZ_VERSION) {
+            if (readCompressedData(8) < 8) {
+                throw new OdzTruncatedException("truncated header");
+            }
+            // The whole stream is a single block of rawLen bytes
+            blockRemaining = OdzUtil.readU32LE(compressedBuffer, compressedPosition + 4);
+            if (blockRemaining < 0) {
+                throw new OdzFormatException("bad size");
+            }
+            Decompressor.checkLimit(blockRemaining, maxSize);
+            totalSize = blockRemaining;
+            compressedPosition += 8;
+        } else {
+            throw new OdzFormatException("bad magic");
+        }
         headerRead = true;
     }
     
+    /**
+     * Read the next framed block header, or mark decompression complete at the END block.
+     */
+    private void readBlockHeader() throws IOException {
+        if (blockOpen) {
+            checkBlock();
+        }
+        byte type = readCompressedByte();
+        if (type == OdzConstants.ODZ_BLOCK_END) {
+            if (contentSize >= 0 && totalSize != contentSize) {
+                throw new OdzFormatException("size mismatch");
+            }
+            if (blockChecksum != null && readChecksum() != streamChecksum) {
+                throw new OdzChecksumException("checksum mismatch");
+            }
+            decompressionComplete = true;
+            return;
+        }
+        if (readCompressedData(8) < 8) {
+            throw new OdzTruncatedException("unexpected end of compressed data");
+        }
+        blockRemaining = OdzUtil.readU32LE(compressedBuffer, compressedPosition);
+        int compSize = OdzUtil.readU32LE(compressedBuffer, compressedPosition + 4);
+        compressedPosition += 8;
+        if (!Decompressor.validBlockHeader(type, blockRemaining, compSize)
+                || (type == OdzConstants.ODZ_BLOCK_LZ2 && groupOutput != Decompressor.MAX_GROUP_OUTPUT_LZ2)) {
+            throw new OdzFormatException("corrupt block header");
+        }
+        Decompressor.checkLimit(totalSize + blockRemaining, maxSize);
+        totalSize += blockRemaining;
+        blockType = type;
+        blockOpen = blockChecksum != null;
+        blockSize = blockRemaining;
+        
+        if (type == OdzConstants.ODZ_BLOCK_HUFFMAN) {
+            if (huffman == null) {
+                huffman = new HuffmanDecoder();
+            }
+            int available = Math.min(readCompressedData(Math.min(compSize, HuffmanDecoder.MAX_TABLE_BYTES + 8)), compSize);
+            int ip = huffman.readTables(compressedBuffer, compressedPosition, compressedPosition + available);
+            blockInput = compSize - (ip - compressedPosition);
+            compressedPosition = ip;
+        }
+    }
+    
+    /**
+     * Check the finished block's checksum, which follows its payload.
+     */
+    private void checkBlock() throws IOException {
+        int checksum = readChecksum();
+        if (checksum != (int)blockChecksum.getValue()) {
+            throw new OdzChecksumException("checksum mismatch");
+        }
+        streamChecksum = OdzUtil.crc32cCombine(streamChecksum, checksum, blockSize);
+        blockChecksum.reset();
+        blockOpen = false;
+    }
+    
+    private int readChecksum() throws IOException {
+        if (readCompressedData(OdzConstants.ODZ_CHECKSUM_SIZE) < OdzConstants.ODZ_CHECKSUM_SIZE) {
+            throw new OdzTruncatedException("unexpected end of compressed data");
+        }
+        int checksum = OdzUtil.readU32LE(compressedBuffer, compressedPosition);
+        compressedPosition += OdzConstants.ODZ_CHECKSUM_SIZE;
+        return checksum;
+    }
+    
+    /**
+     * Decode from the current Huffman block into out from op, stopping before a token
+     * would start past opLimit.
+     * 
+     * @return the output position reached
+     */
+    private int decodeHuffman(byte[] out, int op, int opLimit) throws IOException {
+        // Buffer a good run of the payload; the decoder stops early only when it runs low
+        int wanted = Math.min(blockInput, COMPRESSED_BUFFER_SIZE / 2);
+        int available = Math.min(readCompressedData(wanted), blockInput);
+        if (available < wanted) {
+            throw new OdzTruncatedException("unexpected end of compressed data");
+        }
+        int ip = huffman.decode(compressedBuffer, compressedPosition, compressedPosition + available,
+                                available == blockInput, out, 0, op, opLimit + 1, op + blockRemaining);
+        blockInput -= ip - compressedPosition;
+        compressedPosition = ip;
+        blockRemaining -= huffman.position - op;
+        if (blockRemaining == 0) {
+            huffman.checkEnd(compressedPosition, compressedPosition + blockInput);
+        }
+        return huffman.position;
+    }
+    
+    /**
+     * Decode one group of the current LZ2 block into out at op.
+     * 
+     * @return the output position reached
+     */
+    private int decodeGroup2(byte[] out, int op) throws IOException {
+        if (compressedSize - compressedPosition < Decompressor.MAX_GROUP_INPUT_LZ2) {
+            readCompressedData(Decompressor.MAX_GROUP_INPUT_LZ2);
+        }
+        if (compressedPosition >= compressedSize) {
+            throw new OdzTruncatedException("unexpected end of compressed data");
+        }
+        byte[] src = compressedBuffer;
+        int ip = compressedPosition;
+        int ipEnd = compressedSize;
+        int groupStart = op;
+        int groupEnd = op + Math.min(blockRemaining, Decompressor.MAX_GROUP_OUTPUT_LZ2);
+        
+        int flags = src[ip++] & 0xFF;
+        for (int k = 0; k < 8 && op < groupEnd; k++, flags >>>= 1) {
+            if ((flags & 1) != 0) {
+                long match = Decompressor.readMatch2(src, ip, ipEnd);
+                int len = (int)match & 0xFFFF;
+                int dist = (int)(match >>> 16);
+                ip += (int)(match >>> 48);
+                if (dist <= 0 || dist > op) {
+                    throw new OdzFormatException("bad distance");
+                }
+                if (len > groupEnd - op) {
+                    throw new OdzFormatException("overrun");
+                }
+                Decompressor.copyMatch(out, op, dist, len);
+                op += len;
+            } else {
+                if (ip >= ipEnd) {
+                    throw new OdzFormatException("corrupt literal");
+                }
+                out[op++] = src[ip++];
+            }
+        }
+        compressedPosition = ip;
+        blockRemaining -= op - groupStart;
+        return op;
+    }
+    
+    /**
+     * Copy as much of the current stored block as is buffered, up to the end of out.
+     * 
+     * @return the output position reached
+     */
+    private int copyStored(byte[] out, int op) throws IOException {
+        int available = readCompressedData(1);
+        if (available == 0) {
+            throw new OdzTruncatedException("unexpected end of compressed data");
+        }
+        int n = Math.min(Math.min(available, blockRemaining), out.length - op);
+        System.arraycopy(compressedBuffer, compressedPosition, out, op, n);
+        compressedPosition += n;
+        blockRemaining -= n;
+        return op + n;
+    }
+    
     private int readCompressedData(int minBytes) throws IOException {
         // Ensure we have enough data in the buffer
         while (compressedSize - compressedPosition < minBytes) {
             // Shift remaining data to the beginning
-            if (compressedPosition > 0 && compressedPosition < compressedSize) {
+            if (compressedPosition > 0) {
                 System.arraycopy(compressedBuffer, compressedPosition, compressedBuffer, 0, 
                                compressedSize - compressedPosition);
                 compressedSize -= compressedPosition;
@@ -79,6 +321,7 @@ public class OdzInputStream extends InputStream {
                 break;
             }
             compressedSize += bytesRead;
+            compressedRead += bytesRead;
         }
         
         return compressedSize - compressedPosition;
@@ -89,82 +332,166 @@ public class OdzInputStream extends InputStream {
             readCompressedData(1);
         }
         if (compressedPosition >= compressedSize) {
-            OdzUtil.die("unexpected end of compressed data");
+            throw new OdzTruncatedException("unexpected end of compressed data");
         }
         return compressedBuffer[compressedPosition++];
     }
     
-    private void decompressIncremental(int targetSize) throws IOException {
+    /**
+     * Drop all but the last window bytes of history. Only called once everything
+     * decoded so far has been read, so no unread data is lost.
+     */
+    private void slideWindow() {
+        int delta = decompressedSize - window;
+        System.arraycopy(decompressedBuffer, delta, decompressedBuffer, 0, window);
+        decompressedSize -= delta;
+        decompressedPosition -= delta;
+    }
+    
+    /**
+     * Decode more of the stream, timing it if metrics are enabled and reporting at the end.
+     */
+    private void decompressIncremental() throws IOException {
+        if (!MetricsRegistry.enabled) {
+            decodeMore();
+            return;
+        }
+        long startTime = System.nanoTime();
+        decodeMore();
+        decodeNanos += System.nanoTime() - startTime;
+        if (decompressionComplete) {
+            MetricsRegistry.decompressed(compressedRead - (compressedSize - compressedPosition), totalSize, decodeNanos);
+        }
+    }
+    
+    /**
+     * Decode groups into the free part of the buffer until it is full or the stream ends.
+     */
+    private void decodeMore() throws IOException {
         if (!headerRead) {
             readHeader();
         }
         
-        if (decompressionComplete) {
-            return;
+        if (decompressedSize > decompressedBuffer.length - groupOutput) {
+            slideWindow();
         }
         
-        // Read compressed data as needed
-        while (decompressedOp < targetSize && decompressedOp < rawLen) {
-            // Read flags byte
-            if (compressedPosition >= compressedSize) {
-                readCompressedData(1);
+        byte[] out = decompressedBuffer;
+        int op = decompressedSize;
+        int opLimit = out.length - groupOutput;
+        
+        while (op <= opLimit && !decompressionComplete) {
+            if (blockRemaining == 0) {
+                if (op > decompressedSize) {
+                    // Return what we have rather than wait for a block that may not have been flushed yet
+                    break;
+                }
+                if (framed) {
+                    readBlockHeader();
+                } else {
+                    decompressionComplete = true;
+                }
+                continue;
+            }
+            
+            if (blockType == OdzConstants.ODZ_BLOCK_HUFFMAN) {
+                op = decodeHuffman(out, op, opLimit);
+                continue;
+            }
+            if (blockType == OdzConstants.ODZ_BLOCK_STORED) {
+                op = copyStored(out, op);
+                continue;
+            }
+            if (blockType == OdzConstants.ODZ_BLOCK_LZ2) {
+                op = decodeGroup2(out, op);
+                continue;
+            }
+            
+            // Buffer a whole group when possible so the token loop needs no refills
+            if (compressedSize - compressedPosition < MAX_GROUP_INPUT) {
+                readCompressedData(MAX_GROUP_INPUT);
             }
             if (compressedPosition >= compressedSize) {
-                OdzUtil.die("unexpected end of compressed data");
+                throw new OdzTruncatedException("unexpected end of compressed data");
             }
             
-            byte flags = compressedBuffer[compressedPosition++];
+            byte[] src = compressedBuffer;
+            int ip = compressedPosition;
+            int ipEnd = compressedSize;
+            int groupStart = op;
+            // A group never produces more than MAX_GROUP_OUTPUT, so this only binds at the block end
+            int groupEnd = op + Math.min(blockRemaining, MAX_GROUP_OUTPUT);
             
-            for (int k = 0; k < 8 && decompressedOp < rawLen; k++) {
-                if ((flags & (1 << k)) != 0) {
-                    // Match token (3 bytes)
-                    if (compressedSize - compressedPosition < 3) {
-                        readCompressedData(3);
-                    }
-                    if (compressedSize - compressedPosition < 3) {
-                        OdzUtil.die("corrupt match token");
-                    }
-                    
-                    int len = (compressedBuffer[compressedPosition++] & 0xFF) + OdzConstants.ODZ_MIN_MATCH;
-                    int dist = (compressedBuffer[compressedPosition++] & 0xFF) | 
-                              ((compressedBuffer[compressedPosition++] & 0xFF) << 8);
-                    
-                    if (dist <= 0 || dist > decompressedOp) {
-                        OdzUtil.die("bad distance");
-                    }
-                    
-                    int from = decompressedOp - dist;
-                    for (int t = 0; t < len && decompressedOp < rawLen; t++) {
-                        decompressedBuffer[decompressedOp++] = decompressedBuffer[from + t];
+            int flags = src[ip++] & 0xFF;
+            if (flags == 0 && ipEnd - ip >= 8 && groupEnd - op >= 8) {
+                // Eight literals
+                System.arraycopy(src, ip, out, op, 8);
+                ip += 8;
+                op += 8;
+            } else if (ipEnd - ip >= MAX_GROUP_INPUT - 1 && groupEnd - op == MAX_GROUP_OUTPUT) {
+                // Room for a whole group either way, so only distances need checking
+                for (int k = 0; k < 8; k++, flags >>>= 1) {
+                    if ((flags & 1) != 0) {
+                        int len = (src[ip] & 0xFF) + OdzConstants.ODZ_MIN_MATCH;
+                        int dist = (src[ip + 1] & 0xFF) | ((src[ip + 2] & 0xFF) << 8);
+                        ip += 3;
+                        if (dist <= 0 || dist > op) {
+                            throw new OdzFormatException("bad distance");
+                        }
+                        Decompressor.copyMatch(out, op, dist, len);
+                        op += len;
+                    } else {
+                        out[op++] = src[ip++];
                     }
-                } else {
-                    // Literal token (1 byte)
-                    if (compressedPosition >= compressedSize) {
-                        readCompressedData(1);
-                    }
-                    if (compressedPosition >= compressedSize) {
-                        OdzUtil.die("corrupt literal");
+                }
+            } else {
+                for (int k = 0; k < 8 && op < groupEnd; k++) {
+                    if ((flags & (1 << k)) != 0) {
+                        // Match token (3 bytes)
+                        if (ipEnd - ip < 3) {
+                            throw new OdzFormatException("corrupt match token");
+                        }
+                        int len = (src[ip++] & 0xFF) + OdzConstants.ODZ_MIN_MATCH;
+                        int dist = (src[ip++] & 0xFF) | ((src[ip++] & 0xFF) << 8);
+                        
+                        if (dist <= 0 || dist > op) {
+                            throw new OdzFormatException("bad distance");
+                        }
+                        if (len > groupEnd - op) {
+                            throw new OdzFormatException("overrun");
+                        }
+                        
+                        Decompressor.copyMatch(out, op, dist, len);
+                        op += len;
+                    } else {
+                        // Literal token (1 byte)
+                        if (ip >= ipEnd) {
+                            throw new OdzFormatException("corrupt literal");
+                        }
+                        out[op++] = src[ip++];
                     }
-                    decompressedBuffer[decompressedOp++] = compressedBuffer[compressedPosition++];
                 }
             }
+            
+            compressedPosition = ip;
+            blockRemaining -= op - groupStart;
         }
         
-        decompressedSize = decompressedOp;
-        
-        if (decompressedOp >= rawLen) {
-            decompressionComplete = true;
-            if (decompressedOp != rawLen) {
-                OdzUtil.die("size mismatch");
-            }
+        if (blockOpen) {
+            // Everything decoded by one call belongs to one block
+            blockChecksum.update(out, decompressedSize, op - decompressedSize);
         }
+        decompressedSize = op;
     }
     
     @Override
     public int read() throws IOException {
         if (decompressedPosition >= decompressedSize) {
             // Try to decompress more data
-            decompressIncremental(decompressedPosition + 1);
+            if (decompressionComplete) {
+                return -1;
+            }
+            decompressIncremental();
             if (decompressedPosition >= decompressedSize) {
                 return -1;
             }
@@ -174,15 +501,22 @@ public class OdzInputStream extends InputStream {
     
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
+        if ((off | len | (off + len) | (b.length - (off + len))) < 0) {
+            throw new IndexOutOfBoundsException();
+        }
         if (len == 0) {
             return 0;
         }
         
-        // Ensure we have enough decompressed data
-        decompressIncremental(decompressedPosition + len);
-        
         if (decompressedPosition >= decompressedSize) {
-            return -1;
+            // Try to decompress more data
+            if (decompressionComplete) {
+                return -1;
+            }
+            decompressIncremental();
+            if (decompressedPosition >= decompressedSize) {
+                return -1;
+            }
         }
         
         int available = decompressedSize - decompressedPosition;
@@ -199,9 +533,9 @@ public class OdzInputStream extends InputStream {
         }
         
         // Try to decompress more data if possible
-        if (!decompressionComplete) {
+        if (decompressedPosition >= decompressedSize && !decompressionComplete) {
             try {
-                decompressIncremental(decompressedPosition + 1);
+                decompressIncremental();
             } catch (IOException e) {
                 // If we can't read more, return what we have
             }
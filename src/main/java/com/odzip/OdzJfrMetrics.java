@@ -0,0 +1,108 @@
+package com.odzip;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * {@link OdzMetrics} listener that commits a Flight Recorder event for each report:
+ * com.odzip.Compression and com.odzip.Decompression, under the ODZip category. Events are
+ * only built while a recording has them enabled.
+ * 
+ * <pre>
+ * OdzMetrics.register(new OdzJfrMetrics());
+ * // java -XX:StartFlightRecording:filename=odz.jfr ...; jfr print --events com.odzip.Compression odz.jfr
+ * </pre>
+ */
+public class OdzJfrMetrics implements OdzMetrics {
+    
+    @Override
+    public void compressed(OdzCompressionStats stats) {
+        CompressionEvent event = new CompressionEvent();
+        if (event.shouldCommit()) {
+            event.level = stats.level().level();
+            event.rawBytes = stats.rawBytes();
+            event.compressedBytes = stats.compressedBytes();
+            event.time = stats.nanos();
+            event.matches = stats.matches();
+            event.matchBytes = stats.matchBytes();
+            event.chainSteps = stats.chainSteps();
+            event.lazyChecks = stats.lazyChecks();
+            event.lazyHits = stats.lazyHits();
+            event.commit();
+        }
+    }
+    
+    @Override
+    public void decompressed(long compressedBytes, long rawBytes, long nanos) {
+        DecompressionEvent event = new DecompressionEvent();
+        if (event.shouldCommit()) {
+            event.compressedBytes = compressedBytes;
+            event.rawBytes = rawBytes;
+            event.time = nanos;
+            event.commit();
+        }
+    }
+    
+    @Name("com.odzip.Compression")
+    @Label("ODZ Compression")
+    @Category("ODZip")
+    @Description("One compression call or stream block")
+    @StackTrace(false)
+    static class CompressionEvent extends Event {
+        @Label("Level")
+        int level;
+        
+        @Label("Raw Bytes")
+        @DataAmount
+        long rawBytes;
+        
+        @Label("Compressed Bytes")
+        @DataAmount
+        long compressedBytes;
+        
+        @Label("Time")
+        @Timespan
+        long time;
+        
+        @Label("Matches")
+        long matches;
+        
+        @Label("Match Bytes")
+        @DataAmount
+        long matchBytes;
+        
+        @Label("Chain Steps")
+        long chainSteps;
+        
+        @Label("Lazy Checks")
+        long lazyChecks;
+        
+        @Label("Lazy Hits")
+        long lazyHits;
+    }
+    
+    @Name("com.odzip.Decompression")
+    @Label("ODZ Decompression")
+    @Category("ODZip")
+    @Description("One decompression call, decoded block or input stream")
+    @StackTrace(false)
+    static class DecompressionEvent extends Event {
+        @Label("Compressed Bytes")
+        @DataAmount
+        long compressedBytes;
+        
+        @Label("Raw Bytes")
+        @DataAmount
+        long rawBytes;
+        
+        @Label("Time")
+        @Timespan
+        long time;
+    }
+}
@@ -0,0 +1,41 @@
+package com.odzip;
+
+/**
+ * Listener for what the compressor and decompressors do, for monitoring and for tuning levels
+ * against real traffic.
+ * 
+ * Listeners are added with {@link #register(OdzMetrics)} or found through ServiceLoader from
+ * META-INF/services/com.odzip.OdzMetrics. With none registered, each call or block costs one
+ * volatile read. Callbacks run on the thread doing the work, once per one-shot call or stream
+ * block, so they should be quick and must not throw. {@link OdzCounters} totals them for JMX
+ * and {@link OdzJfrMetrics} turns them into Flight Recorder events.
+ */
+public interface OdzMetrics {
+    
+    /**
+     * Called after each one-shot compression call, and after each block of a stream,
+     * parallel or asynchronous compression.
+     */
+    default void compressed(OdzCompressionStats stats) {
+    }
+    
+    /**
+     * Called after each one-shot decompression call, after each block decoded in parallel
+     * or by {@link OdzSeekableReader}, and when an {@link OdzInputStream} reaches its end.
+     * 
+     * @param nanos Time spent decoding, which for a stream leaves out time between reads
+     */
+    default void decompressed(long compressedBytes, long rawBytes, long nanos) {
+    }
+    
+    static void register(OdzMetrics metrics) {
+        MetricsRegistry.register(metrics);
+    }
+    
+    /**
+     * @return whether metrics was registered
+     */
+    static boolean unregister(OdzMetrics metrics) {
+        return MetricsRegistry.unregister(metrics);
+    }
+}
@@ -2,18 +2,73 @@ package com.odzip;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.zip.CRC32C;
 
 /**
- * OutputStream that compresses data to ODZ format and writes to an underlying OutputStream
+ * OutputStream that compresses data to the framed ODZ format and writes to an underlying OutputStream.
+ * 
+ * Memory use is fixed: a sliding window of history, a lookahead block and one compressed block.
+ * Each full block is compressed and written as soon as it is complete, and {@link #flush()}
+ * emits the pending partial block, so output reaches the underlying stream while writing.
  */
 public class OdzOutputStream extends OutputStream {
+    static final int WINDOW_SIZE = 1 << 16;
+    static final int BLOCK_SIZE = 1 << 16;
+    
     private final OutputStream out;
-    private final java.io.ByteArrayOutputStream buffer;
+    // History kept for matches: WINDOW_SIZE, or the level's window for LZ2 tokens
+    private final int window;
+    private final byte[] buffer;
+    private final byte[] blockBuffer;
+    private final LzMatcher matcher;
+    private final CompressionLevel level;
+    private final long contentSize;
+    private final boolean checksum;
+    // The running CRC32C of the block being encoded, and of the blocks written so far
+    private final CRC32C blockChecksum;
+    private int streamChecksum;
+    private long totalSize;
+    private int bufferPosition;
+    private int blockStart;
+    private boolean headerWritten;
     private boolean closed;
     
     public OdzOutputStream(OutputStream out) {
+        this(out, CompressionLevel.DEFAULT);
+    }
+    
+    public OdzOutputStream(OutputStream out, CompressionLevel level) {
+        this(out, level, -1);
+    }
+    
+    /**
+     * Create a stream that records contentSize, the exact number of bytes that will be
+     * written, in the header so readers can size their output up front.
+     * {@link #close()} fails if a different number of bytes was written.
+     */
+    public OdzOutputStream(OutputStream out, CompressionLevel level, long contentSize) {
+        this(out, level, contentSize, false);
+    }
+    
+    /**
+     * @param contentSize The exact number of bytes that will be written, or -1 if not known
+     * @param checksum Follow each block and the END block with a CRC32C of the raw data
+     *                 (ODZ_FLAG_CHECKSUM), so decoders detect corrupted data
+     */
+    public OdzOutputStream(OutputStream out, CompressionLevel level, long contentSize, boolean checksum) {
         this.out = out;
-        this.buffer = new java.io.ByteArrayOutputStream();
+        this.level = level;
+        this.contentSize = contentSize;
+        this.checksum = checksum;
+        this.blockChecksum = checksum ? new CRC32C() : null;
+        this.window = level.windowLog != 0 ? 1 << level.windowLog : WINDOW_SIZE;
+        this.buffer = new byte[window + BLOCK_SIZE];
+        this.blockBuffer = new byte[OdzConstants.ODZ_BLOCK_HEADER_SIZE + Compressor.maxCompressedLength(BLOCK_SIZE)
+                                    + OdzConstants.ODZ_CHECKSUM_SIZE];
+        this.matcher = new LzMatcher(buffer.length, level);
+        this.bufferPosition = 0;
+        this.blockStart = 0;
+        this.headerWritten = false;
         this.closed = false;
     }
     
@@ -22,7 +77,13 @@ public class OdzOutputStream extends OutputStream {
         if (closed) {
             throw new IOException("Stream is closed");
         }
-        buffer.write(b);
+        if (bufferPosition == buffer.length) {
+            slideWindow();
+        }
+        buffer[bufferPosition++] = (byte)b;
+        if (bufferPosition - blockStart == BLOCK_SIZE) {
+            writeBlock();
+        }
     }
     
     @Override
@@ -30,12 +91,40 @@ public class OdzOutputStream extends OutputStream {
         if (closed) {
             throw new IOException("Stream is closed");
         }
-        buffer.write(b, off, len);
+        if ((off | len | (off + len) | (b.length - (off + len))) < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        while (len > 0) {
+            if (bufferPosition == buffer.length) {
+                slideWindow();
+            }
+            int chunk = Math.min(len, Math.min(BLOCK_SIZE - (bufferPosition - blockStart),
+                                               buffer.length - bufferPosition));
+            System.arraycopy(b, off, buffer, bufferPosition, chunk);
+            bufferPosition += chunk;
+            off += chunk;
+            len -= chunk;
+            if (bufferPosition - blockStart == BLOCK_SIZE) {
+                writeBlock();
+            }
+        }
     }
     
+    /**
+     * Compress and write any pending input as a block, then flush the underlying stream.
+     * 
+     * The block ends on a group boundary, so everything written so far can be decoded
+     * from the bytes that have reached the underlying stream.
+     */
     @Override
     public void flush() throws IOException {
-        // Don't flush until close - compression needs all data
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+        if (bufferPosition > blockStart) {
+            writeBlock();
+        }
+        out.flush();
     }
     
     @Override
@@ -46,15 +135,62 @@ public class OdzOutputStream extends OutputStream {
         closed = true;
         
         try {
-            // Compress all buffered data
-            byte[] input = buffer.toByteArray();
-            byte[] compressed = Compressor.compressSimple(input);
-            
-            // Write compressed data to output stream
-            out.write(compressed);
+            if (bufferPosition > blockStart) {
+                writeBlock();
+            }
+            if (contentSize >= 0 && totalSize != contentSize) {
+                throw new IOException("Wrote " + totalSize + " bytes, expected " + contentSize);
+            }
+            writeHeader();
+            out.write(OdzConstants.ODZ_BLOCK_END);
+            if (checksum) {
+                byte[] trailer = new byte[OdzConstants.ODZ_CHECKSUM_SIZE];
+                OdzUtil.writeU32LE(trailer, 0, streamChecksum);
+                out.write(trailer);
+            }
             out.flush();
         } finally {
             out.close();
         }
     }
+    
+    private void writeHeader() throws IOException {
+        if (headerWritten) {
+            return;
+        }
+        headerWritten = true;
+        byte[] header = new byte[OdzConstants.ODZ_FRAMED_HEADER_SIZE + 9];
+        int flags = (contentSize >= 0 ? OdzConstants.ODZ_FLAG_CONTENT_SIZE : 0)
+                    | (checksum ? OdzConstants.ODZ_FLAG_CHECKSUM : 0);
+        out.write(header, 0, Compressor.writeFramedHeader(header, 0, flags, contentSize, 0, level.windowLog));
+    }
+    
+    private void writeBlock() throws IOException {
+        writeHeader();
+        matcher.setLimit(bufferPosition);
+        if (checksum) {
+            blockChecksum.reset();
+        }
+        int end = Compressor.encodeBlock(matcher, level, buffer, blockStart, bufferPosition, blockBuffer, 0, blockChecksum);
+        if (checksum) {
+            int crc = Compressor.writeChecksum(blockChecksum, blockBuffer, end);
+            streamChecksum = OdzUtil.crc32cCombine(streamChecksum, crc, bufferPosition - blockStart);
+            end += OdzConstants.ODZ_CHECKSUM_SIZE;
+        }
+        out.write(blockBuffer, 0, end);
+        totalSize += bufferPosition - blockStart;
+        blockStart = bufferPosition;
+    }
+    
+    /**
+     * Drop everything but the last window bytes of history (and any pending input)
+     * to make room for the next block.
+     */
+    private void slideWindow() {
+        int delta = blockStart - window;
+        System.arraycopy(buffer, delta, buffer, 0, bufferPosition - delta);
+        matcher.slide(delta);
+        bufferPosition -= delta;
+        blockStart -= delta;
+    }
 }
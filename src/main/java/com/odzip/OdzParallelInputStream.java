@@ -0,0 +1,296 @@
+package com.odzip;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32C;
+
+/**
+ * InputStream that decompresses framed ODZ data with independent blocks, decoding
+ * up to maxInFlight blocks ahead of the reader concurrently on an executor.
+ * 
+ * Memory use is bounded by maxInFlight compressed and decompressed blocks.
+ * Version 1 data and framed streams whose blocks depend on each other are
+ * decoded sequentially through {@link OdzInputStream}.
+ * 
+ * Corrupt data makes read throw an {@link OdzFormatException}.
+ */
+public class OdzParallelInputStream extends InputStream {
+    // Payloads are read into arrays that start at this size and double as the bytes arrive
+    private static final int PAYLOAD_CHUNK = 1 << 20;
+    
+    private final InputStream in;
+    private final Executor executor;
+    private final int maxInFlight;
+    private final long maxSize;
+    private final ArrayDeque<CompletableFuture<byte[]>> inFlight;
+    
+    // Fallback for input that cannot be decoded block-parallel
+    private InputStream sequential;
+    
+    private byte[] current;
+    private int currentPosition;
+    private boolean headerRead;
+    private long totalSize;
+    private long contentSize = -1;
+    private boolean endReached;
+    // ODZ_FLAG_CHECKSUM: the CRC32C of the blocks read so far, from their checksums
+    private boolean checksummed;
+    private int streamChecksum;
+    // ODZ_FLAG_WINDOW: LZ2 blocks may follow
+    private boolean windowed;
+    
+    public OdzParallelInputStream(InputStream in) {
+        this(in, ForkJoinPool.commonPool(), 2 * Runtime.getRuntime().availableProcessors());
+    }
+    
+    public OdzParallelInputStream(InputStream in, Executor executor, int maxInFlight) {
+        this(in, executor, maxInFlight, Long.MAX_VALUE);
+    }
+    
+    /**
+     * Create a stream for data that may come from an untrusted source: once the headers
+     * declare more than maxSize decompressed bytes in total, read throws an
+     * {@link OdzSizeLimitException} before allocating for them.
+     */
+    public OdzParallelInputStream(InputStream in, Executor executor, int maxInFlight, long maxSize) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        this.in = in;
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+        this.maxSize = maxSize;
+        this.inFlight = new ArrayDeque<>();
+        this.current = new byte[0];
+        this.currentPosition = 0;
+        this.headerRead = false;
+        this.endReached = false;
+    }
+    
+    private void readHeader() throws IOException {
+        headerRead = true;
+        byte[] header = new byte[OdzConstants.ODZ_FRAMED_HEADER_SIZE];
+        int len = readFully(header, header.length);
+        if (len < header.length
+                || header[3] != OdzConstants.ODZ_VERSION_FRAMED
+                || (header[4] & OdzConstants.ODZ_FLAG_INDEPENDENT_BLOCKS) == 0) {
+            sequential = new OdzInputStream(new SequenceInputStream(new ByteArrayInputStream(header, 0, len), in), maxSize);
+            return;
+        }
+        if (header[0] != 'O' || header[1] != 'D' || header[2] != 'Z') {
+            throw new OdzFormatException("bad magic");
+        }
+        int extra = Decompressor.framedHeaderSize(header[4]) - OdzConstants.ODZ_FRAMED_HEADER_SIZE;
+        if ((header[4] & OdzConstants.ODZ_FLAG_DICTIONARY) != 0) {
+            throw new OdzUnsupportedException("dictionary required");
+        }
+        checksummed = (header[4] & OdzConstants.ODZ_FLAG_CHECKSUM) != 0;
+        if (extra > 0) {
+            byte[] fields = new byte[extra];
+            if (readFully(fields, extra) < extra) {
+                throw new OdzTruncatedException("truncated header");
+            }
+            if ((header[4] & OdzConstants.ODZ_FLAG_CONTENT_SIZE) != 0) {
+                contentSize = OdzUtil.readU64LE(fields, 0);
+                if (contentSize < 0) {
+                    throw new OdzFormatException("bad size");
+                }
+                Decompressor.checkLimit(contentSize, maxSize);
+            }
+            if ((header[4] & OdzConstants.ODZ_FLAG_WINDOW) != 0) {
+                Decompressor.checkWindowLog(fields[extra - 1]);
+                windowed = true;
+            }
+        }
+    }
+    
+    /**
+     * Read block headers and payloads and submit decode tasks until maxInFlight
+     * blocks are queued or the END block is reached.
+     */
+    private void fillQueue() throws IOException {
+        byte[] sizes = new byte[8];
+        while (!endReached && inFlight.size() < maxInFlight) {
+            int type = in.read();
+            if (type < 0) {
+                throw new OdzTruncatedException("unexpected end of compressed data");
+            }
+            if (type == OdzConstants.ODZ_BLOCK_END) {
+                if (contentSize >= 0 && totalSize != contentSize) {
+                    throw new OdzFormatException("size mismatch");
+                }
+                if (checksummed) {
+                    if (readFully(sizes, OdzConstants.ODZ_CHECKSUM_SIZE) < OdzConstants.ODZ_CHECKSUM_SIZE) {
+                        throw new OdzTruncatedException("unexpected end of compressed data");
+                    }
+                    if (OdzUtil.readU32LE(sizes, 0) != streamChecksum) {
+                        throw new OdzChecksumException("checksum mismatch");
+                    }
+                }
+                endReached = true;
+                break;
+            }
+            if (readFully(sizes, 8) < 8) {
+                throw new OdzTruncatedException("unexpected end of compressed data");
+            }
+            int rawSize = OdzUtil.readU32LE(sizes, 0);
+            int compSize = OdzUtil.readU32LE(sizes, 4);
+            if (!Decompressor.validBlockHeader(type, rawSize, compSize)
+                    || (type == OdzConstants.ODZ_BLOCK_LZ2 && !windowed)) {
+                throw new OdzFormatException("corrupt block header");
+            }
+            Decompressor.checkLimit(totalSize + rawSize, maxSize);
+            totalSize += rawSize;
+            // The block's checksum, if any, is read with its payload
+            int trailerSize = checksummed ? OdzConstants.ODZ_CHECKSUM_SIZE : 0;
+            byte[] compressed = readPayload(compSize + trailerSize);
+            if (checksummed) {
+                streamChecksum = OdzUtil.crc32cCombine(streamChecksum, OdzUtil.readU32LE(compressed, compSize), rawSize);
+            }
+            inFlight.add(CompletableFuture.supplyAsync(() -> decodeBlock(type, compressed, compSize, rawSize), executor));
+        }
+    }
+    
+    /**
+     * Decode a block from compressed[0, compSize), checking it against the checksum that
+     * follows if there is one.
+     */
+    private static byte[] decodeBlock(int type, byte[] compressed, int compSize, int rawSize) {
+        boolean metered = MetricsRegistry.enabled;
+        long startTime = metered ? System.nanoTime() : 0;
+        byte[] out = new byte[rawSize];
+        CRC32C checksum = compressed.length > compSize ? new CRC32C() : null;
+        Decompressor.decodeBlock(type, compressed, 0, compSize, out, 0, 0, rawSize, null, checksum);
+        if (checksum != null) {
+            Decompressor.checkBlock(checksum, OdzUtil.readU32LE(compressed, compSize));
+        }
+        if (metered) {
+            MetricsRegistry.decompressed(OdzConstants.ODZ_BLOCK_HEADER_SIZE + compressed.length, rawSize,
+                                         System.nanoTime() - startTime);
+        }
+        return out;
+    }
+    
+    /**
+     * Make the next decoded block current.
+     * 
+     * @return false at the end of the stream
+     */
+    private boolean nextBlock() throws IOException {
+        while (currentPosition >= current.length) {
+            fillQueue();
+            CompletableFuture<byte[]> next = inFlight.poll();
+            if (next == null) {
+                return false;
+            }
+            try {
+                current = next.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException)e.getCause();
+                }
+                throw e;
+            }
+            currentPosition = 0;
+        }
+        return true;
+    }
+    
+    /**
+     * Read the next len bytes. The array grows as the bytes arrive, so a corrupt size costs
+     * no more memory than the input really holds.
+     */
+    private byte[] readPayload(int len) throws IOException {
+        byte[] b = new byte[Math.min(len, PAYLOAD_CHUNK)];
+        int n = 0;
+        while (true) {
+            n += readFully(b, n, b.length - n);
+            if (n < b.length) {
+                throw new OdzTruncatedException("unexpected end of compressed data");
+            }
+            if (n == len) {
+                return b;
+            }
+            b = Arrays.copyOf(b, (int)Math.min(len, 2L * n));
+        }
+    }
+    
+    private int readFully(byte[] b, int len) throws IOException {
+        return readFully(b, 0, len);
+    }
+    
+    private int readFully(byte[] b, int off, int len) throws IOException {
+        int totalRead = 0;
+        while (totalRead < len) {
+            int bytesRead = in.read(b, off + totalRead, len - totalRead);
+            if (bytesRead == -1) {
+                break;
+            }
+            totalRead += bytesRead;
+        }
+        return totalRead;
+    }
+    
+    @Override
+    public int read() throws IOException {
+        if (!headerRead) {
+            readHeader();
+        }
+        if (sequential != null) {
+            return sequential.read();
+        }
+        if (!nextBlock()) {
+            return -1;
+        }
+        return current[currentPosition++] & 0xFF;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if ((off | len | (off + len) | (b.length - (off + len))) < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (!headerRead) {
+            readHeader();
+        }
+        if (sequential != null) {
+            return sequential.read(b, off, len);
+        }
+        if (!nextBlock()) {
+            return -1;
+        }
+        int toRead = Math.min(len, current.length - currentPosition);
+        System.arraycopy(current, currentPosition, b, off, toRead);
+        currentPosition += toRead;
+        return toRead;
+    }
+    
+    @Override
+    public int available() throws IOException {
+        if (sequential != null) {
+            return sequential.available();
+        }
+        return current.length - currentPosition;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        // Blocks not yet decoding are skipped; the rest finish and are dropped
+        for (CompletableFuture<byte[]> block : inFlight) {
+            block.cancel(false);
+        }
+        inFlight.clear();
+        in.close();
+    }
+}
@@ -0,0 +1,28 @@
+package com.odzip;
+
+/**
+ * Outcome of a ByteBuffer compress or decompress call: how many bytes were read from the
+ * source and written to the destination.
+ */
+public final class OdzResult {
+    private final int bytesConsumed;
+    private final int bytesProduced;
+    
+    OdzResult(int bytesConsumed, int bytesProduced) {
+        this.bytesConsumed = bytesConsumed;
+        this.bytesProduced = bytesProduced;
+    }
+    
+    public int bytesConsumed() {
+        return bytesConsumed;
+    }
+    
+    public int bytesProduced() {
+        return bytesProduced;
+    }
+    
+    @Override
+    public String toString() {
+        return "OdzResult(consumed=" + bytesConsumed + ", produced=" + bytesProduced + ")";
+    }
+}
@@ -0,0 +1,189 @@
+package com.odzip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * OutputStream that writes the seekable variant of the framed format, read back at any
+ * offset by {@link OdzSeekableReader}.
+ * 
+ * Every block is compressed on its own (ODZ_FLAG_INDEPENDENT_BLOCKS), and {@link #close()}
+ * appends an index of where each block starts after the END block (ODZ_FLAG_BLOCK_INDEX).
+ * Other decoders stop at the END block, so the output is also an ordinary framed stream.
+ */
+public class OdzSeekableOutputStream extends OutputStream {
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 16;
+    
+    private final OutputStream out;
+    private final CompressionLevel level;
+    private final byte[] buffer;
+    private final byte[] blockBuffer;
+    private final LzMatcher matcher;
+    private final boolean checksum;
+    // The running CRC32C of the block being encoded, and of the blocks written so far
+    private final CRC32C blockChecksum;
+    private int streamChecksum;
+    private int bufferPosition;
+    private long rawOffset;
+    private long streamOffset;
+    // Raw and stream offsets of each block written so far, then of the END block
+    private long[] index = new long[64];
+    private int entryCount;
+    private boolean closed;
+    
+    public OdzSeekableOutputStream(OutputStream out) {
+        this(out, CompressionLevel.DEFAULT, DEFAULT_BLOCK_SIZE);
+    }
+    
+    /**
+     * @param blockSize Uncompressed size of each block, the unit a reader decodes: smaller
+     *                  blocks make random reads cheaper and compress slightly worse
+     */
+    public OdzSeekableOutputStream(OutputStream out, CompressionLevel level, int blockSize) {
+        this(out, level, blockSize, false);
+    }
+    
+    /**
+     * @param checksum Follow each block and the END block with a CRC32C of the raw data
+     *                 (ODZ_FLAG_CHECKSUM), which readers check as they decode
+     */
+    public OdzSeekableOutputStream(OutputStream out, CompressionLevel level, int blockSize, boolean checksum) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+        this.out = out;
+        this.level = level;
+        this.buffer = new byte[blockSize];
+        this.blockBuffer = new byte[OdzConstants.ODZ_BLOCK_HEADER_SIZE + Compressor.maxCompressedLength(blockSize)
+                                    + OdzConstants.ODZ_CHECKSUM_SIZE];
+        this.matcher = new LzMatcher(blockSize, level);
+        this.checksum = checksum;
+        this.blockChecksum = checksum ? new CRC32C() : null;
+    }
+    
+    @Override
+    public void write(int b) throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+        buffer[bufferPosition++] = (byte)b;
+        if (bufferPosition == buffer.length) {
+            writeBlock();
+        }
+    }
+    
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+        if ((off | len | (off + len) | (b.length - (off + len))) < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        while (len > 0) {
+            int chunk = Math.min(len, buffer.length - bufferPosition);
+            System.arraycopy(b, off, buffer, bufferPosition, chunk);
+            bufferPosition += chunk;
+            off += chunk;
+            len -= chunk;
+            if (bufferPosition == buffer.length) {
+                writeBlock();
+            }
+        }
+    }
+    
+    /**
+     * Compress and write any pending input as a (short) block, then flush the underlying stream.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+        if (bufferPosition > 0) {
+            writeBlock();
+        }
+        out.flush();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        
+        try {
+            if (bufferPosition > 0) {
+                writeBlock();
+            }
+            writeHeader();
+            out.write(OdzConstants.ODZ_BLOCK_END);
+            addIndexEntry();
+            streamOffset++;
+            if (checksum) {
+                byte[] trailer = new byte[OdzConstants.ODZ_CHECKSUM_SIZE];
+                OdzUtil.writeU32LE(trailer, 0, streamChecksum);
+                out.write(trailer);
+                streamOffset += trailer.length;
+            }
+            
+            byte[] footer = new byte[entryCount * OdzConstants.ODZ_INDEX_ENTRY_SIZE + OdzConstants.ODZ_INDEX_TRAILER_SIZE];
+            for (int i = 0; i < 2 * entryCount; i++) {
+                OdzUtil.writeU64LE(footer, 8 * i, index[i]);
+            }
+            int tp = footer.length - OdzConstants.ODZ_INDEX_TRAILER_SIZE;
+            // The block count, which leaves out the END block's entry
+            OdzUtil.writeU32LE(footer, tp, entryCount - 1);
+            footer[tp + 4] = 'O';
+            footer[tp + 5] = 'D';
+            footer[tp + 6] = 'Z';
+            footer[tp + 7] = 'I';
+            out.write(footer);
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+    
+    private void writeHeader() throws IOException {
+        if (streamOffset > 0) {
+            return;
+        }
+        byte[] header = new byte[OdzConstants.ODZ_FRAMED_HEADER_SIZE + 1];
+        streamOffset = Compressor.writeFramedHeader(header, 0,
+            OdzConstants.ODZ_FLAG_INDEPENDENT_BLOCKS | OdzConstants.ODZ_FLAG_BLOCK_INDEX
+            | (checksum ? OdzConstants.ODZ_FLAG_CHECKSUM : 0), 0, 0, level.windowLog);
+        out.write(header, 0, (int)streamOffset);
+    }
+    
+    private void writeBlock() throws IOException {
+        writeHeader();
+        matcher.reset(bufferPosition);
+        if (checksum) {
+            blockChecksum.reset();
+        }
+        int end = Compressor.encodeBlock(matcher, level, buffer, 0, bufferPosition, blockBuffer, 0, blockChecksum);
+        if (checksum) {
+            int crc = Compressor.writeChecksum(blockChecksum, blockBuffer, end);
+            streamChecksum = OdzUtil.crc32cCombine(streamChecksum, crc, bufferPosition);
+            end += OdzConstants.ODZ_CHECKSUM_SIZE;
+        }
+        out.write(blockBuffer, 0, end);
+        addIndexEntry();
+        rawOffset += bufferPosition;
+        streamOffset += end;
+        bufferPosition = 0;
+    }
+    
+    private void addIndexEntry() {
+        if (2 * entryCount == index.length) {
+            index = Arrays.copyOf(index, 2 * index.length);
+        }
+        index[2 * entryCount] = rawOffset;
+        index[2 * entryCount + 1] = streamOffset;
+        entryCount++;
+    }
+}
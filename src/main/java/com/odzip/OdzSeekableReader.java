@@ -0,0 +1,279 @@
+package com.odzip;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Random access to data written by {@link OdzSeekableOutputStream}.
+ * 
+ * The block index is read from the end of the stream when the reader is opened, and
+ * {@link #read(long, ByteBuffer)} then decodes only the blocks a range touches. The most
+ * recently used decoded blocks are kept, so reads close to each other decode each block once.
+ * 
+ * Reads may come from several threads; they are served one at a time.
+ */
+public final class OdzSeekableReader implements Closeable {
+    public static final int DEFAULT_CACHED_BLOCKS = 8;
+    
+    private final SeekableByteChannel channel;
+    private final boolean ownsChannel;
+    // Raw offset of each block, then the total size
+    private final long[] rawOffset;
+    // Stream offset of each block, then of the END block
+    private final long[] streamOffset;
+    private final BlockCache cache;
+    // Size of the CRC32C after each block and the END block, 0 without ODZ_FLAG_CHECKSUM
+    private int checksumSize;
+    // ODZ_FLAG_WINDOW: LZ2 blocks may follow
+    private boolean windowed;
+    private final HuffmanDecoder huffman = new HuffmanDecoder();
+    private byte[] compressed = new byte[0];
+    private byte[] spare;
+    // Blocks decoded so far, for tests
+    long blocksDecoded;
+    
+    public OdzSeekableReader(Path path) throws IOException {
+        this(FileChannel.open(path, StandardOpenOption.READ), DEFAULT_CACHED_BLOCKS, true);
+    }
+    
+    public OdzSeekableReader(SeekableByteChannel channel) throws IOException {
+        this(channel, DEFAULT_CACHED_BLOCKS, false);
+    }
+    
+    /**
+     * @param cachedBlocks Number of decoded blocks to keep, at least 1
+     */
+    public OdzSeekableReader(SeekableByteChannel channel, int cachedBlocks) throws IOException {
+        this(channel, cachedBlocks, false);
+    }
+    
+    private OdzSeekableReader(SeekableByteChannel channel, int cachedBlocks, boolean ownsChannel) throws IOException {
+        if (cachedBlocks < 1) {
+            if (ownsChannel) {
+                channel.close();
+            }
+            throw new IllegalArgumentException("cachedBlocks must be at least 1");
+        }
+        this.channel = channel;
+        this.ownsChannel = ownsChannel;
+        this.cache = new BlockCache(cachedBlocks);
+        try {
+            long size = channel.size();
+            int headerSize = readHeader(size);
+            
+            byte[] trailer = new byte[OdzConstants.ODZ_INDEX_TRAILER_SIZE];
+            readFully(size - trailer.length, trailer, trailer.length);
+            if (trailer[4] != 'O' || trailer[5] != 'D' || trailer[6] != 'Z' || trailer[7] != 'I') {
+                throw new OdzUnsupportedException("missing block index");
+            }
+            int blocks = OdzUtil.readU32LE(trailer, 0);
+            long indexSize = (blocks + 1L) * OdzConstants.ODZ_INDEX_ENTRY_SIZE;
+            if (blocks < 0 || indexSize > Integer.MAX_VALUE || indexSize > size - trailer.length - headerSize - 1) {
+                throw new OdzFormatException("corrupt block index");
+            }
+            long indexStart = size - trailer.length - indexSize;
+            byte[] index = new byte[(int)indexSize];
+            readFully(indexStart, index, index.length);
+            
+            rawOffset = new long[blocks + 1];
+            streamOffset = new long[blocks + 1];
+            for (int b = 0; b <= blocks; b++) {
+                rawOffset[b] = OdzUtil.readU64LE(index, b * OdzConstants.ODZ_INDEX_ENTRY_SIZE);
+                streamOffset[b] = OdzUtil.readU64LE(index, b * OdzConstants.ODZ_INDEX_ENTRY_SIZE + 8);
+            }
+            // Blocks run back to back from the header to the END block, which ends where the index starts
+            if (rawOffset[0] != 0 || streamOffset[0] != headerSize || streamOffset[blocks] != indexStart - 1 - checksumSize) {
+                throw new OdzFormatException("corrupt block index");
+            }
+            for (int b = 0; b < blocks; b++) {
+                long raw = rawOffset[b + 1] - rawOffset[b];
+                long stream = streamOffset[b + 1] - streamOffset[b];
+                if (raw <= 0 || raw > Integer.MAX_VALUE - 8
+                        || stream <= OdzConstants.ODZ_BLOCK_HEADER_SIZE + checksumSize || stream > Integer.MAX_VALUE - 8) {
+                    throw new OdzFormatException("corrupt block index");
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (ownsChannel) {
+                channel.close();
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * Validate the framed header: it must announce independent blocks and an index.
+     * 
+     * @return the header size
+     */
+    private int readHeader(long size) throws IOException {
+        if (size < OdzConstants.ODZ_FRAMED_HEADER_SIZE + 1 + OdzConstants.ODZ_INDEX_ENTRY_SIZE
+                   + OdzConstants.ODZ_INDEX_TRAILER_SIZE) {
+            throw new OdzTruncatedException("truncated");
+        }
+        byte[] header = new byte[OdzConstants.ODZ_FRAMED_HEADER_SIZE];
+        readFully(0, header, header.length);
+        if (header[0] != 'O' || header[1] != 'D' || header[2] != 'Z' || header[3] != OdzConstants.ODZ_VERSION_FRAMED) {
+            throw new OdzFormatException("bad magic");
+        }
+        int flags = header[4];
+        int headerSize = Decompressor.framedHeaderSize(flags);
+        if ((flags & OdzConstants.ODZ_FLAG_BLOCK_INDEX) == 0) {
+            throw new OdzUnsupportedException("missing block index");
+        }
+        if ((flags & OdzConstants.ODZ_FLAG_INDEPENDENT_BLOCKS) == 0) {
+            throw new OdzUnsupportedException("blocks not independent");
+        }
+        if ((flags & OdzConstants.ODZ_FLAG_DICTIONARY) != 0) {
+            throw new OdzUnsupportedException("dictionary required");
+        }
+        checksumSize = (flags & OdzConstants.ODZ_FLAG_CHECKSUM) != 0 ? OdzConstants.ODZ_CHECKSUM_SIZE : 0;
+        if ((flags & OdzConstants.ODZ_FLAG_WINDOW) != 0) {
+            // The window byte comes last
+            readFully(headerSize - 1, header, 1);
+            Decompressor.checkWindowLog(header[0]);
+            windowed = true;
+        }
+        return headerSize;
+    }
+    
+    /**
+     * Total decompressed size
+     */
+    public long size() {
+        return rawOffset[rawOffset.length - 1];
+    }
+    
+    public int blockCount() {
+        return rawOffset.length - 1;
+    }
+    
+    /**
+     * Read decompressed bytes starting at position into dst, until dst is full or the data
+     * ends. dst's position advances by the number of bytes read.
+     * 
+     * @return the number of bytes read, or -1 if position is at or past the end
+     */
+    public synchronized int read(long position, ByteBuffer dst) throws IOException {
+        if (position < 0) {
+            throw new IllegalArgumentException("negative position");
+        }
+        if (position >= size()) {
+            return -1;
+        }
+        int total = 0;
+        while (dst.hasRemaining() && position < size()) {
+            int b = blockAt(position);
+            byte[] block = block(b);
+            int off = (int)(position - rawOffset[b]);
+            int n = (int)Math.min(dst.remaining(), rawOffset[b + 1] - position);
+            dst.put(block, off, n);
+            position += n;
+            total += n;
+        }
+        return total;
+    }
+    
+    /**
+     * Index of the block holding raw offset position
+     */
+    private int blockAt(long position) {
+        int b = Arrays.binarySearch(rawOffset, position);
+        return b >= 0 ? b : -b - 2;
+    }
+    
+    private byte[] block(int b) throws IOException {
+        byte[] block = cache.get(b);
+        if (block != null) {
+            return block;
+        }
+        int rawSize = (int)(rawOffset[b + 1] - rawOffset[b]);
+        int streamSize = (int)(streamOffset[b + 1] - streamOffset[b]);
+        if (compressed.length < streamSize) {
+            compressed = new byte[streamSize];
+        }
+        readFully(streamOffset[b], compressed, streamSize);
+        int type = compressed[0];
+        int compSize = streamSize - OdzConstants.ODZ_BLOCK_HEADER_SIZE - checksumSize;
+        if (!Decompressor.validBlockHeader(type, rawSize, compSize)
+                || (type == OdzConstants.ODZ_BLOCK_LZ2 && !windowed)
+                || OdzUtil.readU32LE(compressed, 1) != rawSize
+                || OdzUtil.readU32LE(compressed, 5) != compSize) {
+            throw new OdzFormatException("corrupt block header");
+        }
+        
+        // Reuse the array of the block the cache dropped last if it is large enough
+        block = spare != null && spare.length >= rawSize ? spare : new byte[rawSize];
+        spare = null;
+        boolean metered = MetricsRegistry.enabled;
+        long startTime = metered ? System.nanoTime() : 0;
+        CRC32C checksum = checksumSize > 0 ? new CRC32C() : null;
+        Decompressor.decodeBlock(type, compressed, OdzConstants.ODZ_BLOCK_HEADER_SIZE, compSize, block, 0, 0, rawSize, huffman,
+                                 checksum);
+        if (checksum != null) {
+            Decompressor.checkBlock(checksum, OdzUtil.readU32LE(compressed, streamSize - checksumSize));
+        }
+        if (metered) {
+            MetricsRegistry.decompressed(streamSize, rawSize, System.nanoTime() - startTime);
+        }
+        blocksDecoded++;
+        cache.put(b, block);
+        return block;
+    }
+    
+    private void readFully(long position, byte[] b, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(b, 0, len);
+        while (buf.hasRemaining()) {
+            int n;
+            if (channel instanceof FileChannel) {
+                n = ((FileChannel)channel).read(buf, position + buf.position());
+            } else {
+                channel.position(position + buf.position());
+                n = channel.read(buf);
+            }
+            if (n < 0) {
+                throw new OdzTruncatedException("truncated");
+            }
+        }
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        cache.clear();
+        if (ownsChannel) {
+            channel.close();
+        }
+    }
+    
+    /**
+     * Decoded blocks by index, least recently used first
+     */
+    private final class BlockCache extends LinkedHashMap<Integer, byte[]> {
+        private static final long serialVersionUID = 1L;
+        
+        private final int capacity;
+        
+        BlockCache(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+            if (size() > capacity) {
+                spare = eldest.getValue();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.odzip;
+
+/**
+ * The data declares more decompressed bytes than the caller's maximum. It is thrown
+ * before the output is allocated.
+ */
+public class OdzSizeLimitException extends OdzFormatException {
+    private static final long serialVersionUID = 1L;
+    
+    private final long size;
+    private final long limit;
+    
+    public OdzSizeLimitException(long size, long limit) {
+        super("decompressed size " + size + " exceeds limit " + limit);
+        this.size = size;
+        this.limit = limit;
+    }
+    
+    /**
+     * Decompressed size the data declares
+     */
+    public long size() {
+        return size;
+    }
+    
+    public long limit() {
+        return limit;
+    }
+}
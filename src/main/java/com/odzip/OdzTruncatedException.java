@@ -0,0 +1,12 @@
+package com.odzip;
+
+/**
+ * The compressed data ends before the end of the stream.
+ */
+public class OdzTruncatedException extends OdzFormatException {
+    private static final long serialVersionUID = 1L;
+    
+    public OdzTruncatedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,13 @@
+package com.odzip;
+
+/**
+ * The data uses a version, flag or dictionary this decoder does not support, or lacks
+ * something it needs, such as the block index for {@link OdzSeekableReader}.
+ */
+public class OdzUnsupportedException extends OdzFormatException {
+    private static final long serialVersionUID = 1L;
+    
+    public OdzUnsupportedException(String message) {
+        super(message);
+    }
+}
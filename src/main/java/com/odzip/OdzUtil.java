@@ -1,17 +1,28 @@
 package com.odzip;
 
+import java.util.zip.CRC32C;
+
 /**
  * Utility functions for ODZ format
  */
 public final class OdzUtil {
+    // CRC32C (Castagnoli) polynomial, bit-reversed
+    private static final int CRC32C_POLY = 0x82F63B78;
+    // x^(2^n) modulo the polynomial, for n = 0..31
+    private static final int[] X2N = new int[32];
+    // Coders update a block's CRC32C every this many bytes, while those bytes are still in cache
+    static final int CHECKSUM_CHUNK = 1 << 12;
     
-    private OdzUtil() {
-        // Utility class
+    static {
+        int p = 1 << 30;
+        X2N[0] = p;
+        for (int n = 1; n < X2N.length; n++) {
+            X2N[n] = p = multiplyModP(p, p);
+        }
     }
     
-    public static void die(String message) {
-        System.err.println("err: " + message);
-        System.exit(1);
+    private OdzUtil() {
+        // Utility class
     }
     
     public static void writeU32LE(byte[] dst, int offset, int value) {
@@ -27,4 +38,57 @@ public final class OdzUtil {
                ((src[offset + 2] & 0xFF) << 16) |
                ((src[offset + 3] & 0xFF) << 24);
     }
+    
+    public static void writeU64LE(byte[] dst, int offset, long value) {
+        writeU32LE(dst, offset, (int)value);
+        writeU32LE(dst, offset + 4, (int)(value >>> 32));
+    }
+    
+    public static long readU64LE(byte[] src, int offset) {
+        return (readU32LE(src, offset) & 0xFFFFFFFFL) | ((long)readU32LE(src, offset + 4) << 32);
+    }
+    
+    /**
+     * CRC32C of b[off, off + len), which the JIT computes with the CPU's CRC instructions
+     */
+    public static int crc32c(byte[] b, int off, int len) {
+        CRC32C crc = new CRC32C();
+        crc.update(b, off, len);
+        return (int)crc.getValue();
+    }
+    
+    /**
+     * CRC32C of two pieces of data joined, from the CRC32C of each and the length of the
+     * second, without reading the data again. Takes O(log len2) time.
+     */
+    public static int crc32cCombine(int crc1, int crc2, long len2) {
+        // Shifting crc1 past len2 bytes multiplies it by x^(8 * len2)
+        int p = 1 << 31;
+        int k = 3;
+        for (long n = len2; n != 0; n >>>= 1, k++) {
+            if ((n & 1) != 0) {
+                p = multiplyModP(X2N[k & 31], p);
+            }
+        }
+        return multiplyModP(p, crc1) ^ crc2;
+    }
+    
+    /**
+     * a times b modulo the CRC32C polynomial, bit-reversed; a must not be zero
+     */
+    private static int multiplyModP(int a, int b) {
+        int m = 1 << 31;
+        int p = 0;
+        while (true) {
+            if ((a & m) != 0) {
+                p ^= b;
+                if ((a & (m - 1)) == 0) {
+                    break;
+                }
+            }
+            m >>>= 1;
+            b = (b & 1) != 0 ? (b >>> 1) ^ CRC32C_POLY : b >>> 1;
+        }
+        return p;
+    }
 }
@@ -0,0 +1,163 @@
+package com.odzip;
+
+import java.util.zip.CRC32C;
+
+/**
+ * Optimal parsing for {@link CompressionLevel#PARSE_OPTIMAL}.
+ * 
+ * Every ODZ token has a fixed size whatever its length and distance: a literal costs 9 bits
+ * (its byte plus its bit in the flags byte) and a match 25 bits. Any prefix of at least
+ * ODZ_MIN_MATCH bytes of a match is a match too, so the longest match at each position,
+ * found by the matcher's binary trees, describes every token that can start there. A shortest
+ * path over positions then gives the smallest output exactly, up to the last flags byte.
+ * 
+ * The cheapest price to reach a position never decreases along the input, since a match
+ * ending past it can be cut short. So a match only needs to update positions past the
+ * farthest reach of earlier matches, which cost no more, and each position is written
+ * by at most one match.
+ * 
+ * LZ2 tokens cost more the longer or farther the match, 8 bits per byte plus the flag
+ * bit. Prices then follow the token, but the same updates are kept, so the parse is close
+ * to the smallest rather than exact.
+ * 
+ * The input is parsed in chunks of at most CHUNK positions to keep memory fixed. A match
+ * of niceLength or more is taken as soon as it is found, which ends the chunk early.
+ */
+final class OptimalParser {
+    static final int CHUNK = 1 << 14;
+    static final int LITERAL_PRICE = 9;
+    static final int MATCH_PRICE = 25;
+    
+    private OptimalParser() {
+        // Utility class
+    }
+    
+    /**
+     * Encode in[start, end) as flag groups into out starting at op, like
+     * {@link Compressor#encodeTokens}. The matcher must have been created for a PARSE_OPTIMAL level.
+     * checksum, if not null, is updated with each chunk once it is parsed.
+     * 
+     * @return the output position after the last group
+     */
+    static int encode(LzMatcher matcher, CompressionLevel level, byte[] in, int start, int end,
+                      byte[] out, int op, CRC32C checksum) {
+        final int window = level.window();
+        final int minMatch = OdzConstants.ODZ_MIN_MATCH;
+        final boolean lz2 = level.windowLog != 0;
+        int chunk = Math.min(CHUNK, end - start);
+        // For each position in the chunk: the cheapest price to reach it and the token ending there
+        int[] price = matcher.parsePrice;
+        int[] length = matcher.parseLength;
+        int[] distance = matcher.parseDistance;
+        int[] path = matcher.parsePath;
+        
+        int flagPos = 0;
+        int k = 8;
+        int a = start;
+        while (a < end) {
+            int chunkStart = a;
+            int limit = Math.min(a + chunk, end);
+            for (int j = 1; j <= limit - a; j++) {
+                price[j] = Integer.MAX_VALUE;
+            }
+            price[0] = 0;
+            
+            int b = limit;
+            int forcedLen = 0;
+            int forcedDist = 0;
+            int reach = 0;
+            for (int i = a; i < limit; i++) {
+                int len = matcher.findBestTree(in, i, end, window);
+                int dist = matcher.matchDistance();
+                int c = i - a;
+                if (len >= level.niceLength && (!lz2 || Compressor.matchSize2(len, dist) <= len)) {
+                    b = i;
+                    forcedLen = len;
+                    forcedDist = dist;
+                    break;
+                }
+                int literal = price[c] + LITERAL_PRICE;
+                if (literal < price[c + 1]) {
+                    price[c + 1] = literal;
+                    length[c + 1] = 0;
+                }
+                if (len >= minMatch) {
+                    int match = price[c] + MATCH_PRICE;
+                    int maxLen = Math.min(len, limit - i);
+                    for (int l = Math.max(minMatch, reach - c + 1); l <= maxLen; l++) {
+                        if (lz2) {
+                            int size = Compressor.matchSize2(l, dist);
+                            if (size > l) {
+                                continue;
+                            }
+                            match = price[c] + 8 * size + 1;
+                        }
+                        if (match < price[c + l]) {
+                            price[c + l] = match;
+                            length[c + l] = l;
+                            distance[c + l] = dist;
+                        }
+                    }
+                    reach = Math.max(reach, c + maxLen);
+                }
+            }
+            
+            // Walk back from b to collect the chosen tokens, then write them in order
+            int count = 0;
+            for (int c = b - a; c > 0; c -= Math.max(length[c], 1)) {
+                path[count++] = c;
+            }
+            while (count > 0) {
+                int c = path[--count];
+                if (k == 8) {
+                    flagPos = op++;
+                    out[flagPos] = 0;
+                    k = 0;
+                }
+                int len = length[c];
+                if (len == 0) {
+                    out[op++] = in[a + c - 1];
+                } else {
+                    out[flagPos] |= (byte)(1 << k);
+                    op = writeMatch(out, op, lz2, len, distance[c]);
+                    matcher.matches++;
+                    matcher.matchBytes += len;
+                }
+                k++;
+            }
+            
+            if (forcedLen > 0) {
+                if (k == 8) {
+                    flagPos = op++;
+                    out[flagPos] = 0;
+                    k = 0;
+                }
+                out[flagPos] |= (byte)(1 << k);
+                op = writeMatch(out, op, lz2, forcedLen, forcedDist);
+                matcher.matches++;
+                matcher.matchBytes += forcedLen;
+                k++;
+                // Like the greedy parser, only the start of a long match goes into the trees
+                matcher.insert(in, b + 1);
+                matcher.insert(in, b + 2);
+                a = b + forcedLen;
+            } else {
+                a = b;
+            }
+            if (checksum != null) {
+                checksum.update(in, chunkStart, a - chunkStart);
+            }
+        }
+        return op;
+    }
+    
+    private static int writeMatch(byte[] out, int op, boolean lz2, int len, int dist) {
+        if (lz2) {
+            return Compressor.writeMatch2(out, op, len, dist);
+        }
+        out[op++] = (byte)(len - OdzConstants.ODZ_MIN_MATCH);
+        out[op++] = (byte)(dist & 0xFF);
+        out[op++] = (byte)(dist >> 8);
+        return op;
+    }
+}
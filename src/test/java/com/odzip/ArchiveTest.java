@@ -0,0 +1,273 @@
+package com.odzip;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+/**
+ * Tests for OdzArchiveWriter and OdzArchiveReader
+ */
+public class ArchiveTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final boolean POSIX = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
+    private static byte[] content(int size, long seed) {
+        Random random = new Random(seed);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte)(random.nextInt(6) == 0 ? random.nextInt() : "artifact manifest ".charAt(i % 18));
+        }
+        return data;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A tree of many small files, an empty file and directory, and one file of several blocks
+     */
+    private Path tree() throws IOException {
+        Path root = folder.newFolder("build").toPath();
+        for (int i = 0; i < 300; i++) {
+            Path dir = root.resolve("lib" + i % 7).resolve("pkg" + i % 3);
+            Files.createDirectories(dir);
+            Files.write(dir.resolve("artifact" + i + ".jar"), content(i * 37, i));
+        }
+        Files.write(root.resolve("big.bin"), content(3000000, 1000));
+        Files.write(root.resolve("empty"), new byte[0]);
+        Files.createDirectories(root.resolve("nothing/here"));
+        Path script = root.resolve("run.sh");
+        Files.write(script, "#!/bin/sh\necho deploy\n".getBytes());
+        if (POSIX) {
+            Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwxr-x---"));
+        }
+        Files.setLastModifiedTime(script, FileTime.fromMillis(1500000000000L));
+        return root;
+    }
+
+    private static void assertSameTree(Path expected, Path actual) throws IOException {
+        List<Path> expectedPaths = new ArrayList<>();
+        List<Path> actualPaths = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(expected)) {
+            walk.forEach(p -> expectedPaths.add(expected.relativize(p)));
+        }
+        try (Stream<Path> walk = Files.walk(actual)) {
+            walk.forEach(p -> actualPaths.add(actual.relativize(p)));
+        }
+        expectedPaths.sort(null);
+        actualPaths.sort(null);
+        assertEquals(expectedPaths, actualPaths);
+        for (Path relative : expectedPaths) {
+            Path a = expected.resolve(relative);
+            Path b = actual.resolve(relative);
+            if (Files.isRegularFile(a)) {
+                assertArrayEquals(relative.toString(), Files.readAllBytes(a), Files.readAllBytes(b));
+                assertEquals(relative.toString(), Files.getLastModifiedTime(a).toMillis(),
+                             Files.getLastModifiedTime(b).toMillis());
+            }
+            if (POSIX) {
+                assertEquals(relative.toString(), Files.getPosixFilePermissions(a), Files.getPosixFilePermissions(b));
+            }
+        }
+    }
+
+    @Test
+    public void testTreeRoundTrip() throws IOException {
+        Path root = tree();
+        Path archive = folder.getRoot().toPath().resolve("build.odza");
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            try (OdzArchiveWriter writer = new OdzArchiveWriter(Files.newOutputStream(archive), CompressionLevel.DEFAULT,
+                                                                1 << 20, pool)) {
+                writer.add(root);
+            }
+            Path restored = folder.newFolder("restored").toPath();
+            try (OdzArchiveReader reader = new OdzArchiveReader(archive)) {
+                assertEquals("build", reader.entries().get(0).name());
+                assertTrue(reader.entries().get(0).isDirectory());
+                OdzArchiveEntry big = reader.entry("build/big.bin");
+                assertEquals(3000000, big.size());
+                assertTrue(big.compressedSize() < big.size());
+                assertEquals(0, reader.entry("build/empty").size());
+                assertTrue(reader.entry("build/nothing/here").isDirectory());
+                OdzArchiveEntry script = reader.entry("build/run.sh");
+                assertEquals(1500000000000L, script.lastModified());
+                if (POSIX) {
+                    assertEquals(0750, script.permissions());
+                }
+                assertNull(reader.entry("build/missing"));
+
+                reader.extractAll(restored, pool);
+            }
+            assertSameTree(root, restored.resolve("build"));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSingleEntryReadsOnlyItsData() throws IOException {
+        byte[] first = content(100000, 1);
+        byte[] second = content(200000, 2);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OdzArchiveWriter writer = new OdzArchiveWriter(out, CompressionLevel.of(3), 65536, ForkJoinPool.commonPool())) {
+            writer.add("a.txt", new ByteArrayInputStream(first), 1000, 0644);
+            writer.addDirectory("docs", 2000, 0755);
+            writer.add("docs/b.txt", new ByteArrayInputStream(second), 3000, 0600);
+        }
+        byte[] archive = out.toByteArray();
+        Path path = folder.newFile().toPath();
+        Files.write(path, archive);
+
+        OdzArchiveEntry firstEntry;
+        try (OdzArchiveReader reader = new OdzArchiveReader(path)) {
+            firstEntry = reader.entry("a.txt");
+            assertEquals(Arrays.asList("a.txt", "docs", "docs/b.txt"),
+                         Arrays.asList(reader.entries().stream().map(OdzArchiveEntry::name).toArray()));
+            assertEquals(0600, reader.entry("docs/b.txt").permissions());
+            assertEquals(2000, reader.entry("docs").lastModified());
+        }
+
+        // Wiping the first entry's data leaves the second readable
+        Arrays.fill(archive, (int)firstEntry.dataOffset, (int)(firstEntry.dataOffset + firstEntry.dataLength), (byte)0x5A);
+        Files.write(path, archive);
+        try (SeekableByteChannel channel = Files.newByteChannel(path);
+             OdzArchiveReader reader = new OdzArchiveReader(channel)) {
+            try (InputStream in = reader.open(reader.entry("docs/b.txt"))) {
+                assertArrayEquals(second, readAll(in));
+            }
+            Path target = folder.newFile().toPath();
+            reader.extract(reader.entry("docs/b.txt"), target);
+            assertArrayEquals(second, Files.readAllBytes(target));
+            assertEquals(3000, Files.getLastModifiedTime(target).toMillis());
+            try {
+                reader.open(reader.entry("docs"));
+                fail("Expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testEntryDataIsAFramedStream() throws IOException {
+        byte[] data = content(500000, 3);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OdzArchiveWriter writer = new OdzArchiveWriter(out, CompressionLevel.DEFAULT, 65536, ForkJoinPool.commonPool())) {
+            writer.add("data", new ByteArrayInputStream(data), 0, 0644);
+        }
+        byte[] archive = out.toByteArray();
+        assertEquals('A', archive[3]);
+        assertEquals(OdzConstants.ODZ_ARCHIVE_VERSION, archive[4]);
+        try (OdzArchiveReader reader = new OdzArchiveReader(Files.write(folder.newFile().toPath(), archive))) {
+            OdzArchiveEntry entry = reader.entry("data");
+            byte[] stream = Arrays.copyOfRange(archive, (int)entry.dataOffset, (int)(entry.dataOffset + entry.dataLength));
+            assertEquals(OdzConstants.ODZ_FLAG_INDEPENDENT_BLOCKS | OdzConstants.ODZ_FLAG_CHECKSUM, stream[4]);
+            assertArrayEquals(data, Decompressor.decompressParallel(stream));
+        }
+    }
+
+    @Test
+    public void testInvalidNames() throws IOException {
+        try (OdzArchiveWriter writer = new OdzArchiveWriter(new ByteArrayOutputStream(), CompressionLevel.DEFAULT,
+                                                            65536, ForkJoinPool.commonPool())) {
+            for (String name : new String[]{"", "/etc/passwd", "../up", "a/../../b", "a//b", "a/./b", "dir/", "a\\b"}) {
+                try {
+                    writer.addDirectory(name, 0, 0755);
+                    fail("Expected IllegalArgumentException for " + name);
+                } catch (IllegalArgumentException e) {
+                    // Expected
+                }
+            }
+            writer.addDirectory("ok", 0, 0755);
+            try {
+                writer.add("ok", new ByteArrayInputStream(new byte[1]), 0, 0644);
+                fail("Expected IllegalArgumentException for a duplicate");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+            try {
+                writer.addDirectory("perm", 0, 04755);
+                fail("Expected IllegalArgumentException for setuid");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testFailedAddFailsClose() throws IOException {
+        byte[] data = content(300000, 4);
+        InputStream failing = new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                if (available() < 100000) {
+                    throw new IllegalStateException("read failed");
+                }
+                return super.read(b, off, Math.min(len, 10000));
+            }
+        };
+        OdzArchiveWriter writer = new OdzArchiveWriter(new ByteArrayOutputStream(), CompressionLevel.DEFAULT,
+                                                       65536, ForkJoinPool.commonPool());
+        writer.add("first", new ByteArrayInputStream(data), 0, 0644);
+        try {
+            writer.add("broken", failing, 0, 0644);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals("read failed", e.getMessage());
+        }
+        try {
+            writer.add("next", new ByteArrayInputStream(data), 0, 0644);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // The archive cannot be finished
+        }
+        try {
+            writer.close();
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // Not written as if complete
+        }
+    }
+
+    @Test
+    public void testPermissionBits() {
+        assertEquals(0754, OdzArchiveWriter.posixBits(PosixFilePermissions.fromString("rwxr-xr--")));
+        assertEquals(0, OdzArchiveWriter.posixBits(EnumSet.noneOf(PosixFilePermission.class)));
+        for (int bits = 0; bits <= 0777; bits++) {
+            assertEquals(bits, OdzArchiveWriter.posixBits(OdzArchiveReader.posixPermissions(bits)));
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.odzip;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests for the asynchronous channel API
+ */
+public class AsyncTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] data(int size) {
+        Random random = new Random(71);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte)(random.nextInt(8) == 0 ? random.nextInt() : "asynchronous pipeline ".charAt(i % 22));
+        }
+        return data;
+    }
+
+    private static ReadableByteChannel source(byte[] data) {
+        return Channels.newChannel(new ByteArrayInputStream(data));
+    }
+
+    @Test
+    public void testChannelRoundTrip() throws Exception {
+        for (int size : new int[]{0, 1000, 3000000}) {
+            byte[] input = data(size);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            long written = OdzAsync.compress(source(input), Channels.newChannel(compressed), CompressionLevel.of(3),
+                                             1 << 16, ForkJoinPool.commonPool()).get(30, TimeUnit.SECONDS);
+            assertEquals(compressed.size(), written);
+            assertEquals(OdzConstants.ODZ_FLAG_INDEPENDENT_BLOCKS, compressed.toByteArray()[4]);
+            assertArrayEquals(input, Decompressor.decompressSimple(compressed.toByteArray()));
+
+            ByteArrayOutputStream restored = new ByteArrayOutputStream();
+            ReadableByteChannel src = source(compressed.toByteArray());
+            assertEquals(size, (long)OdzAsync.decompress(src, Channels.newChannel(restored),
+                                                         ForkJoinPool.commonPool()).get(30, TimeUnit.SECONDS));
+            assertArrayEquals(input, restored.toByteArray());
+            // The caller's channel stays open
+            assertTrue(src.isOpen());
+        }
+    }
+
+    @Test
+    public void testFilesRoundTrip() throws Exception {
+        byte[] input = data(5000000);
+        Path raw = folder.newFile("input").toPath();
+        Path compressed = folder.newFile("input.odz").toPath();
+        Path restored = folder.newFile("restored").toPath();
+        Files.write(raw, input);
+
+        long written = OdzAsync.compress(raw, compressed).get(30, TimeUnit.SECONDS);
+        byte[] archive = Files.readAllBytes(compressed);
+        assertEquals(archive.length, written);
+        assertEquals(OdzConstants.ODZ_FLAG_INDEPENDENT_BLOCKS | OdzConstants.ODZ_FLAG_CONTENT_SIZE, archive[4]);
+        assertEquals(input.length, OdzUtil.readU64LE(archive, OdzConstants.ODZ_FRAMED_HEADER_SIZE));
+
+        assertEquals(input.length, (long)OdzAsync.decompress(compressed, restored).get(30, TimeUnit.SECONDS));
+        assertArrayEquals(input, Files.readAllBytes(restored));
+
+        // Version 1 input decodes too
+        Files.write(compressed, Compressor.compressSimple(input));
+        OdzAsync.decompress(compressed, restored).get(30, TimeUnit.SECONDS);
+        assertArrayEquals(input, Files.readAllBytes(restored));
+    }
+
+    @Test
+    public void testFailuresCompleteTheFuture() throws Exception {
+        IOException readError = new IOException("disk on fire");
+        ReadableByteChannel failing = new ReadableByteChannel() {
+            private int reads;
+
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                if (++reads > 3) {
+                    throw readError;
+                }
+                int n = dst.remaining();
+                dst.position(dst.limit());
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        try {
+            OdzAsync.compress(failing, Channels.newChannel(new ByteArrayOutputStream()), CompressionLevel.DEFAULT,
+                              1 << 16, ForkJoinPool.commonPool()).get(30, TimeUnit.SECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertSame(readError, e.getCause());
+        }
+
+        try {
+            OdzAsync.compress(folder.getRoot().toPath().resolve("missing"), folder.newFile().toPath()).get(30, TimeUnit.SECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testCancelStopsReading() throws Exception {
+        AtomicLong reads = new AtomicLong();
+        ReadableByteChannel endless = new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) {
+                reads.incrementAndGet();
+                int n = dst.remaining();
+                dst.position(dst.limit());
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        CompletableFuture<Long> future = OdzAsync.compress(endless, Channels.newChannel(new ByteArrayOutputStream()),
+                                                           CompressionLevel.of(1), 4096, ForkJoinPool.commonPool());
+        while (reads.get() < 100) {
+            Thread.sleep(10);
+        }
+        assertTrue(future.cancel(false));
+        Thread.sleep(300);
+        long stoppedAt = reads.get();
+        Thread.sleep(300);
+        assertEquals(stoppedAt, reads.get());
+    }
+
+    @Test
+    public void testVirtualThreadsWhereAvailable() {
+        assertEquals(Runtime.version().feature() >= 21, OdzAsync.VIRTUAL_THREADS);
+    }
+}
@@ -0,0 +1,134 @@
+package com.odzip;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.Random;
+
+/**
+ * Tests for the ByteBuffer compress and decompress overloads
+ */
+public class ByteBufferTest {
+
+    private static byte[] payload(int size) {
+        Random random = new Random(41);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte)(random.nextInt(4) == 0 ? random.nextInt() : "buffer payload ".charAt(i % 15));
+        }
+        return data;
+    }
+
+    private static ByteBuffer allocate(boolean direct, int size) {
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    private static byte[] remaining(ByteBuffer buffer) {
+        byte[] b = new byte[buffer.remaining()];
+        buffer.duplicate().get(b);
+        return b;
+    }
+
+    @Test
+    public void testHeapAndDirectRoundTrip() {
+        for (int size : new int[]{0, 1, 100, 70000, OdzCompressorContext.MAX_RETAINED_BUFFER + 100}) {
+            byte[] input = payload(size);
+            byte[] expected = Compressor.compressSimple(input);
+            for (boolean directSrc : new boolean[]{false, true}) {
+                for (boolean directDst : new boolean[]{false, true}) {
+                    String name = "size " + size + (directSrc ? " direct" : " heap") + (directDst ? " to direct" : " to heap");
+                    ByteBuffer src = allocate(directSrc, size);
+                    src.put(input).flip();
+                    ByteBuffer compressed = allocate(directDst, Compressor.maxCompressedLength(size));
+                    OdzResult result = Compressor.compress(src, compressed);
+                    assertEquals(name, size, result.bytesConsumed());
+                    assertEquals(name, expected.length, result.bytesProduced());
+                    assertFalse(name, src.hasRemaining());
+                    assertEquals(name, expected.length, compressed.position());
+                    compressed.flip();
+                    assertArrayEquals(name, expected, remaining(compressed));
+
+                    assertEquals(name, size, Decompressor.decompressedLength(compressed));
+                    ByteBuffer output = allocate(directSrc, size);
+                    result = Decompressor.decompress(compressed, output);
+                    assertEquals(name, expected.length, result.bytesConsumed());
+                    assertEquals(name, size, result.bytesProduced());
+                    assertFalse(name, compressed.hasRemaining());
+                    output.flip();
+                    assertArrayEquals(name, input, remaining(output));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPositionsAndSlices() {
+        byte[] input = payload(5000);
+        byte[] backing = new byte[input.length + 300];
+        System.arraycopy(input, 0, backing, 100, input.length);
+        // A slice has a non-zero array offset, and the limit stops short of the backing array
+        ByteBuffer src = ByteBuffer.wrap(backing, 50, input.length + 150).slice();
+        src.position(50).limit(50 + input.length);
+
+        ByteBuffer compressed = ByteBuffer.allocateDirect(Compressor.maxCompressedLength(input.length) + 20);
+        compressed.position(20);
+        OdzResult result = new OdzCompressorContext(CompressionLevel.of(9)).compress(src, compressed);
+        assertEquals(input.length, result.bytesConsumed());
+        assertEquals(20 + result.bytesProduced(), compressed.position());
+        compressed.flip().position(20);
+
+        ByteBuffer output = ByteBuffer.allocate(input.length + 10);
+        output.position(10);
+        new OdzDecompressorContext().decompress(compressed.asReadOnlyBuffer(), output);
+        assertEquals(input.length + 10, output.position());
+        output.position(10);
+        assertArrayEquals(input, remaining(output));
+    }
+
+    @Test
+    public void testFramedAndDictionaryInput() {
+        byte[] input = payload(20000);
+        OdzDictionary dictionary = new OdzDictionary(payload(3000), 9);
+        byte[][] compressed = {
+            Compressor.compressParallel(input, 4096, true, java.util.concurrent.ForkJoinPool.commonPool()),
+            Compressor.compressSimple(input, CompressionLevel.DEFAULT.withHuffman()),
+            new OdzCompressorContext(CompressionLevel.DEFAULT, dictionary).compress(input)
+        };
+        OdzDecompressorContext context = new OdzDecompressorContext(dictionary);
+        for (byte[] c : compressed) {
+            ByteBuffer src = ByteBuffer.allocateDirect(c.length);
+            src.put(c).flip();
+            ByteBuffer dst = ByteBuffer.allocateDirect(input.length);
+            assertEquals(input.length, context.decompress(src, dst).bytesProduced());
+            dst.flip();
+            assertArrayEquals(input, remaining(dst));
+        }
+    }
+
+    @Test
+    public void testDestinationTooSmall() {
+        byte[] input = payload(1000);
+        ByteBuffer src = ByteBuffer.wrap(input);
+        try {
+            Compressor.compress(src, ByteBuffer.allocate(Compressor.maxCompressedLength(input.length) - 1));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Source untouched", 0, src.position());
+        }
+
+        ByteBuffer compressed = ByteBuffer.wrap(Compressor.compressSimple(input));
+        try {
+            Decompressor.decompress(compressed, ByteBuffer.allocateDirect(input.length - 1));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Source untouched", 0, compressed.position());
+        }
+    }
+
+    @Test(expected = ReadOnlyBufferException.class)
+    public void testReadOnlyDestination() {
+        Compressor.compress(ByteBuffer.wrap(payload(10)), ByteBuffer.allocate(100).asReadOnlyBuffer());
+    }
+}
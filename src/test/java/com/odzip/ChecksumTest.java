@@ -0,0 +1,180 @@
+package com.odzip;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32C;
+
+/**
+ * Tests for CRC32C block and stream checksums (ODZ_FLAG_CHECKSUM)
+ */
+public class ChecksumTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Text with a run of random bytes in the middle, so streams hold both LZ and stored blocks
+     */
+    private static byte[] mixedData(int size) {
+        byte[] data = new byte[size];
+        Random random = new Random(22);
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte)("checksummed block " + i % 251).charAt(i % 7);
+        }
+        byte[] noise = new byte[size / 4];
+        random.nextBytes(noise);
+        System.arraycopy(noise, 0, data, size / 3, noise.length);
+        return data;
+    }
+
+    private static byte[] compress(byte[] input, CompressionLevel level) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OdzOutputStream odzOut = new OdzOutputStream(out, level, -1, true)) {
+            odzOut.write(input);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in, int chunk) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[chunk];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static int crc32c(byte[] data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data);
+        return (int)crc.getValue();
+    }
+
+    @Test
+    public void testCrc32c() {
+        assertEquals(0xE3069283, OdzUtil.crc32c("123456789".getBytes(), 0, 9));
+        assertEquals(0, OdzUtil.crc32c(new byte[0], 0, 0));
+    }
+
+    @Test
+    public void testCombine() {
+        Random random = new Random(1);
+        byte[] data = new byte[100000];
+        random.nextBytes(data);
+        for (int i = 0; i < 200; i++) {
+            int split = random.nextInt(data.length + 1);
+            int crc1 = OdzUtil.crc32c(data, 0, split);
+            int crc2 = OdzUtil.crc32c(data, split, data.length - split);
+            assertEquals(crc32c(data), OdzUtil.crc32cCombine(crc1, crc2, data.length - split));
+        }
+        assertEquals(0x1234, OdzUtil.crc32cCombine(0x1234, 0, 0));
+    }
+
+    @Test
+    public void testStreamRoundTrip() throws IOException {
+        byte[] input = mixedData(5 * OdzOutputStream.BLOCK_SIZE + 1234);
+        for (CompressionLevel level : new CompressionLevel[]{CompressionLevel.of(1), CompressionLevel.DEFAULT,
+                                                             CompressionLevel.DEFAULT.withHuffman(), CompressionLevel.OPTIMAL,
+                                                             CompressionLevel.DEFAULT.withWindowLog(16)}) {
+            byte[] compressed = compress(input, level);
+            assertEquals(OdzConstants.ODZ_FLAG_CHECKSUM, compressed[4] & OdzConstants.ODZ_FLAG_CHECKSUM);
+            // The stream checksum after the END block covers all of the data
+            assertEquals(OdzConstants.ODZ_BLOCK_END, compressed[compressed.length - 5]);
+            assertEquals(crc32c(input), OdzUtil.readU32LE(compressed, compressed.length - 4));
+
+            assertArrayEquals(input, Decompressor.decompressSimple(compressed));
+            assertArrayEquals(input, new OdzDecompressorContext().decompress(compressed));
+            assertArrayEquals(input, readAll(new OdzInputStream(new ByteArrayInputStream(compressed)), 1000));
+            assertArrayEquals(input, readAll(new OdzInputStream(new ByteArrayInputStream(compressed)), 1 << 20));
+
+            ByteBuffer dst = ByteBuffer.allocateDirect(input.length);
+            Decompressor.decompress(ByteBuffer.wrap(compressed), dst);
+            byte[] direct = new byte[input.length];
+            dst.flip();
+            dst.get(direct);
+            assertArrayEquals(input, direct);
+        }
+    }
+
+    @Test
+    public void testEmptyStream() throws IOException {
+        byte[] compressed = compress(new byte[0], CompressionLevel.DEFAULT);
+        assertEquals(0, OdzUtil.readU32LE(compressed, compressed.length - 4));
+        assertEquals(0, Decompressor.decompressSimple(compressed).length);
+        assertEquals(0, readAll(new OdzInputStream(new ByteArrayInputStream(compressed)), 100).length);
+    }
+
+    @Test
+    public void testIndependentBlocks() throws IOException {
+        byte[] input = mixedData(700000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OdzSeekableOutputStream odzOut = new OdzSeekableOutputStream(out, CompressionLevel.DEFAULT, 65536, true)) {
+            odzOut.write(input);
+        }
+        byte[] compressed = out.toByteArray();
+        assertEquals(OdzConstants.ODZ_FLAG_CHECKSUM, compressed[4] & OdzConstants.ODZ_FLAG_CHECKSUM);
+
+        assertArrayEquals(input, Decompressor.decompressParallel(compressed, ForkJoinPool.commonPool()));
+        assertArrayEquals(input, readAll(new OdzParallelInputStream(new ByteArrayInputStream(compressed)), 777));
+        assertArrayEquals(input, readAll(new OdzInputStream(new ByteArrayInputStream(compressed)), 4096));
+
+        Path path = folder.newFile().toPath();
+        Files.write(path, compressed);
+        try (OdzSeekableReader reader = new OdzSeekableReader(path)) {
+            assertEquals(input.length, reader.size());
+            ByteBuffer dst = ByteBuffer.allocate(100000);
+            assertEquals(dst.capacity(), reader.read(300000, dst));
+            assertArrayEquals(Arrays.copyOfRange(input, 300000, 400000), dst.array());
+        }
+    }
+
+    @Test
+    public void testFiles() throws IOException {
+        byte[] input = mixedData(300000);
+        Path source = folder.newFile().toPath();
+        Path compressed = folder.newFile().toPath();
+        Path restored = folder.newFile().toPath();
+        Files.write(source, input);
+        OdzFiles.compress(source, compressed, CompressionLevel.DEFAULT, true);
+        assertEquals(OdzConstants.ODZ_FLAG_CHECKSUM | OdzConstants.ODZ_FLAG_CONTENT_SIZE, Files.readAllBytes(compressed)[4]);
+        OdzFiles.decompress(compressed, restored);
+        assertArrayEquals(input, Files.readAllBytes(restored));
+    }
+
+    @Test
+    public void testArchiveEntries() throws IOException {
+        byte[] small = mixedData(5000);
+        byte[] large = mixedData(3000000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OdzArchiveWriter writer = new OdzArchiveWriter(out, CompressionLevel.DEFAULT, 65536, ForkJoinPool.commonPool())) {
+            writer.add("small", new ByteArrayInputStream(small), 0, 0644);
+            writer.add("large", new ByteArrayInputStream(large), 0, 0644);
+        }
+        byte[] archive = out.toByteArray();
+        try (OdzArchiveReader reader = new OdzArchiveReader(Files.write(folder.newFile().toPath(), archive))) {
+            for (OdzArchiveEntry entry : reader.entries()) {
+                byte[] expected = entry.name().equals("small") ? small : large;
+                byte[] stream = Arrays.copyOfRange(archive, (int)entry.dataOffset, (int)(entry.dataOffset + entry.dataLength));
+                assertEquals(OdzConstants.ODZ_FLAG_CHECKSUM, stream[4] & OdzConstants.ODZ_FLAG_CHECKSUM);
+                assertEquals(crc32c(expected), OdzUtil.readU32LE(stream, stream.length - 4));
+                try (InputStream in = reader.open(entry)) {
+                    assertArrayEquals(expected, readAll(in, 8192));
+                }
+            }
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package com.odzip;
 
+import org.junit.Assume;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.lang.management.ManagementFactory;
+
 /**
  * Tests for compression and decompression round-tripping
  */
@@ -144,4 +147,287 @@ public class CompressorTest {
         int size = OdzUtil.readU32LE(compressed, 4);
         assertEquals("Size should match input", input.length, size);
     }
+
+    @Test
+    public void testCompressDoesNotAllocatePerToken() {
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(mx instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) mx;
+        Assume.assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+        
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 1 << 20; i++) {
+            sb.append("token ").append(i % 977).append(i % 3 == 0 ? '\n' : ' ');
+        }
+        byte[] input = sb.toString().getBytes();
+        Compressor.compressSimple(input); // warm up
+        
+        long tid = Thread.currentThread().getId();
+        long before = bean.getThreadAllocatedBytes(tid);
+        byte[] compressed = Compressor.compressSimple(input);
+        long allocated = bean.getThreadAllocatedBytes(tid) - before;
+        
+        // Fixed-size matcher tables, the worst-case output buffer and the trimmed result;
+        // nothing per token or per input byte
+        int n = input.length;
+        long expected = (4L << OdzConstants.HASH_BITS) + 4L * LzMatcher.PREV_SIZE
+                + Compressor.maxCompressedLength(n) + compressed.length;
+        assertTrue("Allocated " + allocated + " bytes, expected at most " + expected,
+                   allocated <= expected + 64 * 1024);
+        assertArrayEquals(input, Decompressor.decompressSimple(compressed));
+    }
+
+    @Test
+    public void testMaxCompressedLengthBounds() {
+        assertEquals(29, Compressor.maxCompressedLength(0));
+        assertEquals(1000 + 125 + 29, Compressor.maxCompressedLength(1000));
+        // Large inputs whose bound would overflow int are rejected, not wrapped negative
+        for (int n : new int[]{-1, 1_910_000_000, Integer.MAX_VALUE}) {
+            try {
+                Compressor.maxCompressedLength(n);
+                fail("Expected IllegalArgumentException for " + n);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+        int largest = Compressor.maxCompressedLength(1_800_000_000);
+        assertTrue(largest > 1_800_000_000);
+    }
+
+    @Test
+    public void testAllLevelsRoundTrip() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            sb.append("level ").append(i % 41).append(" of ").append(i % 7 == 0 ? "nine" : "six").append('\n');
+        }
+        byte[] text = sb.toString().getBytes();
+        byte[] noise = new byte[20000];
+        new java.util.Random(7).nextBytes(noise);
+        
+        for (byte[] input : new byte[][]{new byte[0], "abcabcabc123".getBytes(), text, noise, new byte[5000]}) {
+            for (int level = CompressionLevel.MIN_LEVEL; level <= CompressionLevel.MAX_LEVEL; level++) {
+                byte[] compressed = Compressor.compressSimple(input, CompressionLevel.of(level));
+                assertArrayEquals("Level " + level + " should round-trip", input, Decompressor.decompressSimple(compressed));
+            }
+        }
+        
+        int fastest = Compressor.compressSimple(text, CompressionLevel.FASTEST).length;
+        int best = Compressor.compressSimple(text, CompressionLevel.BEST).length;
+        assertTrue("Level 9 should compress better than level 1", best < fastest);
+        assertArrayEquals("Default level is level 6",
+                          Compressor.compressSimple(text, CompressionLevel.of(6)), Compressor.compressSimple(text));
+    }
+
+    @Test
+    public void testCustomLevel() {
+        byte[] input = "custom custom custom parameters parameters".getBytes();
+        CompressionLevel level = new CompressionLevel(10, 3, 8, CompressionLevel.LAZY_FULL, 2);
+        assertEquals(0, level.level());
+        assertArrayEquals(input, Decompressor.decompressSimple(Compressor.compressSimple(input, level)));
+    }
+
+    @Test
+    public void testOptimalRoundTrip() {
+        java.util.Random random = new java.util.Random(14);
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 200000) {
+            sb.append(random.nextInt(4) == 0 ? "optimal" : "parse").append(random.nextInt(300)).append(' ');
+        }
+        byte[] text = sb.toString().getBytes();
+        byte[] noise = new byte[OptimalParser.CHUNK + 5000];
+        random.nextBytes(noise);
+        byte[] runs = new byte[3 * LzMatcher.PREV_SIZE];
+        for (int i = 0; i < runs.length; i++) {
+            runs[i] = (byte)(i / 700 % 3 == 0 ? i : i / 700);
+        }
+        
+        for (byte[] input : new byte[][]{new byte[0], {1}, "abcabcabc123".getBytes(), text, noise, runs, new byte[70000]}) {
+            byte[] compressed = Compressor.compressSimple(input, CompressionLevel.OPTIMAL);
+            assertArrayEquals(input, Decompressor.decompressSimple(compressed));
+            assertTrue("Optimal parsing should not lose to level 9",
+                       compressed.length <= Compressor.compressSimple(input, CompressionLevel.BEST).length);
+        }
+        assertTrue(Compressor.compressSimple(text, CompressionLevel.OPTIMAL).length
+                   < Compressor.compressSimple(text, CompressionLevel.BEST).length);
+    }
+
+    @Test
+    public void testOptimalParseIsCheapest() {
+        java.util.Random random = new java.util.Random(15);
+        String[] words = {"a", "ab", "abc", "abcd", "bcd", "cab", "dab", "ba", "dcba", "cc"};
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 3000) {
+            sb.append(words[random.nextInt(words.length)]);
+        }
+        // Bytes not seen before, so no match reaches the end of input
+        byte[] input = (sb + "XYZW").getBytes();
+        
+        // Brute force: cheapest token sequence given the longest match at every position
+        int n = input.length;
+        int[] price = new int[n + 1];
+        java.util.Arrays.fill(price, Integer.MAX_VALUE);
+        price[0] = 0;
+        for (int i = 0; i < n; i++) {
+            price[i + 1] = Math.min(price[i + 1], price[i] + OptimalParser.LITERAL_PRICE);
+            int longest = 0;
+            for (int p = Math.max(0, i - OdzConstants.ODZ_WINDOW); p < i; p++) {
+                longest = Math.max(longest, LzMatcher.matchLen(input, p, input, i, Math.min(n - i, OdzConstants.ODZ_MAX_MATCH)));
+            }
+            for (int l = OdzConstants.ODZ_MIN_MATCH; l <= longest; l++) {
+                price[i + l] = Math.min(price[i + l], price[i] + OptimalParser.MATCH_PRICE);
+            }
+        }
+        
+        CompressionLevel deepTree = new CompressionLevel(16, 1 << 20, OdzConstants.ODZ_MAX_MATCH,
+                                                         CompressionLevel.PARSE_OPTIMAL, 0);
+        byte[] compressed = Compressor.compressSimple(input, deepTree);
+        assertArrayEquals(input, Decompressor.decompressSimple(compressed));
+        int literals = 0;
+        int matches = 0;
+        for (int ip = 8, pos = 0; pos < n; ) {
+            int flags = compressed[ip++];
+            for (int k = 0; k < 8 && pos < n; k++) {
+                if ((flags & (1 << k)) != 0) {
+                    matches++;
+                    pos += (compressed[ip] & 0xFF) + OdzConstants.ODZ_MIN_MATCH;
+                    ip += 3;
+                } else {
+                    literals++;
+                    pos++;
+                    ip++;
+                }
+            }
+        }
+        assertEquals(price[n], literals * OptimalParser.LITERAL_PRICE + matches * OptimalParser.MATCH_PRICE);
+    }
+
+    @Test
+    public void testHashLengths() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 4000; i++) {
+            sb.append("key").append(i % 97).append('=').append(i % 13 == 0 ? "abc" : "abd").append(';');
+        }
+        byte[] text = sb.toString().getBytes();
+        byte[] noise = new byte[9000];
+        new java.util.Random(24).nextBytes(noise);
+        
+        CompressionLevel[] levels = {CompressionLevel.FASTEST, CompressionLevel.DEFAULT, CompressionLevel.BEST,
+                                     CompressionLevel.OPTIMAL};
+        for (int hashLength = 3; hashLength <= 6; hashLength++) {
+            for (CompressionLevel preset : levels) {
+                CompressionLevel level = preset.withHashLength(hashLength);
+                assertEquals(hashLength == 4 ? preset.level() : 0, level.level());
+                for (byte[] input : new byte[][]{new byte[0], {7}, "abcab".getBytes(), "abcabcabc123".getBytes(), text, noise}) {
+                    assertArrayEquals(level.toString(), input, Decompressor.decompressSimple(Compressor.compressSimple(input, level)));
+                }
+            }
+        }
+        try {
+            new CompressionLevel(15, 7, 64, OdzConstants.ODZ_MAX_MATCH, CompressionLevel.LAZY_FULL, 0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testInsertRangeMatchesInsert() {
+        java.util.Random random = new java.util.Random(25);
+        byte[] input = new byte[20000];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (byte)"abcdabce".charAt(random.nextInt(8));
+        }
+        for (int hashLength = 3; hashLength <= 6; hashLength++) {
+            LzMatcher single = new LzMatcher(input.length, 12, hashLength, true, 32, OdzConstants.ODZ_MAX_MATCH);
+            LzMatcher ranged = new LzMatcher(input.length, 12, hashLength, true, 32, OdzConstants.ODZ_MAX_MATCH);
+            for (int i = 0; i < input.length; ) {
+                // Ranges of all lengths, some overlapping positions already inserted, up to the end of input
+                int to = Math.min(input.length, i + random.nextInt(40));
+                for (int j = i; j < to; j++) {
+                    single.insert(input, j);
+                }
+                ranged.insertRange(input, Math.max(0, i - random.nextInt(3)), to);
+                int len = single.findBest(input, to, input.length, OdzConstants.ODZ_WINDOW, 3, 258);
+                assertEquals(len, ranged.findBest(input, to, input.length, OdzConstants.ODZ_WINDOW, 3, 258));
+                assertEquals(single.matchDistance(), ranged.matchDistance());
+                i = to + 1;
+                single.insert(input, to);
+                ranged.insert(input, to);
+            }
+        }
+    }
+
+    @Test
+    public void testShortMatchFallback() {
+        // Only three bytes repeat, so the 4-byte chains miss the match and the fallback table finds it
+        byte[] input = "xyz1 ---- xyz2".getBytes();
+        LzMatcher matcher = new LzMatcher(input.length, 10, 8);
+        for (int i = 0; i < 10; i++) {
+            matcher.insert(input, i);
+        }
+        assertEquals(3, matcher.findBest(input, 10, input.length, OdzConstants.ODZ_WINDOW, 3, 258));
+        assertEquals(10, matcher.matchDistance());
+        
+        LzMatcher withoutFallback = new LzMatcher(input.length, 10, 4, false, 8, OdzConstants.ODZ_MAX_MATCH);
+        for (int i = 0; i < 10; i++) {
+            withoutFallback.insert(input, i);
+        }
+        assertEquals(0, withoutFallback.findBest(input, 10, input.length, OdzConstants.ODZ_WINDOW, 3, 258));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLevelOutOfRange() {
+        CompressionLevel.of(10);
+    }
+
+    @Test
+    public void testMatchLenFindsFirstMismatch() {
+        byte[] data = new byte[64];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)(i % 20);
+        }
+        // data[20..] repeats data[0..], so every mismatch planted in the copy is the first one
+        for (int mismatch = 0; mismatch < 40; mismatch++) {
+            byte[] copy = data.clone();
+            copy[20 + mismatch] ^= 0x40;
+            for (int maxLen = 0; maxLen <= 44; maxLen++) {
+                assertEquals("mismatch " + mismatch + ", maxLen " + maxLen,
+                             Math.min(mismatch, maxLen), LzMatcher.matchLen(copy, 0, copy, 20, maxLen));
+            }
+        }
+    }
+
+    @Test
+    public void testMatcherSlideRenormalizes() {
+        byte[] data = new byte[128];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)"abcdefgh".charAt(i % 8);
+        }
+        LzMatcher matcher = new LzMatcher(data.length, 10, 8);
+        // Move base close to overflow, so the next slide has to renormalize the tables
+        matcher.setLimit(Integer.MAX_VALUE - 100);
+        matcher.reset(data.length);
+        for (int i = 0; i < 64; i++) {
+            matcher.insert(data, i);
+        }
+        
+        matcher.slide(32);
+        System.arraycopy(data, 32, data, 0, 96);
+        assertEquals(64, matcher.findBest(data, 32, 96, OdzConstants.ODZ_WINDOW, 3, 258));
+        assertEquals(8, matcher.matchDistance());
+    }
+
+    @Test
+    public void testLongInputBeyondPrevRing() {
+        // Repeats farther apart than the prev ring must not be found through reused slots
+        java.util.Random random = new java.util.Random(12);
+        byte[] unit = new byte[LzMatcher.PREV_SIZE + 1000];
+        random.nextBytes(unit);
+        byte[] input = new byte[3 * unit.length];
+        for (int k = 0; k < 3; k++) {
+            System.arraycopy(unit, 0, input, k * unit.length, unit.length);
+        }
+        for (CompressionLevel level : new CompressionLevel[]{CompressionLevel.FASTEST, CompressionLevel.DEFAULT}) {
+            assertArrayEquals(input, Decompressor.decompressSimple(Compressor.compressSimple(input, level)));
+        }
+    }
 }
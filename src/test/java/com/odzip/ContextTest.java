@@ -0,0 +1,130 @@
+package com.odzip;
+
+import org.junit.Assume;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Tests for reusable compressor and decompressor contexts
+ */
+public class ContextTest {
+
+    private static byte[] payload(Random random, int size) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < size) {
+            sb.append("{\"user\":").append(random.nextInt(50)).append(",\"op\":\"")
+              .append(random.nextBoolean() ? "read" : "write").append("\"}");
+        }
+        return sb.substring(0, size).getBytes();
+    }
+
+    @Test
+    public void testContextMatchesCompressSimple() {
+        // Stale hash entries from earlier inputs must never surface as matches
+        Random random = new Random(11);
+        for (int level = CompressionLevel.MIN_LEVEL; level <= CompressionLevel.MAX_LEVEL; level++) {
+            OdzCompressorContext context = new OdzCompressorContext(CompressionLevel.of(level));
+            for (int i = 0; i < 20; i++) {
+                byte[] input = payload(random, random.nextInt(20000));
+                byte[] expected = Compressor.compressSimple(input, CompressionLevel.of(level));
+                assertArrayEquals("Level " + level + ", input " + i, expected, context.compress(input));
+            }
+        }
+    }
+
+    @Test
+    public void testContextOffsets() {
+        byte[] input = payload(new Random(12), 5000);
+        byte[] padded = new byte[input.length + 300];
+        System.arraycopy(input, 0, padded, 100, input.length);
+        
+        OdzCompressorContext compressor = new OdzCompressorContext();
+        byte[] compressed = new byte[50 + Compressor.maxCompressedLength(input.length)];
+        int compressedLen = compressor.compress(padded, 100, input.length, compressed, 50);
+        
+        OdzDecompressorContext decompressor = new OdzDecompressorContext();
+        assertEquals(input.length, decompressor.decompressedLength(compressed, 50, compressedLen));
+        byte[] restored = new byte[input.length + 7];
+        assertEquals(input.length, decompressor.decompress(compressed, 50, compressedLen, restored, 7));
+        assertArrayEquals(input, java.util.Arrays.copyOfRange(restored, 7, restored.length));
+    }
+
+    @Test
+    public void testDecompressorContextReadsFramedData() throws java.io.IOException {
+        byte[] input = payload(new Random(13), 200000);
+        OdzDecompressorContext context = OdzDecompressorContext.forCurrentThread();
+        byte[] parallel = Compressor.compressParallel(input, 1 << 15, true, java.util.concurrent.ForkJoinPool.commonPool());
+        assertArrayEquals(input, context.decompress(parallel));
+        
+        java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+        try (OdzOutputStream odzOut = new OdzOutputStream(out, CompressionLevel.DEFAULT, input.length)) {
+            odzOut.write(input);
+        }
+        assertArrayEquals(input, context.decompress(out.toByteArray()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOutputTooSmall() {
+        byte[] compressed = Compressor.compressSimple(new byte[100]);
+        new OdzDecompressorContext().decompress(compressed, 0, compressed.length, new byte[99], 0);
+    }
+
+    @Test
+    public void testForCurrentThread() {
+        OdzCompressorContext context = OdzCompressorContext.forCurrentThread(CompressionLevel.DEFAULT);
+        assertSame(context, OdzCompressorContext.forCurrentThread(CompressionLevel.of(6)));
+        assertNotSame(context, OdzCompressorContext.forCurrentThread(CompressionLevel.FASTEST));
+        assertSame(OdzDecompressorContext.forCurrentThread(), OdzDecompressorContext.forCurrentThread());
+    }
+
+    @Test
+    public void testMatcherResetSurvivesEpochOverflow() {
+        byte[] input = "abcabcabcabcxyzxyzxyz".getBytes();
+        LzMatcher matcher = new LzMatcher(input.length, 10, 4);
+        for (int round = 0; round < 6; round++) {
+            matcher.reset(input.length);
+            for (int i = 0; i < 3; i++) {
+                matcher.insert(input, i);
+            }
+            assertEquals(9, matcher.findBest(input, 3, input.length, OdzConstants.ODZ_WINDOW, 3, 258));
+            assertEquals(3, matcher.matchDistance());
+            // Pretend a huge input was processed so the next reset moves base close to overflow
+            matcher.setLimit(Integer.MAX_VALUE / 4);
+        }
+    }
+
+    @Test
+    public void testContextDoesNotAllocate() {
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(mx instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) mx;
+        Assume.assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+        
+        byte[] input = payload(new Random(14), 4096);
+        byte[] compressed = new byte[Compressor.maxCompressedLength(input.length)];
+        byte[] restored = new byte[input.length];
+        // Optimal parsing keeps its per-position arrays on the matcher
+        for (CompressionLevel level : new CompressionLevel[]{CompressionLevel.DEFAULT, CompressionLevel.OPTIMAL}) {
+            OdzCompressorContext compressor = new OdzCompressorContext(level);
+            OdzDecompressorContext decompressor = new OdzDecompressorContext();
+            for (int i = 0; i < 200; i++) {
+                int n = compressor.compress(input, 0, input.length, compressed, 0);
+                decompressor.decompress(compressed, 0, n, restored, 0);
+            }
+            
+            long tid = Thread.currentThread().getId();
+            long before = bean.getThreadAllocatedBytes(tid);
+            for (int i = 0; i < 1000; i++) {
+                int n = compressor.compress(input, 0, input.length, compressed, 0);
+                decompressor.decompress(compressed, 0, n, restored, 0);
+            }
+            long allocated = bean.getThreadAllocatedBytes(tid) - before;
+            
+            assertArrayEquals(input, restored);
+            assertTrue(level + ": allocated " + allocated + " bytes over 1000 round trips", allocated < 64 * 1024);
+        }
+    }
+}
@@ -35,4 +35,47 @@ public class DecompressorTest {
             assertArrayEquals("Size " + size + " (exact match) should round-trip", input, decompressed);
         }
     }
+
+    @Test
+    public void testRoundTripOverlappingMatches() throws java.io.IOException {
+        // Short periods give matches whose distance is below their length
+        for (int period = 1; period <= 20; period++) {
+            byte[] input = new byte[5000];
+            for (int i = 0; i < input.length; i++) {
+                input[i] = (byte)(i % period == 0 ? 'x' : 'a' + i % period);
+            }
+            byte[] compressed = Compressor.compressSimple(input);
+            assertArrayEquals("Period " + period + " should round-trip", input, Decompressor.decompressSimple(compressed));
+            
+            java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+            try (OdzInputStream in = new OdzInputStream(new java.io.ByteArrayInputStream(compressed))) {
+                byte[] buf = new byte[333];
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    out.write(buf, 0, n);
+                }
+            }
+            assertArrayEquals("Period " + period + " should stream", input, out.toByteArray());
+        }
+    }
+
+    @Test
+    public void testRoundTripLiteralRunsAndMatches() {
+        // Long literal runs (all-literal groups) followed by matches, ending mid-group
+        java.util.Random random = new java.util.Random(8);
+        for (int size : new int[]{9, 63, 4097, 100003}) {
+            byte[] input = new byte[size];
+            for (int i = 0; i < size; i += 64) {
+                if ((i / 64) % 3 == 0 || i < 64) {
+                    byte[] run = new byte[Math.min(64, size - i)];
+                    random.nextBytes(run);
+                    System.arraycopy(run, 0, input, i, run.length);
+                } else {
+                    System.arraycopy(input, i - 64, input, i, Math.min(64, size - i));
+                }
+            }
+            byte[] compressed = Compressor.compressSimple(input);
+            assertArrayEquals("Size " + size + " should round-trip", input, Decompressor.decompressSimple(compressed));
+        }
+    }
 }
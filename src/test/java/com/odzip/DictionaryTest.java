@@ -0,0 +1,124 @@
+package com.odzip;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for preset dictionaries and the dictionary trainer
+ */
+public class DictionaryTest {
+
+    private static final String[] TYPES = {"login", "logout", "purchase", "refund", "view"};
+
+    private static byte[] message(Random random, int size) {
+        StringBuilder sb = new StringBuilder("{\"events\":[");
+        while (sb.length() < size) {
+            sb.append("{\"type\":\"").append(TYPES[random.nextInt(TYPES.length)])
+              .append("\",\"userId\":").append(random.nextInt(100000))
+              .append(",\"status\":\"").append(random.nextBoolean() ? "ok" : "failed")
+              .append("\",\"region\":\"eu-west-").append(random.nextInt(3)).append("\"},");
+        }
+        return sb.append("]}").toString().getBytes();
+    }
+
+    private static List<byte[]> samples(Random random, int count) {
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            samples.add(message(random, 200 + random.nextInt(1500)));
+        }
+        return samples;
+    }
+
+    @Test
+    public void testTrainedDictionaryRoundTrip() {
+        Random random = new Random(21);
+        OdzDictionary dictionary = OdzDictionaryTrainer.train(samples(random, 100), 4096);
+        assertTrue(dictionary.size() > 0 && dictionary.size() <= 4096);
+        
+        OdzCompressorContext plain = new OdzCompressorContext();
+        OdzCompressorContext compressor = new OdzCompressorContext(CompressionLevel.DEFAULT, dictionary);
+        OdzDecompressorContext decompressor = new OdzDecompressorContext(dictionary);
+        long plainSize = 0;
+        long dictionarySize = 0;
+        for (int i = 0; i < 50; i++) {
+            byte[] input = message(random, 200 + random.nextInt(300));
+            byte[] compressed = compressor.compress(input);
+            assertArrayEquals("Message " + i, input, decompressor.decompress(compressed));
+            plainSize += plain.compress(input).length;
+            dictionarySize += compressed.length;
+        }
+        assertTrue("Dictionary output " + dictionarySize + " should be well below " + plainSize,
+                   dictionarySize * 3 < plainSize * 2);
+    }
+
+    @Test
+    public void testDictionaryHeader() {
+        OdzDictionary dictionary = new OdzDictionary("{\"type\":\"login\",\"status\":\"ok\"}".getBytes(), 0x1234abcd);
+        byte[] input = "{\"type\":\"login\",\"status\":\"failed\"}".getBytes();
+        byte[] compressed = new OdzCompressorContext(CompressionLevel.DEFAULT, dictionary).compress(input);
+        
+        assertEquals(OdzConstants.ODZ_VERSION_FRAMED, compressed[3]);
+        assertEquals(OdzConstants.ODZ_FLAG_DICTIONARY, compressed[4]);
+        assertEquals(0x1234abcd, OdzUtil.readU32LE(compressed, OdzConstants.ODZ_FRAMED_HEADER_SIZE));
+        // Most of the input is a match into the dictionary, starting at the first byte
+        assertTrue(compressed.length < input.length);
+        assertArrayEquals(input, new OdzDecompressorContext(dictionary).decompress(compressed));
+    }
+
+    @Test
+    public void testDictionaryContextEdgeCases() {
+        OdzDictionary dictionary = OdzDictionaryTrainer.train(samples(new Random(22), 50));
+        OdzCompressorContext compressor = new OdzCompressorContext(CompressionLevel.of(9), dictionary);
+        OdzDecompressorContext decompressor = new OdzDecompressorContext(dictionary);
+        
+        // Empty and tiny inputs, an input larger than the retained buffer, and plain data
+        byte[] large = message(new Random(23), OdzCompressorContext.MAX_RETAINED_BUFFER + 1000);
+        for (byte[] input : new byte[][]{new byte[0], {'{'}, "{\"ty".getBytes(), large}) {
+            assertArrayEquals(input, decompressor.decompress(compressor.compress(input)));
+        }
+        byte[] plain = Compressor.compressSimple(large);
+        assertArrayEquals(large, decompressor.decompress(plain));
+    }
+
+    @Test
+    public void testReusedDictionaryContextMatchesFreshOne() {
+        Random random = new Random(24);
+        OdzDictionary dictionary = OdzDictionaryTrainer.train(samples(random, 50), 2048);
+        OdzCompressorContext reused = new OdzCompressorContext(CompressionLevel.DEFAULT, dictionary);
+        for (int i = 0; i < 20; i++) {
+            byte[] input = message(random, random.nextInt(3000));
+            byte[] fresh = new OdzCompressorContext(CompressionLevel.DEFAULT, dictionary).compress(input);
+            assertArrayEquals("Message " + i, fresh, reused.compress(input));
+        }
+    }
+
+    @Test
+    public void testOptimalParsingWithDictionary() {
+        Random random = new Random(25);
+        OdzDictionary dictionary = OdzDictionaryTrainer.train(samples(random, 50), 4096);
+        OdzCompressorContext lazy = new OdzCompressorContext(CompressionLevel.BEST, dictionary);
+        OdzCompressorContext optimal = new OdzCompressorContext(CompressionLevel.OPTIMAL, dictionary);
+        OdzDecompressorContext decompressor = new OdzDecompressorContext(dictionary);
+        for (int i = 0; i < 20; i++) {
+            byte[] input = message(random, random.nextInt(2000));
+            byte[] compressed = optimal.compress(input);
+            assertArrayEquals("Message " + i, input, decompressor.decompress(compressed));
+            assertTrue(compressed.length <= lazy.compress(input).length);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDictionaryLargerThanWindow() {
+        new OdzDictionary(new byte[OdzConstants.ODZ_WINDOW + 1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTrainWithoutSamples() {
+        OdzDictionaryTrainer.train(Collections.<byte[]>emptyList());
+    }
+}
@@ -0,0 +1,394 @@
+package com.odzip;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+/**
+ * Random corruption of valid streams of every kind, fed to every decoder. Decoders must
+ * either decode or throw an OdzFormatException, and must not allocate more than the limit
+ * they are given.
+ */
+public class FuzzTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final int LIMIT = 1 << 20;
+    // Fixed-size decoder state and bookkeeping on top of the output
+    private static final long ALLOCATION_SLACK = 1 << 20;
+    private static final Executor DIRECT = Runnable::run;
+    private static final OdzDictionary DICTIONARY =
+        new OdzDictionary("{\"user\":\"\",\"event\":\"click\",\"page\":\"/home\"}".getBytes(), 0x5eed);
+
+    private static byte[] text(int size, long seed) {
+        Random random = new Random(seed);
+        String[] words = {"{\"user\":", "\"event\":", "click", "/home", "scroll", "42", "}\n", "page"};
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < size) {
+            sb.append(words[random.nextInt(words.length)]);
+            if (random.nextInt(20) == 0) {
+                sb.append((char)('a' + random.nextInt(26)));
+            }
+        }
+        return Arrays.copyOf(sb.toString().getBytes(), size);
+    }
+
+    private static byte[] stream(byte[] input, CompressionLevel level, boolean checksum) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OdzOutputStream odzOut = new OdzOutputStream(out, level, input.length, checksum)) {
+            odzOut.write(input);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] seekable(byte[] input) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OdzSeekableOutputStream odzOut = new OdzSeekableOutputStream(out, CompressionLevel.DEFAULT, 8192, true)) {
+            odzOut.write(input);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Valid inputs covering both versions, every block type and every header flag
+     */
+    private static List<byte[]> seeds() throws IOException {
+        byte[] text = text(90000, 1);
+        byte[] noise = new byte[20000];
+        new Random(2).nextBytes(noise);
+        byte[] mixed = Arrays.copyOf(text, 110000);
+        System.arraycopy(noise, 0, mixed, 90000, noise.length);
+        List<byte[]> seeds = new ArrayList<>();
+        seeds.add(Compressor.compressSimple(Arrays.copyOf(text, 20000)));
+        seeds.add(stream(text, CompressionLevel.DEFAULT, false));
+        seeds.add(stream(mixed, CompressionLevel.of(9).withHuffman(), true));
+        seeds.add(Compressor.compressParallel(text, CompressionLevel.of(3), 16384, false, DIRECT));
+        seeds.add(seekable(mixed));
+        seeds.add(new OdzCompressorContext(CompressionLevel.DEFAULT, DICTIONARY).compress(Arrays.copyOf(text, 3000)));
+        seeds.add(stream(mixed, CompressionLevel.of(6).withWindowLog(17), false));
+        seeds.add(Compressor.compressParallel(text, CompressionLevel.OPTIMAL.withWindowLog(16), 32768, false, DIRECT));
+        return seeds;
+    }
+
+    private static byte[] mutate(byte[] data, Random random) {
+        byte[] b = data.clone();
+        switch (random.nextInt(6)) {
+            case 0:
+                // Bit flips
+                for (int i = random.nextInt(4); i >= 0; i--) {
+                    int at = random.nextInt(b.length * 8);
+                    b[at >>> 3] ^= 1 << (at & 7);
+                }
+                return b;
+            case 1:
+                // Random bytes, mostly near the headers
+                for (int i = random.nextInt(4); i >= 0; i--) {
+                    b[random.nextInt(Math.min(b.length, random.nextBoolean() ? 32 : b.length))] = (byte)random.nextInt();
+                }
+                return b;
+            case 2:
+                return Arrays.copyOf(b, random.nextInt(b.length));
+            case 3: {
+                // An extreme value over a size field or anywhere else
+                int[] extremes = {-1, 0, 1, Integer.MAX_VALUE, Integer.MIN_VALUE, 0x7FFFFFF0, LIMIT + 1, 65536};
+                int at = random.nextInt(b.length - 3);
+                OdzUtil.writeU32LE(b, random.nextBoolean() ? at : Math.min(at % 32, b.length - 4),
+                                   extremes[random.nextInt(extremes.length)]);
+                return b;
+            }
+            case 4: {
+                // A range copied over another
+                int len = 1 + random.nextInt(Math.min(64, b.length));
+                System.arraycopy(data, random.nextInt(b.length - len + 1), b, random.nextInt(b.length - len + 1), len);
+                return b;
+            }
+            default: {
+                // Bytes removed from the middle
+                int from = random.nextInt(b.length);
+                int len = random.nextInt(Math.min(16, b.length - from) + 1);
+                byte[] shorter = Arrays.copyOf(b, b.length - len);
+                System.arraycopy(b, from + len, shorter, from, b.length - from - len);
+                return shorter;
+            }
+        }
+    }
+
+    private interface Decoder {
+        byte[] decode(byte[] in) throws IOException;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[3000];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] readSeekable(byte[] in) throws IOException {
+        Path path = folder.newFile().toPath();
+        Files.write(path, in);
+        try (OdzSeekableReader reader = new OdzSeekableReader(path)) {
+            if (reader.size() > LIMIT) {
+                throw new OdzSizeLimitException(reader.size(), LIMIT);
+            }
+            ByteBuffer dst = ByteBuffer.allocate((int)reader.size());
+            reader.read(0, dst);
+            return dst.array();
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * Decode in, which must either succeed or fail with an OdzFormatException
+     *
+     * @return the decoded bytes, or null if the decoder rejected in
+     */
+    private static byte[] check(String name, Decoder decoder, byte[] in, String where) throws IOException {
+        long before = allocatedBytes();
+        try {
+            return decoder.decode(in);
+        } catch (OdzFormatException e) {
+            return null;
+        } catch (RuntimeException | Error e) {
+            throw new AssertionError(name + " threw " + e + " for " + where, e);
+        } finally {
+            long allocated = allocatedBytes() - before;
+            assertTrue(name + " allocated " + allocated + " bytes for " + where, allocated <= LIMIT + ALLOCATION_SLACK);
+        }
+    }
+
+    private void fuzz(String name, Decoder decoder, int iterations) throws IOException {
+        List<byte[]> seeds = seeds();
+        Random random = new Random(name.hashCode());
+        for (int s = 0; s < seeds.size(); s++) {
+            byte[] seed = seeds.get(s);
+            byte[] expected = check(name, decoder, seed, "seed " + s);
+            for (int i = 0; i < iterations; i++) {
+                byte[] in = mutate(seed, random);
+                byte[] out = check(name, decoder, in, "seed " + s + " mutation " + i);
+                // Checksums catch any single bit flip in the data
+                if (out != null && s == 2 && in.length == seed.length && bitsChanged(seed, in) == 1) {
+                    assertArrayEquals(name + " seed " + s + " mutation " + i, expected, out);
+                }
+            }
+        }
+    }
+
+    private static int bitsChanged(byte[] a, byte[] b) {
+        int count = 0;
+        for (int i = 0; i < a.length; i++) {
+            count += Integer.bitCount((a[i] ^ b[i]) & 0xFF);
+        }
+        return count;
+    }
+
+    @Test
+    public void testDecompressSimple() throws IOException {
+        fuzz("decompressSimple", in -> Decompressor.decompressSimple(in, LIMIT), 600);
+    }
+
+    @Test
+    public void testDecompressParallel() throws IOException {
+        fuzz("decompressParallel", in -> Decompressor.decompressParallel(in, LIMIT, DIRECT), 300);
+    }
+
+    @Test
+    public void testContexts() throws IOException {
+        OdzDecompressorContext plain = new OdzDecompressorContext();
+        OdzDecompressorContext withDictionary = new OdzDecompressorContext(DICTIONARY);
+        fuzz("context", in -> {
+            plain.decompress(in, LIMIT);
+            return withDictionary.decompress(in, LIMIT);
+        }, 400);
+        // Both contexts still work after thousands of failures
+        byte[] data = text(50000, 3);
+        assertArrayEquals(data, plain.decompress(Compressor.compressSimple(data)));
+        assertArrayEquals(data, withDictionary.decompress(stream(data, CompressionLevel.DEFAULT, true)));
+    }
+
+    @Test
+    public void testInputStream() throws IOException {
+        fuzz("OdzInputStream", in -> readAll(new OdzInputStream(new ByteArrayInputStream(in), LIMIT)), 400);
+    }
+
+    @Test
+    public void testParallelInputStream() throws IOException {
+        fuzz("OdzParallelInputStream", in -> readAll(new OdzParallelInputStream(new ByteArrayInputStream(in), DIRECT, 4, LIMIT)), 300);
+    }
+
+    @Test
+    public void testSeekableReader() throws IOException {
+        fuzz("OdzSeekableReader", this::readSeekable, 80);
+    }
+
+    @Test
+    public void testSizesCheckedBeforeAllocating() throws IOException {
+        // A version 1 header claiming nearly 2 GiB from a few bytes
+        byte[] bomb = Arrays.copyOf(new byte[]{'O', 'D', 'Z', OdzConstants.ODZ_VERSION}, 40);
+        OdzUtil.writeU32LE(bomb, 4, 0x7FFFFFF0);
+        for (Decoder decoder : new Decoder[]{Decompressor::decompressSimple, new OdzDecompressorContext()::decompress,
+                                             in -> readAll(new OdzInputStream(new ByteArrayInputStream(in), LIMIT))}) {
+            long before = allocatedBytes();
+            try {
+                decoder.decode(bomb);
+                fail("Expected OdzFormatException");
+            } catch (OdzFormatException e) {
+                // Expected
+            }
+            assertTrue(allocatedBytes() - before < ALLOCATION_SLACK);
+        }
+
+        // A framed block header claiming a 1 GiB stored block, with a few bytes of it present
+        byte[] block = new byte[64];
+        int op = Compressor.writeFramedHeader(block, OdzConstants.ODZ_FLAG_INDEPENDENT_BLOCKS, -1);
+        block[op] = OdzConstants.ODZ_BLOCK_STORED;
+        OdzUtil.writeU32LE(block, op + 1, 1 << 30);
+        OdzUtil.writeU32LE(block, op + 5, 1 << 30);
+        long before = allocatedBytes();
+        try {
+            readAll(new OdzParallelInputStream(new ByteArrayInputStream(block), DIRECT, 4));
+            fail("Expected OdzTruncatedException");
+        } catch (OdzTruncatedException e) {
+            // Expected
+        }
+        assertTrue(allocatedBytes() - before < 4 * ALLOCATION_SLACK);
+    }
+
+    @Test
+    public void testSizeLimit() throws IOException {
+        byte[] data = text(300000, 4);
+        byte[][] inputs = {Compressor.compressSimple(data), stream(data, CompressionLevel.DEFAULT, false),
+                           Compressor.compressParallel(data, CompressionLevel.DEFAULT, 65536, false, DIRECT)};
+        for (byte[] in : inputs) {
+            try {
+                Decompressor.decompressSimple(in, 299999);
+                fail("Expected OdzSizeLimitException");
+            } catch (OdzSizeLimitException e) {
+                assertEquals(300000, e.size());
+                assertEquals(299999, e.limit());
+            }
+            try {
+                Decompressor.decompressParallel(in, 1000, DIRECT);
+                fail("Expected OdzSizeLimitException");
+            } catch (OdzSizeLimitException e) {
+                assertEquals(300000, e.size());
+            }
+            try {
+                new OdzDecompressorContext().decompress(in, 1000);
+                fail("Expected OdzSizeLimitException");
+            } catch (OdzSizeLimitException e) {
+                assertEquals(300000, e.size());
+            }
+            try {
+                readAll(new OdzInputStream(new ByteArrayInputStream(in), 299999));
+                fail("Expected OdzSizeLimitException");
+            } catch (OdzSizeLimitException e) {
+                // Expected
+            }
+            assertArrayEquals(data, Decompressor.decompressSimple(in, 300000));
+            assertArrayEquals(data, readAll(new OdzInputStream(new ByteArrayInputStream(in), 300000)));
+        }
+    }
+
+    @Test
+    public void testExceptionTypes() throws IOException {
+        byte[] data = text(100000, 5);
+        byte[] checked = stream(data, CompressionLevel.DEFAULT, true);
+        try {
+            Decompressor.decompressSimple(Arrays.copyOf(checked, checked.length - 1));
+            fail("Expected OdzTruncatedException");
+        } catch (OdzTruncatedException e) {
+            // Expected
+        }
+
+        // Stored blocks decode any payload, so only the checksum can catch a change there
+        byte[] noise = new byte[100000];
+        new Random(6).nextBytes(noise);
+        byte[] stored = stream(noise, CompressionLevel.DEFAULT, true);
+        stored[stored.length / 2] ^= 0x10;
+        try {
+            Decompressor.decompressSimple(stored);
+            fail("Expected OdzChecksumException");
+        } catch (OdzChecksumException e) {
+            // Expected
+        }
+        try {
+            readAll(new OdzInputStream(new ByteArrayInputStream(stored)));
+            fail("Expected OdzChecksumException");
+        } catch (OdzChecksumException e) {
+            // Expected
+        }
+
+        // Cut inside each block header and inside the END block's checksum
+        byte[] blocks = seekable(text(30000, 7));
+        List<Integer> cuts = new ArrayList<>();
+        int pos = Decompressor.framedHeaderSize(blocks[4]);
+        while (blocks[pos] != OdzConstants.ODZ_BLOCK_END) {
+            for (int i = 0; i < 9; i++) {
+                cuts.add(pos + i);
+            }
+            pos += 9 + OdzUtil.readU32LE(blocks, pos + 5) + OdzConstants.ODZ_CHECKSUM_SIZE;
+        }
+        for (int i = 1; i < 1 + OdzConstants.ODZ_CHECKSUM_SIZE; i++) {
+            cuts.add(pos + i);
+        }
+        for (int cut : cuts) {
+            byte[] in = Arrays.copyOf(blocks, cut);
+            List<Decoder> decoders = Arrays.asList(
+                d -> Decompressor.decompressSimple(d),
+                d -> readAll(new OdzInputStream(new ByteArrayInputStream(d))),
+                d -> readAll(new OdzParallelInputStream(new ByteArrayInputStream(d), DIRECT, 4)));
+            for (Decoder decoder : decoders) {
+                try {
+                    decoder.decode(in);
+                    fail("Expected OdzTruncatedException at " + cut);
+                } catch (OdzTruncatedException e) {
+                    // Expected
+                }
+            }
+        }
+
+        byte[] unknownFlag = checked.clone();
+        unknownFlag[4] |= 0x80;
+        try {
+            Decompressor.decompressSimple(unknownFlag);
+            fail("Expected OdzUnsupportedException");
+        } catch (OdzUnsupportedException e) {
+            // Expected
+        }
+        try {
+            Decompressor.decompressSimple(new OdzCompressorContext(CompressionLevel.DEFAULT, DICTIONARY).compress(data));
+            fail("Expected OdzUnsupportedException");
+        } catch (OdzUnsupportedException e) {
+            assertEquals("dictionary required", e.getMessage());
+        }
+    }
+}
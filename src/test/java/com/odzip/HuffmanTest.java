@@ -0,0 +1,146 @@
+package com.odzip;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Tests for Huffman-coded blocks
+ */
+public class HuffmanTest {
+
+    private static final CompressionLevel[] LEVELS = {
+        CompressionLevel.of(1).withHuffman(), CompressionLevel.of(6).withHuffman(),
+        CompressionLevel.of(9).withHuffman(), CompressionLevel.OPTIMAL.withHuffman()
+    };
+
+    private static byte[] text(int size) {
+        Random random = new Random(31);
+        String[] words = {"the", "quick", "brown", "fox", "jumps", "over", "lazy", "dog", "compression", "huffman"};
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < size) {
+            sb.append(words[random.nextInt(words.length)]).append(random.nextInt(8) == 0 ? ".\n" : " ");
+        }
+        return sb.substring(0, size).getBytes();
+    }
+
+    private static byte[] readAll(OdzInputStream in, int chunk) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[chunk];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testRoundTrip() {
+        byte[] random = new byte[100000];
+        new Random(32).nextBytes(random);
+        byte[] single = new byte[70000];
+        java.util.Arrays.fill(single, (byte)'a');
+        byte[][] inputs = {new byte[0], {42}, "abcabcabcabc".getBytes(), text(200000), random, single, new byte[300000]};
+        for (CompressionLevel level : LEVELS) {
+            for (byte[] input : inputs) {
+                byte[] compressed = Compressor.compressSimple(input, level);
+                assertEquals(OdzConstants.ODZ_VERSION_FRAMED, compressed[3]);
+                assertArrayEquals(level + " size " + input.length, input, Decompressor.decompressSimple(compressed));
+            }
+        }
+    }
+
+    @Test
+    public void testSmallerThanLzBlocks() {
+        byte[] input = text(500000);
+        for (int level = CompressionLevel.MIN_LEVEL; level <= CompressionLevel.MAX_LEVEL; level++) {
+            byte[] plain = Compressor.compressSimple(input, CompressionLevel.of(level));
+            byte[] coded = Compressor.compressSimple(input, CompressionLevel.of(level).withHuffman());
+            assertEquals(OdzConstants.ODZ_BLOCK_HUFFMAN, coded[OdzConstants.ODZ_FRAMED_HEADER_SIZE]);
+            assertTrue("Level " + level + ": " + coded.length + " vs " + plain.length, coded.length * 10 < plain.length * 9);
+        }
+    }
+
+    @Test
+    public void testFallsBackToLzBlock() {
+        // Too few tokens for the code lengths to pay for themselves, but enough repetition for LZ
+        byte[] input = "Hello, Huffman. Hello, Huffman.".getBytes();
+        byte[] compressed = Compressor.compressSimple(input, CompressionLevel.DEFAULT.withHuffman());
+        assertEquals(OdzConstants.ODZ_BLOCK_LZ, compressed[OdzConstants.ODZ_FRAMED_HEADER_SIZE]);
+        assertArrayEquals(input, Decompressor.decompressSimple(compressed));
+    }
+
+    @Test
+    public void testWithHuffman() {
+        CompressionLevel level = CompressionLevel.of(4);
+        assertFalse(level.huffman());
+        assertTrue(level.withHuffman().huffman());
+        assertSame(level.withHuffman(), level.withHuffman().withHuffman());
+        assertEquals(4, level.withHuffman().level());
+        assertEquals("CompressionLevel(4, huffman)", level.withHuffman().toString());
+    }
+
+    @Test
+    public void testStreams() throws IOException {
+        byte[] input = new byte[3 * OdzOutputStream.BLOCK_SIZE + 777];
+        byte[] words = text(input.length);
+        Random random = new Random(33);
+        for (int i = 0; i < input.length; i++) {
+            // Text with stretches of noise, so some blocks stay LZ
+            input[i] = (i / 20000) % 4 == 3 ? (byte)random.nextInt() : words[i];
+        }
+        for (CompressionLevel level : LEVELS) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (OdzOutputStream odzOut = new OdzOutputStream(out, level)) {
+                odzOut.write(input);
+            }
+            byte[] compressed = out.toByteArray();
+            assertArrayEquals(level.toString(), input, Decompressor.decompressSimple(compressed));
+            // Small reads stop and resume inside Huffman blocks
+            for (int chunk : new int[]{1, 7, 4096, 100000}) {
+                try (OdzInputStream in = new OdzInputStream(new ByteArrayInputStream(compressed))) {
+                    assertArrayEquals(level + " chunk " + chunk, input, readAll(in, chunk));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testParallel() throws IOException {
+        byte[] input = text(400000);
+        for (boolean chain : new boolean[]{false, true}) {
+            byte[] compressed = Compressor.compressParallel(input, CompressionLevel.DEFAULT.withHuffman(), 65536, chain,
+                                                            java.util.concurrent.ForkJoinPool.commonPool());
+            assertArrayEquals(input, Decompressor.decompressSimple(compressed));
+            assertArrayEquals(input, Decompressor.decompressParallel(compressed));
+            try (OdzParallelInputStream in = new OdzParallelInputStream(new ByteArrayInputStream(compressed))) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[5000];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+                assertArrayEquals(input, out.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    public void testContexts() {
+        byte[] input = text(50000);
+        OdzDictionary dictionary = new OdzDictionary(text(8000), 7);
+        OdzCompressorContext compressor = new OdzCompressorContext(CompressionLevel.DEFAULT.withHuffman(), dictionary);
+        OdzDecompressorContext decompressor = new OdzDecompressorContext(dictionary);
+        for (int i = 0; i < 3; i++) {
+            byte[] compressed = compressor.compress(input);
+            assertArrayEquals(input, decompressor.decompress(compressed));
+        }
+        byte[] compressed = OdzCompressorContext.forCurrentThread(CompressionLevel.of(3).withHuffman()).compress(input);
+        assertArrayEquals(compressed, Compressor.compressSimple(input, CompressionLevel.of(3).withHuffman()));
+        assertArrayEquals(input, OdzDecompressorContext.forCurrentThread().decompress(compressed));
+    }
+}
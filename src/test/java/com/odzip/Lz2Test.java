@@ -0,0 +1,317 @@
+package com.odzip;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests for LZ2 blocks: variable-length matches, the short match form and windows past 64 KiB
+ */
+public class Lz2Test {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final CompressionLevel[] LEVELS = {
+        CompressionLevel.of(1).withWindowLog(16), CompressionLevel.of(6).withWindowLog(20),
+        CompressionLevel.of(9).withWindowLog(22), CompressionLevel.OPTIMAL.withWindowLog(20)
+    };
+
+    private static byte[] text(int size, long seed) {
+        Random random = new Random(seed);
+        String[] words = {"GET", "/api/v1/users", "200", "404", "latency_ms=", "user=", "session", "\n"};
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < size) {
+            sb.append(words[random.nextInt(words.length)]).append(random.nextInt(1000)).append(' ');
+        }
+        return Arrays.copyOf(sb.toString().getBytes(), size);
+    }
+
+    /**
+     * Two copies of a text record with different text between them, far enough apart that
+     * only a large window reaches back
+     */
+    private static byte[] farRepeat(int record, int gap) {
+        byte[] data = new byte[2 * record + gap];
+        byte[] first = text(record, 7);
+        System.arraycopy(first, 0, data, 0, record);
+        System.arraycopy(text(gap, 8), 0, data, record, gap);
+        System.arraycopy(first, 0, data, record + gap, record);
+        return data;
+    }
+
+    private static byte[] readAll(InputStream in, int chunk) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[chunk];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] stream(byte[] input, CompressionLevel level) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OdzOutputStream odzOut = new OdzOutputStream(out, level)) {
+            odzOut.write(input);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testRoundTrip() {
+        byte[] random = new byte[100000];
+        new Random(32).nextBytes(random);
+        byte[] runs = new byte[300000];
+        for (int i = 0; i < runs.length; i += 5000) {
+            Arrays.fill(runs, i, Math.min(runs.length, i + 5000), (byte)(i / 5000));
+        }
+        byte[][] inputs = {new byte[0], {42}, "abcabcabcabc".getBytes(), text(200000, 1), random, runs, new byte[300000]};
+        for (CompressionLevel level : LEVELS) {
+            for (byte[] input : inputs) {
+                byte[] compressed = Compressor.compressSimple(input, level);
+                assertEquals(OdzConstants.ODZ_VERSION_FRAMED, compressed[3]);
+                assertTrue((compressed[4] & OdzConstants.ODZ_FLAG_WINDOW) != 0);
+                assertEquals(level.windowLog(), compressed[OdzConstants.ODZ_FRAMED_HEADER_SIZE]);
+                assertArrayEquals(level + " size " + input.length, input, Decompressor.decompressSimple(compressed));
+            }
+            byte[] compressed = Compressor.compressSimple(inputs[3], level);
+            assertEquals(OdzConstants.ODZ_BLOCK_LZ2, compressed[OdzConstants.ODZ_FRAMED_HEADER_SIZE + 1]);
+        }
+    }
+
+    @Test
+    public void testMatchTokens() {
+        int[][] matches = {
+            {3, 1}, {10, 4096}, {11, 1}, {3, 4097}, {65, 65535}, {66, 65535}, {193, 65536}, {194, 100},
+            {4096, 1}, {4096, 65536}, {1000, (1 << 24) - 1}
+        };
+        byte[] out = new byte[16];
+        for (int[] m : matches) {
+            int size = Compressor.writeMatch2(out, 3, m[0], m[1]) - 3;
+            assertEquals(Arrays.toString(m), Compressor.matchSize2(m[0], m[1]), size);
+            long match = Decompressor.readMatch2(out, 3, 3 + size);
+            assertEquals(m[0], (int)match & 0xFFFF);
+            assertEquals(m[1], (int)(match >>> 16));
+            assertEquals(size, (int)(match >>> 48));
+        }
+        // Short form for near, short matches
+        assertEquals(2, Compressor.matchSize2(10, 4096));
+        assertEquals(3, Compressor.matchSize2(11, 4096));
+    }
+
+    @Test
+    public void testShortForm() {
+        byte[] input = "0123456789 0123456789".getBytes();
+        byte[] compressed = Compressor.compressSimple(input, CompressionLevel.of(9).withWindowLog(16));
+        int payload = OdzConstants.ODZ_FRAMED_HEADER_SIZE + 1 + OdzConstants.ODZ_BLOCK_HEADER_SIZE;
+        // Two groups holding 11 literals and one 2-byte match of 10 bytes at distance 11
+        assertEquals(payload + 2 + 11 + 2 + 1, compressed.length);
+        assertEquals((10 - 3) << 4, compressed[compressed.length - 3]);
+        assertEquals(10, compressed[compressed.length - 2]);
+        assertArrayEquals(input, Decompressor.decompressSimple(compressed));
+    }
+
+    @Test
+    public void testFewerTokensOnRuns() {
+        byte[] zeros = new byte[1 << 20];
+        byte[] lz = Compressor.compressSimple(zeros, CompressionLevel.DEFAULT);
+        byte[] lz2 = Compressor.compressSimple(zeros, CompressionLevel.DEFAULT.withWindowLog(16));
+        assertTrue(lz2.length + " vs " + lz.length, lz2.length * 5 < lz.length);
+        assertArrayEquals(zeros, Decompressor.decompressSimple(lz2));
+    }
+
+    @Test
+    public void testLargeWindow() throws IOException {
+        byte[] input = farRepeat(200000, 1 << 20);
+        for (CompressionLevel base : new CompressionLevel[]{CompressionLevel.of(6), CompressionLevel.OPTIMAL}) {
+            byte[] lz = Compressor.compressSimple(input, base);
+            byte[] lz2 = Compressor.compressSimple(input, base.withWindowLog(21));
+            // The second copy is beyond a 64 KiB window but a few tokens with a 2 MiB one
+            assertTrue(base + ": " + lz2.length + " vs " + lz.length, lz2.length + 60000 < lz.length);
+            assertArrayEquals(input, Decompressor.decompressSimple(lz2));
+        }
+        byte[] streamed = stream(input, CompressionLevel.of(6).withWindowLog(21));
+        byte[] streamedLz = stream(input, CompressionLevel.of(6));
+        assertTrue(streamed.length + " vs " + streamedLz.length, streamed.length + 60000 < streamedLz.length);
+        assertArrayEquals(input, readAll(new OdzInputStream(new ByteArrayInputStream(streamed)), 1000));
+        assertArrayEquals(input, Decompressor.decompressSimple(streamed));
+    }
+
+    @Test
+    public void testWindowBoundsMatches() {
+        // A window of 2^17 reaches a repeat 110000 bytes back as well as a 2^21 one does, but not one 150000 back
+        CompressionLevel level = CompressionLevel.of(6).withWindowLog(17);
+        CompressionLevel wide = CompressionLevel.of(6).withWindowLog(21);
+        byte[] near = farRepeat(50000, 60000);
+        byte[] far = farRepeat(50000, 100000);
+        byte[] nearCompressed = Compressor.compressSimple(near, level);
+        assertTrue(nearCompressed.length <= Compressor.compressSimple(near, wide).length + 100);
+        assertTrue(Compressor.compressSimple(far, level).length > Compressor.compressSimple(far, wide).length + 10000);
+        assertArrayEquals(near, Decompressor.decompressSimple(nearCompressed));
+    }
+
+    @Test
+    public void testStreamingApis() throws IOException {
+        CompressionLevel level = CompressionLevel.of(5).withWindowLog(20);
+        byte[] text = text(400000, 2);
+        byte[] input = Arrays.copyOf(text, 1400000);
+        System.arraycopy(farRepeat(300000, 400000), 0, input, text.length, 1000000);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OdzOutputStream odzOut = new OdzOutputStream(out, level, input.length, true)) {
+            for (int off = 0; off < input.length; off += 7777) {
+                odzOut.write(input, off, Math.min(7777, input.length - off));
+            }
+        }
+        assertArrayEquals(input, readAll(new OdzInputStream(new ByteArrayInputStream(out.toByteArray())), 4096));
+
+        for (boolean chain : new boolean[]{false, true}) {
+            byte[] parallel = Compressor.compressParallel(input, level, 1 << 18, chain, Runnable::run);
+            assertArrayEquals(input, Decompressor.decompressParallel(parallel));
+            assertArrayEquals(input, readAll(new OdzParallelInputStream(new ByteArrayInputStream(parallel)), 5000));
+            ByteArrayOutputStream piped = new ByteArrayOutputStream();
+            Compressor.compressParallel(new ByteArrayInputStream(input), piped, level, 1 << 18, chain, Runnable::run);
+            assertArrayEquals(input, Decompressor.decompressSimple(piped.toByteArray()));
+        }
+
+        ByteArrayOutputStream seekable = new ByteArrayOutputStream();
+        try (OdzSeekableOutputStream odzOut = new OdzSeekableOutputStream(seekable, level, 1 << 17)) {
+            odzOut.write(input);
+        }
+        Path path = folder.newFile().toPath();
+        Files.write(path, seekable.toByteArray());
+        try (OdzSeekableReader reader = new OdzSeekableReader(path)) {
+            ByteBuffer dst = ByteBuffer.allocate(5000);
+            reader.read(1000000, dst);
+            assertArrayEquals(Arrays.copyOfRange(input, 1000000, 1005000), dst.array());
+        }
+    }
+
+    @Test
+    public void testContexts() {
+        CompressionLevel level = CompressionLevel.of(6).withWindowLog(18);
+        OdzCompressorContext compressor = new OdzCompressorContext(level);
+        OdzDecompressorContext decompressor = new OdzDecompressorContext();
+        for (int size : new int[]{0, 100, 5000, 300000}) {
+            byte[] input = text(size, size);
+            assertArrayEquals(input, decompressor.decompress(compressor.compress(input)));
+        }
+        OdzDictionary dictionary = new OdzDictionary(text(4000, 9), 77);
+        byte[] input = text(3000, 9);
+        byte[] compressed = new OdzCompressorContext(level, dictionary).compress(input);
+        assertArrayEquals(input, new OdzDecompressorContext(dictionary).decompress(compressed));
+    }
+
+    @Test
+    public void testRingSizedToInput() {
+        for (CompressionLevel level : new CompressionLevel[]{CompressionLevel.of(6).withWindowLog(24),
+                                                             CompressionLevel.OPTIMAL.withWindowLog(24)}) {
+            assertEquals(LzMatcher.PREV_SIZE, new LzMatcher(1000, level).ringSize());
+            assertEquals(4 << 20, new LzMatcher(3 << 20, level).ringSize());
+            assertEquals(1 << 24, new LzMatcher(1 << 30, level).ringSize());
+
+            // A thread's cached context keeps no more than MAX_RETAINED_RING positions
+            OdzCompressorContext context = OdzCompressorContext.forCurrentThread(level);
+            byte[] small = text(100000, 5);
+            assertArrayEquals(small, Decompressor.decompressSimple(context.compress(small)));
+            assertEquals(1 << 17, context.retainedRingSize());
+            byte[] block = text(OdzConstants.PARALLEL_BLOCK_SIZE, 6);
+            byte[] framed = Compressor.compressParallel(block, level, block.length, false, Runnable::run);
+            assertArrayEquals(block, Decompressor.decompressParallel(framed));
+            assertSame(context, OdzCompressorContext.forCurrentThread(level));
+            assertTrue(context.retainedRingSize() <= OdzCompressorContext.MAX_RETAINED_RING);
+        }
+    }
+
+    @Test
+    public void testRejectsCorruptTokens() throws IOException {
+        byte[] input = text(50000, 4);
+        byte[] valid = Compressor.compressSimple(input, CompressionLevel.of(6).withWindowLog(16));
+        int payload = OdzConstants.ODZ_FRAMED_HEADER_SIZE + 1 + OdzConstants.ODZ_BLOCK_HEADER_SIZE;
+
+        // A group whose first token is a long match with a 3-byte length varint
+        byte[] overlong = valid.clone();
+        overlong[payload] = 1;
+        System.arraycopy(new byte[]{(byte)0xBF, (byte)0x80, (byte)0x80, 0x01, 0x01, 0x00}, 0, overlong, payload + 1, 6);
+        assertRejected(overlong);
+
+        // A length varint past ODZ_MAX_MATCH_LZ2
+        byte[] tooLong = valid.clone();
+        tooLong[payload] = 1;
+        System.arraycopy(new byte[]{(byte)0xBF, (byte)0xFF, 0x7F, 0x01, 0x00}, 0, tooLong, payload + 1, 5);
+        assertRejected(tooLong);
+
+        // LZ2 blocks need the window flag, and the window must be in range
+        byte[] unflagged = valid.clone();
+        unflagged[4] &= ~OdzConstants.ODZ_FLAG_WINDOW;
+        assertRejected(Arrays.copyOfRange(unflagged, 0, 5), Arrays.copyOfRange(valid, 6, valid.length));
+        for (int windowLog : new int[]{0, 15, 25, -1}) {
+            byte[] badWindow = valid.clone();
+            badWindow[OdzConstants.ODZ_FRAMED_HEADER_SIZE] = (byte)windowLog;
+            assertRejected(badWindow);
+        }
+    }
+
+    private static void assertRejected(byte[]... parts) throws IOException {
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            joined.write(part);
+        }
+        byte[] in = joined.toByteArray();
+        try {
+            Decompressor.decompressSimple(in);
+            fail("Expected OdzFormatException");
+        } catch (OdzFormatException expected) {
+            // Rejected
+        }
+        try {
+            readAll(new OdzInputStream(new ByteArrayInputStream(in)), 4096);
+            fail("Expected OdzFormatException");
+        } catch (OdzFormatException expected) {
+            // Rejected
+        }
+    }
+
+    @Test
+    public void testLevelOptions() {
+        CompressionLevel level = CompressionLevel.of(7).withWindowLog(24);
+        assertEquals(24, level.windowLog());
+        assertEquals(0, CompressionLevel.of(7).windowLog());
+        assertSame(level, level.withWindowLog(24));
+        assertEquals(24, level.withHashLength(5).windowLog());
+        assertTrue(level.toString(), level.toString().contains("windowLog=24"));
+        for (int bad : new int[]{0, 15, 25}) {
+            try {
+                CompressionLevel.DEFAULT.withWindowLog(bad);
+                fail("Expected IllegalArgumentException for " + bad);
+            } catch (IllegalArgumentException expected) {
+                // Out of range
+            }
+        }
+        // Huffman blocks code LZ tokens only
+        try {
+            level.withHuffman();
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // Not combinable
+        }
+        try {
+            CompressionLevel.DEFAULT.withHuffman().withWindowLog(20);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // Not combinable
+        }
+    }
+}
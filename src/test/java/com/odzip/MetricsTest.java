@@ -0,0 +1,227 @@
+package com.odzip;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Tests for the metrics listeners, JMX counters and Flight Recorder events
+ */
+public class MetricsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] text(int size) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < size; i++) {
+            sb.append("metric ").append(i % 113).append(" observed at tick ").append(i % 7).append('\n');
+        }
+        return Arrays.copyOf(sb.toString().getBytes(), size);
+    }
+
+    /**
+     * Keeps the reports made on the test thread
+     */
+    private static final class Recorder implements OdzMetrics {
+        private final Thread thread = Thread.currentThread();
+        final List<OdzCompressionStats> compressions = new ArrayList<>();
+        final List<long[]> decompressions = new ArrayList<>();
+
+        @Override
+        public synchronized void compressed(OdzCompressionStats stats) {
+            if (Thread.currentThread() == thread) {
+                compressions.add(stats);
+            }
+        }
+
+        @Override
+        public synchronized void decompressed(long compressedBytes, long rawBytes, long nanos) {
+            if (Thread.currentThread() == thread) {
+                decompressions.add(new long[]{compressedBytes, rawBytes, nanos});
+            }
+        }
+    }
+
+    @Test
+    public void testCompressionReports() {
+        byte[] input = text(200000);
+        Recorder recorder = new Recorder();
+        OdzMetrics.register(recorder);
+        try {
+            for (CompressionLevel level : new CompressionLevel[]{CompressionLevel.of(1), CompressionLevel.DEFAULT,
+                                                                 CompressionLevel.OPTIMAL}) {
+                recorder.compressions.clear();
+                byte[] compressed = Compressor.compressSimple(input, level);
+                assertEquals(1, recorder.compressions.size());
+                OdzCompressionStats stats = recorder.compressions.get(0);
+                assertSame(level, stats.level());
+                assertEquals(input.length, stats.rawBytes());
+                assertEquals(compressed.length, stats.compressedBytes());
+                assertTrue(stats.nanos() > 0);
+                assertTrue(stats.matches() > 0);
+                assertTrue(stats.chainSteps() > 0);
+                assertEquals(input.length, stats.literals() + stats.matchBytes());
+                assertTrue(stats.averageMatchLength() >= OdzConstants.ODZ_MIN_MATCH);
+            }
+        } finally {
+            assertTrue(OdzMetrics.unregister(recorder));
+        }
+        recorder.compressions.clear();
+        Compressor.compressSimple(input);
+        assertTrue(recorder.compressions.isEmpty());
+        assertFalse(OdzMetrics.unregister(recorder));
+    }
+
+    @Test
+    public void testStreamReportsEachBlock() throws IOException {
+        byte[] input = text(5 * OdzOutputStream.BLOCK_SIZE - 1000);
+        Recorder recorder = new Recorder();
+        OdzMetrics.register(recorder);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (OdzOutputStream odzOut = new OdzOutputStream(out, CompressionLevel.DEFAULT)) {
+                odzOut.write(input);
+            }
+            assertEquals(5, recorder.compressions.size());
+            long raw = 0;
+            for (OdzCompressionStats stats : recorder.compressions) {
+                raw += stats.rawBytes();
+            }
+            assertEquals(input.length, raw);
+
+            byte[] compressed = out.toByteArray();
+            try (InputStream in = new OdzInputStream(new ByteArrayInputStream(compressed))) {
+                byte[] buffer = new byte[1000];
+                while (in.read(buffer) != -1) {
+                }
+            }
+            assertEquals(1, recorder.decompressions.size());
+            assertEquals(compressed.length, recorder.decompressions.get(0)[0]);
+            assertEquals(input.length, recorder.decompressions.get(0)[1]);
+        } finally {
+            OdzMetrics.unregister(recorder);
+        }
+    }
+
+    @Test
+    public void testDecompressionReports() {
+        byte[] input = text(100000);
+        byte[] compressed = Compressor.compressSimple(input);
+        Recorder recorder = new Recorder();
+        OdzMetrics.register(recorder);
+        try {
+            Decompressor.decompressSimple(compressed);
+            new OdzDecompressorContext().decompress(compressed, 0, compressed.length, new byte[input.length], 0);
+            assertEquals(2, recorder.decompressions.size());
+            for (long[] report : recorder.decompressions) {
+                assertEquals(compressed.length, report[0]);
+                assertEquals(input.length, report[1]);
+            }
+        } finally {
+            OdzMetrics.unregister(recorder);
+        }
+    }
+
+    @Test
+    public void testOutputUnchangedWhileMetered() {
+        byte[] input = text(150000);
+        byte[] plain = Compressor.compressSimple(input, CompressionLevel.BEST);
+        OdzCounters counters = new OdzCounters();
+        OdzMetrics.register(counters);
+        try {
+            assertArrayEquals(plain, Compressor.compressSimple(input, CompressionLevel.BEST));
+        } finally {
+            OdzMetrics.unregister(counters);
+        }
+    }
+
+    @Test
+    public void testCountersAcrossThreadsAndJmx() throws Exception {
+        byte[] input = text(50000);
+        byte[] compressed = Compressor.compressSimple(input);
+        OdzCounters counters = new OdzCounters();
+        OdzMetrics.register(counters);
+        ObjectName name = counters.registerMBean();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                futures.add(pool.submit(() -> Decompressor.decompressSimple(Compressor.compressSimple(input))));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            // Other tests may report concurrently, so totals are lower bounds
+            assertTrue(counters.getCompressions() >= 40);
+            assertTrue(counters.getCompressRawBytes() >= 40L * input.length);
+            assertTrue(counters.getDecompressions() >= 40);
+            assertTrue(counters.getDecompressCompressedBytes() >= 40L * compressed.length);
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(new ObjectName(OdzCounters.OBJECT_NAME), name);
+            assertTrue((Long)server.getAttribute(name, "Compressions") >= 40);
+            double ratio = (Double)server.getAttribute(name, "CompressionRatio");
+            assertTrue(ratio > 1);
+            server.invoke(name, "reset", null, null);
+            assertEquals(0, counters.getCompressions());
+        } finally {
+            pool.shutdown();
+            OdzMetrics.unregister(counters);
+            counters.unregisterMBean();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    @Test
+    public void testFlightRecorderEvents() throws Exception {
+        byte[] input = text(100000);
+        OdzJfrMetrics jfr = new OdzJfrMetrics();
+        Path dump = folder.newFile("odz.jfr").toPath();
+        OdzMetrics.register(jfr);
+        try (Recording recording = new Recording()) {
+            recording.enable("com.odzip.Compression");
+            recording.enable("com.odzip.Decompression");
+            recording.start();
+            Decompressor.decompressSimple(Compressor.compressSimple(input, CompressionLevel.of(5)));
+            recording.stop();
+            recording.dump(dump);
+        } finally {
+            OdzMetrics.unregister(jfr);
+        }
+        boolean compression = false;
+        boolean decompression = false;
+        for (RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+            String type = event.getEventType().getName();
+            if (type.equals("com.odzip.Compression") && event.getLong("rawBytes") == input.length
+                    && event.getInt("level") == 5) {
+                assertTrue(event.getLong("matches") > 0);
+                compression = true;
+            } else if (type.equals("com.odzip.Decompression") && event.getLong("rawBytes") == input.length) {
+                decompression = true;
+            }
+        }
+        assertTrue(compression);
+        assertTrue(decompression);
+    }
+}
@@ -0,0 +1,136 @@
+package com.odzip;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tests for block-parallel compression
+ */
+public class ParallelTest {
+
+    private static byte[] sampleData(int size) {
+        byte[] data = new byte[size];
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < size; i++) {
+            sb.append("{\"id\":").append(i).append(",\"name\":\"item").append(i % 37).append("\"}\n");
+        }
+        System.arraycopy(sb.toString().getBytes(), 0, data, 0, size);
+        return data;
+    }
+
+    @Test
+    public void testParallelRoundTrip() {
+        byte[] input = sampleData(300000);
+        byte[] compressed = Compressor.compressParallel(input);
+        assertEquals("Framed version", OdzConstants.ODZ_VERSION_FRAMED, compressed[3]);
+        assertArrayEquals("Parallel compression should round-trip", input, Decompressor.decompressSimple(compressed));
+    }
+
+    @Test
+    public void testParallelSmallBlocks() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int size : new int[]{0, 1, 4095, 4096, 4097, 100000}) {
+                byte[] input = sampleData(size);
+                byte[] independent = Compressor.compressParallel(input, 4096, false, executor);
+                byte[] chained = Compressor.compressParallel(input, 4096, true, executor);
+                assertEquals(OdzConstants.ODZ_FLAG_INDEPENDENT_BLOCKS, independent[4]);
+                assertEquals(0, chained[4]);
+                assertArrayEquals("Size " + size + " independent", input, Decompressor.decompressSimple(independent));
+                assertArrayEquals("Size " + size + " chained", input, Decompressor.decompressSimple(chained));
+                assertTrue("Chaining should not hurt the ratio", chained.length <= independent.length);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelStreamMatchesByteArray() throws IOException {
+        byte[] input = sampleData(250000);
+        for (boolean chain : new boolean[]{false, true}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Compressor.compressParallel(new ByteArrayInputStream(input), out, 8192, chain,
+                                        ForkJoinPool.commonPool());
+            assertArrayEquals("Streaming output should match the byte[] variant",
+                              Compressor.compressParallel(input, 8192, chain, ForkJoinPool.commonPool()),
+                              out.toByteArray());
+        }
+    }
+
+    @Test
+    public void testParallelDecompress() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int size : new int[]{0, 1, 8191, 8192, 200000}) {
+                byte[] input = sampleData(size);
+                byte[] independent = Compressor.compressParallel(input, 8192, false, executor);
+                byte[] chained = Compressor.compressParallel(input, 8192, true, executor);
+                assertArrayEquals("Size " + size + " independent", input, Decompressor.decompressParallel(independent, executor));
+                assertArrayEquals("Size " + size + " chained", input, Decompressor.decompressParallel(chained, executor));
+            }
+            // Other formats fall back to sequential decoding
+            byte[] input = sampleData(50000);
+            assertArrayEquals(input, Decompressor.decompressParallel(Compressor.compressSimple(input), executor));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelInputStream() throws IOException {
+        byte[] input = sampleData(500000);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (byte[] compressed : new byte[][]{
+                    Compressor.compressParallel(input, 16384, false, executor),
+                    Compressor.compressParallel(input, 16384, true, executor),
+                    Compressor.compressSimple(input)}) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try (OdzParallelInputStream odzIn = new OdzParallelInputStream(
+                        new ByteArrayInputStream(compressed), executor, 4)) {
+                    assertEquals(input[0], odzIn.read());
+                    out.write(input[0]);
+                    byte[] buffer = new byte[5000];
+                    int bytesRead;
+                    while ((bytesRead = odzIn.read(buffer)) != -1) {
+                        out.write(buffer, 0, bytesRead);
+                    }
+                }
+                assertArrayEquals("Parallel stream should round-trip", input, out.toByteArray());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelDecodeWithContentSize() throws IOException {
+        byte[] input = sampleData(200000);
+        byte[] plain = Compressor.compressParallel(input, 1 << 15, false, ForkJoinPool.commonPool());
+        
+        // Same blocks behind a header that also records the content size
+        byte[] sized = new byte[plain.length + 8];
+        int op = Compressor.writeFramedHeader(sized, OdzConstants.ODZ_FLAG_INDEPENDENT_BLOCKS
+                                                     | OdzConstants.ODZ_FLAG_CONTENT_SIZE, input.length);
+        System.arraycopy(plain, OdzConstants.ODZ_FRAMED_HEADER_SIZE, sized, op, plain.length - OdzConstants.ODZ_FRAMED_HEADER_SIZE);
+        
+        assertArrayEquals(input, Decompressor.decompressParallel(sized));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OdzParallelInputStream in = new OdzParallelInputStream(new ByteArrayInputStream(sized))) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+        assertArrayEquals(input, out.toByteArray());
+    }
+}
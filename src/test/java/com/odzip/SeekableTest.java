@@ -0,0 +1,153 @@
+package com.odzip;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests for the seekable container and OdzSeekableReader
+ */
+public class SeekableTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] logData(int size) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < size; i++) {
+            sb.append("2024-01-01T00:00:").append(i % 60).append(" INFO request ").append(i)
+              .append(" served in ").append(i % 97).append("ms\n");
+        }
+        return Arrays.copyOf(sb.toString().getBytes(), size);
+    }
+
+    private static byte[] seekable(byte[] input, CompressionLevel level, int blockSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OdzSeekableOutputStream odzOut = new OdzSeekableOutputStream(out, level, blockSize)) {
+            // Uneven writes, including single bytes
+            int i = 0;
+            while (i < input.length) {
+                if (i % 3 == 0) {
+                    odzOut.write(input[i++]);
+                } else {
+                    int n = Math.min(input.length - i, 5000);
+                    odzOut.write(input, i, n);
+                    i += n;
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private Path file(byte[] content) throws IOException {
+        Path path = folder.newFile().toPath();
+        Files.write(path, content);
+        return path;
+    }
+
+    private static byte[] read(OdzSeekableReader reader, long position, int length) throws IOException {
+        ByteBuffer dst = ByteBuffer.allocate(length);
+        int n = reader.read(position, dst);
+        return Arrays.copyOf(dst.array(), Math.max(n, 0));
+    }
+
+    @Test
+    public void testRandomReads() throws IOException {
+        byte[] input = logData(1000000);
+        try (OdzSeekableReader reader = new OdzSeekableReader(file(seekable(input, CompressionLevel.DEFAULT, 16384)))) {
+            assertEquals(input.length, reader.size());
+            assertEquals((input.length + 16383) / 16384, reader.blockCount());
+            Random random = new Random(51);
+            for (int i = 0; i < 200; i++) {
+                int position = random.nextInt(input.length);
+                int length = 1 + random.nextInt(50000);
+                int expected = Math.min(length, input.length - position);
+                assertArrayEquals("Read at " + position, Arrays.copyOfRange(input, position, position + expected),
+                                  read(reader, position, length));
+            }
+            assertArrayEquals(input, read(reader, 0, input.length));
+            assertEquals(-1, reader.read(input.length, ByteBuffer.allocate(10)));
+            assertEquals(0, reader.read(5, ByteBuffer.allocate(0)));
+        }
+    }
+
+    @Test
+    public void testDecodesOnlyTouchedBlocks() throws IOException {
+        byte[] input = logData(100 * 4096);
+        byte[] compressed = seekable(input, CompressionLevel.of(3), 4096);
+        try (SeekableByteChannel channel = Files.newByteChannel(file(compressed));
+             OdzSeekableReader reader = new OdzSeekableReader(channel, 2)) {
+            assertArrayEquals(Arrays.copyOfRange(input, 50 * 4096 + 100, 50 * 4096 + 200), read(reader, 50 * 4096 + 100, 100));
+            assertEquals(1, reader.blocksDecoded);
+            // Nearby reads are served from the cache
+            read(reader, 50 * 4096, 4096);
+            read(reader, 50 * 4096 + 4000, 150);
+            assertEquals(2, reader.blocksDecoded);
+            // Spanning three blocks evicts the oldest
+            assertArrayEquals(Arrays.copyOfRange(input, 70 * 4096 - 1, 71 * 4096 + 1), read(reader, 70 * 4096 - 1, 4096 + 2));
+            assertEquals(5, reader.blocksDecoded);
+            read(reader, 50 * 4096, 10);
+            assertEquals(6, reader.blocksDecoded);
+        }
+    }
+
+    @Test
+    public void testReadableByOtherDecoders() throws IOException {
+        byte[] input = logData(300000);
+        for (CompressionLevel level : new CompressionLevel[]{CompressionLevel.of(1), CompressionLevel.DEFAULT.withHuffman()}) {
+            byte[] compressed = seekable(input, level, 65536);
+            assertEquals(OdzConstants.ODZ_FLAG_INDEPENDENT_BLOCKS | OdzConstants.ODZ_FLAG_BLOCK_INDEX, compressed[4]);
+            assertArrayEquals(input, Decompressor.decompressSimple(compressed));
+            assertArrayEquals(input, Decompressor.decompressParallel(compressed));
+            try (InputStream in = new OdzInputStream(new ByteArrayInputStream(compressed))) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[7000];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+                assertArrayEquals(input, out.toByteArray());
+            }
+            try (OdzSeekableReader reader = new OdzSeekableReader(file(compressed))) {
+                assertArrayEquals(Arrays.copyOfRange(input, 123456, 234567), read(reader, 123456, 234567 - 123456));
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyAndFlushedStreams() throws IOException {
+        try (OdzSeekableReader reader = new OdzSeekableReader(file(seekable(new byte[0], CompressionLevel.DEFAULT, 4096)))) {
+            assertEquals(0, reader.size());
+            assertEquals(0, reader.blockCount());
+            assertEquals(-1, reader.read(0, ByteBuffer.allocate(1)));
+        }
+
+        // Flushing ends a block early, so blocks differ in size
+        byte[] input = logData(20000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OdzSeekableOutputStream odzOut = new OdzSeekableOutputStream(out, CompressionLevel.DEFAULT, 8192)) {
+            odzOut.write(input, 0, 100);
+            odzOut.flush();
+            odzOut.write(input, 100, input.length - 100);
+        }
+        try (OdzSeekableReader reader = new OdzSeekableReader(file(out.toByteArray()))) {
+            assertEquals(4, reader.blockCount());
+            for (int position = 0; position < input.length; position += 999) {
+                assertArrayEquals(Arrays.copyOfRange(input, position, Math.min(position + 3000, input.length)),
+                                  read(reader, position, 3000));
+            }
+        }
+    }
+}
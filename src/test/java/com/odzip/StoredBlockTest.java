@@ -0,0 +1,146 @@
+package com.odzip;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tests for stored blocks and skipping over incompressible input
+ */
+public class StoredBlockTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] random(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Alternating runs of random bytes and text, as in an archive of mixed files
+     */
+    private static byte[] mixed(int size) {
+        Random random = new Random(61);
+        byte[] data = new byte[size];
+        byte[] text = "stored blocks hold what LZ cannot shrink; ".getBytes();
+        for (int i = 0; i < size; ) {
+            int run = Math.min(size - i, 1000 + random.nextInt(100000));
+            boolean incompressible = random.nextBoolean();
+            for (int j = 0; j < run; j++) {
+                data[i + j] = incompressible ? (byte)random.nextInt() : text[(i + j) % text.length];
+            }
+            i += run;
+        }
+        return data;
+    }
+
+    private static byte[] readAll(InputStream in, int chunk) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[chunk];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] stream(byte[] input, CompressionLevel level) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OdzOutputStream odzOut = new OdzOutputStream(out, level)) {
+            odzOut.write(input);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testRandomDataBarelyExpands() {
+        byte[] input = random(1 << 20, 7);
+        CompressionLevel[] levels = {
+            CompressionLevel.of(1), CompressionLevel.of(4), CompressionLevel.DEFAULT, CompressionLevel.BEST,
+            CompressionLevel.OPTIMAL, CompressionLevel.DEFAULT.withHuffman()
+        };
+        for (CompressionLevel level : levels) {
+            byte[] compressed = Compressor.compressSimple(input, level);
+            assertTrue(level + ": " + compressed.length, compressed.length <= input.length + input.length / 1000);
+            assertEquals(level.toString(), OdzConstants.ODZ_BLOCK_STORED, compressed[OdzConstants.ODZ_FRAMED_HEADER_SIZE]);
+            assertArrayEquals(level.toString(), input, Decompressor.decompressSimple(compressed));
+
+            byte[] output = new byte[input.length];
+            assertEquals(input.length, new OdzDecompressorContext().decompress(compressed, 0, compressed.length, output, 0));
+            assertArrayEquals(level.toString(), input, output);
+        }
+    }
+
+    @Test
+    public void testCompressibleInputKeepsVersion1Format() {
+        byte[] input = new byte[100000];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (byte)"compressible ".charAt(i % 13);
+        }
+        byte[] compressed = Compressor.compressSimple(input);
+        assertEquals(OdzConstants.ODZ_VERSION, compressed[3]);
+        assertArrayEquals(input, Decompressor.decompressSimple(compressed));
+
+        // Short inputs stay in the version 1 format while its overhead is the smaller one
+        byte[] tiny = random(20, 8);
+        assertEquals(OdzConstants.ODZ_VERSION, Compressor.compressSimple(tiny)[3]);
+    }
+
+    @Test
+    public void testStreamsMixStoredAndCompressedBlocks() throws IOException {
+        byte[] input = mixed(2000000);
+        for (CompressionLevel level : new CompressionLevel[]{CompressionLevel.of(2), CompressionLevel.DEFAULT.withHuffman()}) {
+            byte[] compressed = stream(input, level);
+            assertArrayEquals(input, Decompressor.decompressSimple(compressed));
+            try (InputStream in = new OdzInputStream(new ByteArrayInputStream(compressed))) {
+                assertArrayEquals(input, readAll(in, 777));
+            }
+            try (InputStream in = new OdzParallelInputStream(new ByteArrayInputStream(compressed))) {
+                assertArrayEquals(input, readAll(in, 50000));
+            }
+        }
+
+        byte[] parallel = Compressor.compressParallel(input, 1 << 16, false, ForkJoinPool.commonPool());
+        assertArrayEquals(input, Decompressor.decompressParallel(parallel));
+        byte[] chained = Compressor.compressParallel(input, 1 << 16, true, ForkJoinPool.commonPool());
+        assertArrayEquals(input, Decompressor.decompressSimple(chained));
+
+        // Whole stored blocks keep random data within 0.1% of its size
+        byte[] randomStream = stream(random(2000000, 9), CompressionLevel.DEFAULT);
+        assertTrue(randomStream.length + " bytes", randomStream.length <= 2000000 + 2000);
+    }
+
+    @Test
+    public void testSeekableReadsOfStoredBlocks() throws IOException {
+        byte[] input = mixed(500000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OdzSeekableOutputStream odzOut = new OdzSeekableOutputStream(out, CompressionLevel.DEFAULT, 8192)) {
+            odzOut.write(input);
+        }
+        Path path = folder.newFile().toPath();
+        Files.write(path, out.toByteArray());
+        try (OdzSeekableReader reader = new OdzSeekableReader(path)) {
+            Random random = new Random(62);
+            for (int i = 0; i < 100; i++) {
+                int position = random.nextInt(input.length);
+                ByteBuffer dst = ByteBuffer.allocate(1 + random.nextInt(30000));
+                int n = reader.read(position, dst);
+                assertArrayEquals(Arrays.copyOfRange(input, position, position + n), Arrays.copyOf(dst.array(), n));
+            }
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package com.odzip;
 
+import org.junit.Assume;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import static org.junit.Assert.*;
 
 import java.io.ByteArrayInputStream;
@@ -8,12 +11,18 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 /**
  * Tests for streaming compression and decompression
  */
 public class StreamingTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testCompressDecompressStreams() throws IOException {
         byte[] input = "Hello, World! This is a test string.".getBytes();
@@ -144,4 +153,230 @@ public class StreamingTest {
             assertArrayEquals("Partial reads should work correctly", input, result.toByteArray());
         }
     }
+
+    @Test
+    public void testOdzOutputStreamWritesBeforeClose() throws IOException {
+        byte[] input = new byte[5 * OdzOutputStream.BLOCK_SIZE + 123];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (byte)((i * 31 + (i >> 9)) % 251);
+        }
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OdzOutputStream odzOut = new OdzOutputStream(out);
+        odzOut.write(input, 0, 2 * OdzOutputStream.BLOCK_SIZE);
+        assertTrue("Full blocks should reach the underlying stream", out.size() > 0);
+        
+        // Byte-at-a-time and odd-sized writes across block and window boundaries
+        for (int i = 2 * OdzOutputStream.BLOCK_SIZE; i < 3 * OdzOutputStream.BLOCK_SIZE; i++) {
+            odzOut.write(input[i]);
+        }
+        odzOut.write(input, 3 * OdzOutputStream.BLOCK_SIZE, input.length - 3 * OdzOutputStream.BLOCK_SIZE);
+        odzOut.close();
+        
+        assertArrayEquals("Multi-block stream should round-trip",
+                          input, Decompressor.decompressSimple(out.toByteArray()));
+        
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        try (OdzInputStream odzIn = new OdzInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            byte[] buffer = new byte[4096];
+            int bytesRead;
+            while ((bytesRead = odzIn.read(buffer)) != -1) {
+                decompressed.write(buffer, 0, bytesRead);
+            }
+        }
+        assertArrayEquals("Multi-block stream should round-trip via OdzInputStream",
+                          input, decompressed.toByteArray());
+    }
+
+    @Test
+    public void testOdzOutputStreamFlush() throws IOException {
+        byte[] first = "first part of the stream, first part of the stream".getBytes();
+        byte[] second = "second part refers back to the first part of the stream".getBytes();
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OdzOutputStream odzOut = new OdzOutputStream(out);
+        odzOut.write(first);
+        odzOut.flush();
+        
+        // Everything written so far must be decodable from what has been flushed
+        try (OdzInputStream odzIn = new OdzInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            byte[] buffer = new byte[first.length];
+            int total = 0;
+            while (total < buffer.length) {
+                total += odzIn.read(buffer, total, buffer.length - total);
+            }
+            assertArrayEquals("Flushed data should be readable", first, buffer);
+        }
+        
+        odzOut.write(second);
+        odzOut.close();
+        
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(first);
+        expected.write(second);
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        try (OdzInputStream odzIn = new OdzInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            byte[] buffer = new byte[7];
+            int bytesRead;
+            while ((bytesRead = odzIn.read(buffer)) != -1) {
+                decompressed.write(buffer, 0, bytesRead);
+            }
+        }
+        assertArrayEquals("Stream with flush should round-trip", expected.toByteArray(), decompressed.toByteArray());
+    }
+
+    @Test
+    public void testOdzOutputStreamEmpty() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new OdzOutputStream(out).close();
+        assertEquals(0, Decompressor.decompressSimple(out.toByteArray()).length);
+        try (OdzInputStream odzIn = new OdzInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            assertEquals(-1, odzIn.read());
+        }
+    }
+
+    @Test
+    public void testOdzInputStreamSlidesWindow() throws IOException {
+        byte[] input = new byte[1 << 20];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (byte)((i % 1000 < 500) ? i % 7 : (i * 13) >> 3);
+        }
+        byte[] compressed = Compressor.compressSimple(input);
+        
+        // Mix single-byte and bulk reads so the window slides mid-read
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (OdzInputStream odzIn = new OdzInputStream(new ByteArrayInputStream(compressed))) {
+            byte[] buffer = new byte[3 * OdzInputStream.CHUNK_SIZE / 2];
+            int bytesRead;
+            int b;
+            while ((b = odzIn.read()) != -1) {
+                result.write(b);
+                if ((bytesRead = odzIn.read(buffer, 0, 1 + result.size() % buffer.length)) == -1) {
+                    break;
+                }
+                result.write(buffer, 0, bytesRead);
+            }
+        }
+        assertArrayEquals("Window-sized reads should round-trip", input, result.toByteArray());
+    }
+
+    @Test
+    public void testOdzInputStreamMemoryIsBounded() throws IOException {
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(mx instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) mx;
+        Assume.assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+        
+        // Hand-built archive of zeros: one literal, then maximum-length matches at distance 1
+        int groups = 16384;
+        int rawLen = 1 + (8 * groups - 1) * OdzConstants.ODZ_MAX_MATCH;
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        archive.write(new byte[]{'O', 'D', 'Z', OdzConstants.ODZ_VERSION});
+        byte[] size = new byte[4];
+        OdzUtil.writeU32LE(size, 0, rawLen);
+        archive.write(size);
+        byte[] match = {(byte)(OdzConstants.ODZ_MAX_MATCH - OdzConstants.ODZ_MIN_MATCH), 1, 0};
+        for (int g = 0; g < groups; g++) {
+            archive.write(g == 0 ? 0xFE : 0xFF);
+            for (int k = 0; k < 8; k++) {
+                if (g == 0 && k == 0) {
+                    archive.write(0);
+                } else {
+                    archive.write(match);
+                }
+            }
+        }
+        byte[] compressed = archive.toByteArray();
+        
+        long tid = Thread.currentThread().getId();
+        long before = bean.getThreadAllocatedBytes(tid);
+        long total = 0;
+        try (OdzInputStream odzIn = new OdzInputStream(new ByteArrayInputStream(compressed))) {
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = odzIn.read(buffer)) != -1) {
+                for (int i = 0; i < bytesRead; i++) {
+                    assertEquals(0, buffer[i]);
+                }
+                total += bytesRead;
+            }
+        }
+        long allocated = bean.getThreadAllocatedBytes(tid) - before;
+        
+        assertEquals(rawLen, total);
+        assertTrue("Allocated " + allocated + " bytes for a " + rawLen + " byte stream", allocated < 1 << 20);
+    }
+
+    @Test
+    public void testOdzOutputStreamLevels() throws IOException {
+        byte[] input = new byte[200000];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (byte)("stream levels ".charAt(i % 14) + (i % 5000 == 0 ? 1 : 0));
+        }
+        for (CompressionLevel level : new CompressionLevel[]{CompressionLevel.of(1), CompressionLevel.of(6),
+                                                            CompressionLevel.of(9), CompressionLevel.OPTIMAL}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (OdzOutputStream odzOut = new OdzOutputStream(out, level)) {
+                odzOut.write(input);
+            }
+            assertArrayEquals("Level " + level + " stream should round-trip",
+                              input, Decompressor.decompressSimple(out.toByteArray()));
+        }
+    }
+
+    @Test
+    public void testFilesRoundTrip() throws IOException {
+        byte[] input = new byte[300000];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (byte)(i % 1000 < 500 ? "mapped file ".charAt(i % 12) : i * 31 >>> 3);
+        }
+        Path raw = folder.newFile("input").toPath();
+        Path compressed = folder.newFile("input.odz").toPath();
+        Path restored = folder.newFile("restored").toPath();
+        Files.write(raw, input);
+        
+        OdzFiles.compress(raw, compressed, CompressionLevel.of(3));
+        byte[] archive = Files.readAllBytes(compressed);
+        assertEquals(OdzConstants.ODZ_FLAG_CONTENT_SIZE, archive[4]);
+        assertEquals(input.length, OdzUtil.readU64LE(archive, OdzConstants.ODZ_FRAMED_HEADER_SIZE));
+        assertArrayEquals(input, Decompressor.decompressSimple(archive));
+        
+        OdzFiles.decompress(compressed, restored);
+        assertArrayEquals(input, Files.readAllBytes(restored));
+        
+        // Version 1 archives and empty files go through the same path
+        Files.write(compressed, Compressor.compressSimple(input));
+        OdzFiles.decompress(compressed, restored);
+        assertArrayEquals(input, Files.readAllBytes(restored));
+        Files.write(raw, new byte[0]);
+        OdzFiles.compress(raw, compressed);
+        OdzFiles.decompress(compressed, restored);
+        assertEquals(0, Files.size(restored));
+    }
+
+    @Test
+    public void testContentSizeRoundTrip() throws IOException {
+        byte[] input = "content size content size content size".getBytes();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OdzOutputStream odzOut = new OdzOutputStream(out, CompressionLevel.DEFAULT, input.length)) {
+            odzOut.write(input);
+        }
+        byte[] compressed = out.toByteArray();
+        assertArrayEquals(input, Decompressor.decompressSimple(compressed));
+        try (OdzInputStream odzIn = new OdzInputStream(new ByteArrayInputStream(compressed))) {
+            byte[] buffer = new byte[input.length + 1];
+            assertEquals(input.length, odzIn.read(buffer));
+            assertEquals(-1, odzIn.read());
+        }
+        try (OdzParallelInputStream odzIn = new OdzParallelInputStream(new ByteArrayInputStream(compressed))) {
+            assertEquals(input[0], odzIn.read());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testContentSizeMismatch() throws IOException {
+        try (OdzOutputStream odzOut = new OdzOutputStream(new ByteArrayOutputStream(), CompressionLevel.DEFAULT, 10)) {
+            odzOut.write(new byte[9]);
+        }
+    }
 }